@@ -0,0 +1,22 @@
+package org.pharosnet.vertx.cluster.redis.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * the jmh main with the gc profiler always on, so allocation regressions show up as bytes/op (gc.alloc.rate.norm).
+ * takes the usual jmh command line, e.g. {@code java -jar benchmarks.jar SerializationBenchmark -f 1}.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,432 @@
+package org.pharosnet.vertx.cluster.redis.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import org.HdrHistogram.Histogram;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Event bus throughput and latency of N clustered vert.x on {@link org.pharosnet.vertx.cluster.redis.RedisClusterManager},
+ * in this jvm or forked ones, against the in-process {@link RedisStandIn} or a redis.
+ * <p>
+ * Node 0 sends, the others consume (see {@link EventBusNode}), for each traffic:
+ * <ul>
+ * <li>p2p: send, round robin over the consumers, one-way latency</li>
+ * <li>request: request-reply with a window of outstanding requests, round trip latency</li>
+ * <li>publish: every consumer gets every message, one-way latency</li>
+ * </ul>
+ * It reports messages/sec, p50/p99/p999 latency and the redis commands per message sent, the number to watch
+ * when changing how the cluster manager resolves addresses.
+ * <pre>
+ * java -cp target/benchmarks.jar org.pharosnet.vertx.cluster.redis.benchmarks.EventBusBenchmark \
+ *      --nodes 3 --messages 100000 --traffic p2p,request,publish [--fork] [--redis host:port] [--latency micros]
+ * </pre>
+ */
+public class EventBusBenchmark {
+
+    private int nodes = 3;
+    private boolean fork;
+    private String redis;
+    private long latencyMicros;
+    private int messages = 100_000;
+    private int warmup = 10_000;
+    private int window = 128;
+    private int rate;
+    private int payload = 64;
+    private List<String> traffic = List.of("p2p", "request", "publish");
+
+    private RedisStandIn standIn;
+    private RedisOptions redisOptions;
+    private final List<EventBusNode> local = new ArrayList<>();
+    private final List<Process> forked = new ArrayList<>();
+    private EventBusNode sender;
+    private RedisAPI info;
+
+    public static void main(String[] args) throws Exception {
+        EventBusBenchmark benchmark = new EventBusBenchmark();
+        benchmark.parse(args);
+        try {
+            benchmark.start();
+            benchmark.run();
+        } finally {
+            benchmark.stop();
+        }
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--nodes":
+                    nodes = Integer.parseInt(args[++i]);
+                    break;
+                case "--fork":
+                    fork = true;
+                    break;
+                case "--redis":
+                    redis = args[++i];
+                    break;
+                case "--latency":
+                    latencyMicros = Long.parseLong(args[++i]);
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--window":
+                    window = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Integer.parseInt(args[++i]);
+                    break;
+                case "--payload":
+                    payload = Math.max(8, Integer.parseInt(args[++i]));
+                    break;
+                case "--traffic":
+                    traffic = List.of(args[++i].split(","));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg + ", see the class javadoc");
+            }
+        }
+        if (nodes < 2) {
+            throw new IllegalArgumentException("at least 2 nodes, a sender and a consumer");
+        }
+    }
+
+    private void start() throws Exception {
+        String host;
+        int port;
+        if (redis == null) {
+            standIn = new RedisStandIn().setLatency(latencyMicros, TimeUnit.MICROSECONDS).start();
+            host = standIn.host();
+            port = standIn.port();
+        } else {
+            int split = redis.lastIndexOf(':');
+            host = redis.substring(0, split);
+            port = Integer.parseInt(redis.substring(split + 1));
+        }
+        redisOptions = EventBusNode.redisOptions(host, port);
+        List<CompletableFuture<EventBusNode>> starting = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            if (fork && i > 0) {
+                forked.add(fork(i, host, port));
+            } else {
+                starting.add(EventBusNode.start(i, redisOptions));
+            }
+        }
+        for (CompletableFuture<EventBusNode> node : starting) {
+            local.add(node.get(1, TimeUnit.MINUTES));
+        }
+        sender = local.get(0);
+        for (int i = 1; i < nodes; i++) {
+            awaitReachable(i);
+        }
+        info = RedisAPI.api(this.<Redis>await(h -> Redis.createClient(sender.vertx(), redisOptions).connect(h)));
+        System.out.printf(Locale.ROOT, "%d nodes%s, redis %s%n", nodes, fork ? " (forked)" : "",
+                standIn == null ? redis : "stand-in, " + latencyMicros + "us latency");
+    }
+
+    private Process fork(int index, String host, int port) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(EventBusNode.class.getName());
+        command.add(String.valueOf(index));
+        command.add(host);
+        command.add(String.valueOf(port));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.equals("ready " + index)) {
+                // keep draining, a full pipe would block the child
+                Thread drain = new Thread(() -> out.lines().forEach(l -> {
+                }), "node-" + index + "-output");
+                drain.setDaemon(true);
+                drain.start();
+                return process;
+            }
+            System.out.println("node " + index + ": " + line);
+        }
+        throw new IllegalStateException("node " + index + " exited with " + process.waitFor());
+    }
+
+    /**
+     * the consumers are registered when their control address answers.
+     */
+    private void awaitReachable(int index) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (true) {
+            try {
+                control(index, "count");
+                return;
+            } catch (Exception e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.printf(Locale.ROOT, "%-8s %10s %12s %10s %10s %10s %10s %12s%n",
+                "traffic", "messages", "msgs/sec", "p50 us", "p99 us", "p999 us", "max us", "redis/msg");
+        for (String kind : traffic) {
+            if (warmup > 0) {
+                run(kind, warmup);
+            }
+            Result result = run(kind, messages);
+            System.out.printf(Locale.ROOT, "%-8s %10d %12.0f %10.1f %10.1f %10.1f %10.1f %12.2f%s%n",
+                    kind, result.delivered, result.throughput(),
+                    micros(result.latencies.getValueAtPercentile(50)),
+                    micros(result.latencies.getValueAtPercentile(99)),
+                    micros(result.latencies.getValueAtPercentile(99.9)),
+                    micros(result.latencies.getMaxValue()),
+                    (double) result.commands / messages,
+                    result.delivered < result.expected ? "  (" + (result.expected - result.delivered) + " lost)" : "");
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static class Result {
+
+        private Histogram latencies = EventBusNode.histogram();
+        private long expected;
+        private long delivered;
+        private long started;
+        private long finished;
+        private long commands;
+
+        private double throughput() {
+            return finished > started ? delivered * 1e9 / (finished - started) : 0;
+        }
+    }
+
+    private Result run(String kind, int count) throws Exception {
+        for (int i = 1; i < nodes; i++) {
+            control(i, "reset");
+        }
+        Result result = new Result();
+        long commands = commandsProcessed();
+        switch (kind) {
+            case "p2p":
+                result.expected = count;
+                oneWay(count, false, result);
+                break;
+            case "publish":
+                result.expected = (long) count * (nodes - 1);
+                oneWay(count, true, result);
+                break;
+            case "request":
+                result.expected = count;
+                requests(count, result);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown traffic " + kind);
+        }
+        // the info command itself
+        result.commands = commandsProcessed() - commands - 1;
+        return result;
+    }
+
+    private Buffer message() {
+        Buffer body = Buffer.buffer(payload);
+        body.appendLong(EventBusNode.epochNanos());
+        for (int i = 8; i < payload; i++) {
+            body.appendByte((byte) 'x');
+        }
+        return body;
+    }
+
+    /**
+     * sends count messages from the sender's context, window per turn of the event loop or rate per second,
+     * then waits for the consumers to have received them.
+     */
+    private void oneWay(int count, boolean publish, Result result) throws Exception {
+        Vertx vertx = sender.vertx();
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        result.started = EventBusNode.epochNanos();
+        vertx.runOnContext(v -> {
+            Consumer<Integer> send = n -> {
+                for (int i = 0; i < n; i++) {
+                    if (publish) {
+                        vertx.eventBus().publish(EventBusNode.PUBLISH, message());
+                    } else {
+                        vertx.eventBus().send(EventBusNode.P2P, message());
+                    }
+                }
+            };
+            if (rate <= 0) {
+                sendInTurns(vertx, count, send, sent);
+            } else {
+                sendAtRate(vertx, count, send, sent);
+            }
+        });
+        sent.get(10, TimeUnit.MINUTES);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received() < result.expected && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        collect(result);
+    }
+
+    private void sendInTurns(Vertx vertx, int remaining, Consumer<Integer> send, CompletableFuture<Void> sent) {
+        int n = Math.min(window, remaining);
+        send.accept(n);
+        if (remaining - n == 0) {
+            sent.complete(null);
+            return;
+        }
+        vertx.runOnContext(v -> sendInTurns(vertx, remaining - n, send, sent));
+    }
+
+    private void sendAtRate(Vertx vertx, int count, Consumer<Integer> send, CompletableFuture<Void> sent) {
+        long started = System.nanoTime();
+        int[] done = {0};
+        vertx.setPeriodic(1, timer -> {
+            long due = Math.min(count, (System.nanoTime() - started) * rate / 1_000_000_000L);
+            int n = (int) (due - done[0]);
+            send.accept(n);
+            done[0] += n;
+            if (done[0] >= count) {
+                vertx.cancelTimer(timer);
+                sent.complete(null);
+            }
+        });
+    }
+
+    private void requests(int count, Result result) throws Exception {
+        Vertx vertx = sender.vertx();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        int[] sent = {0};
+        int[] replied = {0};
+        result.started = EventBusNode.epochNanos();
+        vertx.runOnContext(v -> {
+            for (int i = 0; i < Math.min(window, count); i++) {
+                request(vertx, count, sent, replied, result, done);
+            }
+        });
+        done.get(10, TimeUnit.MINUTES);
+        result.finished = EventBusNode.epochNanos();
+        result.delivered = replied[0];
+    }
+
+    private void request(Vertx vertx, int count, int[] sent, int[] replied, Result result, CompletableFuture<Void> done) {
+        sent[0]++;
+        long started = System.nanoTime();
+        vertx.eventBus().<Buffer>send(EventBusNode.REQUEST, message(), (AsyncResult<Message<Buffer>> r) -> {
+            if (r.failed()) {
+                done.completeExceptionally(r.cause());
+                return;
+            }
+            result.latencies.recordValue(Math.min(System.nanoTime() - started, result.latencies.getHighestTrackableValue()));
+            replied[0]++;
+            if (replied[0] == count) {
+                done.complete(null);
+            } else if (sent[0] < count) {
+                request(vertx, count, sent, replied, result, done);
+            }
+        });
+    }
+
+    private long received() throws Exception {
+        long received = 0;
+        for (int i = 1; i < nodes; i++) {
+            received += control(i, "count").getLong("received");
+        }
+        return received;
+    }
+
+    private void collect(Result result) throws Exception {
+        result.finished = 0;
+        for (int i = 1; i < nodes; i++) {
+            JsonObject collected = control(i, "collect");
+            result.delivered += collected.getLong("received");
+            result.finished = Math.max(result.finished, collected.getLong("last"));
+            Histogram latencies = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(collected.getBinary("histogram")), 0);
+            result.latencies.add(latencies);
+        }
+    }
+
+    private JsonObject control(int index, String op) throws Exception {
+        DeliveryOptions options = new DeliveryOptions().setSendTimeout(5000);
+        Message<JsonObject> reply = this.<Message<JsonObject>>await(h -> sender.vertx().eventBus()
+                .send(EventBusNode.CONTROL + index, new JsonObject().put("op", op), options, h));
+        return reply.body();
+    }
+
+    private long commandsProcessed() throws Exception {
+        String stats = this.<io.vertx.redis.client.Response>await(h -> info.info(List.of("stats"), h)).toString();
+        for (String line : stats.split("\r\n")) {
+            if (line.startsWith("total_commands_processed:")) {
+                return Long.parseLong(line.substring("total_commands_processed:".length()).trim());
+            }
+        }
+        return 0;
+    }
+
+    private void stop() throws Exception {
+        for (Process process : forked) {
+            process.getOutputStream().close();
+        }
+        for (Process process : forked) {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+        for (EventBusNode node : local) {
+            node.close().get(30, TimeUnit.SECONDS);
+        }
+        if (standIn != null) {
+            standIn.stop();
+        }
+    }
+
+    private <T> T await(Consumer<io.vertx.core.Handler<AsyncResult<T>>> call) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(r -> {
+            if (r.succeeded()) {
+                future.complete(r.result());
+            } else {
+                future.completeExceptionally(r.cause());
+            }
+        });
+        try {
+            return future.get(1, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("no reply within a minute", e);
+        }
+    }
+
+}
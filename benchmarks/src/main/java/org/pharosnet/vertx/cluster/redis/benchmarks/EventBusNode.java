@@ -0,0 +1,184 @@
+package org.pharosnet.vertx.cluster.redis.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import org.HdrHistogram.Histogram;
+import org.pharosnet.vertx.cluster.redis.RedisClusterManager;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One clustered vert.x of the {@link EventBusBenchmark}. Every node but the sender consumes the benchmark addresses
+ * and records the one-way latency of what it receives, the sender collects it over bench.control.&lt;index&gt;.
+ * <p>
+ * The main runs a node in a forked jvm: {@code EventBusNode <index> <redis host> <redis port>}, it prints
+ * "ready &lt;index&gt;" once its consumers are registered and leaves the cluster when its stdin is closed.
+ */
+public class EventBusNode {
+
+    static final String P2P = "bench.p2p";
+    static final String REQUEST = "bench.request";
+    static final String PUBLISH = "bench.publish";
+    static final String CONTROL = "bench.control.";
+
+    /**
+     * latencies up to a minute, 3 significant digits.
+     */
+    static Histogram histogram() {
+        return new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+    }
+
+    /**
+     * wall clock nanoseconds, comparable between the jvms of one host.
+     */
+    static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    static RedisOptions redisOptions(String host, int port) {
+        return new RedisOptions()
+                .setType(RedisClientType.STANDALONE)
+                .setEndpoint(SocketAddress.inetSocketAddress(port, host));
+    }
+
+    static CompletableFuture<EventBusNode> start(int index, RedisOptions redisOptions) {
+        CompletableFuture<EventBusNode> started = new CompletableFuture<>();
+        VertxOptions options = new VertxOptions().setClusterManager(new RedisClusterManager(redisOptions));
+        Vertx.clusteredVertx(options, r -> {
+            if (r.failed()) {
+                started.completeExceptionally(r.cause());
+                return;
+            }
+            EventBusNode node = new EventBusNode(index, r.result());
+            if (index == 0) {
+                started.complete(node);
+                return;
+            }
+            node.consume(cr -> {
+                if (cr.failed()) {
+                    started.completeExceptionally(cr.cause());
+                    return;
+                }
+                started.complete(node);
+            });
+        });
+        return started;
+    }
+
+    private EventBusNode(int index, Vertx vertx) {
+        this.index = index;
+        this.vertx = vertx;
+    }
+
+    private final int index;
+    private final Vertx vertx;
+    // only touched on the consumers' context
+    private Histogram latencies = histogram();
+    private long received;
+    private long firstReceived;
+    private long lastReceived;
+
+    public int index() {
+        return index;
+    }
+
+    public Vertx vertx() {
+        return vertx;
+    }
+
+    private void consume(Handler<AsyncResult<Void>> handler) {
+        // one context for every consumer, so the statistics need no locking
+        vertx.runOnContext(v -> {
+            List<Future> registered = new ArrayList<>();
+            registered.add(register(vertx.eventBus().consumer(P2P, this::received)));
+            registered.add(register(vertx.eventBus().consumer(PUBLISH, this::received)));
+            registered.add(register(vertx.eventBus().<Buffer>consumer(REQUEST, m -> m.reply(Buffer.buffer()))));
+            registered.add(register(vertx.eventBus().consumer(CONTROL + index, this::control)));
+            CompositeFuture.all(registered).setHandler(r -> handler.handle(r.mapEmpty()));
+        });
+    }
+
+    private static Future<Void> register(MessageConsumer<?> consumer) {
+        Future<Void> future = Future.future();
+        consumer.completionHandler(future);
+        return future;
+    }
+
+    private void received(Message<Buffer> message) {
+        long now = epochNanos();
+        latencies.recordValue(Math.max(0L, Math.min(now - message.body().getLong(0), latencies.getHighestTrackableValue())));
+        if (received++ == 0) {
+            firstReceived = now;
+        }
+        lastReceived = now;
+    }
+
+    private void control(Message<JsonObject> message) {
+        switch (message.body().getString("op")) {
+            case "reset":
+                latencies = histogram();
+                received = 0;
+                firstReceived = 0;
+                lastReceived = 0;
+                message.reply(new JsonObject());
+                return;
+            case "count":
+                message.reply(new JsonObject().put("received", received));
+                return;
+            case "collect": {
+                ByteBuffer encoded = ByteBuffer.allocate(latencies.getNeededByteBufferCapacity());
+                int length = latencies.encodeIntoCompressedByteBuffer(encoded);
+                byte[] bytes = new byte[length];
+                encoded.flip();
+                encoded.get(bytes);
+                message.reply(new JsonObject()
+                        .put("received", received)
+                        .put("first", firstReceived)
+                        .put("last", lastReceived)
+                        .put("histogram", bytes));
+                return;
+            }
+            default:
+                message.fail(400, "unknown op " + message.body().getString("op"));
+        }
+    }
+
+    CompletableFuture<Void> close() {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(r -> closed.complete(null));
+        return closed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int index = Integer.parseInt(args[0]);
+        EventBusNode node = start(index, redisOptions(args[1], Integer.parseInt(args[2]))).get(1, TimeUnit.MINUTES);
+        System.out.println("ready " + index);
+        System.out.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        while (in.readLine() != null) {
+            // the parent closes stdin when the run is over
+        }
+        node.close().get(30, TimeUnit.SECONDS);
+        System.exit(0);
+    }
+
+}
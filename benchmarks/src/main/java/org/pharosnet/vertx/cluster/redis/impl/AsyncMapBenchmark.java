@@ -0,0 +1,129 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.spi.cluster.ChoosableIterable;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharosnet.vertx.cluster.redis.Lane;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * end-to-end {@link RedisAsyncMap} and {@link RedisAsyncMultiMap} operations, each call waits for its reply.
+ * runs against the redis at host:port, or host "standin" for the in-process {@link RedisStandIn}
+ * (with latency microseconds added to every reply).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncMapBenchmark {
+
+    @Param("localhost")
+    public String host;
+
+    @Param("6379")
+    public int port;
+
+    @Param("0")
+    public long latency;
+
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private RedisLanes lanes;
+    private RedisKeyspace keyspace;
+    private RedisAsyncMap<String, String> map;
+    private RedisAsyncMultiMap<String, String> multiMap;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if ("standin".equals(host)) {
+            standIn = new RedisStandIn().setLatency(latency, TimeUnit.MICROSECONDS).start();
+            host = standIn.host();
+            port = standIn.port();
+        }
+        vertx = Vertx.vertx();
+        RedisOptions options = new RedisOptions()
+                .setType(RedisClientType.STANDALONE)
+                .setEndpoint(SocketAddress.inetSocketAddress(port, host));
+        Map<Lane, Redis> connections = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            connections.put(lane, new RedisConnectionPool(vertx, options, 4, 1024));
+        }
+        lanes = this.<RedisLanes>await(new RedisLanes(connections)::connect);
+        keyspace = new RedisKeyspace(vertx, options, lanes);
+        map = new RedisAsyncMap<>(keyspace, "benchmark", false);
+        multiMap = new RedisAsyncMultiMap<>(keyspace, "benchmark", false);
+        this.<Void>await(h -> map.put("key", "value", h));
+        this.<Void>await(h -> multiMap.removeAllForValue("node", h));
+        this.<Void>await(h -> multiMap.add("address", "node", h));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        keyspace.close();
+        lanes.close();
+        this.<Void>await(vertx::close);
+        if (standIn != null) {
+            standIn.stop();
+        }
+    }
+
+    @Benchmark
+    public String mapGet() throws Exception {
+        return await(h -> map.get("key", h));
+    }
+
+    @Benchmark
+    public Void mapPut() throws Exception {
+        return this.<Void>await(h -> map.put("key", "value", h));
+    }
+
+    @Benchmark
+    public Object multiMapGet() throws Exception {
+        return this.<ChoosableIterable<String>>await(h -> multiMap.get("address", h));
+    }
+
+    @Benchmark
+    public Object multiMapAddRemove() throws Exception {
+        this.<Void>await(h -> multiMap.add("churn", "node", h));
+        return this.<Boolean>await(h -> multiMap.remove("churn", "node", h));
+    }
+
+    private <T> T await(Consumer<Handler<AsyncResult<T>>> call) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(r -> {
+            if (r.succeeded()) {
+                future.complete(r.result());
+            } else {
+                future.completeExceptionally(r.cause());
+            }
+        });
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+}
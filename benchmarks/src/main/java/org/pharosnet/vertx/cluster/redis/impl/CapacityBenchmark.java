@@ -0,0 +1,390 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.net.impl.ServerID;
+import io.vertx.core.shareddata.impl.ClusterSerializable;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Response;
+import org.pharosnet.vertx.cluster.redis.Lane;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Redis memory taken by subscriptions ({@link RedisAsyncMultiMap#add}) and map entries ({@link RedisAsyncMap#put})
+ * at 10k, 100k and 1M entries, for every key layout (plain or hash-tagged names) and value codec, as json.
+ * <p>
+ * Per run it reports the used_memory growth of INFO memory and the MEMORY USAGE of a sample of the keys, both per entry,
+ * next to the {@link RedisHMap#asByte(Object)} size of keys and values and their size on the wire (the one char per
+ * byte string is sent as UTF-8, so bytes above 0x7f take two). The stand-in only estimates memory, the layouts and
+ * codecs compare but size a real redis with {@code --redis}.
+ * <p>
+ * Codecs: subscriptions are stored as vert.x hands them over, a java serialized {@link ClusterNodeInfo} ("serializable"),
+ * compared with the same node as a {@link ClusterSerializable} ("cluster") and with the {@link NodeAliases} alias
+ * ("alias", all from one node). Map values are a {@link JsonObject}
+ * ("cluster") or a Serializable carrying the same string ("serializable").
+ * <pre>
+ * java -cp target/benchmarks.jar org.pharosnet.vertx.cluster.redis.impl.CapacityBenchmark \
+ *      [--sizes 10000,100000,1000000] [--nodes 16] [--value 32] [--redis host:port --flush] [--output capacity.json]
+ * </pre>
+ * The redis is flushed (FLUSHALL) before every run, so a real one is only used when {@code --flush} says it may be
+ * emptied.
+ */
+public class CapacityBenchmark {
+
+    private int[] sizes = {10_000, 100_000, 1_000_000};
+    private int nodes = 16;
+    private int valueSize = 32;
+    private int window = 512;
+    private int sample = 1000;
+    private String redis;
+    private boolean flush;
+    private String output;
+
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private RedisLanes lanes;
+    private RedisKeyspace keyspace;
+    private RedisAPI api;
+    private final RedisHMap<Object, Object> codec = new RedisHMap<>();
+
+    public static void main(String[] args) throws Exception {
+        CapacityBenchmark benchmark = new CapacityBenchmark();
+        benchmark.parse(args);
+        JsonObject report;
+        try {
+            benchmark.start();
+            report = benchmark.run();
+        } finally {
+            benchmark.stop();
+        }
+        byte[] json = report.encodePrettily().getBytes(StandardCharsets.UTF_8);
+        if (benchmark.output == null) {
+            System.out.write(json);
+            System.out.println();
+            System.out.flush();
+        } else {
+            try (OutputStream out = new FileOutputStream(benchmark.output)) {
+                out.write(json);
+            }
+        }
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--sizes":
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--nodes":
+                    nodes = Integer.parseInt(args[++i]);
+                    break;
+                case "--value":
+                    valueSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--window":
+                    window = Integer.parseInt(args[++i]);
+                    break;
+                case "--sample":
+                    sample = Integer.parseInt(args[++i]);
+                    break;
+                case "--redis":
+                    redis = args[++i];
+                    break;
+                case "--flush":
+                    flush = true;
+                    break;
+                case "--output":
+                    output = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg + ", see the class javadoc");
+            }
+        }
+        if (redis != null && !flush) {
+            throw new IllegalArgumentException("every run flushes the redis (FLUSHALL), add --flush to empty " + redis);
+        }
+    }
+
+    private void start() throws Exception {
+        String host;
+        int port;
+        if (redis == null) {
+            standIn = new RedisStandIn().start();
+            host = standIn.host();
+            port = standIn.port();
+        } else {
+            int split = redis.lastIndexOf(':');
+            host = redis.substring(0, split);
+            port = Integer.parseInt(redis.substring(split + 1));
+        }
+        vertx = Vertx.vertx();
+        RedisOptions options = new RedisOptions()
+                .setType(RedisClientType.STANDALONE)
+                .setEndpoint(SocketAddress.inetSocketAddress(port, host));
+        Map<Lane, Redis> connections = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            connections.put(lane, new RedisConnectionPool(vertx, options, 4, 1024));
+        }
+        lanes = this.<RedisLanes>await(new RedisLanes(connections)::connect);
+        keyspace = new RedisKeyspace(vertx, options, lanes);
+        api = keyspace.api(Lane.CONTROL, "");
+    }
+
+    private void stop() throws Exception {
+        if (keyspace != null) {
+            keyspace.close();
+            lanes.close();
+        }
+        if (vertx != null) {
+            this.<Void>await(vertx::close);
+        }
+        if (standIn != null) {
+            standIn.stop();
+        }
+    }
+
+    private JsonObject run() throws Exception {
+        JsonArray results = new JsonArray();
+        String value = value();
+        List<ClusterNodeInfo> nodeInfos = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            nodeInfos.add(new ClusterNodeInfo(UUID.randomUUID().toString(), new ServerID(40000 + i, "10.0.0." + (i + 1))));
+        }
+        for (int size : sizes) {
+            for (boolean hashTag : new boolean[]{false, true}) {
+                results.add(subscriptions(size, hashTag, "serializable", i -> nodeInfos.get(i % nodes)));
+                results.add(subscriptions(size, hashTag, "cluster", i -> new NodeInfo(nodeInfos.get(i % nodes))));
+                results.add(aliasedSubscriptions(size, hashTag, nodeInfos.get(0)));
+                results.add(map(size, hashTag, "cluster", i -> new JsonObject().put("value", value)));
+                results.add(map(size, hashTag, "serializable", i -> new Payload(value)));
+            }
+        }
+        return new JsonObject()
+                .put("redis", standIn == null ? redis : "stand-in (estimated)")
+                .put("nodes", nodes)
+                .put("valueSize", valueSize)
+                .put("results", results);
+    }
+
+    private String value() {
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    private JsonObject subscriptions(int size, boolean hashTag, String codecName, IntFunction<Object> values) throws Exception {
+        String name = "__vertx.subs";
+        RedisAsyncMultiMap<Object, Object> multiMap = new RedisAsyncMultiMap<>(keyspace, name, hashTag);
+        return fill("subscriptions", size, hashTag, codecName, keyPrefix(RedisAsyncMultiMap.KEY_PREFIX, name, hashTag),
+                i -> "service.address." + i, values,
+                (key, value, h) -> multiMap.add(key, value, h));
+    }
+
+    /**
+     * every subscription of one node, stored as its {@link NodeAliases} alias.
+     */
+    private JsonObject aliasedSubscriptions(int size, boolean hashTag, ClusterNodeInfo node) throws Exception {
+        NodeAliases aliases = this.<NodeAliases>await(h -> NodeAliases.allocate(keyspace, node.nodeId, h));
+        keyspace.setNodeAliases(aliases);
+        try {
+            return subscriptions(size, hashTag, "alias", i -> node);
+        } finally {
+            keyspace.setNodeAliases(NodeAliases.resolver(keyspace));
+        }
+    }
+
+    private JsonObject map(int size, boolean hashTag, String codecName, IntFunction<Object> values) throws Exception {
+        String name = "capacity";
+        RedisAsyncMap<Object, Object> map = new RedisAsyncMap<>(keyspace, name, hashTag);
+        return fill("map", size, hashTag, codecName, keyPrefix(RedisAsyncMap.KEY_PREFIX, name, hashTag),
+                i -> "key." + i, values,
+                (key, value, h) -> map.put(key, value, h));
+    }
+
+    /**
+     * the prefix the map puts before the encoded key, as its constructor builds it.
+     */
+    private static String keyPrefix(String prefix, String name, boolean hashTag) {
+        return String.format(prefix + "%s.key_", hashTag ? HashSlot.tag(name) : name);
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void write(Object key, Object value, Handler<AsyncResult<Void>> handler);
+    }
+
+    private JsonObject fill(String structure, int size, boolean hashTag, String codecName, String keyPrefix,
+                            IntFunction<Object> keys, IntFunction<Object> values, Write write) throws Exception {
+        System.err.printf("%s, %s, %s codec, %d entries%n", structure, hashTag ? "hash-tagged" : "plain", codecName, size);
+        this.<Response>await(h -> api.flushall(List.of(), h));
+        long before = usedMemory();
+        long started = System.nanoTime();
+        CompletableFuture<Void> filled = new CompletableFuture<>();
+        vertx.runOnContext(v -> {
+            int[] next = {0};
+            int[] done = {0};
+            for (int i = 0; i < Math.min(window, size); i++) {
+                fill(size, keys, values, write, next, done, filled);
+            }
+        });
+        filled.get(30, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - started;
+        long used = usedMemory() - before;
+
+        // codec sizes, from one entry, they are all alike
+        byte[] key = codec.asByte(keys.apply(0));
+        byte[] value = keyspace.nodeAliases().alias() == 0L ? codec.asByte(values.apply(0))
+                : this.<String>await(h -> keyspace.nodeAliases().encode(values.apply(0), h)).getBytes(StandardCharsets.ISO_8859_1);
+        long sampled = 0;
+        int samples = Math.min(sample, size);
+        for (int i = 0; i < samples; i++) {
+            String redisKey = keyPrefix + codec.asString(keys.apply(i * (size / samples)));
+            Response usage = this.<Response>await(h -> api.memory(List.of("USAGE", redisKey), h));
+            sampled += usage == null ? 0L : usage.toLong();
+        }
+        return new JsonObject()
+                .put("structure", structure)
+                .put("layout", hashTag ? "hash-tagged" : "plain")
+                .put("codec", codecName)
+                .put("entries", size)
+                .put("keyBytes", key.length)
+                .put("keyWireBytes", keyPrefix.length() + wireBytes(key))
+                .put("valueBytes", value.length)
+                .put("valueWireBytes", wireBytes(value))
+                .put("usedMemory", used)
+                .put("usedMemoryPerEntry", (double) used / size)
+                .put("memoryUsagePerEntry", samples == 0 ? 0.0 : (double) sampled / samples)
+                .put("fillSeconds", elapsed / 1e9);
+    }
+
+    private void fill(int size, IntFunction<Object> keys, IntFunction<Object> values, Write write,
+                      int[] next, int[] done, CompletableFuture<Void> filled) {
+        int i = next[0]++;
+        write.write(keys.apply(i), values.apply(i), r -> {
+            if (r.failed()) {
+                filled.completeExceptionally(r.cause());
+                return;
+            }
+            if (++done[0] == size) {
+                filled.complete(null);
+            } else if (next[0] < size) {
+                fill(size, keys, values, write, next, done, filled);
+            }
+        });
+    }
+
+    /**
+     * the UTF-8 length of the one char per byte string.
+     */
+    private static int wireBytes(byte[] bytes) {
+        int length = bytes.length;
+        for (byte b : bytes) {
+            if (b < 0) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private long usedMemory() throws Exception {
+        String info = this.<Response>await(h -> api.info(List.of("memory"), h)).toString();
+        for (String line : info.split("\r\n")) {
+            if (line.startsWith("used_memory:")) {
+                return Long.parseLong(line.substring("used_memory:".length()).trim());
+            }
+        }
+        throw new IllegalStateException("no used_memory in INFO memory");
+    }
+
+    private <T> T await(Consumer<Handler<AsyncResult<T>>> call) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(r -> {
+            if (r.succeeded()) {
+                future.complete(r.result());
+            } else {
+                future.completeExceptionally(r.cause());
+            }
+        });
+        return future.get(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * the subscription of {@link ClusterNodeInfo} in a ClusterSerializable codec.
+     */
+    public static class NodeInfo implements ClusterSerializable {
+
+        public NodeInfo() {
+        }
+
+        NodeInfo(ClusterNodeInfo info) {
+            this.nodeId = info.nodeId;
+            this.host = info.serverID.host;
+            this.port = info.serverID.port;
+        }
+
+        private String nodeId;
+        private String host;
+        private int port;
+
+        @Override
+        public void writeToBuffer(Buffer buffer) {
+            byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+            byte[] h = host.getBytes(StandardCharsets.UTF_8);
+            buffer.appendInt(id.length).appendBytes(id).appendInt(h.length).appendBytes(h).appendInt(port);
+        }
+
+        @Override
+        public int readFromBuffer(int pos, Buffer buffer) {
+            int length = buffer.getInt(pos);
+            nodeId = buffer.getString(pos + 4, pos + 4 + length, "UTF-8");
+            pos += 4 + length;
+            length = buffer.getInt(pos);
+            host = buffer.getString(pos + 4, pos + 4 + length, "UTF-8");
+            pos += 4 + length;
+            port = buffer.getInt(pos);
+            return pos + 4;
+        }
+    }
+
+    public static class Payload implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public Payload(String value) {
+            this.value = value;
+        }
+
+        private final String value;
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+}
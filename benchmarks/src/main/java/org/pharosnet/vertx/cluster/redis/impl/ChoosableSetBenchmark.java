@@ -0,0 +1,49 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChoosableSet#choose()} shared by concurrent callers, as the event bus does for one address.
+ * the thread count can be changed with -t.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ChoosableSetBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int nodes;
+
+    private ChoosableSet<String> set;
+
+    @Setup
+    public void setup() {
+        set = new ChoosableSet<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            set.add("node-" + i);
+        }
+    }
+
+    @Benchmark
+    public String choose() {
+        return set.choose();
+    }
+
+}
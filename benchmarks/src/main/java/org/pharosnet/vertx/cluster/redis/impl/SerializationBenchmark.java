@@ -0,0 +1,95 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RedisHMap#asByte(Object)} and {@link RedisHMap#asObject(byte[])} of a ClusterSerializable payload
+ * (a JsonObject) and of a plain Serializable one carrying the same bytes. {@link #main(String[])} prints the encoded
+ * sizes of the payloads, which the benchmark itself keeps out of its output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"cluster", "serializable"})
+    public String payload;
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private RedisHMap<Object, Object> codec;
+    private Object value;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        codec = new RedisHMap<>();
+        value = value(payload, size);
+        encoded = codec.asByte(value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        RedisHMap<Object, Object> codec = new RedisHMap<>();
+        for (String payload : SerializationBenchmark.class.getField("payload").getAnnotation(Param.class).value()) {
+            for (String size : SerializationBenchmark.class.getField("size").getAnnotation(Param.class).value()) {
+                int encoded = codec.asByte(value(payload, Integer.parseInt(size))).length;
+                System.out.printf("%s payload of %s chars encodes to %d bytes%n", payload, size, encoded);
+            }
+        }
+    }
+
+    private static Object value(String payload, int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        String body = new String(chars);
+        if ("cluster".equals(payload)) {
+            return new JsonObject().put("body", body);
+        }
+        return new Payload(body);
+    }
+
+    @Benchmark
+    public byte[] asByte() throws Exception {
+        return codec.asByte(value);
+    }
+
+    @Benchmark
+    public Object asObject() throws Exception {
+        return codec.asObject(encoded);
+    }
+
+    public static class Payload implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public Payload(String body) {
+            this.body = body;
+        }
+
+        private final String body;
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+}
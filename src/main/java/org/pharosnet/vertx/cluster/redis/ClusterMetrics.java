@@ -0,0 +1,88 @@
+package org.pharosnet.vertx.cluster.redis;
+
+import org.pharosnet.vertx.cluster.redis.impl.NearCache;
+import org.pharosnet.vertx.cluster.redis.impl.NegativeCache;
+import org.pharosnet.vertx.cluster.redis.impl.NodeLoad;
+import org.pharosnet.vertx.cluster.redis.impl.RedisMultiMapReplica;
+import org.pharosnet.vertx.cluster.redis.impl.SingleFlight;
+import org.pharosnet.vertx.cluster.redis.impl.WriteBehind;
+
+import java.util.function.IntSupplier;
+
+/**
+ * what the cluster manager reports about its own operations, see {@link MicrometerClusterMetrics} for a binding.
+ * every method defaults to a no-op, {@link #NONE} records nothing and costs nothing.
+ */
+public interface ClusterMetrics {
+
+    ClusterMetrics NONE = new ClusterMetrics() {
+    };
+
+    /**
+     * one async map, multi map, sync map or counter operation.
+     *
+     * @param name       the map or counter name
+     * @param operation  the method, e.g. get, put, removeAllForValue
+     * @param nanos      from the call to its completion
+     * @param roundTrips redis commands the operation sent itself, 0 when it was served from the near cache.
+     *                   composite operations (putIfAbsent, removeIfPresent...) record the operations they call on their own.
+     */
+    default void operation(String name, String operation, long nanos, int roundTrips, boolean succeeded) {
+    }
+
+    /**
+     * one key or value encoded (write) or decoded (read) by a map.
+     */
+    default void serialization(String name, boolean write, long nanos, int bytes) {
+    }
+
+    /**
+     * one lock acquisition, attempts above 1 mean the lock was held by someone else.
+     */
+    default void lock(String name, long waitNanos, int attempts, boolean acquired) {
+    }
+
+    /**
+     * called once after join when the near cache is on.
+     */
+    default void nearCache(NearCache cache) {
+    }
+
+    /**
+     * called once after join when the negative cache is on.
+     */
+    default void negativeCache(NegativeCache cache) {
+    }
+
+    /**
+     * called once after join, the reads sent and the reads that waited for an identical one in flight.
+     */
+    default void singleFlight(SingleFlight flights) {
+    }
+
+    /**
+     * called once after join when choosing is load aware, the event loop lag the node reports.
+     */
+    default void nodeLoad(NodeLoad load) {
+    }
+
+    /**
+     * called once per replicated multi map when its copy started.
+     */
+    default void multiMapReplica(String name, RedisMultiMapReplica replica) {
+    }
+
+    /**
+     * called once after join when async maps write behind, the queued keys, the writes sent, coalesced and dropped,
+     * and the puts rejected.
+     */
+    default void writeBehind(WriteBehind writeBehind) {
+    }
+
+    /**
+     * called once per lane after join, the depth is the number of commands waiting for an in-flight slot.
+     */
+    default void pendingCommands(Lane lane, IntSupplier depth) {
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.pharosnet.vertx.cluster.redis;
+
+/**
+ * connection lanes, each with its own connections and in-flight limit, so one kind of traffic cannot queue
+ * behind another on the same socket.
+ */
+public enum Lane {
+
+    /**
+     * membership, locks and counters.
+     */
+    CONTROL,
+
+    /**
+     * subscription lookups and the other single key map operations.
+     */
+    INTERACTIVE,
+
+    /**
+     * keyspace scans and the sweeps built on them: clear, size, keys, values, entries, removeAllForValue, removeAllMatching.
+     */
+    BULK
+
+}
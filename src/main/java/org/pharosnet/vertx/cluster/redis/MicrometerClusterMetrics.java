@@ -0,0 +1,177 @@
+package org.pharosnet.vertx.cluster.redis;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.pharosnet.vertx.cluster.redis.impl.NearCache;
+import org.pharosnet.vertx.cluster.redis.impl.NegativeCache;
+import org.pharosnet.vertx.cluster.redis.impl.NodeLoad;
+import org.pharosnet.vertx.cluster.redis.impl.RedisMultiMapReplica;
+import org.pharosnet.vertx.cluster.redis.impl.SingleFlight;
+import org.pharosnet.vertx.cluster.redis.impl.WriteBehind;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * {@link ClusterMetrics} registered in a micrometer {@link MeterRegistry}, micrometer-core is an optional dependency.
+ * <p>
+ * meters are named vertx.redis.cluster.*, operations are tagged with the map and operation names,
+ * locks with the lock name and commands with the lane.
+ */
+public class MicrometerClusterMetrics implements ClusterMetrics {
+
+    private static final String PREFIX = "vertx.redis.cluster.";
+
+    public MicrometerClusterMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    private final MeterRegistry registry;
+    private final Map<String, OperationMeters> operations = new ConcurrentHashMap<>();
+    private final Map<String, SerializationMeters> serializations = new ConcurrentHashMap<>();
+    private final Map<String, LockMeters> locks = new ConcurrentHashMap<>();
+
+    @Override
+    public void operation(String name, String operation, long nanos, int roundTrips, boolean succeeded) {
+        OperationMeters meters = operations.computeIfAbsent(name + '\u0000' + operation, k -> new OperationMeters(name, operation));
+        (succeeded ? meters.success : meters.failure).record(nanos, TimeUnit.NANOSECONDS);
+        meters.roundTrips.record(roundTrips);
+    }
+
+    @Override
+    public void serialization(String name, boolean write, long nanos, int bytes) {
+        SerializationMeters meters = serializations.computeIfAbsent(name, SerializationMeters::new);
+        if (write) {
+            meters.writeTime.record(nanos, TimeUnit.NANOSECONDS);
+            meters.writeBytes.record(bytes);
+        } else {
+            meters.readTime.record(nanos, TimeUnit.NANOSECONDS);
+            meters.readBytes.record(bytes);
+        }
+    }
+
+    @Override
+    public void lock(String name, long waitNanos, int attempts, boolean acquired) {
+        LockMeters meters = locks.computeIfAbsent(name, LockMeters::new);
+        (acquired ? meters.acquired : meters.timeout).record(waitNanos, TimeUnit.NANOSECONDS);
+        if (attempts > 1) {
+            meters.contention.increment();
+        }
+    }
+
+    @Override
+    public void nearCache(NearCache cache) {
+        Gauge.builder(PREFIX + "near.cache.hit.ratio", cache, NearCache::getHitRate).register(registry);
+        Gauge.builder(PREFIX + "near.cache.size", cache, NearCache::size).register(registry);
+        FunctionCounter.builder(PREFIX + "near.cache.hits", cache, NearCache::getHits).register(registry);
+        FunctionCounter.builder(PREFIX + "near.cache.misses", cache, NearCache::getMisses).register(registry);
+        FunctionCounter.builder(PREFIX + "near.cache.evictions", cache, NearCache::getEvictions).register(registry);
+        FunctionCounter.builder(PREFIX + "near.cache.invalidations", cache, NearCache::getInvalidations).register(registry);
+    }
+
+    @Override
+    public void negativeCache(NegativeCache cache) {
+        Gauge.builder(PREFIX + "negative.cache.size", cache, NegativeCache::size).register(registry);
+        FunctionCounter.builder(PREFIX + "negative.cache.hits", cache, NegativeCache::getHits).register(registry);
+        FunctionCounter.builder(PREFIX + "negative.cache.invalidations", cache, NegativeCache::getInvalidations).register(registry);
+    }
+
+    @Override
+    public void singleFlight(SingleFlight flights) {
+        FunctionCounter.builder(PREFIX + "reads.sent", flights, SingleFlight::getReads).register(registry);
+        FunctionCounter.builder(PREFIX + "reads.coalesced", flights, SingleFlight::getCoalesced).register(registry);
+    }
+
+    @Override
+    public void nodeLoad(NodeLoad load) {
+        Gauge.builder(PREFIX + "node.load.lag", load, NodeLoad::lag).baseUnit("microseconds").register(registry);
+    }
+
+    @Override
+    public void multiMapReplica(String name, RedisMultiMapReplica replica) {
+        Gauge.builder(PREFIX + "replica.keys", replica, RedisMultiMapReplica::size).tag("name", name).register(registry);
+        FunctionCounter.builder(PREFIX + "replica.applied", replica, RedisMultiMapReplica::getApplied).tag("name", name).register(registry);
+        FunctionCounter.builder(PREFIX + "replica.bootstraps", replica, RedisMultiMapReplica::getBootstraps).tag("name", name).register(registry);
+        FunctionCounter.builder(PREFIX + "replica.repaired.buckets", replica, RedisMultiMapReplica::getRepairedBuckets).tag("name", name).register(registry);
+    }
+
+    @Override
+    public void writeBehind(WriteBehind writeBehind) {
+        Gauge.builder(PREFIX + "write.behind.pending", writeBehind, WriteBehind::pending).register(registry);
+        FunctionCounter.builder(PREFIX + "write.behind.written", writeBehind, WriteBehind::getWritten).register(registry);
+        FunctionCounter.builder(PREFIX + "write.behind.coalesced", writeBehind, WriteBehind::getCoalesced).register(registry);
+        FunctionCounter.builder(PREFIX + "write.behind.dropped", writeBehind, WriteBehind::getDropped).register(registry);
+        FunctionCounter.builder(PREFIX + "write.behind.rejected", writeBehind, WriteBehind::getRejected).register(registry);
+    }
+
+    @Override
+    public void pendingCommands(Lane lane, IntSupplier depth) {
+        // the supplier is a lambda nothing else holds, a weakly held one reads NaN after the next gc
+        Gauge.builder(PREFIX + "commands.pending", depth, IntSupplier::getAsInt)
+                .tag("lane", lane.name().toLowerCase())
+                .strongReference(true)
+                .register(registry);
+    }
+
+    private class OperationMeters {
+
+        private OperationMeters(String name, String operation) {
+            this.success = timer(name, operation, "success");
+            this.failure = timer(name, operation, "failure");
+            this.roundTrips = DistributionSummary.builder(PREFIX + "round.trips")
+                    .tags("map", name, "operation", operation)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        private final Timer success;
+        private final Timer failure;
+        private final DistributionSummary roundTrips;
+
+        private Timer timer(String name, String operation, String outcome) {
+            return Timer.builder(PREFIX + "operation")
+                    .tags("map", name, "operation", operation, "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+
+    private class SerializationMeters {
+
+        private SerializationMeters(String name) {
+            this.writeTime = Timer.builder(PREFIX + "serialization").tags("map", name, "direction", "write").register(registry);
+            this.readTime = Timer.builder(PREFIX + "serialization").tags("map", name, "direction", "read").register(registry);
+            this.writeBytes = DistributionSummary.builder(PREFIX + "serialized.bytes").baseUnit("bytes")
+                    .tags("map", name, "direction", "write").register(registry);
+            this.readBytes = DistributionSummary.builder(PREFIX + "serialized.bytes").baseUnit("bytes")
+                    .tags("map", name, "direction", "read").register(registry);
+        }
+
+        private final Timer writeTime;
+        private final Timer readTime;
+        private final DistributionSummary writeBytes;
+        private final DistributionSummary readBytes;
+    }
+
+    private class LockMeters {
+
+        private LockMeters(String name) {
+            this.acquired = Timer.builder(PREFIX + "lock.wait").tags("lock", name, "outcome", "acquired")
+                    .publishPercentileHistogram().register(registry);
+            this.timeout = Timer.builder(PREFIX + "lock.wait").tags("lock", name, "outcome", "timeout")
+                    .publishPercentileHistogram().register(registry);
+            this.contention = Counter.builder(PREFIX + "lock.contention").tag("lock", name).register(registry);
+        }
+
+        private final Timer acquired;
+        private final Timer timeout;
+        private final Counter contention;
+    }
+
+}
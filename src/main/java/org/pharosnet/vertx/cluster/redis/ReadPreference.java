@@ -0,0 +1,23 @@
+package org.pharosnet.vertx.cluster.redis;
+
+/**
+ * where the read-mostly lookups (subscription lookups, async map gets, node list) are served from
+ * in sentinel and cluster modes. locks and counters always stay on the master.
+ */
+public enum ReadPreference {
+
+    MASTER,
+
+    REPLICA,
+
+    /**
+     * replicas while one is reachable, the master otherwise.
+     */
+    REPLICA_PREFERRED,
+
+    /**
+     * the lowest measured round trip time between the master and the replica connection.
+     */
+    NEAREST
+
+}
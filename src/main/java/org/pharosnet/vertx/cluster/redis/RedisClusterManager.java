@@ -1,11 +1,14 @@
 package org.pharosnet.vertx.cluster.redis;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.SocketAddress;
 import io.vertx.core.shareddata.AsyncMap;
 import io.vertx.core.shareddata.Counter;
 import io.vertx.core.shareddata.Lock;
@@ -14,10 +17,18 @@ import io.vertx.core.spi.cluster.ClusterManager;
 import io.vertx.core.spi.cluster.NodeListener;
 import io.vertx.redis.client.Redis;
 import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisClientType;
 import io.vertx.redis.client.RedisOptions;
 import org.pharosnet.vertx.cluster.redis.impl.*;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -36,10 +47,18 @@ public class RedisClusterManager implements ClusterManager {
 
     private String id;
     private boolean active;
-    private Redis redis;
+    private RedisLanes lanes;
     private RedisAPI api;
     private RedisOptions options;
+    private RedisClusterManagerOptions managerOptions;
+    private RedisKeyspace keyspace;
     private Vertx vertx;
+    /**
+     * opens the redis connections of join and of the manager's own timers: vert.x 3.7 cannot open sockets on the
+     * clustered vertx before its event bus started, which is after join. the event loops of the clustered vertx get
+     * connections of their own once it started, see {@link RedisConnectionPool#bindLoops(Vertx)}.
+     */
+    private Vertx transport;
     private NodeListener nodeListener;
 
     private Map<String, AsyncMultiMap> asyncMultiMaps;
@@ -50,8 +69,13 @@ public class RedisClusterManager implements ClusterManager {
     private RedisHMap<String, String> nodes;
 
     public RedisClusterManager(RedisOptions options) {
+        this(new RedisClusterManagerOptions(options));
+    }
+
+    public RedisClusterManager(RedisClusterManagerOptions managerOptions) {
         this.id = UUID.randomUUID().toString();
-        this.options = options;
+        this.managerOptions = managerOptions;
+        this.options = managerOptions.getRedisOptions();
         this.asyncMaps = new ConcurrentHashMap<>();
         this.asyncMultiMaps = new ConcurrentHashMap<>();
         this.syncMaps = new ConcurrentHashMap<>();
@@ -67,20 +91,39 @@ public class RedisClusterManager implements ClusterManager {
     public <K, V> void getAsyncMultiMap(String name, Handler<AsyncResult<AsyncMultiMap<K, V>>> handler) {
         AsyncMultiMap<K, V> map;
         if (!this.asyncMultiMaps.containsKey(name)) {
-            map = new RedisAsyncMultiMap<>(this.redis, name);
+            RedisAsyncMultiMap<K, V> multiMap = new RedisAsyncMultiMap<>(this.keyspace, name, this.managerOptions.isHashTagged(name));
+            map = multiMap;
             this.asyncMultiMaps.put(name, map);
+            if (this.managerOptions.isReplicated(name)) {
+                replicate(name, multiMap);
+            }
         } else {
             map = this.asyncMultiMaps.get(name);
         }
         handler.handle(Future.succeededFuture(map));
     }
 
+    private void replicate(String name, RedisAsyncMultiMap<?, ?> map) {
+        String directory = managerOptions.getReplicaSnapshotDirectory();
+        Path snapshotDirectory = directory == null ? null : Paths.get(directory);
+        map.replicate(transport, options, managerOptions.getReplicaLogMaxLength(), managerOptions.getReplicaSnapshotInterval(),
+                managerOptions.getReplicaReconcileInterval(), snapshotDirectory, r -> {
+            if (r.failed()) {
+                // gets keep going to redis
+                log.warn("multi map {} is not replicated, {}", name, r.cause().getMessage());
+                return;
+            }
+            managerOptions.getMetrics().multiMapReplica(name, r.result());
+        });
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <K, V> void getAsyncMap(String name, Handler<AsyncResult<AsyncMap<K, V>>> handler) {
         AsyncMap<K, V> map;
         if (!this.asyncMaps.containsKey(name)) {
-            map = new RedisAsyncMap<K, V>(this.redis, name);
+            map = new RedisAsyncMap<K, V>(this.keyspace, name, this.managerOptions.isHashTagged(name),
+                    this.managerOptions.isWriteBehind(name));
             this.asyncMaps.put(name, map);
         } else {
             map = this.asyncMaps.get(name);
@@ -94,6 +137,7 @@ public class RedisClusterManager implements ClusterManager {
         RedisHMap<K, V> map;
         if (!this.syncMaps.containsKey(SYNC_MAP_PREFIX + name)) {
             map = new RedisHMap<>(this.options, SYNC_MAP_PREFIX + name);
+            map.setMetrics(this.managerOptions.getMetrics());
             this.syncMaps.put(SYNC_MAP_PREFIX + name, map);
         } else {
             map = this.syncMaps.get(SYNC_MAP_PREFIX + name);
@@ -109,16 +153,23 @@ public class RedisClusterManager implements ClusterManager {
             return;
         }
         name = LOCK_PREFIX + name;
-        RedisLock lock = new RedisLock(name, api, timeout);
+        RedisLock lock = new RedisLock(name, api, timeout, this.managerOptions.getMetrics());
         lock.lock(handler);
     }
 
     @Override
     public void getCounter(String name, Handler<AsyncResult<Counter>> handler) {
-        RedisCounter counter = new RedisCounter(name, api);
+        RedisCounter counter = new RedisCounter(name, api, this.managerOptions.getMetrics());
         handler.handle(Future.succeededFuture(counter));
     }
 
+    /**
+     * the near cache in front of async map and multi map gets, null when it is off.
+     */
+    public NearCache getNearCache() {
+        return this.keyspace == null ? null : this.keyspace.nearCache();
+    }
+
     @Override
     public String getNodeID() {
         return this.id;
@@ -126,7 +177,8 @@ public class RedisClusterManager implements ClusterManager {
 
     @Override
     public List<String> getNodes() {
-        return this.nodes.keys();
+        RedisHMap<String, String> nodes = this.nodes;
+        return nodes == null ? new ArrayList<>() : nodes.keys();
     }
 
     @Override
@@ -139,36 +191,346 @@ public class RedisClusterManager implements ClusterManager {
         if (!this.active) {
             this.active = true;
         }
+        MembershipEvent event = MembershipEvent.start(this.id, "join");
+        // a join retried or repeated without a leave replaces what the last one opened
+        close();
+        this.transport = Vertx.vertx(new VertxOptions()
+                .setEventLoopPoolSize(1)
+                .setWorkerPoolSize(1)
+                .setInternalBlockingPoolSize(1));
         vertx.executeBlocking(bf -> {
-            Redis.createClient(vertx, options).connect(r -> {
+            lanes(options).connect(r -> {
                 if (r.failed()) {
                     bf.fail(r.cause());
                     return;
                 }
-                this.redis = r.result();
-                this.api = RedisAPI.api(redis);
-                this.nodes = new RedisHMap<>(this.options, "__vertx.nodes");
-                if (log.isDebugEnabled()) {
-                    log.debug("cluster {}", this.nodes);
-                }
-                bf.complete();
+                this.lanes = r.result();
+                this.api = lanes.api(Lane.CONTROL);
+                connectShards(sr -> {
+                    if (sr.failed()) {
+                        bf.fail(sr.cause());
+                        return;
+                    }
+                    if (sr.result().isEmpty()) {
+                        this.keyspace = new RedisKeyspace(transport, options, lanes);
+                    } else {
+                        this.keyspace = new RedisKeyspace(transport, options, lanes, sr.result(), managerOptions.getVirtualNodes());
+                    }
+                    this.keyspace.setMetrics(managerOptions.getMetrics());
+                    if (managerOptions.getRegistrationBatchSize() > 0) {
+                        this.keyspace.setRegistrationBatcher(new RegistrationBatcher(transport, keyspace,
+                                managerOptions.getRegistrationBatchSize(), managerOptions.getRegistrationBatchWindow(),
+                                options.getMaxWaitingHandlers() / 2));
+                    }
+                    if (!managerOptions.getWriteBehindMaps().isEmpty()) {
+                        this.keyspace.setWriteBehind(new WriteBehind(transport, keyspace, managerOptions.getWriteBehindBatchSize(),
+                                managerOptions.getWriteBehindInterval(), managerOptions.getWriteBehindMaxPending(),
+                                options.getMaxWaitingHandlers() / 2));
+                    }
+                    this.nodes = new RedisHMap<>(this.options, "__vertx.nodes", managerOptions.getReadPreference());
+                    this.nodes.setMetrics(managerOptions.getMetrics());
+                    if (log.isDebugEnabled()) {
+                        log.debug("cluster {}", this.nodes);
+                    }
+                    enableCaches(nr -> {
+                        if (RedisClientType.STANDALONE.equals(options.getType()) || !sr.result().isEmpty()) {
+                            if (managerOptions.getReadPreference() != ReadPreference.MASTER) {
+                                log.warn("read preference {} ignored, there are no replicas in standalone mode", managerOptions.getReadPreference());
+                            }
+                            allocateNodeAlias(bf);
+                            return;
+                        }
+                        RedisReadRouter readRouter = new RedisReadRouter(transport, options, lanes.redis(Lane.INTERACTIVE),
+                                managerOptions.getReadPreference(), managerOptions.getRttProbeInterval());
+                        readRouter.start(rr -> {
+                            if (rr.failed()) {
+                                bf.fail(rr.cause());
+                                return;
+                            }
+                            this.keyspace.setReadRouter(readRouter);
+                            allocateNodeAlias(bf);
+                        });
+                    });
+                });
             });
         }, br -> {
             if (br.failed()) {
                 this.active = false;
+                close();
+                event.finish(false);
                 handler.handle(Future.failedFuture(br.cause()));
+                return;
             }
             this.active = true;
+            this.keyspace.bindLoops(vertx);
             this.nodes.put(this.id, Instant.now().toString());
+            if (this.keyspace.nodeLocality() != null) {
+                this.keyspace.nodeLocality().startSweeping(transport, this::getNodes);
+            }
+            if (managerOptions.isLoadAware()) {
+                this.keyspace.setNodeLoad(NodeLoad.start(vertx, transport, keyspace, id, managerOptions.getLoadReportInterval()));
+            }
+            event.finish(true);
+            bindMetrics();
             handler.handle(Future.succeededFuture());
         });
     }
 
+    private void allocateNodeAlias(Future<Object> future) {
+        if (!managerOptions.isNodeAliases()) {
+            registerLocality(future);
+            return;
+        }
+        NodeAliases.allocate(this.keyspace, this.id, r -> {
+            if (r.failed()) {
+                future.fail(r.cause());
+                return;
+            }
+            this.keyspace.setNodeAliases(r.result());
+            registerLocality(future);
+        });
+    }
+
+    private void registerLocality(Future<Object> future) {
+        if (!managerOptions.isLocalityAware()) {
+            future.complete();
+            return;
+        }
+        String host = managerOptions.getLocalityHost();
+        if (host == null) {
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                log.warn("local host name unknown, locality aware choosing ignores hosts", e);
+            }
+        }
+        NodeLocality.register(this.keyspace, this.id, host, managerOptions.getLocalityZone(), managerOptions.getLocalityRack(),
+                managerOptions.getLocalitySpillOver(), r -> {
+                    if (r.failed()) {
+                        future.fail(r.cause());
+                        return;
+                    }
+                    this.keyspace.setNodeLocality(r.result());
+                    future.complete();
+                });
+    }
+
+    private void bindMetrics() {
+        ClusterMetrics metrics = managerOptions.getMetrics();
+        if (metrics == ClusterMetrics.NONE) {
+            return;
+        }
+        RedisKeyspace keyspace = this.keyspace;
+        for (Lane lane : Lane.values()) {
+            metrics.pendingCommands(lane, () -> keyspace.pending(lane));
+        }
+        if (keyspace.nearCache() != null) {
+            metrics.nearCache(keyspace.nearCache());
+        }
+        if (keyspace.negativeCache() != null) {
+            metrics.negativeCache(keyspace.negativeCache());
+        }
+        metrics.singleFlight(keyspace.singleFlight());
+        if (keyspace.nodeLoad() != null) {
+            metrics.nodeLoad(keyspace.nodeLoad());
+        }
+        if (keyspace.writeBehind() != null) {
+            metrics.writeBehind(keyspace.writeBehind());
+        }
+    }
+
+    private RedisLanes lanes(RedisOptions redisOptions) {
+        Map<Lane, Redis> lanes = new EnumMap<>(Lane.class);
+        lanes.put(Lane.CONTROL, new RedisConnectionPool(transport, redisOptions,
+                managerOptions.getControlConnections(), managerOptions.getControlMaxInFlight()));
+        lanes.put(Lane.INTERACTIVE, new RedisConnectionPool(transport, redisOptions,
+                managerOptions.getConnectionPoolSize(), managerOptions.getMaxInFlightPerConnection()));
+        lanes.put(Lane.BULK, new RedisConnectionPool(transport, redisOptions,
+                managerOptions.getBulkConnections(), managerOptions.getBulkMaxInFlight()));
+        return new RedisLanes(lanes);
+    }
+
+    private void enableCaches(Handler<AsyncResult<Void>> handler) {
+        enableNearCache(nr -> enableNegativeCache(handler));
+    }
+
+    private void enableNegativeCache(Handler<AsyncResult<Void>> handler) {
+        if (managerOptions.getNegativeCacheMaxSize() <= 0) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        NegativeCache cache = new NegativeCache(managerOptions.getNegativeCacheMaxSize(), managerOptions.getNegativeCacheTtl());
+        this.keyspace.enableNegativeCache(cache, r -> {
+            if (r.failed()) {
+                // the cache is an optimization, run without it
+                log.info("negative cache disabled, {}", r.cause().getMessage());
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    private void enableNearCache(Handler<AsyncResult<Void>> handler) {
+        if (managerOptions.getNearCacheMaxSize() <= 0) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        NearCache cache = new NearCache(managerOptions.getNearCacheMaxSize());
+        List<String> prefixes = List.of(RedisAsyncMap.KEY_PREFIX, RedisAsyncMultiMap.KEY_PREFIX);
+        this.keyspace.enableNearCache(cache, managerOptions.isNearCacheBroadcast(), prefixes, r -> {
+            if (r.failed()) {
+                // the cache is an optimization, run without it
+                log.warn("near cache disabled, client tracking failed", r.cause());
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    private void connectShards(Handler<AsyncResult<Map<String, RedisLanes>>> handler) {
+        List<SocketAddress> endpoints = managerOptions.getShards();
+        List<Future> futures = new ArrayList<>();
+        for (SocketAddress endpoint : endpoints) {
+            RedisOptions shardOptions = new RedisOptions(options)
+                    .setType(RedisClientType.STANDALONE)
+                    .setEndpoints(new ArrayList<>(List.of(endpoint)));
+            Future<RedisLanes> future = Future.future();
+            futures.add(future);
+            lanes(shardOptions).connect(future);
+        }
+        CompositeFuture.join(futures).setHandler(r -> {
+            if (r.failed()) {
+                log.error("connect to redis shards failed", r.cause());
+                for (Future future : futures) {
+                    if (future.succeeded()) {
+                        ((RedisLanes) future.result()).close();
+                    }
+                }
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            Map<String, RedisLanes> shards = new LinkedHashMap<>();
+            for (int i = 0; i < endpoints.size(); i++) {
+                SocketAddress endpoint = endpoints.get(i);
+                shards.put(endpoint.host() + ":" + endpoint.port(), r.result().resultAt(i));
+            }
+            handler.handle(Future.succeededFuture(shards));
+        });
+    }
+
     @Override
     public void leave(Handler<AsyncResult<Void>> handler) {
         this.active = false;
-        this.nodes.remove(this.id);
-        handler.handle(Future.succeededFuture());
+        MembershipEvent event = MembershipEvent.start(this.id, "leave");
+        if (this.nodes != null) {
+            this.nodes.remove(this.id);
+        }
+        WriteBehind writeBehind = this.keyspace == null ? null : this.keyspace.writeBehind();
+        if (writeBehind == null) {
+            releaseAliases(event, handler);
+            return;
+        }
+        // the maps' last puts go out while the connections are still open
+        writeBehind.flush(r -> {
+            if (r.failed()) {
+                log.error("node {} left with write behind puts not in redis, {}", this.id, r.cause().getMessage());
+            }
+            releaseAliases(event, handler);
+        });
+    }
+
+    private void releaseAliases(MembershipEvent event, Handler<AsyncResult<Void>> handler) {
+        NodeAliases aliases = this.keyspace == null ? null : this.keyspace.nodeAliases();
+        if (aliases == null || subscribed()) {
+            // the other nodes still decode the subscriptions left
+            releaseLocality(event, handler);
+            return;
+        }
+        aliases.release(r -> {
+            if (r.failed()) {
+                log.warn("release node alias {} failed", r.cause(), aliases.alias());
+            }
+            releaseLocality(event, handler);
+        });
+    }
+
+    /**
+     * whether a subscription (or any value) this node added to a multi map is still there.
+     */
+    private boolean subscribed() {
+        for (AsyncMultiMap map : this.asyncMultiMaps.values()) {
+            if (((RedisAsyncMultiMap) map).registered() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void releaseLocality(MembershipEvent event, Handler<AsyncResult<Void>> handler) {
+        NodeLocality locality = this.keyspace == null ? null : this.keyspace.nodeLocality();
+        if (locality == null) {
+            releaseLoad(event, handler);
+            return;
+        }
+        locality.release(r -> {
+            if (r.failed()) {
+                log.warn("release node locality failed", r.cause());
+            }
+            releaseLoad(event, handler);
+        });
+    }
+
+    private void releaseLoad(MembershipEvent event, Handler<AsyncResult<Void>> handler) {
+        NodeLoad load = this.keyspace == null ? null : this.keyspace.nodeLoad();
+        if (load == null) {
+            closeReplicas(event, handler);
+            return;
+        }
+        load.release(r -> {
+            if (r.failed()) {
+                log.warn("release node load failed", r.cause());
+            }
+            closeReplicas(event, handler);
+        });
+    }
+
+    private void closeReplicas(MembershipEvent event, Handler<AsyncResult<Void>> handler) {
+        if (this.keyspace == null) {
+            close();
+            event.finish(true);
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        // the snapshot files are written before the vertx closes
+        this.keyspace.closeReplicas(r -> {
+            close();
+            event.finish(true);
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    private void close() {
+        // the maps were built on the connections closed here, the next join builds new ones
+        this.asyncMaps.clear();
+        this.asyncMultiMaps.clear();
+        for (RedisHMap map : this.syncMaps.values()) {
+            map.close();
+        }
+        this.syncMaps.clear();
+        if (this.keyspace != null) {
+            this.keyspace.close();
+            this.keyspace = null;
+        }
+        if (this.lanes != null) {
+            this.lanes.close();
+            this.lanes = null;
+        }
+        if (this.nodes != null) {
+            this.nodes.close();
+            this.nodes = null;
+        }
+        if (this.transport != null) {
+            this.transport.close();
+            this.transport = null;
+        }
     }
 
     @Override
@@ -0,0 +1,610 @@
+package org.pharosnet.vertx.cluster.redis;
+
+import io.vertx.core.VertxOptions;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.RedisOptions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class RedisClusterManagerOptions {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    public static final long DEFAULT_RTT_PROBE_INTERVAL = 1000L;
+
+    public static final int DEFAULT_CONNECTION_POOL_SIZE = VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE;
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    public static final int DEFAULT_CONTROL_MAX_IN_FLIGHT = 64;
+
+    public static final int DEFAULT_BULK_MAX_IN_FLIGHT = 16;
+
+    public static final int DEFAULT_NEGATIVE_CACHE_MAX_SIZE = 10_000;
+
+    public static final long DEFAULT_NEGATIVE_CACHE_TTL = 1000L;
+
+    public static final int DEFAULT_REPLICA_LOG_MAX_LENGTH = 100_000;
+
+    public static final int DEFAULT_REGISTRATION_BATCH_SIZE = 256;
+
+    public static final long DEFAULT_REPLICA_SNAPSHOT_INTERVAL = 60_000L;
+
+    public static final long DEFAULT_REPLICA_RECONCILE_INTERVAL = 30_000L;
+
+    public static final long DEFAULT_LOAD_REPORT_INTERVAL = 1000L;
+
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 256;
+
+    public static final long DEFAULT_WRITE_BEHIND_INTERVAL = 100L;
+
+    public static final int DEFAULT_WRITE_BEHIND_MAX_PENDING = 10_000;
+
+    public RedisClusterManagerOptions() {
+        this(new RedisOptions());
+    }
+
+    public RedisClusterManagerOptions(RedisOptions redisOptions) {
+        this.redisOptions = redisOptions;
+        this.hashTaggedMaps = new HashSet<>();
+        this.shards = new ArrayList<>();
+        this.virtualNodes = DEFAULT_VIRTUAL_NODES;
+        this.readPreference = ReadPreference.MASTER;
+        this.rttProbeInterval = DEFAULT_RTT_PROBE_INTERVAL;
+        this.connectionPoolSize = DEFAULT_CONNECTION_POOL_SIZE;
+        this.maxInFlightPerConnection = DEFAULT_MAX_IN_FLIGHT;
+        this.controlConnections = 1;
+        this.controlMaxInFlight = DEFAULT_CONTROL_MAX_IN_FLIGHT;
+        this.bulkConnections = 1;
+        this.bulkMaxInFlight = DEFAULT_BULK_MAX_IN_FLIGHT;
+        this.metrics = ClusterMetrics.NONE;
+        this.negativeCacheMaxSize = DEFAULT_NEGATIVE_CACHE_MAX_SIZE;
+        this.negativeCacheTtl = DEFAULT_NEGATIVE_CACHE_TTL;
+        this.replicatedMultiMaps = new HashSet<>();
+        this.replicaLogMaxLength = DEFAULT_REPLICA_LOG_MAX_LENGTH;
+        this.replicaSnapshotInterval = DEFAULT_REPLICA_SNAPSHOT_INTERVAL;
+        this.replicaReconcileInterval = DEFAULT_REPLICA_RECONCILE_INTERVAL;
+        this.registrationBatchSize = DEFAULT_REGISTRATION_BATCH_SIZE;
+        this.loadReportInterval = DEFAULT_LOAD_REPORT_INTERVAL;
+        this.writeBehindMaps = new HashSet<>();
+        this.writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+        this.writeBehindInterval = DEFAULT_WRITE_BEHIND_INTERVAL;
+        this.writeBehindMaxPending = DEFAULT_WRITE_BEHIND_MAX_PENDING;
+    }
+
+    private RedisOptions redisOptions;
+
+    /**
+     * names of the maps whose keys are wrapped in a {hash tag}, so that every key of such a map
+     * lives in one cluster slot. untagged maps spread their keys over all masters.
+     */
+    private Set<String> hashTaggedMaps;
+
+    /**
+     * standalone redis servers the async map and multi map keys are sharded over with a consistent hash ring.
+     * empty means no client side sharding, every key goes to the server of the redis options.
+     */
+    private List<SocketAddress> shards;
+
+    private int virtualNodes;
+
+    /**
+     * where subscription lookups, async map gets and the node list are read from, sentinel and cluster modes only.
+     */
+    private ReadPreference readPreference;
+
+    /**
+     * milliseconds between PING probes of the master and replica connections, used by NEAREST
+     * and to reconnect a lost replica connection.
+     */
+    private long rttProbeInterval;
+
+    /**
+     * max entries of the near cache in front of async map and multi map gets, 0 turns it off.
+     * needs redis 6 CLIENT TRACKING, not available in cluster mode.
+     */
+    private int nearCacheMaxSize;
+
+    /**
+     * track every key under the map prefixes (BCAST) instead of only the keys this node has read.
+     */
+    private boolean nearCacheBroadcast;
+
+    /**
+     * max multi map keys remembered as empty, so sends to addresses without handlers skip redis. 0 turns it off,
+     * not available in cluster mode.
+     */
+    private int negativeCacheMaxSize;
+
+    /**
+     * milliseconds a key stays known as empty, the bound on missing a first handler when a notification is lost.
+     */
+    private long negativeCacheTtl;
+
+    /**
+     * names of the multi maps (e.g. "__vertx.subs") every node keeps an in-memory copy of, fed by a redis stream
+     * change log, so their gets never go to redis. all nodes must agree, not available in cluster mode or with shards.
+     */
+    private Set<String> replicatedMultiMaps;
+
+    /**
+     * entries the change log of a replicated multi map is trimmed to (approximately). a node that falls further
+     * behind bootstraps again from the latest snapshot.
+     */
+    private int replicaLogMaxLength;
+
+    /**
+     * milliseconds between the snapshots of a replicated multi map that new nodes bootstrap from, one node writes each.
+     */
+    private long replicaSnapshotInterval;
+
+    /**
+     * milliseconds between the digest comparisons of a replicated multi map with redis, buckets that drifted are
+     * fetched again. 0 turns it off.
+     */
+    private long replicaReconcileInterval;
+
+    /**
+     * directory where the copies of replicated multi maps are kept between restarts, so a restarted node only reads
+     * the changes since it stopped. null (default) keeps nothing on disk.
+     */
+    private String replicaSnapshotDirectory;
+
+    /**
+     * multi map adds and removes sent together in one pipelined batch at most, 0 sends each on its own.
+     */
+    private int registrationBatchSize;
+
+    /**
+     * milliseconds multi map writes wait for others to batch with, 0 (default) only batches the writes issued in
+     * the same event loop turn, e.g. the consumers a verticle registers in start.
+     */
+    private long registrationBatchWindow;
+
+    /**
+     * connections of the interactive lane to the redis server (and to each shard), one per event loop that
+     * sends commands. match it with the event loop pool size of the vert.x instance.
+     */
+    private int connectionPoolSize;
+
+    /**
+     * commands pipelined on one interactive connection before further commands wait for a reply.
+     */
+    private int maxInFlightPerConnection;
+
+    /**
+     * the control lane (membership, locks, counters) is kept small, so it never waits behind other traffic.
+     */
+    private int controlConnections;
+
+    private int controlMaxInFlight;
+
+    /**
+     * the bulk lane (scans and sweeps) is throttled by its low in-flight limit.
+     */
+    private int bulkConnections;
+
+    private int bulkMaxInFlight;
+
+    /**
+     * where operation latencies, round trips, serialization, lock waits and queue depths are reported,
+     * e.g. a {@link MicrometerClusterMetrics}.
+     */
+    private ClusterMetrics metrics;
+
+    /**
+     * subscriptions store a short numeric alias of the node instead of its java serialized ClusterNodeInfo,
+     * off by default. every node reads both forms, so it can be turned on node by node.
+     */
+    private boolean nodeAliases;
+
+    /**
+     * point-to-point sends prefer the subscribers of this node's host, rack and zone, published on join.
+     */
+    private boolean localityAware;
+
+    /**
+     * the host published for locality aware choosing, null (default) for the local host name.
+     */
+    private String localityHost;
+
+    private String localityZone;
+
+    private String localityRack;
+
+    /**
+     * share (0 to 1) of the point-to-point sends that go to the other subscribers although local ones exist, 0 by default.
+     */
+    private double localitySpillOver;
+
+    /**
+     * point-to-point sends go to the less loaded of two subscribers, by the event loop lag every node reports.
+     */
+    private boolean loadAware;
+
+    /**
+     * milliseconds between two load reports of a node, a report not renewed for three of them expires.
+     */
+    private long loadReportInterval;
+
+    /**
+     * names of the async maps whose puts complete at once and reach redis with the next flush, coalesced by key.
+     * puts not yet flushed are lost when the node dies, only for caches that can afford it. leave flushes them.
+     */
+    private Set<String> writeBehindMaps;
+
+    /**
+     * puts of write-behind maps sent together in one pipelined batch at most, a queue of this many keys is flushed at once.
+     */
+    private int writeBehindBatchSize;
+
+    /**
+     * milliseconds a put of a write-behind map waits to be flushed at most, unless the queue fills a batch before.
+     */
+    private long writeBehindInterval;
+
+    /**
+     * keys of write-behind maps queued at most, a put of a further key fails until a flush made room.
+     */
+    private int writeBehindMaxPending;
+
+    public RedisOptions getRedisOptions() {
+        return redisOptions;
+    }
+
+    public RedisClusterManagerOptions setRedisOptions(RedisOptions redisOptions) {
+        this.redisOptions = redisOptions;
+        return this;
+    }
+
+    public Set<String> getHashTaggedMaps() {
+        return hashTaggedMaps;
+    }
+
+    public RedisClusterManagerOptions setHashTaggedMaps(Set<String> hashTaggedMaps) {
+        this.hashTaggedMaps = hashTaggedMaps;
+        return this;
+    }
+
+    public RedisClusterManagerOptions addHashTaggedMap(String name) {
+        this.hashTaggedMaps.add(name);
+        return this;
+    }
+
+    public boolean isHashTagged(String name) {
+        return this.hashTaggedMaps.contains(name);
+    }
+
+    public List<SocketAddress> getShards() {
+        return shards;
+    }
+
+    public RedisClusterManagerOptions setShards(List<SocketAddress> shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    public RedisClusterManagerOptions addShard(SocketAddress shard) {
+        this.shards.add(shard);
+        return this;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public RedisClusterManagerOptions setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        return this;
+    }
+
+    public ReadPreference getReadPreference() {
+        return readPreference;
+    }
+
+    public RedisClusterManagerOptions setReadPreference(ReadPreference readPreference) {
+        this.readPreference = readPreference;
+        return this;
+    }
+
+    public long getRttProbeInterval() {
+        return rttProbeInterval;
+    }
+
+    public RedisClusterManagerOptions setRttProbeInterval(long rttProbeInterval) {
+        this.rttProbeInterval = rttProbeInterval;
+        return this;
+    }
+
+    public int getNearCacheMaxSize() {
+        return nearCacheMaxSize;
+    }
+
+    public RedisClusterManagerOptions setNearCacheMaxSize(int nearCacheMaxSize) {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+        return this;
+    }
+
+    public boolean isNearCacheBroadcast() {
+        return nearCacheBroadcast;
+    }
+
+    public RedisClusterManagerOptions setNearCacheBroadcast(boolean nearCacheBroadcast) {
+        this.nearCacheBroadcast = nearCacheBroadcast;
+        return this;
+    }
+
+    public int getNegativeCacheMaxSize() {
+        return negativeCacheMaxSize;
+    }
+
+    public RedisClusterManagerOptions setNegativeCacheMaxSize(int negativeCacheMaxSize) {
+        this.negativeCacheMaxSize = negativeCacheMaxSize;
+        return this;
+    }
+
+    public long getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public RedisClusterManagerOptions setNegativeCacheTtl(long negativeCacheTtl) {
+        this.negativeCacheTtl = negativeCacheTtl;
+        return this;
+    }
+
+    public Set<String> getReplicatedMultiMaps() {
+        return replicatedMultiMaps;
+    }
+
+    public RedisClusterManagerOptions setReplicatedMultiMaps(Set<String> replicatedMultiMaps) {
+        this.replicatedMultiMaps = replicatedMultiMaps;
+        return this;
+    }
+
+    public RedisClusterManagerOptions addReplicatedMultiMap(String name) {
+        this.replicatedMultiMaps.add(name);
+        return this;
+    }
+
+    public boolean isReplicated(String name) {
+        return this.replicatedMultiMaps.contains(name);
+    }
+
+    public int getReplicaLogMaxLength() {
+        return replicaLogMaxLength;
+    }
+
+    public RedisClusterManagerOptions setReplicaLogMaxLength(int replicaLogMaxLength) {
+        this.replicaLogMaxLength = replicaLogMaxLength;
+        return this;
+    }
+
+    public long getReplicaSnapshotInterval() {
+        return replicaSnapshotInterval;
+    }
+
+    public RedisClusterManagerOptions setReplicaSnapshotInterval(long replicaSnapshotInterval) {
+        this.replicaSnapshotInterval = replicaSnapshotInterval;
+        return this;
+    }
+
+    public long getReplicaReconcileInterval() {
+        return replicaReconcileInterval;
+    }
+
+    public RedisClusterManagerOptions setReplicaReconcileInterval(long replicaReconcileInterval) {
+        this.replicaReconcileInterval = replicaReconcileInterval;
+        return this;
+    }
+
+    public int getRegistrationBatchSize() {
+        return registrationBatchSize;
+    }
+
+    public RedisClusterManagerOptions setRegistrationBatchSize(int registrationBatchSize) {
+        this.registrationBatchSize = registrationBatchSize;
+        return this;
+    }
+
+    public long getRegistrationBatchWindow() {
+        return registrationBatchWindow;
+    }
+
+    public RedisClusterManagerOptions setRegistrationBatchWindow(long registrationBatchWindow) {
+        this.registrationBatchWindow = registrationBatchWindow;
+        return this;
+    }
+
+    public String getReplicaSnapshotDirectory() {
+        return replicaSnapshotDirectory;
+    }
+
+    public RedisClusterManagerOptions setReplicaSnapshotDirectory(String replicaSnapshotDirectory) {
+        this.replicaSnapshotDirectory = replicaSnapshotDirectory;
+        return this;
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public RedisClusterManagerOptions setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+        return this;
+    }
+
+    public int getMaxInFlightPerConnection() {
+        return maxInFlightPerConnection;
+    }
+
+    public RedisClusterManagerOptions setMaxInFlightPerConnection(int maxInFlightPerConnection) {
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        return this;
+    }
+
+    public int getControlConnections() {
+        return controlConnections;
+    }
+
+    public RedisClusterManagerOptions setControlConnections(int controlConnections) {
+        this.controlConnections = controlConnections;
+        return this;
+    }
+
+    public int getControlMaxInFlight() {
+        return controlMaxInFlight;
+    }
+
+    public RedisClusterManagerOptions setControlMaxInFlight(int controlMaxInFlight) {
+        this.controlMaxInFlight = controlMaxInFlight;
+        return this;
+    }
+
+    public int getBulkConnections() {
+        return bulkConnections;
+    }
+
+    public RedisClusterManagerOptions setBulkConnections(int bulkConnections) {
+        this.bulkConnections = bulkConnections;
+        return this;
+    }
+
+    public int getBulkMaxInFlight() {
+        return bulkMaxInFlight;
+    }
+
+    public RedisClusterManagerOptions setBulkMaxInFlight(int bulkMaxInFlight) {
+        this.bulkMaxInFlight = bulkMaxInFlight;
+        return this;
+    }
+
+    public ClusterMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RedisClusterManagerOptions setMetrics(ClusterMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public boolean isNodeAliases() {
+        return nodeAliases;
+    }
+
+    public RedisClusterManagerOptions setNodeAliases(boolean nodeAliases) {
+        this.nodeAliases = nodeAliases;
+        return this;
+    }
+
+    public boolean isLocalityAware() {
+        return localityAware;
+    }
+
+    public RedisClusterManagerOptions setLocalityAware(boolean localityAware) {
+        this.localityAware = localityAware;
+        return this;
+    }
+
+    public String getLocalityHost() {
+        return localityHost;
+    }
+
+    public RedisClusterManagerOptions setLocalityHost(String localityHost) {
+        this.localityHost = localityHost;
+        return this;
+    }
+
+    public String getLocalityZone() {
+        return localityZone;
+    }
+
+    public RedisClusterManagerOptions setLocalityZone(String localityZone) {
+        this.localityZone = localityZone;
+        return this;
+    }
+
+    public String getLocalityRack() {
+        return localityRack;
+    }
+
+    public RedisClusterManagerOptions setLocalityRack(String localityRack) {
+        this.localityRack = localityRack;
+        return this;
+    }
+
+    public double getLocalitySpillOver() {
+        return localitySpillOver;
+    }
+
+    public RedisClusterManagerOptions setLocalitySpillOver(double localitySpillOver) {
+        this.localitySpillOver = localitySpillOver;
+        return this;
+    }
+
+    public boolean isLoadAware() {
+        return loadAware;
+    }
+
+    public RedisClusterManagerOptions setLoadAware(boolean loadAware) {
+        this.loadAware = loadAware;
+        return this;
+    }
+
+    public long getLoadReportInterval() {
+        return loadReportInterval;
+    }
+
+    public RedisClusterManagerOptions setLoadReportInterval(long loadReportInterval) {
+        this.loadReportInterval = loadReportInterval;
+        return this;
+    }
+
+    public Set<String> getWriteBehindMaps() {
+        return writeBehindMaps;
+    }
+
+    public RedisClusterManagerOptions setWriteBehindMaps(Set<String> writeBehindMaps) {
+        this.writeBehindMaps = writeBehindMaps;
+        return this;
+    }
+
+    public RedisClusterManagerOptions addWriteBehindMap(String name) {
+        this.writeBehindMaps.add(name);
+        return this;
+    }
+
+    public boolean isWriteBehind(String name) {
+        return this.writeBehindMaps.contains(name);
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public RedisClusterManagerOptions setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+        return this;
+    }
+
+    public long getWriteBehindInterval() {
+        return writeBehindInterval;
+    }
+
+    public RedisClusterManagerOptions setWriteBehindInterval(long writeBehindInterval) {
+        this.writeBehindInterval = writeBehindInterval;
+        return this;
+    }
+
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+
+    public RedisClusterManagerOptions setWriteBehindMaxPending(int writeBehindMaxPending) {
+        this.writeBehindMaxPending = writeBehindMaxPending;
+        return this;
+    }
+
+}
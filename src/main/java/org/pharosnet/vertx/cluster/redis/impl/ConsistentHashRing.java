@@ -0,0 +1,104 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring with virtual nodes, ketama style (md5 points on a 64 bit circle).
+ * Adding one more of N nodes only moves about 1/(N+1) of the keys.
+ * <p>
+ * The shards are static: they are added once at join, nodes are never removed. Every add publishes a new immutable
+ * ring (sorted points and their owners), so a lookup takes no lock, it hashes the key with a digest of its thread and
+ * binary searches the points.
+ */
+public class ConsistentHashRing<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtual nodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+        this.points = new TreeMap<>();
+        this.ring = new Ring(new long[0], new Object[0]);
+    }
+
+    private final int virtualNodes;
+    /**
+     * the points added so far, the ring is built from them.
+     */
+    private final TreeMap<Long, T> points;
+    private volatile Ring ring;
+
+    private static final class Ring {
+
+        private Ring(long[] points, Object[] owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+
+        private final long[] points;
+        private final Object[] owners;
+    }
+
+    public synchronized void add(String id, T node) {
+        for (int i = 0; i < virtualNodes; i++) {
+            points.put(hash(id + "#" + i), node);
+        }
+        long[] sorted = new long[points.size()];
+        Object[] owners = new Object[points.size()];
+        int i = 0;
+        for (Map.Entry<Long, T> point : points.entrySet()) {
+            sorted[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+        this.ring = new Ring(sorted, owners);
+    }
+
+    public boolean isEmpty() {
+        return ring.points.length == 0;
+    }
+
+    /**
+     * the node of the first point at or after the key's hash, wrapping around, null when the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        Ring ring = this.ring;
+        if (ring.points.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(ring.points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+            if (i == ring.points.length) {
+                i = 0;
+            }
+        }
+        return (T) ring.owners[i];
+    }
+
+    static long hash(String key) {
+        byte[] digest = MD5.get().digest(key.getBytes(UTF_8));
+        long h = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (digest[i] & 0xFF);
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ArrayList;
+
+/**
+ * Redis Cluster key slot calculation (CRC16/XMODEM mod 16384), honouring {hash tags}.
+ */
+public final class HashSlot {
+
+    public static final int SLOTS = 16384;
+
+    private static final int[] LOOKUP = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            LOOKUP[i] = crc & 0xFFFF;
+        }
+    }
+
+    private HashSlot() {
+    }
+
+    public static String tag(String name) {
+        return "{" + name + "}";
+    }
+
+    /**
+     * the part of the key that decides its placement, the {tag} content when there is one.
+     */
+    public static String routingKey(String key) {
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) {
+                return key.substring(open + 1, close);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * the slot of a key of one char per byte (see {@link RedisHMap#bytes(String)}), the bytes redis hashes.
+     */
+    public static int slot(String key) {
+        byte[] bytes = RedisHMap.bytes(key);
+        int start = 0;
+        int end = bytes.length;
+        int open = indexOf(bytes, (byte) '{', 0);
+        if (open >= 0) {
+            int close = indexOf(bytes, (byte) '}', open + 1);
+            // an empty tag "{}" hashes the whole key
+            if (close > open + 1) {
+                start = open + 1;
+                end = close;
+            }
+        }
+        return crc16(bytes, start, end) & (SLOTS - 1);
+    }
+
+    public static Map<Integer, List<String>> groupBySlot(List<String> keys) {
+        Map<Integer, List<String>> groups = new LinkedHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(slot(key), s -> new ArrayList<>()).add(key);
+        }
+        return groups;
+    }
+
+    static int crc16(byte[] bytes, int start, int end) {
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc = ((crc << 8) ^ LOOKUP[((crc >>> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
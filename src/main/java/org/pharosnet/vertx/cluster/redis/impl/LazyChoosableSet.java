@@ -0,0 +1,132 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.spi.cluster.ChoosableIterable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ChoosableIterable over the stored values of a multi map key that decodes a value only when it is chosen or
+ * iterated. A point-to-point send to a key with thousands of values then decodes one of them, not all.
+ * <p>
+ * The decoded values are kept in pages of {@value #PAGE_SIZE}, a page is only allocated once one of its values is
+ * decoded. Values are distinct by their stored bytes. A value that fails to decode is logged and skipped.
+ */
+public class LazyChoosableSet<T> implements ChoosableIterable<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(LazyChoosableSet.class);
+
+    static final int PAGE_SIZE = 256;
+
+    private static final Object FAILED = new Object();
+
+    @FunctionalInterface
+    public interface Decoder<T> {
+
+        T decode(byte[] value) throws Exception;
+    }
+
+    public LazyChoosableSet(List<byte[]> values, Decoder<T> decoder) {
+        Set<ByteBuffer> distinct = new LinkedHashSet<>(values.size() * 2);
+        for (byte[] value : values) {
+            distinct.add(ByteBuffer.wrap(value));
+        }
+        this.values = new ArrayList<>(distinct.size());
+        for (ByteBuffer value : distinct) {
+            this.values.add(value.array());
+        }
+        this.decoder = decoder;
+        this.pages = new AtomicReferenceArray<>((this.values.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    private final List<byte[]> values;
+    private final Decoder<T> decoder;
+    private final AtomicReferenceArray<AtomicReferenceArray<Object>> pages;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    @Override
+    public T choose() {
+        int size = values.size();
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            T value = get((start + i) % size);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            private int index;
+            private T value;
+
+            @Override
+            public boolean hasNext() {
+                while (value == null && index < values.size()) {
+                    value = get(index++);
+                }
+                return value != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T current = value;
+                value = null;
+                return current;
+            }
+        };
+    }
+
+    /**
+     * the decoded value at the index, null when it does not decode.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        AtomicReferenceArray<Object> page = pages.get(index / PAGE_SIZE);
+        if (page == null) {
+            pages.compareAndSet(index / PAGE_SIZE, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(index / PAGE_SIZE);
+        }
+        Object decoded = page.get(index % PAGE_SIZE);
+        if (decoded == null) {
+            try {
+                decoded = decoder.decode(values.get(index));
+                if (decoded == null) {
+                    decoded = FAILED;
+                }
+            } catch (Exception e) {
+                log.error("redis multi map value failed at value to object", e);
+                decoded = FAILED;
+            }
+            // a value decoded twice by racing callers is equal either way
+            page.set(index % PAGE_SIZE, decoded);
+        }
+        return decoded == FAILED ? null : (T) decoded;
+    }
+
+}
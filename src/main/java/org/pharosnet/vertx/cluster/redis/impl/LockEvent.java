@@ -0,0 +1,44 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of one lock acquisition or release, recorded above the event's threshold setting.
+ */
+@Name("org.pharosnet.vertx.cluster.redis.Lock")
+@Label("Cluster Lock")
+@Category({"Vert.x", "Redis Cluster Manager"})
+@Description("A lock acquisition or release of the redis cluster manager")
+@Threshold("10 ms")
+@StackTrace(false)
+public class LockEvent extends jdk.jfr.Event {
+
+    @Label("Name")
+    String name;
+
+    @Label("Operation")
+    @Description("acquire or release")
+    String operation;
+
+    @Label("Attempts")
+    @Description("EXISTS probes until the lock was free, above 1 means it was contended")
+    int attempts;
+
+    @Label("Acquired")
+    boolean acquired;
+
+    @Label("Held Time")
+    @Description("From acquisition to release")
+    @Timespan
+    long heldTime;
+
+    @Label("Round Trips")
+    int roundTrips;
+
+}
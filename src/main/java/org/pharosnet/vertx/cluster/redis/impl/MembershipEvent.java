@@ -0,0 +1,45 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of a membership change, every one is recorded unless the threshold setting says otherwise.
+ */
+@Name("org.pharosnet.vertx.cluster.redis.Membership")
+@Label("Cluster Membership")
+@Category({"Vert.x", "Redis Cluster Manager"})
+@Description("A node joining or leaving the redis cluster")
+@Threshold("0 ms")
+public class MembershipEvent extends jdk.jfr.Event {
+
+    @Label("Node")
+    String node;
+
+    @Label("Change")
+    @Description("join, leave, added or removed")
+    String change;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    public static MembershipEvent start(String node, String change) {
+        MembershipEvent event = new MembershipEvent();
+        event.node = node;
+        event.change = change;
+        event.begin();
+        return event;
+    }
+
+    public void finish(boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of decoded values keyed by redis key, kept coherent by redis client tracking.
+ * <p>
+ * A read takes a {@link #stamp()} before it is sent and stores its result with {@link #put(String, Object, long)},
+ * the value is dropped when any invalidation arrived in between, so a late reply never resurrects a stale value.
+ * <p>
+ * The entries are split over segments by key hash, each an LRU of its share of maxSize behind its own lock, so the
+ * event loops only contend on the keys of one segment. Eviction is LRU per segment.
+ * <p>
+ * The cache is used while it is enabled and no invalidation channel is down, see {@link #suspend()}.
+ */
+public class NearCache {
+
+    private static final int SEGMENTS = 16;
+
+    public NearCache(int maxSize) {
+        this.maxSize = maxSize;
+        int count = Math.max(1, Math.min(SEGMENTS, maxSize));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // the first segments take the remainder
+            segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    private final int maxSize;
+    private final Segment[] segments;
+    private final AtomicLong invalidationSequence = new AtomicLong();
+    private final AtomicInteger suspended = new AtomicInteger();
+    private volatile boolean enabled = true;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private final class Segment extends LinkedHashMap<String, Object> {
+
+        private Segment(int capacity) {
+            super(Math.min(capacity, 1024), 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        private final int capacity;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private Segment segment(String key) {
+        int h = key.hashCode();
+        return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Segment segment = segment(key);
+        Object value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return (T) value;
+    }
+
+    public long stamp() {
+        return invalidationSequence.get();
+    }
+
+    public void put(String key, Object value, long stamp) {
+        if (!isEnabled() || value == null) {
+            return;
+        }
+        Segment segment = segment(key);
+        synchronized (segment) {
+            // an invalidation counts before it takes the lock of the segment, so it is seen here or removes the value
+            if (invalidationSequence.get() != stamp) {
+                return;
+            }
+            segment.put(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            invalidationSequence.incrementAndGet();
+            if (segment.remove(key) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidatePrefix(String prefix) {
+        invalidationSequence.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<String> keys = segment.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (keys.next().startsWith(prefix)) {
+                        keys.remove();
+                        invalidations.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        invalidationSequence.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                invalidations.add(segment.size());
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * without a live invalidation channel nothing can be cached safely.
+     */
+    public void setEnabled(boolean enabled) {
+        if (!enabled) {
+            clear();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * an invalidation channel is down, nothing is cached until every one that went down is {@link #resume()}d.
+     */
+    public void suspend() {
+        suspended.incrementAndGet();
+        clear();
+    }
+
+    /**
+     * the invalidation channel is back, what was cached before it went down may be stale.
+     */
+    public void resume() {
+        clear();
+        suspended.decrementAndGet();
+    }
+
+    public boolean isEnabled() {
+        return enabled && suspended.get() == 0;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0D : (double) h / total;
+    }
+
+}
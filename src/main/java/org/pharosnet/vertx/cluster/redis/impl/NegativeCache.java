@@ -0,0 +1,151 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the multi map keys recently read empty, each for a short ttl, so sends and publishes to
+ * addresses without handlers skip redis. A first subscriber added anywhere in the cluster invalidates its key
+ * over {@link RedisNegativeCacheInvalidation}, the ttl bounds what a lost message could cost.
+ * <p>
+ * Like the {@link NearCache} a read takes a {@link #stamp()} before it is sent and is only cached when no
+ * invalidation arrived in between. While the invalidation channel is down the cache is {@link #suspend()}ed.
+ */
+public class NegativeCache {
+
+    public NegativeCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.entries = new LinkedHashMap<>(Math.min(maxSize, 1024), 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > NegativeCache.this.maxSize;
+            }
+        };
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Long> entries;
+    private final AtomicLong invalidationSequence = new AtomicLong();
+    private final AtomicInteger suspended = new AtomicInteger();
+    private volatile boolean enabled = true;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * the key was read empty less than the ttl ago.
+     */
+    public boolean isEmpty(String key) {
+        if (!isEnabled()) {
+            return false;
+        }
+        synchronized (entries) {
+            Long expires = entries.get(key);
+            if (expires == null) {
+                return false;
+            }
+            if (expires - System.nanoTime() <= 0) {
+                entries.remove(key);
+                return false;
+            }
+        }
+        hits.increment();
+        return true;
+    }
+
+    public long stamp() {
+        return invalidationSequence.get();
+    }
+
+    public void put(String key, long stamp) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            if (invalidationSequence.get() != stamp) {
+                return;
+            }
+            // re-inserted, so the insertion order stays the expiry order
+            entries.remove(key);
+            entries.put(key, System.nanoTime() + ttlNanos);
+            expire();
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        Iterator<Long> expires = entries.values().iterator();
+        while (expires.hasNext() && expires.next() - now <= 0) {
+            expires.remove();
+        }
+    }
+
+    public void invalidate(String key) {
+        synchronized (entries) {
+            invalidationSequence.incrementAndGet();
+            if (entries.remove(key) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            invalidationSequence.incrementAndGet();
+            invalidations.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    /**
+     * without a live invalidation channel an add on another node would go unseen for the ttl.
+     */
+    public void setEnabled(boolean enabled) {
+        if (!enabled) {
+            clear();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * the invalidation channel is down, nothing is cached until it is {@link #resume()}d.
+     */
+    public void suspend() {
+        suspended.incrementAndGet();
+        clear();
+    }
+
+    /**
+     * the invalidation channel is back, a key added while it was down may still be cached empty.
+     */
+    public void resume() {
+        clear();
+        suspended.decrementAndGet();
+    }
+
+    public boolean isEnabled() {
+        return enabled && suspended.get() == 0;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+}
@@ -0,0 +1,303 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.Lane;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Short numeric aliases for the nodes of subscription values. vert.x adds a java serialized ClusterNodeInfo of a few
+ * hundred bytes per subscription, with aliases the multi map stores a marker byte and the alias digits instead.
+ * <p>
+ * A node that stores aliases takes its alias on join from the {@value #COUNTER} counter, aliases are never reused.
+ * With its first subscription it publishes its ClusterNodeInfo in the {@value #REGISTRY} hash (field alias to the
+ * encoded node, field "node.&lt;id&gt;" to the alias), the other nodes resolve an alias there once and keep it.
+ * Every node resolves aliases, whether it stores them or not ({@link #resolver(RedisKeyspace)}), an alias missing
+ * from the registry is left unresolved and its values are skipped.
+ * <p>
+ * The entries of a node stay as long as subscriptions may refer to them: a node removes its own when it leaves without
+ * subscriptions left ({@link #release(Handler)}), those of a crashed node stay until a remaining node that resolved
+ * the alias removed its subscriptions ({@link #forgetMatching(Predicate, Handler)}).
+ */
+public class NodeAliases {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeAliases.class);
+
+    public static final String COUNTER = "__vertx.nodes.alias";
+
+    public static final String REGISTRY = "__vertx.nodes.aliases";
+
+    /**
+     * the first byte of an alias value, an encoded value starts with 0 or 1.
+     */
+    private static final byte MARKER = 2;
+
+    private static final String NODE_FIELD = "node.";
+
+    /**
+     * allocates the alias of the node.
+     */
+    public static void allocate(RedisKeyspace keyspace, String nodeId, Handler<AsyncResult<NodeAliases>> handler) {
+        keyspace.api(Lane.CONTROL, COUNTER).incr(COUNTER, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis incr failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            long alias = r.result().toLong();
+            log.debug("node {} has alias {}", nodeId, alias);
+            handler.handle(Future.succeededFuture(new NodeAliases(keyspace, nodeId, alias)));
+        });
+    }
+
+    /**
+     * resolves the aliases other nodes store, this node stores none.
+     */
+    public static NodeAliases resolver(RedisKeyspace keyspace) {
+        return new NodeAliases(keyspace, null, 0L);
+    }
+
+    private NodeAliases(RedisKeyspace keyspace, String nodeId, long alias) {
+        this.keyspace = keyspace;
+        this.nodeId = nodeId;
+        this.alias = alias;
+        this.encoded = alias > 0L ? encoded(alias) : null;
+    }
+
+    private final RedisKeyspace keyspace;
+    private final String nodeId;
+    private final long alias;
+    private final String encoded;
+    private final RedisHMap<Object, Object> codec = new RedisHMap<>();
+    private final Map<Long, ClusterNodeInfo> nodes = new ConcurrentHashMap<>();
+    private final Map<String, String> aliases = new ConcurrentHashMap<>();
+    private volatile boolean published;
+
+    /**
+     * this node's alias, 0 when it stores none.
+     */
+    public long alias() {
+        return alias;
+    }
+
+    private static String encoded(long alias) {
+        return (char) MARKER + Long.toString(alias);
+    }
+
+    public static boolean isAlias(byte[] value) {
+        return value.length > 1 && value[0] == MARKER;
+    }
+
+    private static long alias(byte[] value) {
+        return Long.parseLong(new String(value, 1, value.length - 1, Charset.forName("ISO-8859-1")));
+    }
+
+    /**
+     * the alias value of a ClusterNodeInfo, null for other values, for nodes without an alias and when this node
+     * stores none. this node's is published before it is first handed out.
+     */
+    public void encode(Object value, Handler<AsyncResult<String>> handler) {
+        if (encoded == null || !(value instanceof ClusterNodeInfo)) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        ClusterNodeInfo info = (ClusterNodeInfo) value;
+        if (nodeId.equals(info.nodeId)) {
+            if (published) {
+                handler.handle(Future.succeededFuture(encoded));
+                return;
+            }
+            // the consumers of a deployment all ask at once, one of them publishes
+            keyspace.singleFlight().read(REGISTRY + "\0" + nodeId, h -> publish(info, h), handler);
+            return;
+        }
+        String cached = aliases.get(info.nodeId);
+        if (cached != null) {
+            handler.handle(Future.succeededFuture(cached));
+            return;
+        }
+        keyspace.api(Lane.CONTROL, REGISTRY).hget(REGISTRY, NODE_FIELD + info.nodeId, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result() == null) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis hget failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            String alias = encoded(r.result().toLong());
+            aliases.put(info.nodeId, alias);
+            handler.handle(Future.succeededFuture(alias));
+        });
+    }
+
+    private void publish(ClusterNodeInfo info, Handler<AsyncResult<String>> handler) {
+        String node;
+        try {
+            node = codec.asString(info);
+        } catch (Exception e) {
+            handler.handle(Future.failedFuture(e));
+            return;
+        }
+        Request hset = Request.cmd(Command.HSET).arg(REGISTRY).arg(alias).arg(RedisHMap.bytes(node))
+                .arg(NODE_FIELD + nodeId).arg(alias);
+        keyspace.redis(Lane.CONTROL, REGISTRY).send(hset, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis hset failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            nodes.put(alias, info);
+            aliases.put(nodeId, encoded);
+            published = true;
+            handler.handle(Future.succeededFuture(encoded));
+        });
+    }
+
+    /**
+     * looks up the aliases among the values that are not known yet, in one HMGET. those missing from the registry
+     * stay unresolved, {@link #node(byte[])} throws for them.
+     */
+    public void resolve(List<byte[]> values, Handler<AsyncResult<Void>> handler) {
+        List<String> missing = null;
+        for (byte[] value : values) {
+            if (isAlias(value) && !nodes.containsKey(alias(value))) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                    missing.add(REGISTRY);
+                }
+                missing.add(Long.toString(alias(value)));
+            }
+        }
+        if (missing == null) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        List<String> args = missing;
+        keyspace.api(Lane.CONTROL, REGISTRY).hmget(args, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis hmget failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            for (int i = 0; i < r.result().size(); i++) {
+                Response node = r.result().get(i);
+                if (node == null) {
+                    // forgotten after its node left, its values are about to be removed
+                    log.debug("unknown node alias {}", args.get(i + 1));
+                    continue;
+                }
+                ClusterNodeInfo info;
+                try {
+                    info = codec.asObject(RedisHMap.serialized(node));
+                } catch (Exception e) {
+                    log.warn("node alias {} does not decode", e, args.get(i + 1));
+                    continue;
+                }
+                nodes.put(Long.parseLong(args.get(i + 1)), info);
+                aliases.put(info.nodeId, encoded(Long.parseLong(args.get(i + 1))));
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    /**
+     * the node of a resolved alias value.
+     */
+    public ClusterNodeInfo node(byte[] value) {
+        ClusterNodeInfo info = nodes.get(alias(value));
+        if (info == null) {
+            throw new IllegalStateException("node alias " + alias(value) + " is not resolved");
+        }
+        return info;
+    }
+
+    /**
+     * removes this node's entries from the registry, on leave once none of its subscriptions is left.
+     */
+    public void release(Handler<AsyncResult<Void>> handler) {
+        if (!published) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        published = false;
+        keyspace.api(Lane.CONTROL, REGISTRY).hdel(List.of(REGISTRY, Long.toString(alias), NODE_FIELD + nodeId), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    /**
+     * removes the registry entries of the other nodes resolved here that the predicate matches, once every value it
+     * matches was removed from the multi maps. only the subscription map holds ClusterNodeInfo values, nothing
+     * refers to the aliases then.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> void forgetMatching(Predicate<V> removed, Handler<AsyncResult<Void>> handler) {
+        List<String> fields = new ArrayList<>();
+        for (Map.Entry<Long, ClusterNodeInfo> node : nodes.entrySet()) {
+            ClusterNodeInfo info = node.getValue();
+            if (info.nodeId.equals(nodeId)) {
+                continue;
+            }
+            try {
+                if (!removed.test((V) info)) {
+                    continue;
+                }
+            } catch (ClassCastException e) {
+                // a map of other values
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            nodes.remove(node.getKey());
+            aliases.remove(info.nodeId);
+            if (fields.isEmpty()) {
+                fields.add(REGISTRY);
+            }
+            fields.add(Long.toString(node.getKey()));
+            fields.add(NODE_FIELD + info.nodeId);
+        }
+        if (fields.isEmpty()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        keyspace.api(Lane.CONTROL, REGISTRY).hdel(fields, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+}
@@ -0,0 +1,163 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.spi.cluster.ChoosableIterable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ChoosableIterable over subscriber nodes that chooses by where they run and how busy they are, iteration
+ * (publish) is unchanged.
+ * <p>
+ * With a {@link NodeLocality}, choose() keeps to the values of the best {@link NodeLocality#rank(Object) rank}
+ * present and hands the spill-over share of the picks to the others. Within the values picked from, a
+ * {@link NodeLoad} makes it the less loaded of two drawn at random (power of two choices), otherwise it goes
+ * round-robin.
+ * <p>
+ * The values are ranked on the first choose. A set of more than {@value #SAMPLE} values ranks (and decodes) an
+ * evenly spread sample of that many from a random offset and chooses among it, so a send to an address with
+ * thousands of subscribers decodes {@value #SAMPLE} of them, not all. The ranks are taken again only while a node of
+ * the sample has an unknown locality, once it got known. A set whose first value is not a ClusterNodeInfo chooses
+ * as the wrapped one.
+ */
+public class NodeChoosableSet<T> implements ChoosableIterable<T> {
+
+    static final int SAMPLE = 64;
+
+    /**
+     * @param locality null to ignore where the nodes run
+     * @param load     null to ignore how loaded they are
+     */
+    NodeChoosableSet(LazyChoosableSet<T> values, NodeLocality locality, NodeLoad load) {
+        this.values = values;
+        this.locality = locality;
+        this.load = load;
+    }
+
+    private final LazyChoosableSet<T> values;
+    private final NodeLocality locality;
+    private final NodeLoad load;
+    private final AtomicInteger nextLocal = new AtomicInteger();
+    private final AtomicInteger nextRemote = new AtomicInteger();
+    private volatile Partition<T> partition;
+
+    private static final class Partition<T> {
+
+        private Partition(boolean nodes, boolean unknown, int version, List<T> local, List<T> remote) {
+            this.nodes = nodes;
+            this.unknown = unknown;
+            this.version = version;
+            this.local = local;
+            this.remote = remote;
+        }
+
+        private final boolean nodes;
+        /**
+         * a node of the values had no known locality, its rank may change.
+         */
+        private final boolean unknown;
+        private final int version;
+        private final List<T> local;
+        private final List<T> remote;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return values.iterator();
+    }
+
+    @Override
+    public T choose() {
+        Partition<T> p = partition();
+        if (p.local.isEmpty()) {
+            return values.choose();
+        }
+        if (!p.remote.isEmpty() && ThreadLocalRandom.current().nextDouble() < locality.spillOver()) {
+            return pick(p.remote, nextRemote);
+        }
+        return pick(p.local, nextLocal);
+    }
+
+    private T pick(List<T> candidates, AtomicInteger next) {
+        int size = candidates.size();
+        if (load == null || size == 1) {
+            return candidates.get(Math.floorMod(next.getAndIncrement(), size));
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        T a = candidates.get(first);
+        T b = candidates.get(second);
+        return load.load(b) < load.load(a) ? b : a;
+    }
+
+    private Partition<T> partition() {
+        Partition<T> p = partition;
+        int version = locality == null ? 0 : locality.version();
+        if (p != null && (!p.nodes || !p.unknown || p.version == version)) {
+            return p;
+        }
+        List<T> all = new ArrayList<>();
+        List<Integer> ranks = new ArrayList<>();
+        int best = 0;
+        boolean unknown = false;
+        for (T value : sample()) {
+            if (all.isEmpty() && !(value instanceof ClusterNodeInfo)) {
+                p = new Partition<>(false, false, version, new ArrayList<>(0), new ArrayList<>(0));
+                partition = p;
+                return p;
+            }
+            int rank = 0;
+            if (locality != null) {
+                unknown |= !locality.known(value);
+                rank = locality.rank(value);
+            }
+            best = Math.max(best, rank);
+            all.add(value);
+            ranks.add(rank);
+        }
+        List<T> local = new ArrayList<>();
+        List<T> remote = new ArrayList<>();
+        if (best > 0) {
+            for (int i = 0; i < all.size(); i++) {
+                (ranks.get(i) == best ? local : remote).add(all.get(i));
+            }
+        } else if (load != null) {
+            // no locality to prefer, the load picks among all
+            local = all;
+        }
+        p = new Partition<>(true, unknown, version, local, remote);
+        partition = p;
+        return p;
+    }
+
+    /**
+     * the values, at most {@value #SAMPLE} of them spread evenly from a random offset.
+     */
+    private List<T> sample() {
+        int size = values.size();
+        int count = Math.min(size, SAMPLE);
+        int offset = size > SAMPLE ? ThreadLocalRandom.current().nextInt(size) : 0;
+        List<T> sample = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            T value = values.get((int) ((offset + (long) i * size / count) % size));
+            if (value != null) {
+                sample.add(value);
+            }
+        }
+        return sample;
+    }
+
+}
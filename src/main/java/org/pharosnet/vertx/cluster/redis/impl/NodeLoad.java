@@ -0,0 +1,217 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.Lane;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How loaded the nodes are, so a send avoids the busy subscribers.
+ * <p>
+ * Every interval a node measures the lag of its event loops (how long a task waits before it runs, the worst loop
+ * counts) and publishes it in microseconds under its own key of the {@value #REGISTRY} tag, which expires after
+ * {@value #TTL_INTERVALS} intervals, so the entry of a node that died goes away by itself. What is published is
+ * smoothed, each probe weighs half, so a probe that happens to hit an idle moment of a busy node does not make it
+ * look idle.
+ * A loop blocked for longer than the interval reports the time it has been blocked so far. The loops are probed
+ * through contexts made once on start, as many as vert.x makes loops by default: a clustered vertx with a larger
+ * pool has its first loops probed.
+ * <p>
+ * A node only reads the loads of the nodes it chose among: the nodes asked for during an interval are read with
+ * the next report, in one MGET, and forgotten when not asked for again. Nodes without a known load count as idle.
+ * A node removes its entry when it leaves.
+ */
+public class NodeLoad {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeLoad.class);
+
+    public static final String REGISTRY = "__vertx.nodes.load";
+
+    static final int TTL_INTERVALS = 3;
+
+    /**
+     * starts reporting, the probed vertx is the clustered one, the timer runs on the transport.
+     */
+    public static NodeLoad start(Vertx probed, Vertx transport, RedisKeyspace keyspace, String nodeId, long interval) {
+        NodeLoad load = new NodeLoad(probed, transport, keyspace, nodeId, interval);
+        load.context.runOnContext(v -> {
+            load.timer = transport.setPeriodic(interval, id -> load.report());
+            load.report();
+        });
+        return load;
+    }
+
+    private NodeLoad(Vertx probed, Vertx transport, RedisKeyspace keyspace, String nodeId, long interval) {
+        this.transport = transport;
+        this.context = transport.getOrCreateContext();
+        this.keyspace = keyspace;
+        this.nodeId = nodeId;
+        this.interval = interval;
+        // made off the probed vertx's threads, each one is on the next of its loops
+        this.probes = new ArrayList<>(VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE);
+        for (int i = 0; i < VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE; i++) {
+            probes.add(probed.getOrCreateContext());
+        }
+    }
+
+    private final Vertx transport;
+    private final Context context;
+    private final RedisKeyspace keyspace;
+    private final String nodeId;
+    private final long interval;
+    private final List<Context> probes;
+    private final Set<String> wanted = ConcurrentHashMap.newKeySet();
+    private volatile Map<String, Long> loads = new HashMap<>();
+    private volatile long lag;
+    private volatile long timer = -1;
+    private volatile long probeStarted;
+    private volatile boolean probing;
+    private volatile boolean reporting;
+    private volatile boolean released;
+
+    /**
+     * the key of the node's load.
+     */
+    static String key(String nodeId) {
+        return HashSlot.tag(REGISTRY) + "." + nodeId;
+    }
+
+    /**
+     * the last lag reported by the value's node, 0 for values that are not a ClusterNodeInfo and for nodes whose
+     * load is not known (yet), it is read with the next report.
+     */
+    public long load(Object value) {
+        if (!(value instanceof ClusterNodeInfo)) {
+            return 0L;
+        }
+        String id = ((ClusterNodeInfo) value).nodeId;
+        if (nodeId.equals(id)) {
+            return lag;
+        }
+        wanted.add(id);
+        return loads.getOrDefault(id, 0L);
+    }
+
+    /**
+     * this node's smoothed event loop lag in microseconds.
+     */
+    public long lag() {
+        return lag;
+    }
+
+    private void report() {
+        if (released || reporting) {
+            return;
+        }
+        if (probing) {
+            // a loop is still blocked, it has been for at least this long
+            publish((System.nanoTime() - probeStarted) / 1000);
+            return;
+        }
+        probe(this::publish);
+    }
+
+    private void probe(Handler<Long> handler) {
+        probing = true;
+        long started = System.nanoTime();
+        probeStarted = started;
+        AtomicLong worst = new AtomicLong();
+        AtomicInteger remaining = new AtomicInteger(probes.size());
+        for (Context probe : probes) {
+            probe.runOnContext(v -> {
+                worst.accumulateAndGet(System.nanoTime() - started, Math::max);
+                if (remaining.decrementAndGet() == 0) {
+                    context.runOnContext(d -> {
+                        probing = false;
+                        handler.handle(worst.get() / 1000);
+                    });
+                }
+            });
+        }
+    }
+
+    private void publish(long sample) {
+        long lag = (this.lag + sample) / 2;
+        this.lag = lag;
+        if (released) {
+            return;
+        }
+        reporting = true;
+        String key = key(nodeId);
+        keyspace.api(Lane.CONTROL, key).set(List.of(key, Long.toString(lag), "PX", Long.toString(interval * TTL_INTERVALS)), r -> {
+            if (r.failed() || r.result().type() == ResponseType.ERROR) {
+                reporting = false;
+                log.debug("node {} load report failed, {}", nodeId, r.failed() ? r.cause().getMessage() : r.result());
+                return;
+            }
+            read();
+        });
+    }
+
+    /**
+     * reads the loads of the nodes asked for since the last read.
+     */
+    private void read() {
+        List<String> ids = new ArrayList<>(wanted);
+        wanted.removeAll(ids);
+        if (ids.isEmpty()) {
+            loads = new HashMap<>();
+            reporting = false;
+            return;
+        }
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            keys.add(key(id));
+        }
+        keyspace.api(Lane.CONTROL, keys.get(0)).mget(keys, ar -> {
+            reporting = false;
+            if (ar.failed() || ar.result().type() == ResponseType.ERROR) {
+                log.debug("node loads read failed, {}", ar.failed() ? ar.cause().getMessage() : ar.result());
+                return;
+            }
+            Response all = ar.result();
+            Map<String, Long> read = new HashMap<>(ids.size());
+            for (int i = 0; i < ids.size() && i < all.size(); i++) {
+                // a node without an entry left, died or does not report
+                if (all.get(i) != null) {
+                    read.put(ids.get(i), all.get(i).toLong());
+                }
+            }
+            loads = read;
+        });
+    }
+
+    /**
+     * stops reporting and removes this node's entry from the registry.
+     */
+    public void release(Handler<AsyncResult<Void>> handler) {
+        released = true;
+        transport.cancelTimer(timer);
+        String key = key(nodeId);
+        keyspace.api(Lane.CONTROL, key).del(List.of(key), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+}
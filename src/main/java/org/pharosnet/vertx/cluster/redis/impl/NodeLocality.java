@@ -0,0 +1,322 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.Lane;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Where the nodes run (host, zone, rack), so a send prefers the subscribers close to the sender.
+ * <p>
+ * A node publishes its locality on join in the {@value #REGISTRY} hash (field node id to "host TAB zone TAB rack")
+ * and loads the others'. A node it does not know yet counts as remote until its entry is fetched, in the background.
+ * A node whose entry is missing or could not be fetched counts as remote for {@value #UNKNOWN_TTL} ms, then it is
+ * fetched again. Ranks: same host 3, same zone and rack 2, same zone 1, anything else 0.
+ * <p>
+ * A node removes its entry when it leaves. Every {@value #SWEEP_INTERVAL} ms each node drops the places of the nodes
+ * no longer in the cluster's node list, and the member with the lowest id deletes the entries of the nodes missing
+ * from it two sweeps in a row, those of a crashed node or one that left without removing its own. Two sweeps, so the
+ * entry of a node that registered its locality but is not listed yet stays.
+ */
+public class NodeLocality {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeLocality.class);
+
+    public static final String REGISTRY = "__vertx.nodes.locality";
+
+    private static final String SEPARATOR = "\t";
+
+    static final long UNKNOWN_TTL = 30_000L;
+
+    static final long SWEEP_INTERVAL = 30_000L;
+
+    /**
+     * publishes the node's locality and loads the cluster's.
+     */
+    public static void register(RedisKeyspace keyspace, String nodeId, String host, String zone, String rack, double spillOver,
+                                Handler<AsyncResult<NodeLocality>> handler) {
+        NodeLocality locality = new NodeLocality(keyspace, nodeId, host, zone, rack, spillOver, UNKNOWN_TTL);
+        keyspace.api(Lane.CONTROL, REGISTRY).hset(List.of(REGISTRY, nodeId, locality.own.encoded()), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis hset failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            keyspace.api(Lane.CONTROL, REGISTRY).hgetall(REGISTRY, ar -> {
+                if (ar.failed()) {
+                    handler.handle(Future.failedFuture(ar.cause()));
+                    return;
+                }
+                if (ar.result().type() == ResponseType.ERROR) {
+                    handler.handle(Future.failedFuture("redis hgetall failed," + ar.result().toString(Charset.forName("UTF-8"))));
+                    return;
+                }
+                Response all = ar.result();
+                for (int i = 0; i + 1 < all.size(); i += 2) {
+                    locality.places.put(all.get(i).toString(Charset.forName("UTF-8")), Place.decode(all.get(i + 1).toString(Charset.forName("UTF-8"))));
+                }
+                log.debug("node {} runs at {}, {} nodes known", nodeId, locality.own.encoded(), locality.places.size());
+                handler.handle(Future.succeededFuture(locality));
+            });
+        });
+    }
+
+    NodeLocality(RedisKeyspace keyspace, String nodeId, String host, String zone, String rack, double spillOver, long unknownTtl) {
+        this.keyspace = keyspace;
+        this.nodeId = nodeId;
+        this.own = new Place(host, zone, rack, 0L);
+        this.spillOver = Math.max(0d, Math.min(1d, spillOver));
+        this.unknownTtlNanos = TimeUnit.MILLISECONDS.toNanos(unknownTtl);
+    }
+
+    private final RedisKeyspace keyspace;
+    private final String nodeId;
+    private final Place own;
+    private final double spillOver;
+    private final long unknownTtlNanos;
+    private final Map<String, Place> places = new ConcurrentHashMap<>();
+    private final AtomicInteger version = new AtomicInteger();
+    /**
+     * the registry's nodes the last sweep of the leader found missing from the node list.
+     */
+    private Set<String> absent = Collections.emptySet();
+    private Vertx transport;
+    private volatile long sweepTimer = -1L;
+    private volatile boolean released;
+
+    private static final class Place {
+
+        private Place(String host, String zone, String rack, long expires) {
+            this.host = host == null ? "" : host;
+            this.zone = zone == null ? "" : zone;
+            this.rack = rack == null ? "" : rack;
+            this.expires = expires;
+        }
+
+        private final String host;
+        private final String zone;
+        private final String rack;
+        /**
+         * nano time after which a node taken for remote is fetched again, 0 for a fetched place.
+         */
+        private final long expires;
+
+        private boolean expired() {
+            return expires != 0L && expires - System.nanoTime() <= 0;
+        }
+
+        private String encoded() {
+            return host + SEPARATOR + zone + SEPARATOR + rack;
+        }
+
+        private static Place decode(String encoded) {
+            String[] parts = encoded.split(SEPARATOR, -1);
+            return new Place(parts[0], parts.length > 1 ? parts[1] : "", parts.length > 2 ? parts[2] : "", 0L);
+        }
+    }
+
+    public double spillOver() {
+        return spillOver;
+    }
+
+    /**
+     * changes whenever a node's locality got known, ranks taken before may be outdated.
+     */
+    public int version() {
+        return version.get();
+    }
+
+    /**
+     * whether the rank of the value is final, false while its node's locality is not fetched yet.
+     */
+    public boolean known(Object value) {
+        if (!(value instanceof ClusterNodeInfo)) {
+            return true;
+        }
+        String id = ((ClusterNodeInfo) value).nodeId;
+        if (nodeId.equals(id)) {
+            return true;
+        }
+        Place place = places.get(id);
+        return place != null && !place.expired();
+    }
+
+    /**
+     * how close the value's node is, 0 for values that are not a ClusterNodeInfo and for unknown nodes.
+     */
+    public int rank(Object value) {
+        if (!(value instanceof ClusterNodeInfo)) {
+            return 0;
+        }
+        String id = ((ClusterNodeInfo) value).nodeId;
+        if (nodeId.equals(id)) {
+            return 3;
+        }
+        Place place = places.get(id);
+        if (place == null || place.expired()) {
+            // an expired place counts as remote until the fetch replaces it
+            fetch(id);
+            return 0;
+        }
+        if (!own.host.isEmpty() && own.host.equals(place.host)) {
+            return 3;
+        }
+        if (own.zone.isEmpty() || !own.zone.equals(place.zone)) {
+            return 0;
+        }
+        return !own.rack.isEmpty() && own.rack.equals(place.rack) ? 2 : 1;
+    }
+
+    private void fetch(String id) {
+        keyspace.singleFlight().<Void>read(REGISTRY + "\0" + id, h -> keyspace.api(Lane.CONTROL, REGISTRY).hget(REGISTRY, id, r -> {
+            if (r.failed() || r.result() == null || r.result().type() == ResponseType.ERROR) {
+                // a node without locality, gone, not registered yet or not reachable: remote for a while
+                places.put(id, new Place(null, null, null, System.nanoTime() + unknownTtlNanos));
+                version.incrementAndGet();
+                if (r.failed()) {
+                    h.handle(Future.failedFuture(r.cause()));
+                } else if (r.result() != null) {
+                    h.handle(Future.failedFuture("redis hget failed," + r.result().toString(Charset.forName("UTF-8"))));
+                } else {
+                    h.handle(Future.succeededFuture());
+                }
+                return;
+            }
+            places.put(id, Place.decode(r.result().toString(Charset.forName("UTF-8"))));
+            version.incrementAndGet();
+            h.handle(Future.succeededFuture());
+        }), r -> {
+            if (r.failed()) {
+                log.debug("node {} locality fetch failed", r.cause(), id);
+            }
+        });
+    }
+
+    /**
+     * forgets the node's place, it is fetched again should the node show up.
+     */
+    public void nodeLeft(String id) {
+        if (places.remove(id) != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * sweeps every {@value #SWEEP_INTERVAL} ms on the transport, members is the cluster's node list, it may block.
+     */
+    public void startSweeping(Vertx transport, Supplier<List<String>> members) {
+        this.transport = transport;
+        this.sweepTimer = transport.setPeriodic(SWEEP_INTERVAL, id -> transport.<List<String>>executeBlocking(
+                f -> f.complete(members.get()), false, mr -> {
+                    if (mr.failed()) {
+                        log.debug("node list for the locality sweep failed", mr.cause());
+                        return;
+                    }
+                    sweep(mr.result(), r -> {
+                        if (r.failed()) {
+                            log.debug("node locality sweep failed", r.cause());
+                        }
+                    });
+                }));
+    }
+
+    /**
+     * drops the places of the nodes not in members, the leader (lowest id) also deletes their registry entries once
+     * they were missing two sweeps in a row.
+     */
+    void sweep(List<String> members, Handler<AsyncResult<Void>> handler) {
+        Set<String> current = new HashSet<>(members);
+        for (String id : new ArrayList<>(places.keySet())) {
+            if (!current.contains(id)) {
+                nodeLeft(id);
+            }
+        }
+        if (released || !current.contains(nodeId) || !nodeId.equals(Collections.min(current))) {
+            synchronized (this) {
+                absent = Collections.emptySet();
+            }
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        keyspace.api(Lane.CONTROL, REGISTRY).hkeys(REGISTRY, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis hkeys failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            Set<String> missing = new HashSet<>();
+            List<String> dead = new ArrayList<>();
+            synchronized (this) {
+                for (Response field : r.result()) {
+                    String id = field.toString(Charset.forName("UTF-8"));
+                    if (current.contains(id)) {
+                        continue;
+                    }
+                    if (absent.contains(id)) {
+                        dead.add(id);
+                    } else {
+                        missing.add(id);
+                    }
+                }
+                absent = missing;
+            }
+            if (dead.isEmpty()) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            log.info("node locality of {} nodes no longer in the cluster removed, {}", dead.size(), dead);
+            List<String> args = new ArrayList<>(dead.size() + 1);
+            args.add(REGISTRY);
+            args.addAll(dead);
+            keyspace.api(Lane.CONTROL, REGISTRY).hdel(args, dr -> {
+                if (dr.failed()) {
+                    handler.handle(Future.failedFuture(dr.cause()));
+                    return;
+                }
+                handler.handle(Future.succeededFuture());
+            });
+        });
+    }
+
+    /**
+     * stops sweeping and removes this node's entry from the registry.
+     */
+    public void release(Handler<AsyncResult<Void>> handler) {
+        released = true;
+        if (sweepTimer >= 0) {
+            transport.cancelTimer(sweepTimer);
+        }
+        keyspace.api(Lane.CONTROL, REGISTRY).hdel(List.of(REGISTRY, nodeId), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+}
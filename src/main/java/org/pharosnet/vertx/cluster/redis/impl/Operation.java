@@ -0,0 +1,129 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import jdk.jfr.EventType;
+import org.pharosnet.vertx.cluster.redis.ClusterMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One logical cluster-manager operation being measured: started when it is called, ended by its result handler.
+ * Every redis command sent on its behalf counts one {@link #roundTrip()}.
+ * <p>
+ * It is reported to the {@link ClusterMetrics} and, while a flight recording has it enabled, as an {@link OperationEvent}.
+ */
+public class Operation {
+
+    /**
+     * shared by every operation while metrics and the JFR event are off, it records nothing.
+     */
+    static final Operation NONE = new Operation(ClusterMetrics.NONE, "", "", false);
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(OperationEvent.class);
+
+    public static Operation start(ClusterMetrics metrics, String name, String operation) {
+        boolean recording = EVENT_TYPE.isEnabled();
+        if (metrics == ClusterMetrics.NONE && !recording) {
+            return NONE;
+        }
+        return new Operation(metrics, name, operation, recording);
+    }
+
+    private Operation(ClusterMetrics metrics, String name, String operation, boolean recording) {
+        this.metrics = metrics;
+        this.name = name;
+        this.operation = operation;
+        this.started = System.nanoTime();
+        this.roundTrips = new AtomicInteger();
+        this.event = recording ? new OperationEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+    }
+
+    private final ClusterMetrics metrics;
+    private final String name;
+    private final String operation;
+    private final long started;
+    private final AtomicInteger roundTrips;
+    private final OperationEvent event;
+    private volatile String key;
+    private volatile String value;
+    private volatile int valueSize = -1;
+
+    public void roundTrip() {
+        if (this != NONE) {
+            roundTrips.incrementAndGet();
+        }
+    }
+
+    public int roundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * the redis key, only measured when the event is committed.
+     */
+    public void key(String key) {
+        if (event != null) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * the encoded value written, only measured when the event is committed.
+     */
+    public void value(String value) {
+        if (event != null) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * bytes of the value read.
+     */
+    public void valueSize(int valueSize) {
+        if (event != null) {
+            this.valueSize = valueSize;
+        }
+    }
+
+    /**
+     * the handler that records the operation before passing its result on.
+     */
+    public <T> Handler<AsyncResult<T>> end(Handler<AsyncResult<T>> handler) {
+        if (this == NONE) {
+            return handler;
+        }
+        return r -> {
+            if (metrics != ClusterMetrics.NONE) {
+                metrics.operation(name, operation, System.nanoTime() - started, roundTrips.get(), r.succeeded());
+            }
+            if (event != null) {
+                commit(r.succeeded());
+            }
+            handler.handle(r);
+        };
+    }
+
+    private void commit(boolean succeeded) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.name = name;
+        event.operation = operation;
+        event.keySize = key == null ? 0 : key.getBytes(StandardCharsets.UTF_8).length;
+        if (valueSize >= 0) {
+            event.valueSize = valueSize;
+        } else {
+            event.valueSize = value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+        }
+        event.roundTrips = roundTrips.get();
+        event.succeeded = succeeded;
+        event.commit();
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of one async map, multi map or counter operation, see {@link Operation}.
+ * only operations slower than the event's threshold setting are recorded, override it in the recording's .jfc.
+ */
+@Name("org.pharosnet.vertx.cluster.redis.Operation")
+@Label("Cluster Operation")
+@Category({"Vert.x", "Redis Cluster Manager"})
+@Description("A map, multi map or counter operation of the redis cluster manager")
+@Threshold("10 ms")
+@StackTrace(false)
+public class OperationEvent extends jdk.jfr.Event {
+
+    @Label("Name")
+    @Description("Map or counter name")
+    String name;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Key Size")
+    @DataAmount
+    int keySize;
+
+    @Label("Value Size")
+    @DataAmount
+    int valueSize;
+
+    @Label("Round Trips")
+    @Description("Redis commands sent by the operation")
+    int roundTrips;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+}
@@ -1,14 +1,15 @@
 package org.pharosnet.vertx.cluster.redis.impl;
 
 import io.vertx.core.AsyncResult;
-import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.redis.client.Command;
 import io.vertx.redis.client.Redis;
-import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
 import io.vertx.redis.client.ResponseType;
 
 import java.nio.charset.Charset;
@@ -19,19 +20,41 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
 
     private static final Logger log = LoggerFactory.getLogger(RedisAsyncMap.class);
 
-    public RedisAsyncMap(Redis redis, String name) {
-        this.api = RedisAPI.api(redis);
+    public static final String KEY_PREFIX = "_io.vertx.async.map.";
+
+    public RedisAsyncMap(RedisKeyspace keyspace, String name, boolean hashTag) {
+        this(keyspace, name, hashTag, false);
+    }
+
+    /**
+     * @param writeBehind puts complete at once (fail while its queue is full) and are written by the keyspace's {@link WriteBehind}
+     */
+    public RedisAsyncMap(RedisKeyspace keyspace, String name, boolean hashTag, boolean writeBehind) {
+        this.keyspace = keyspace;
+        this.writeBehind = writeBehind ? keyspace.writeBehind() : null;
         this.name = name;
-        this.map_key_map_key_prefix = String.format("_io.vertx.async.map.%s.key_", name);
+        this.metrics = keyspace.metrics();
+        this.metricName = name;
+        this.map_key_map_key_prefix = byteString(String.format(KEY_PREFIX + "%s.key_", hashTag ? HashSlot.tag(name) : name));
     }
 
     private String name;
     private String map_key_map_key_prefix;
 
-    private RedisAPI api;
+    private RedisKeyspace keyspace;
+    private WriteBehind writeBehind;
 
     @Override
-    public void get(K k, Handler<AsyncResult<V>> handler) {
+    public void get(K k, Handler<AsyncResult<V>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "get");
+        Handler<AsyncResult<V>> handler = op.end(resultHandler);
+        get(k, true, op, handler);
+    }
+
+    /**
+     * conditional operations read with fromReplica false, so they compare against the master's value.
+     */
+    private void get(K k, boolean fromReplica, Operation op, Handler<AsyncResult<V>> handler) {
 
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
@@ -45,33 +68,121 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
+
+        WriteBehind.Write queued = writeBehind == null ? null : writeBehind.queued(key);
+        if (queued != null) {
+            // newer than what redis holds
+            String value = queued.value();
+            if (value == null) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            try {
+                handler.handle(Future.succeededFuture(asObject(bytes(value))));
+            } catch (Exception e) {
+                log.error("redis async map get value failed at bytes to object", e);
+                handler.handle(Future.failedFuture(e));
+            }
+            return;
+        }
 
-        api.get(key, gr -> {
+        NearCache cache = fromReplica ? keyspace.nearCache() : null;
+        long stamp = 0;
+        if (cache != null) {
+            V cached = cache.get(key);
+            if (cached != null) {
+                handler.handle(Future.succeededFuture(cached));
+                return;
+            }
+            stamp = cache.stamp();
+        }
+        final long readStamp = stamp;
+
+        if (fromReplica) {
+            // the waiters share the bytes read, each decodes a value of its own
+            keyspace.singleFlight().<byte[], V>read(key, h -> read(k, key, true, op, cached(key, cache, readStamp, h)), this::decode, handler);
+        } else {
+            read(k, key, false, op, r -> {
+                if (r.failed()) {
+                    handler.handle(Future.failedFuture(r.cause()));
+                    return;
+                }
+                V v;
+                try {
+                    v = decode(r.result());
+                } catch (Exception e) {
+                    handler.handle(Future.failedFuture(e));
+                    return;
+                }
+                handler.handle(Future.succeededFuture(v));
+            });
+        }
+    }
+
+    /**
+     * the stored bytes of the key, null when it has none.
+     */
+    private void read(K k, String key, boolean fromReplica, Operation op, Handler<AsyncResult<byte[]>> handler) {
+        Redis redis = fromReplica ? keyspace.readRedis(key) : keyspace.redis(key);
+        op.roundTrip();
+        redis.send(Request.cmd(Command.GET).arg(bytes(key)), gr -> {
             if (gr.failed()) {
                 log.error("redis async map get failed, {}", gr.cause(), k);
                 handler.handle(Future.failedFuture(gr.cause()));
                 return;
             }
-            if (gr.result().type() == ResponseType.ERROR) {
-                handler.handle(Future.failedFuture("redis get failed," + gr.result().toString(Charset.forName("UTF-8"))));
+            if (gr.result() == null) {
+                handler.handle(Future.succeededFuture());
                 return;
             }
-            V v;
-            try {
-                v = asObject(gr.result().toBytes());
-            } catch (Exception e) {
-                log.error("redis async map get value failed at bytes to object", e);
-                handler.handle(Future.failedFuture(e));
+            if (gr.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis get failed," + gr.result().toString(Charset.forName("UTF-8"))));
                 return;
             }
-            handler.handle(Future.succeededFuture(v));
+            byte[] bytes = serialized(gr.result());
+            op.valueSize(bytes.length);
+            handler.handle(Future.succeededFuture(bytes));
         });
 
 
     }
 
+    /**
+     * the handler that near caches a value of its own of the bytes read first.
+     */
+    private Handler<AsyncResult<byte[]>> cached(String key, NearCache cache, long readStamp, Handler<AsyncResult<byte[]>> handler) {
+        if (cache == null) {
+            return handler;
+        }
+        return r -> {
+            if (r.succeeded() && r.result() != null) {
+                try {
+                    cache.put(key, asObject(r.result()), readStamp);
+                } catch (Exception e) {
+                    // the waiters decode it again and fail
+                }
+            }
+            handler.handle(r);
+        };
+    }
+
+    private V decode(byte[] bytes) throws Exception {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return asObject(bytes);
+        } catch (Exception e) {
+            log.error("redis async map get value failed at bytes to object", e);
+            throw e;
+        }
+    }
+
     @Override
-    public void put(K k, V v, Handler<AsyncResult<Void>> handler) {
+    public void put(K k, V v, Handler<AsyncResult<Void>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "put");
+        Handler<AsyncResult<Void>> handler = op.end(resultHandler);
 
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
@@ -85,6 +196,7 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
 
         if (v == null) {
             handler.handle(Future.failedFuture("value is empty"));
@@ -98,8 +210,15 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.value(value);
 
-        api.set(List.of(key, value), sr -> {
+        keyspace.invalidate(key);
+        if (writeBehind != null) {
+            writeBehind.put(key, value, 0L, handler);
+            return;
+        }
+        op.roundTrip();
+        keyspace.redis(key).send(Request.cmd(Command.SET).arg(bytes(key)).arg(bytes(value)), sr -> {
             if (sr.failed()) {
                 log.error("redis async map put failed, {}", sr.cause(), k);
                 handler.handle(Future.failedFuture(sr.cause()));
@@ -115,7 +234,9 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
     }
 
     @Override
-    public void put(K k, V v, long ttl, Handler<AsyncResult<Void>> handler) {
+    public void put(K k, V v, long ttl, Handler<AsyncResult<Void>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "put");
+        Handler<AsyncResult<Void>> handler = op.end(resultHandler);
 
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
@@ -129,6 +250,7 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
 
         if (v == null) {
             handler.handle(Future.failedFuture("value is empty"));
@@ -142,13 +264,20 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.value(value);
 
         if (ttl <= 0) {
             handler.handle(Future.failedFuture("redis async map put with ttl failed, bad ttl"));
             return;
         }
 
-        api.set(List.of(key, value, "" + ttl), sr -> {
+        keyspace.invalidate(key);
+        if (writeBehind != null) {
+            writeBehind.put(key, value, ttl, handler);
+            return;
+        }
+        op.roundTrip();
+        keyspace.redis(key).send(Request.cmd(Command.SET).arg(bytes(key)).arg(bytes(value)).arg("PX").arg(ttl), sr -> {
             if (sr.failed()) {
                 log.error("redis async map put with ttl failed, {}", sr.cause(), k);
                 handler.handle(Future.failedFuture(sr.cause()));
@@ -164,7 +293,9 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
     }
 
     @Override
-    public void putIfAbsent(K k, V v, Handler<AsyncResult<V>> handler) {
+    public void putIfAbsent(K k, V v, Handler<AsyncResult<V>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "putIfAbsent");
+        Handler<AsyncResult<V>> handler = op.end(resultHandler);
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
             return;
@@ -177,8 +308,10 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
 
-        api.exists(List.of(key), er -> {
+        op.roundTrip();
+        written(handler, () -> keyspace.redis(key).send(Request.cmd(Command.EXISTS).arg(bytes(key)), er -> {
             if (er.failed()) {
                 log.error("redis async map put with absent failed at check key, {}", er.cause(), k);
                 handler.handle(Future.failedFuture(er.cause()));
@@ -199,11 +332,13 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
                 }
                 handler.handle(Future.succeededFuture(v));
             });
-        });
+        }));
     }
 
     @Override
-    public void putIfAbsent(K k, V v, long ttl, Handler<AsyncResult<V>> handler) {
+    public void putIfAbsent(K k, V v, long ttl, Handler<AsyncResult<V>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "putIfAbsent");
+        Handler<AsyncResult<V>> handler = op.end(resultHandler);
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
             return;
@@ -216,8 +351,10 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
 
-        api.exists(List.of(key), er -> {
+        op.roundTrip();
+        written(handler, () -> keyspace.redis(key).send(Request.cmd(Command.EXISTS).arg(bytes(key)), er -> {
             if (er.failed()) {
                 log.error("redis async map put with absent and ttl failed at check key, {}", er.cause(), k);
                 handler.handle(Future.failedFuture(er.cause()));
@@ -238,12 +375,31 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
                 }
                 handler.handle(Future.succeededFuture(v));
             });
-        });
+        }));
 
     }
 
+    /**
+     * runs the operation once the queued puts of a write-behind map are in redis, at once for the others.
+     */
+    private <T> void written(Handler<AsyncResult<T>> handler, Runnable operation) {
+        if (writeBehind == null) {
+            operation.run();
+            return;
+        }
+        writeBehind.flush(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            operation.run();
+        });
+    }
+
     @Override
-    public void remove(K k, Handler<AsyncResult<V>> handler) {
+    public void remove(K k, Handler<AsyncResult<V>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "remove");
+        Handler<AsyncResult<V>> handler = op.end(resultHandler);
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
             return;
@@ -256,13 +412,16 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
             handler.handle(Future.failedFuture(e));
             return;
         }
-        get(k, gr -> {
+        op.key(key);
+        written(handler, () -> get(k, false, op, gr -> {
             V gv = null;
             if (gr.succeeded()) {
                 gv = gr.result();
             }
             final V v = gv;
-            api.del(List.of(key), r -> {
+            keyspace.invalidate(key);
+            op.roundTrip();
+            keyspace.redis(key).send(Request.cmd(Command.DEL).arg(bytes(key)), r -> {
                 if (r.failed()) {
                     log.error("redis async map remove failed at check key, {}", r.cause(), k);
                     handler.handle(Future.failedFuture(r.cause()));
@@ -274,12 +433,14 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
                 }
                 handler.handle(Future.succeededFuture(v));
             });
-        });
+        }));
     }
 
     @Override
-    public void removeIfPresent(K k, V v, Handler<AsyncResult<Boolean>> handler) {
-        get(k, gr -> {
+    public void removeIfPresent(K k, V v, Handler<AsyncResult<Boolean>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "removeIfPresent");
+        Handler<AsyncResult<Boolean>> handler = op.end(resultHandler);
+        get(k, false, op, gr -> {
             if (gr.failed()) {
                 handler.handle(Future.failedFuture(gr.cause()));
                 return;
@@ -300,7 +461,9 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
     }
 
     @Override
-    public void replace(K k, V v, Handler<AsyncResult<V>> handler) {
+    public void replace(K k, V v, Handler<AsyncResult<V>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "replace");
+        Handler<AsyncResult<V>> handler = op.end(resultHandler);
         put(k, v, r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
@@ -311,8 +474,10 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
     }
 
     @Override
-    public void replaceIfPresent(K k, V oldValue, V newValue, Handler<AsyncResult<Boolean>> handler) {
-        get(k, gr -> {
+    public void replaceIfPresent(K k, V oldValue, V newValue, Handler<AsyncResult<Boolean>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "replaceIfPresent");
+        Handler<AsyncResult<Boolean>> handler = op.end(resultHandler);
+        get(k, false, op, gr -> {
             if (gr.failed()) {
                 handler.handle(Future.failedFuture(gr.cause()));
                 return;
@@ -332,105 +497,82 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
     }
 
     @Override
-    public void clear(Handler<AsyncResult<Void>> handler) {
-        api.keys(map_key_map_key_prefix + "*", kr -> {
+    public void clear(Handler<AsyncResult<Void>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "clear");
+        Handler<AsyncResult<Void>> handler = op.end(resultHandler);
+        keyspace.invalidatePrefix(map_key_map_key_prefix);
+        written(handler, () -> keyspace.scan(map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-            if (kr.result().type() == ResponseType.ERROR) {
-                handler.handle(Future.failedFuture("redis async map clear failed," + kr.result().toString(Charset.forName("UTF-8"))));
-                return;
-            }
-            int size = kr.result().size();
-            List<String> keys = new ArrayList<>();
-            for (int i = 0; i < size; i++) {
-                String key = kr.result().get(i).toString(Charset.forName("UTF-8"));
-                keys.add(key);
-            }
-            api.del(keys, dr -> {
+            keyspace.del(kr.result(), op, dr -> {
                 if (dr.failed()) {
                     handler.handle(Future.failedFuture(dr.cause()));
                     return;
                 }
                 handler.handle(Future.succeededFuture());
             });
-        });
+        }));
     }
 
     @Override
-    public void size(Handler<AsyncResult<Integer>> handler) {
-        api.keys(map_key_map_key_prefix + "*", kr -> {
+    public void size(Handler<AsyncResult<Integer>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "size");
+        Handler<AsyncResult<Integer>> handler = op.end(resultHandler);
+        written(handler, () -> keyspace.scan(map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-            if (kr.result().type() == ResponseType.ERROR) {
-                handler.handle(Future.failedFuture("redis async map size failed," + kr.result().toString(Charset.forName("UTF-8"))));
-                return;
-            }
-            int size = kr.result().size();
-            handler.handle(Future.succeededFuture(size));
-        });
+            handler.handle(Future.succeededFuture(kr.result().size()));
+        }));
     }
 
     @Override
-    public void keys(Handler<AsyncResult<Set<K>>> handler) {
-        api.keys(map_key_map_key_prefix + "*", kr -> {
+    public void keys(Handler<AsyncResult<Set<K>>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "keys");
+        Handler<AsyncResult<Set<K>>> handler = op.end(resultHandler);
+        written(handler, () -> keyspace.scan(map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-            if (kr.result().type() == ResponseType.ERROR) {
-                handler.handle(Future.failedFuture("redis async map keys failed," + kr.result().toString(Charset.forName("UTF-8"))));
-                return;
-            }
-            int size = kr.result().size();
             Set<K> keys = new HashSet<>();
-            for (int i = 0; i < size; i++) {
-                byte[] key = kr.result().get(i).toBytes();
+            for (String key : kr.result()) {
                 try {
-                    keys.add(asObject(key));
+                    keys.add(asObject(bytes(key.substring(map_key_map_key_prefix.length()))));
                 } catch (Exception e) {
                     handler.handle(Future.failedFuture(e));
                     return;
                 }
             }
             handler.handle(Future.succeededFuture(keys));
-        });
+        }));
     }
 
     @Override
-    public void values(Handler<AsyncResult<List<V>>> handler) {
-        keys(kr -> {
+    public void values(Handler<AsyncResult<List<V>>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "values");
+        Handler<AsyncResult<List<V>>> handler = op.end(resultHandler);
+        written(handler, () -> keyspace.scan(map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-            Set<K> keySet = kr.result();
-            List<String> keys = new ArrayList<>();
-            for (K k : keySet) {
-                try {
-                    keys.add(asString(k));
-                } catch (Exception e) {
-                    handler.handle(Future.failedFuture(e));
-                    return;
-                }
-            }
-            api.mget(keys, gr -> {
+            keyspace.mget(kr.result(), op, gr -> {
                 if (gr.failed()) {
                     handler.handle(Future.failedFuture(gr.cause()));
                     return;
                 }
-                if (gr.result().type() == ResponseType.ERROR) {
-                    handler.handle(Future.failedFuture("redis async map values failed," + gr.result().toString(Charset.forName("UTF-8"))));
-                    return;
-                }
                 List<V> values = new ArrayList<>();
-                int size = gr.result().size();
-                for (int i = 0; i < size; i++) {
+                for (Response value : gr.result()) {
+                    // expired or removed after the scan
+                    if (value == null) {
+                        continue;
+                    }
                     try {
-                        values.add(asObject(gr.result().get(i).toBytes()));
+                        values.add(asObject(serialized(value)));
                     } catch (Exception e) {
                         handler.handle(Future.failedFuture(e));
                         return;
@@ -438,41 +580,43 @@ public class RedisAsyncMap<K, V> extends RedisHMap<K, V> implements AsyncMap<K,
                 }
                 handler.handle(Future.succeededFuture(values));
             });
-        });
+        }));
     }
 
     @Override
-    public void entries(Handler<AsyncResult<Map<K, V>>> handler) {
-        keys(kr -> {
+    public void entries(Handler<AsyncResult<Map<K, V>>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "entries");
+        Handler<AsyncResult<Map<K, V>>> handler = op.end(resultHandler);
+        written(handler, () -> keyspace.scan(map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-
-            Set<K> keySet = kr.result();
-            List<Future> futures = new ArrayList<>();
-            for (K k : keySet) {
-                Future<KeyValue<K, V>> future = Future.future();
-                get(k, gr -> {
-                    if (gr.failed()) {
-                        future.fail(gr.cause());
-                        return;
-                    }
-                    future.complete(new KeyValue<>(k, gr.result()));
-                });
-            }
-            CompositeFuture.all(futures).setHandler(r -> {
-                if (r.failed()) {
-                    handler.handle(Future.failedFuture(r.cause()));
+            List<String> keys = kr.result();
+            keyspace.mget(keys, op, gr -> {
+                if (gr.failed()) {
+                    handler.handle(Future.failedFuture(gr.cause()));
+                    return;
                 }
                 Map<K, V> map = new ConcurrentHashMap<>();
-                List<KeyValue<K, V>> result = r.result().list();
-                for (KeyValue<K, V> kv : result) {
-                    map.put(kv.getKey(), kv.getValue());
+                List<Response> values = gr.result();
+                for (int i = 0; i < keys.size(); i++) {
+                    Response value = values.get(i);
+                    // expired or removed after the scan
+                    if (value == null) {
+                        continue;
+                    }
+                    try {
+                        K k = asObject(bytes(keys.get(i).substring(map_key_map_key_prefix.length())));
+                        map.put(k, asObject(serialized(value)));
+                    } catch (Exception e) {
+                        handler.handle(Future.failedFuture(e));
+                        return;
+                    }
                 }
                 handler.handle(Future.succeededFuture(map));
             });
-        });
+        }));
     }
 
 }
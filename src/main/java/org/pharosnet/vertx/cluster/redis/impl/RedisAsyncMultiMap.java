@@ -4,18 +4,28 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.spi.cluster.AsyncMultiMap;
 import io.vertx.core.spi.cluster.ChoosableIterable;
+import io.vertx.redis.client.Command;
 import io.vertx.redis.client.Redis;
-import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
 import io.vertx.redis.client.Response;
 import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.Lane;
 
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Predicate;
 
@@ -23,18 +33,58 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
 
     private static final Logger log = LoggerFactory.getLogger(RedisAsyncMultiMap.class);
 
-    public RedisAsyncMultiMap(Redis redis, String name) {
+    public static final String KEY_PREFIX = "_io.vertx.async.multi.map.";
+
+    public RedisAsyncMultiMap(RedisKeyspace keyspace, String name, boolean hashTag) {
         this.name = name;
-        this.api = RedisAPI.api(redis);
-        multi_map_key_map_key_prefix = String.format("_io.vertx.async.multi.map.%s.key_", name);
+        this.keyspace = keyspace;
+        this.metrics = keyspace.metrics();
+        this.metricName = name;
+        multi_map_key_map_key_prefix = byteString(String.format(KEY_PREFIX + "%s.key_", hashTag ? HashSlot.tag(name) : name));
+        multi_map_log_key = byteString(String.format(KEY_PREFIX + "%s.log", hashTag ? HashSlot.tag(name) : name));
     }
 
     private String name;
     private String multi_map_key_map_key_prefix;
-    private RedisAPI api;
+    private String multi_map_log_key;
+    private RedisKeyspace keyspace;
+    private volatile RedisMultiMapReplica replica;
+    private final RegistrationCounts registrations = new RegistrationCounts();
+
+    /**
+     * keeps an in-memory copy of the map from its change log, gets are served from it once it is live.
+     * every node of the cluster has to replicate the map, the others would not log their writes.
+     *
+     * @param snapshotDirectory where the copy is kept across restarts, null for nowhere
+     */
+    public void replicate(Vertx vertx, RedisOptions options, int maxLength, long snapshotInterval, long reconcileInterval,
+                          Path snapshotDirectory, Handler<AsyncResult<RedisMultiMapReplica>> handler) {
+        // named after the log key as text
+        Path snapshotFile = snapshotDirectory == null ? null
+                : snapshotDirectory.resolve(new String(bytes(multi_map_log_key), Charset.forName("UTF-8")) + ".snapshot");
+        RedisMultiMapReplica started = new RedisMultiMapReplica(vertx, options, keyspace, multi_map_key_map_key_prefix,
+                multi_map_log_key, maxLength, snapshotInterval, reconcileInterval, snapshotFile);
+        keyspace.startReplica(started, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            this.replica = started;
+            handler.handle(Future.succeededFuture(started));
+        });
+    }
+
+    /**
+     * the (key, value) pairs this node added and did not remove.
+     */
+    public int registered() {
+        return registrations.size();
+    }
 
     @Override
-    public void add(K k, V v, Handler<AsyncResult<Void>> handler) {
+    public void add(K k, V v, Handler<AsyncResult<Void>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "add");
+        Handler<AsyncResult<Void>> handler = op.end(resultHandler);
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
             return;
@@ -47,19 +97,29 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
         if (v == null) {
             handler.handle(Future.failedFuture("value is empty"));
             return;
         }
-        String value;
-        try {
-            value = asString(v);
-        } catch (Exception e) {
-            log.error("redis async multi map add failed at value to string, {}", e, v);
-            handler.handle(Future.failedFuture(e));
-            return;
-        }
-        api.lpush(List.of(key, value), r -> {
+        encodeValue(v, vr -> {
+            if (vr.failed()) {
+                log.error("redis async multi map add failed at value to string, {}", vr.cause(), v);
+                handler.handle(Future.failedFuture(vr.cause()));
+                return;
+            }
+            String value = vr.result();
+            op.value(value);
+            // a pair this node already added completes with its push
+            registrations.acquire(key, value, pushed -> push(key, value, op, pushed), handler);
+        });
+
+    }
+
+    private void push(String key, String value, Operation op, Handler<AsyncResult<Void>> handler) {
+        keyspace.invalidate(key);
+        op.roundTrip();
+        Handler<AsyncResult<Response>> pushed = r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
                 return;
@@ -68,13 +128,26 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                 handler.handle(Future.failedFuture("redis lpush failed," + r.result().toString(Charset.forName("UTF-8"))));
                 return;
             }
-            handler.handle(Future.succeededFuture());
-        });
-
+            if (r.result().toLong() != 1L) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            // the first value, other nodes may have the key in their negative cache
+            op.roundTrip();
+            keyspace.publishFirstValue(key, handler);
+        };
+        RedisMultiMapReplica replica = this.replica;
+        if (replica != null) {
+            replica.add(key, value, pushed);
+        } else {
+            keyspace.send(key, Request.cmd(Command.LPUSH).arg(bytes(key)).arg(bytes(value)), pushed);
+        }
     }
 
     @Override
-    public void get(K k, Handler<AsyncResult<ChoosableIterable<V>>> handler) {
+    public void get(K k, Handler<AsyncResult<ChoosableIterable<V>>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "get");
+        Handler<AsyncResult<ChoosableIterable<V>>> handler = op.end(resultHandler);
         if (k == null) {
             handler.handle(Future.failedFuture("get failed, key is empty"));
             return;
@@ -87,8 +160,219 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
+
+        RedisMultiMapReplica replica = this.replica;
+        if (replica != null) {
+            RedisMultiMapReplica.Values values = replica.get(key);
+            if (values != null) {
+                fromReplica(key, values, handler);
+                return;
+            }
+        }
+
+        NearCache cache = keyspace.nearCache();
+        long stamp = 0;
+        if (cache != null) {
+            ChoosableIterable<V> cached = cache.get(key);
+            if (cached != null) {
+                handler.handle(Future.succeededFuture(cached));
+                return;
+            }
+            stamp = cache.stamp();
+        }
+        final long readStamp = stamp;
+
+        NegativeCache empty = keyspace.negativeCache();
+        long emptyStamp = 0;
+        if (empty != null) {
+            if (empty.isEmpty(key)) {
+                handler.handle(Future.succeededFuture(new ChoosableSet<>(0)));
+                return;
+            }
+            emptyStamp = empty.stamp();
+        }
+        final long readEmptyStamp = emptyStamp;
+
+        keyspace.singleFlight().<ChoosableIterable<V>>read(key, h -> read(key, cache, readStamp, empty, readEmptyStamp, op, h), handler);
+    }
 
-        api.llen(key, lr -> {
+    /**
+     * looks up several keys at once, for publishing one message to many addresses. keys answered locally (replica,
+     * near cache, negative cache) cost nothing, the others are read with one pipelined LRANGE per connection (per
+     * slot in cluster mode) and their node aliases resolved together, one round trip for all of them instead of two each.
+     * the reads go to the master, not to a replica of the read preference. a key that fails fails the whole lookup.
+     */
+    @SuppressWarnings("unchecked")
+    public void getAll(Collection<K> ks, Handler<AsyncResult<Map<K, ChoosableIterable<V>>>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "getAll");
+        Handler<AsyncResult<Map<K, ChoosableIterable<V>>>> handler = op.end(resultHandler);
+        if (ks == null) {
+            handler.handle(Future.failedFuture("get all failed, keys are empty"));
+            return;
+        }
+        List<K> order = new ArrayList<>(new LinkedHashSet<>(ks));
+        ChoosableIterable<V>[] results = new ChoosableIterable[order.size()];
+        List<Future> futures = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        List<Integer> missingAt = new ArrayList<>();
+
+        RedisMultiMapReplica replica = this.replica;
+        NearCache cache = keyspace.nearCache();
+        long readStamp = cache == null ? 0 : cache.stamp();
+        NegativeCache empty = keyspace.negativeCache();
+        long readEmptyStamp = empty == null ? 0 : empty.stamp();
+        for (int i = 0; i < order.size(); i++) {
+            K k = order.get(i);
+            if (k == null) {
+                handler.handle(Future.failedFuture("get all failed, key is empty"));
+                return;
+            }
+            String key;
+            try {
+                key = multi_map_key_map_key_prefix + asString(k);
+            } catch (Exception e) {
+                log.error("redis async multi map get all failed at key to string, {}", e, k);
+                handler.handle(Future.failedFuture(e));
+                return;
+            }
+            RedisMultiMapReplica.Values values = replica == null ? null : replica.get(key);
+            if (values != null) {
+                int at = i;
+                Future<ChoosableIterable<V>> future = Future.future();
+                fromReplica(key, values, future);
+                futures.add(future.map(set -> results[at] = set));
+                continue;
+            }
+            ChoosableIterable<V> cached = cache == null ? null : cache.get(key);
+            if (cached != null) {
+                results[i] = cached;
+                continue;
+            }
+            if (empty != null && empty.isEmpty(key)) {
+                results[i] = new ChoosableSet<>(0);
+                continue;
+            }
+            missing.add(key);
+            missingAt.add(i);
+        }
+
+        if (!missing.isEmpty()) {
+            Future<Void> future = Future.future();
+            futures.add(future);
+            readAll(missing, cache, readStamp, empty, readEmptyStamp, op, rr -> {
+                if (rr.failed()) {
+                    future.fail(rr.cause());
+                    return;
+                }
+                for (int j = 0; j < missingAt.size(); j++) {
+                    results[missingAt.get(j)] = rr.result().get(j);
+                }
+                future.complete();
+            });
+        }
+
+        CompositeFuture.all(futures).setHandler(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            Map<K, ChoosableIterable<V>> found = new LinkedHashMap<>();
+            for (int i = 0; i < order.size(); i++) {
+                found.put(order.get(i), results[i]);
+            }
+            handler.handle(Future.succeededFuture(found));
+        });
+    }
+
+    private void readAll(List<String> keys, NearCache cache, long readStamp, NegativeCache empty, long readEmptyStamp,
+                         Operation op, Handler<AsyncResult<List<ChoosableIterable<V>>>> handler) {
+        List<Request> requests = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            requests.add(Request.cmd(Command.LRANGE).arg(bytes(key)).arg(0).arg(-1));
+        }
+        op.roundTrip();
+        keyspace.pipeline(keys, requests, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            List<byte[]> values = new ArrayList<>();
+            int[] sizes = new int[keys.size()];
+            int valueSize = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                Response list = r.result().get(i);
+                if (list.type() == ResponseType.ERROR) {
+                    handler.handle(Future.failedFuture("redis lrange failed," + list.toString(Charset.forName("UTF-8"))));
+                    return;
+                }
+                sizes[i] = list.size();
+                for (int j = 0; j < sizes[i]; j++) {
+                    byte[] bytes = serialized(list.get(j));
+                    valueSize += bytes.length;
+                    values.add(bytes);
+                }
+            }
+            op.valueSize(valueSize);
+            // unknown node aliases of all the keys are resolved together
+            resolveAliases(values, ar -> {
+                if (ar.failed()) {
+                    log.error("redis lrange failed at value to object", ar.cause());
+                    handler.handle(Future.failedFuture(ar.cause()));
+                    return;
+                }
+                List<ChoosableIterable<V>> sets = new ArrayList<>(keys.size());
+                int from = 0;
+                for (int i = 0; i < keys.size(); i++) {
+                    ChoosableIterable<V> set = choosable(values.subList(from, from + sizes[i]), ar.result());
+                    from += sizes[i];
+                    if (cache != null) {
+                        cache.put(keys.get(i), set, readStamp);
+                    }
+                    if (sizes[i] == 0 && empty != null) {
+                        empty.put(keys.get(i), readEmptyStamp);
+                    }
+                    sets.add(set);
+                }
+                handler.handle(Future.succeededFuture(sets));
+            });
+        });
+    }
+
+    private void fromReplica(String key, RedisMultiMapReplica.Values values, Handler<AsyncResult<ChoosableIterable<V>>> handler) {
+        ChoosableIterable<V> decoded = values.decoded();
+        if (decoded != null) {
+            handler.handle(Future.succeededFuture(decoded));
+            return;
+        }
+        if (values.stored().isEmpty()) {
+            handler.handle(Future.succeededFuture(new ChoosableSet<>(0)));
+            return;
+        }
+        // a burst of lookups decodes (and resolves node aliases) once
+        keyspace.singleFlight().<ChoosableIterable<V>>read(key, h -> decode(values, h), handler);
+    }
+
+    private void decode(RedisMultiMapReplica.Values values, Handler<AsyncResult<ChoosableIterable<V>>> handler) {
+        List<byte[]> stored = values.bytes();
+        resolveAliases(stored, ar -> {
+            if (ar.failed()) {
+                log.error("redis multi map replica failed at value to object", ar.cause());
+                handler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            ChoosableIterable<V> set = choosable(stored, ar.result());
+            // kept until the key changes, each value decoded at most once
+            values.decoded(set);
+            handler.handle(Future.succeededFuture(set));
+        });
+    }
+
+    private void read(String key, NearCache cache, long readStamp, NegativeCache empty, long readEmptyStamp, Operation op,
+                      Handler<AsyncResult<ChoosableIterable<V>>> handler) {
+        Redis redis = keyspace.readRedis(key);
+        op.roundTrip();
+        redis.send(Request.cmd(Command.LLEN).arg(bytes(key)), lr -> {
             if (lr.failed()) {
                 handler.handle(Future.failedFuture(lr.cause()));
                 return;
@@ -99,11 +383,20 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
             }
             Long length = Optional.ofNullable(lr.result().toLong()).orElse(0L);
             if (length <= 0L) {
-                handler.handle(Future.succeededFuture(new ChoosableSet<>(0)));
+                ChoosableSet<V> none = new ChoosableSet<>(0);
+                if (cache != null) {
+                    cache.put(key, none, readStamp);
+                }
+                // a replica may not have the first add yet, only the master's answer is kept
+                if (empty != null && !keyspace.readsReplica(redis)) {
+                    empty.put(key, readEmptyStamp);
+                }
+                handler.handle(Future.succeededFuture(none));
                 return;
             }
 
-            api.lrange(key, "0", length.toString(), r -> {
+            op.roundTrip();
+            redis.send(Request.cmd(Command.LRANGE).arg(bytes(key)).arg(0).arg(length), r -> {
                 if (r.failed()) {
                     handler.handle(Future.failedFuture(r.cause()));
                     return;
@@ -113,26 +406,35 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                     return;
                 }
                 int size = r.result().size();
-                ChoosableSet<V> set = new ChoosableSet<>(size);
+                List<byte[]> values = new ArrayList<>(size);
+                int valueSize = 0;
                 for (int i = 0; i < size; i++) {
-                    V v;
-                    try {
-                        v = asObject(r.result().get(i).toBytes());
-                    } catch (Exception e) {
-                        log.error("redis lrange failed at value to object", e);
-                        handler.handle(Future.failedFuture(e));
+                    byte[] bytes = serialized(r.result().get(i));
+                    valueSize += bytes.length;
+                    values.add(bytes);
+                }
+                op.valueSize(valueSize);
+                resolveAliases(values, ar -> {
+                    if (ar.failed()) {
+                        log.error("redis lrange failed at value to object", ar.cause());
+                        handler.handle(Future.failedFuture(ar.cause()));
                         return;
                     }
-                    set.add(v);
-                }
-                handler.handle(Future.succeededFuture(set));
+                    ChoosableIterable<V> set = choosable(values, ar.result());
+                    if (cache != null) {
+                        cache.put(key, set, readStamp);
+                    }
+                    handler.handle(Future.succeededFuture(set));
+                });
             });
 
         });
     }
 
     @Override
-    public void remove(K k, V v, Handler<AsyncResult<Boolean>> handler) {
+    public void remove(K k, V v, Handler<AsyncResult<Boolean>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "remove");
+        Handler<AsyncResult<Boolean>> handler = op.end(resultHandler);
 
         if (k == null) {
             handler.handle(Future.failedFuture("key is empty"));
@@ -146,20 +448,29 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
             handler.handle(Future.failedFuture(e));
             return;
         }
+        op.key(key);
         if (v == null) {
             handler.handle(Future.failedFuture("value is empty"));
             return;
         }
-        String value;
-        try {
-            value = asString(v);
-        } catch (Exception e) {
-            log.error("redis async multi map remove failed at value to string, {}", e, v);
-            handler.handle(Future.failedFuture(e));
-            return;
-        }
+        encodeValue(v, vr -> {
+            if (vr.failed()) {
+                log.error("redis async multi map remove failed at value to string, {}", vr.cause(), v);
+                handler.handle(Future.failedFuture(vr.cause()));
+                return;
+            }
+            String value = vr.result();
+            op.value(value);
+            // other adds of this node may still hold the pair
+            registrations.release(key, value, removed -> lrem(key, value, op, removed), handler);
+        });
 
-        api.lrem(key, "0", value, r -> {
+    }
+
+    private void lrem(String key, String value, Operation op, Handler<AsyncResult<Boolean>> handler) {
+        keyspace.invalidate(key);
+        op.roundTrip();
+        Handler<AsyncResult<Response>> removed = r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
                 return;
@@ -170,39 +481,59 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
             }
             boolean flag = Optional.ofNullable(r.result().toInteger()).orElse(0) > 0;
             handler.handle(Future.succeededFuture(flag));
-        });
-
+        };
+        RedisMultiMapReplica replica = this.replica;
+        if (replica != null) {
+            replica.remove(key, value, removed);
+        } else {
+            keyspace.send(key, Request.cmd(Command.LREM).arg(bytes(key)).arg(0).arg(bytes(value)), removed);
+        }
     }
 
     @Override
-    public void removeAllForValue(V v, Handler<AsyncResult<Void>> handler) {
-        String value;
-        try {
-            value = asString(v);
-        } catch (Exception e) {
-            log.error("redis async multi map remove all for key at value to string, {}", e, v);
-            handler.handle(Future.failedFuture(e));
-            return;
-        }
+    public void removeAllForValue(V v, Handler<AsyncResult<Void>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "removeAllForValue");
+        Handler<AsyncResult<Void>> handler = op.end(resultHandler);
+        encodeValue(v, vr -> {
+            if (vr.failed()) {
+                log.error("redis async multi map remove all for key at value to string, {}", vr.cause(), v);
+                handler.handle(Future.failedFuture(vr.cause()));
+                return;
+            }
+            registrations.forgetValue(vr.result());
+            removeAllForValue(vr.result(), op, rr -> {
+                if (rr.failed() || !(v instanceof ClusterNodeInfo)) {
+                    handler.handle(rr);
+                    return;
+                }
+                // a left node's subscriptions are gone, so is the last use of its alias
+                keyspace.nodeAliases().forgetMatching(v::equals, fr -> {
+                    if (fr.failed()) {
+                        log.warn("forget node alias of {} failed", fr.cause(), v);
+                    }
+                    handler.handle(rr);
+                });
+            });
+        });
+    }
+
+    private void removeAllForValue(String value, Operation op, Handler<AsyncResult<Void>> handler) {
+        op.value(value);
 
-        api.keys(multi_map_key_map_key_prefix + "*", kr -> {
+        keyspace.scan(multi_map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-            if (kr.result().type() == ResponseType.ERROR) {
-                handler.handle(Future.failedFuture("redis keys failed," + kr.result().toString(Charset.forName("UTF-8"))));
-                return;
-            }
-
 
-            int size = kr.result().size();
-            List<Future> futures = new ArrayList<>(size);
+            List<Future> futures = new ArrayList<>(kr.result().size());
 
-            for (int i = 0; i < size; i++) {
-                String key = kr.result().get(i).toString(Charset.forName("UTF-8"));
+            // single-key LREMs, each one routed to the master owning the key's slot
+            for (String key : kr.result()) {
                 Future<Response> future = Future.future();
-                api.lrem(key, "0", value, future);
+                keyspace.invalidate(key);
+                op.roundTrip();
+                keyspace.redis(Lane.BULK, key).send(Request.cmd(Command.LREM).arg(bytes(key)).arg(0).arg(bytes(value)), future);
                 futures.add(future);
             }
 
@@ -213,33 +544,34 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                     handler.handle(Future.failedFuture(r.cause()));
                     return;
                 }
+                RedisMultiMapReplica replica = this.replica;
+                if (replica != null) {
+                    op.roundTrip();
+                    replica.removeAll(value, handler);
+                    return;
+                }
                 handler.handle(Future.succeededFuture());
             });
         });
     }
 
     @Override
-    public void removeAllMatching(Predicate<V> p, Handler<AsyncResult<Void>> handler) {
-        api.keys(multi_map_key_map_key_prefix + "*", kr -> {
+    public void removeAllMatching(Predicate<V> p, Handler<AsyncResult<Void>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "removeAllMatching");
+        Handler<AsyncResult<Void>> handler = op.end(resultHandler);
+        keyspace.scan(multi_map_key_map_key_prefix, op, kr -> {
             if (kr.failed()) {
                 handler.handle(Future.failedFuture(kr.cause()));
                 return;
             }
-            if (kr.result().type() == ResponseType.ERROR) {
-                handler.handle(Future.failedFuture("redis keys failed," + kr.result().toString(Charset.forName("UTF-8"))));
-                return;
-            }
 
             List<Future> futures = new ArrayList<>();
 
-
-            int size = kr.result().size();
-
-            for (int i = 0; i < size; i++) {
-                String key = kr.result().get(i).toString(Charset.forName("UTF-8"));
-                api.llen(key, lr -> {
-                    Future<KeyValue<String, V>> future = Future.future();
-                    futures.add(future);
+            for (String key : kr.result()) {
+                Future<List<KeyValue<String, String>>> future = Future.future();
+                futures.add(future);
+                op.roundTrip();
+                keyspace.redis(Lane.BULK, key).send(Request.cmd(Command.LLEN).arg(bytes(key)), lr -> {
                     if (lr.failed()) {
                         future.fail(lr.cause());
                         return;
@@ -250,11 +582,12 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                     }
                     Long length = Optional.ofNullable(lr.result().toLong()).orElse(0L);
                     if (length <= 0L) {
-                        future.complete(new KeyValue());
+                        future.complete(new ArrayList<>());
                         return;
                     }
 
-                    api.lrange(key, "0", length.toString(), r -> {
+                    op.roundTrip();
+                    keyspace.redis(Lane.BULK, key).send(Request.cmd(Command.LRANGE).arg(bytes(key)).arg(0).arg(length), r -> {
                         if (r.failed()) {
                             future.fail(r.cause());
                             return;
@@ -264,21 +597,26 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                             return;
                         }
                         int size1 = r.result().size();
+                        List<byte[]> values = new ArrayList<>(size1);
                         for (int j = 0; j < size1; j++) {
-                            V v;
-                            try {
-                                v = asObject(r.result().get(j).toBytes());
-                            } catch (Exception e) {
-                                log.error("redis lrange failed at value to object", e);
-                                future.fail(e);
+                            values.add(serialized(r.result().get(j)));
+                        }
+                        decodeValues(values, dr -> {
+                            if (dr.failed()) {
+                                log.error("redis lrange failed at value to object", dr.cause());
+                                future.fail(dr.cause());
                                 return;
                             }
-                            if (p.test(v)) {
-                                future.complete(new KeyValue(key, v));
-                            } else {
-                                future.complete(new KeyValue());
+                            // removed as stored, an alias value does not encode back from its node
+                            List<KeyValue<String, String>> matched = new ArrayList<>();
+                            for (int j = 0; j < size1; j++) {
+                                V value = dr.result().get(j);
+                                if (value != null && p.test(value)) {
+                                    matched.add(new KeyValue<>(key, new String(values.get(j), Charset.forName("ISO-8859-1"))));
+                                }
                             }
-                        }
+                            future.complete(matched);
+                        });
                     });
                 });
             }
@@ -291,30 +629,31 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                     return;
                 }
 
-                List<KeyValue<String, V>> keyValues = r.result().list();
+                List<KeyValue<String, String>> keyValues = new ArrayList<>();
+                List<List<KeyValue<String, String>>> matches = r.result().list();
+                for (List<KeyValue<String, String>> match : matches) {
+                    keyValues.addAll(match);
+                }
                 // TODO LREM WITH COMPOSITE
                 List<Future> remFutures = new ArrayList<>();
-                for (KeyValue<String, V> keyValue : keyValues) {
+                for (KeyValue<String, String> keyValue : keyValues) {
                     if (keyValue.isEmpty()) {
                         continue;
                     }
 
 
                     Future<Void> remFuture = Future.future();
+                    remFutures.add(remFuture);
 
                     String key = keyValue.getKey();
+                    String value = keyValue.getValue();
+                    registrations.forget(key, value);
 
-                    String value;
-                    try {
-                        value = asString(keyValue.getValue());
-                    } catch (Exception e) {
-                        remFuture.fail(e);
-                        continue;
-                    }
-
-                    api.lrem(key, "0", value, remr -> {
+                    keyspace.invalidate(key);
+                    op.roundTrip();
+                    Handler<AsyncResult<Response>> removed = remr -> {
                         if (remr.failed()) {
-                            remFuture.fail(r.cause());
+                            remFuture.fail(remr.cause());
                             return;
                         }
                         if (remr.result().type() == ResponseType.ERROR) {
@@ -322,7 +661,13 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                             return;
                         }
                         remFuture.complete();
-                    });
+                    };
+                    RedisMultiMapReplica replica = this.replica;
+                    if (replica != null) {
+                        replica.remove(key, value, removed);
+                    } else {
+                        keyspace.redis(Lane.BULK, key).send(Request.cmd(Command.LREM).arg(bytes(key)).arg(0).arg(bytes(value)), removed);
+                    }
 
                 }
 
@@ -333,10 +678,118 @@ public class RedisAsyncMultiMap<K, V> extends RedisHMap<K, V> implements AsyncMu
                         handler.handle(Future.failedFuture(ar.cause()));
                         return;
                     }
-                    handler.handle(Future.succeededFuture());
+                    // vert.x removes a left node's subscriptions by its id, none of them is left to use its alias
+                    keyspace.nodeAliases().forgetMatching(p, fr -> {
+                        if (fr.failed()) {
+                            log.warn("forget node aliases failed", fr.cause());
+                        }
+                        handler.handle(Future.succeededFuture());
+                    });
                 });
             });
         });
     }
 
+    /**
+     * the stored form of a value, the node's alias for a subscription when this node stores node aliases.
+     */
+    private void encodeValue(V v, Handler<AsyncResult<String>> handler) {
+        NodeAliases aliases = keyspace.nodeAliases();
+        if (aliases == null) {
+            encodeFully(v, handler);
+            return;
+        }
+        aliases.encode(v, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result() == null) {
+                encodeFully(v, handler);
+                return;
+            }
+            handler.handle(Future.succeededFuture(r.result()));
+        });
+    }
+
+    private void encodeFully(V v, Handler<AsyncResult<String>> handler) {
+        String value;
+        try {
+            value = asString(v);
+        } catch (Exception e) {
+            handler.handle(Future.failedFuture(e));
+            return;
+        }
+        handler.handle(Future.succeededFuture(value));
+    }
+
+    /**
+     * the values in order, unknown node aliases are resolved first. a value that does not decode (e.g. the alias of a
+     * forgotten node) is null.
+     */
+    private void decodeValues(List<byte[]> values, Handler<AsyncResult<List<V>>> handler) {
+        NodeAliases aliases = keyspace.nodeAliases();
+        if (aliases == null) {
+            decode(values, null, handler);
+            return;
+        }
+        aliases.resolve(values, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            decode(values, aliases, handler);
+        });
+    }
+
+    /**
+     * resolves the unknown node aliases among the values, the handler gets the decoder of a single value.
+     */
+    private void resolveAliases(List<byte[]> values, Handler<AsyncResult<LazyChoosableSet.Decoder<V>>> handler) {
+        NodeAliases aliases = keyspace.nodeAliases();
+        if (aliases == null) {
+            handler.handle(Future.succeededFuture(bytes -> decodeValue(bytes, null)));
+            return;
+        }
+        aliases.resolve(values, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture(bytes -> decodeValue(bytes, aliases)));
+        });
+    }
+
+    /**
+     * the values decoded on use, choosing by the nodes' locality and load when choosing is aware of them.
+     */
+    private ChoosableIterable<V> choosable(List<byte[]> values, LazyChoosableSet.Decoder<V> decoder) {
+        LazyChoosableSet<V> set = new LazyChoosableSet<>(values, decoder);
+        NodeLocality locality = keyspace.nodeLocality();
+        NodeLoad load = keyspace.nodeLoad();
+        return locality == null && load == null ? set : new NodeChoosableSet<>(set, locality, load);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V decodeValue(byte[] bytes, NodeAliases aliases) throws Exception {
+        if (aliases != null && NodeAliases.isAlias(bytes)) {
+            return (V) aliases.node(bytes);
+        }
+        return asObject(bytes);
+    }
+
+    private void decode(List<byte[]> values, NodeAliases aliases, Handler<AsyncResult<List<V>>> handler) {
+        List<V> decoded = new ArrayList<>(values.size());
+        for (byte[] bytes : values) {
+            try {
+                decoded.add(decodeValue(bytes, aliases));
+            } catch (Exception e) {
+                // skipped, as a lookup skips it
+                log.warn("redis multi map value skipped, {}", e.getMessage());
+                decoded.add(null);
+            }
+        }
+        handler.handle(Future.succeededFuture(decoded));
+    }
+
 }
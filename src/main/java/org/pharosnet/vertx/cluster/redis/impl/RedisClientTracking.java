@@ -0,0 +1,233 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server assisted client side caching (redis 6 CLIENT TRACKING) for one data connection.
+ * <p>
+ * The vert.x redis client speaks RESP2 only, so tracking runs in REDIRECT mode: a second connection subscribes to
+ * __redis__:invalidate and the data connection redirects its invalidation messages to it. Keys are tracked as they
+ * are read, or in BCAST mode every key under the given prefixes.
+ * <p>
+ * Redis drops the tracking table of a connection that closes, so the cache is cleared whenever a data connection is
+ * lost and when its replacement turns tracking on. While the invalidation connection is down the cache is suspended,
+ * it reconnects with backoff, redirects the data connections to the new one and resumes the (cleared) cache.
+ */
+public class RedisClientTracking {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisClientTracking.class);
+
+    private static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+
+    private static final long RECONNECT_DELAY = 1000L;
+
+    private static final long MAX_RECONNECT_DELAY = 30_000L;
+
+    public RedisClientTracking(Vertx vertx, RedisOptions options, Redis data, NearCache cache, boolean broadcast, List<String> prefixes) {
+        this.vertx = vertx;
+        this.options = options;
+        this.data = data;
+        this.cache = cache;
+        this.broadcast = broadcast;
+        this.prefixes = prefixes;
+    }
+
+    private Vertx vertx;
+    private RedisOptions options;
+    private Redis data;
+    private NearCache cache;
+    private boolean broadcast;
+    private List<String> prefixes;
+    private volatile Redis invalidations;
+    private volatile boolean closed;
+    private boolean suspended;
+    private long reconnectDelay = RECONNECT_DELAY;
+
+    public void start(Handler<AsyncResult<Void>> handler) {
+        subscribe(handler);
+    }
+
+    /**
+     * opens the invalidation connection and redirects the data connections' invalidations to it.
+     */
+    private void subscribe(Handler<AsyncResult<Void>> handler) {
+        Redis.createClient(vertx, options).connect(cr -> {
+            if (cr.failed()) {
+                handler.handle(Future.failedFuture(cr.cause()));
+                return;
+            }
+            Redis connection = cr.result();
+            if (closed) {
+                connection.close();
+                handler.handle(Future.failedFuture("redis client tracking closed"));
+                return;
+            }
+            invalidations = connection;
+            connection.handler(this::onMessage);
+            connection.exceptionHandler(e -> lost(connection, e.getMessage()));
+            connection.endHandler(v -> lost(connection, "connection closed"));
+            RedisAPI api = RedisAPI.api(connection);
+            api.client(List.of("ID"), ir -> {
+                if (ir.failed()) {
+                    handler.handle(Future.failedFuture(ir.cause()));
+                    return;
+                }
+                if (ir.result().type() == ResponseType.ERROR) {
+                    handler.handle(Future.failedFuture("redis client id failed," + ir.result().toString(Charset.forName("UTF-8"))));
+                    return;
+                }
+                // an integer reply
+                String clientId = String.valueOf(ir.result().toLong());
+                api.subscribe(List.of(INVALIDATE_CHANNEL), sr -> {
+                    if (sr.failed()) {
+                        handler.handle(Future.failedFuture(sr.cause()));
+                        return;
+                    }
+                    List<String> args = new ArrayList<>(List.of("TRACKING", "on", "REDIRECT", clientId));
+                    if (broadcast) {
+                        args.add("BCAST");
+                        for (String prefix : prefixes) {
+                            args.add("PREFIX");
+                            args.add(prefix);
+                        }
+                    }
+                    track(args, tr -> {
+                        if (tr.failed()) {
+                            handler.handle(Future.failedFuture(tr.cause()));
+                            return;
+                        }
+                        if (log.isDebugEnabled()) {
+                            log.debug("redis client tracking on, redirect to {}, broadcast {}", clientId, broadcast);
+                        }
+                        handler.handle(Future.succeededFuture());
+                    });
+                });
+            });
+        });
+    }
+
+    /**
+     * tracking is a per connection state, a pooled data connection turns it on for each of its connections.
+     */
+    private void track(List<String> args, Handler<AsyncResult<Void>> handler) {
+        if (data instanceof RedisConnectionPool) {
+            RedisConnectionPool pool = (RedisConnectionPool) data;
+            // what was read through a lost connection is not tracked any more
+            pool.lostHandler(v -> cache.clear());
+            pool.initializer(connection -> {
+                cache.clear();
+                Future<Void> future = Future.future();
+                track(RedisAPI.api(connection), args, future);
+                return future;
+            }, handler);
+            return;
+        }
+        track(RedisAPI.api(data), args, handler);
+    }
+
+    private void track(RedisAPI api, List<String> args, Handler<AsyncResult<Void>> handler) {
+        api.client(args, tr -> {
+            if (tr.failed()) {
+                handler.handle(Future.failedFuture(tr.cause()));
+                return;
+            }
+            if (tr.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis client tracking failed," + tr.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    public void close() {
+        closed = true;
+        Redis current = invalidations;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void onMessage(Response message) {
+        // ["message", "__redis__:invalidate", [key, ...]], a null payload means the server flushed everything
+        if (message == null || message.type() != ResponseType.MULTI || message.size() < 3) {
+            return;
+        }
+        if (!"message".equals(message.get(0).toString(Charset.forName("UTF-8")))) {
+            return;
+        }
+        Response keys = message.get(2);
+        if (keys == null) {
+            cache.clear();
+            return;
+        }
+        if (keys.type() == ResponseType.MULTI) {
+            for (Response key : keys) {
+                cache.invalidate(RedisHMap.string(key));
+            }
+        } else {
+            cache.invalidate(RedisHMap.string(keys));
+        }
+    }
+
+    private void lost(Redis connection, String reason) {
+        synchronized (this) {
+            if (closed || invalidations != connection) {
+                return;
+            }
+            invalidations = null;
+            if (!suspended) {
+                suspended = true;
+                cache.suspend();
+            }
+        }
+        log.warn("redis client tracking invalidation channel lost, near cache suspended until it is back, {}", reason);
+        vertx.setTimer(reconnectDelay, t -> reconnect());
+    }
+
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        subscribe(r -> {
+            if (r.failed()) {
+                if (closed) {
+                    return;
+                }
+                Redis current = invalidations;
+                invalidations = null;
+                if (current != null) {
+                    current.close();
+                }
+                synchronized (this) {
+                    reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+                }
+                log.warn("redis client tracking reconnect failed, retrying in {} ms, {}", reconnectDelay, r.cause().getMessage());
+                vertx.setTimer(reconnectDelay, t -> reconnect());
+                return;
+            }
+            synchronized (this) {
+                reconnectDelay = RECONNECT_DELAY;
+                if (suspended) {
+                    suspended = false;
+                    cache.resume();
+                }
+            }
+            log.info("redis client tracking invalidation channel is back, near cache resumed");
+        });
+    }
+
+}
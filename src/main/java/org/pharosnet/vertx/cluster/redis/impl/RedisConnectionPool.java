@@ -0,0 +1,636 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * A {@link Redis} backed by one connection per event loop, up to the pool size.
+ * <p>
+ * A command issued on an event loop goes through the connection opened from that loop, so it is written and its reply
+ * is decoded on the caller's thread, and the commands of one loop keep their order. Other callers, and event loops
+ * beyond the pool size, share the existing connections round robin, their replies are handed back to their context.
+ * Each connection pipelines at most maxInFlight commands, the rest wait in order. A lost connection is opened again
+ * at once when commands wait for it, otherwise with the next command.
+ * <p>
+ * The pool opens its connections on the given vertx, and on the loops of the one given to {@link #bindLoops(Vertx)}
+ * once that one's event bus started: the cluster manager connects during join, before the clustered vertx can open
+ * sockets, and binds the clustered vertx after.
+ */
+public class RedisConnectionPool implements Redis {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisConnectionPool.class);
+
+    public RedisConnectionPool(Vertx vertx, RedisOptions options, int size, int maxInFlight) {
+        this.vertx = vertx;
+        this.options = options;
+        this.size = Math.max(1, size);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.loops = new ConcurrentHashMap<>();
+        this.connections = new CopyOnWriteArrayList<>();
+    }
+
+    private Vertx vertx;
+    private RedisOptions options;
+    private int size;
+    private int maxInFlight;
+    private Map<Thread, Connection> loops;
+    private List<Connection> connections;
+    private Connection primary;
+    private AtomicInteger next = new AtomicInteger();
+    private volatile Function<Redis, Future<Void>> initializer;
+    private volatile Handler<Void> onLost;
+    private volatile Vertx bound;
+    private volatile boolean boundStarted;
+
+    private Handler<Throwable> onException;
+    private Handler<Void> onEnd;
+    private Handler<Response> onMessage;
+
+    @Override
+    public Redis connect(Handler<AsyncResult<Redis>> handler) {
+        primary = new Connection(null);
+        connections.add(primary);
+        primary.open(r -> {
+            if (r.failed()) {
+                connections.remove(primary);
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture(this));
+        });
+        return this;
+    }
+
+    /**
+     * per connection setup (e.g. CLIENT TRACKING), run on the open connections now and on every one opened later,
+     * before any command is sent through it. a connection opened meanwhile may get it twice, it must be idempotent.
+     */
+    public void initializer(Function<Redis, Future<Void>> initializer, Handler<AsyncResult<Void>> handler) {
+        this.initializer = initializer;
+        List<Future> futures = new ArrayList<>();
+        for (Connection connection : connections) {
+            Redis redis = connection.raw;
+            if (redis != null) {
+                futures.add(initializer.apply(redis));
+            }
+        }
+        CompositeFuture.all(futures).setHandler(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    /**
+     * called when one of the connections is lost, e.g. to drop what its per connection state (CLIENT TRACKING)
+     * covered. its replacement runs the initializer again.
+     */
+    public void lostHandler(Handler<Void> handler) {
+        this.onLost = handler;
+    }
+
+    /**
+     * opens the connections of the event loops of the vertx on them from now on (once its event bus started),
+     * the connections already open keep serving the other callers.
+     */
+    public void bindLoops(Vertx loops) {
+        this.bound = loops;
+    }
+
+    public int connectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * commands waiting for an in-flight slot, over every connection.
+     */
+    public int pending() {
+        int pending = 0;
+        for (Connection connection : connections) {
+            pending += connection.pending();
+        }
+        return pending;
+    }
+
+    @Override
+    public Redis send(Request request, Handler<AsyncResult<Response>> handler) {
+        Connection connection = select();
+        if (connection == null) {
+            handler.handle(Future.failedFuture(new IllegalStateException("redis connection pool closed")));
+            return this;
+        }
+        Handler<AsyncResult<Response>> replied = onCaller(connection, handler);
+        connection.submit(redis -> redis.send(request, replied), replied);
+        return this;
+    }
+
+    @Override
+    public Redis batch(List<Request> requests, Handler<AsyncResult<List<Response>>> handler) {
+        Connection connection = select();
+        if (connection == null) {
+            handler.handle(Future.failedFuture(new IllegalStateException("redis connection pool closed")));
+            return this;
+        }
+        Handler<AsyncResult<List<Response>>> replied = onCaller(connection, handler);
+        connection.submit(redis -> redis.batch(requests, replied), replied);
+        return this;
+    }
+
+    /**
+     * the handler run on the caller's context. replies are decoded on the connection's event loop, which is the
+     * caller's only when it goes through the connection of its own loop.
+     */
+    private <T> Handler<AsyncResult<T>> onCaller(Connection connection, Handler<AsyncResult<T>> handler) {
+        Context caller = Vertx.currentContext();
+        if (caller == null || connection.thread == Thread.currentThread()) {
+            return handler;
+        }
+        return r -> {
+            if (Vertx.currentContext() == caller) {
+                handler.handle(r);
+                return;
+            }
+            caller.runOnContext(v -> handler.handle(r));
+        };
+    }
+
+    @Override
+    public Redis exceptionHandler(Handler<Throwable> handler) {
+        this.onException = handler;
+        return this;
+    }
+
+    @Override
+    public Redis endHandler(Handler<Void> handler) {
+        this.onEnd = handler;
+        return this;
+    }
+
+    @Override
+    public Redis handler(Handler<Response> handler) {
+        this.onMessage = handler;
+        for (Connection connection : connections) {
+            Redis redis = connection.raw;
+            if (redis != null) {
+                redis.handler(handler);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Redis pause() {
+        for (Connection connection : connections) {
+            Redis redis = connection.raw;
+            if (redis != null) {
+                redis.pause();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Redis resume() {
+        for (Connection connection : connections) {
+            Redis redis = connection.raw;
+            if (redis != null) {
+                redis.resume();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Redis fetch(long amount) {
+        for (Connection connection : connections) {
+            Redis redis = connection.raw;
+            if (redis != null) {
+                redis.fetch(amount);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public SocketAddress socketAddress() {
+        Redis redis = primary == null ? null : primary.raw;
+        return redis == null ? null : redis.socketAddress();
+    }
+
+    @Override
+    public void close() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+        loops.clear();
+    }
+
+    /**
+     * the connection for the caller, null when the pool is closed (or never connected).
+     */
+    private Connection select() {
+        Context context = Vertx.currentContext();
+        if (context != null && context.isEventLoopContext() && opensOn(context.owner())) {
+            Thread thread = Thread.currentThread();
+            Connection connection = loops.get(thread);
+            if (connection != null) {
+                return connection;
+            }
+            synchronized (this) {
+                connection = loops.get(thread);
+                if (connection == null && loopConnections(context.owner()) < size) {
+                    // opened lazily from this loop, so the socket is bound to it
+                    connection = new Connection(context);
+                    connections.add(connection);
+                    loops.put(thread, connection);
+                }
+            }
+            if (connection != null) {
+                return connection;
+            }
+        }
+        // a snapshot, the pool may be closed meanwhile
+        Object[] open = connections.toArray();
+        if (open.length == 0) {
+            return null;
+        }
+        return (Connection) open[Math.floorMod(next.getAndIncrement(), open.length)];
+    }
+
+    /**
+     * whether connections can be opened on the loops of the vertx. a vert.x 3.7 socket registers an event bus handler
+     * when it connects, which throws until the event bus started, and the connect never completes.
+     */
+    private boolean opensOn(Vertx owner) {
+        if (owner == vertx) {
+            return true;
+        }
+        if (owner != bound) {
+            return false;
+        }
+        if (!boundStarted) {
+            try {
+                // checks the event bus started and registers nothing
+                owner.eventBus().localConsumer(RedisConnectionPool.class.getName());
+                boundStarted = true;
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int loopConnections(Vertx owner) {
+        int count = 0;
+        for (Connection connection : loops.values()) {
+            if (connection.loop.owner() == owner) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private class Connection {
+
+        /**
+         * the loop the connection is opened from, null for a connection shared by every caller.
+         */
+        private Connection(Context loop) {
+            this.loop = loop;
+            this.thread = loop == null ? null : Thread.currentThread();
+        }
+
+        private final Context loop;
+        private final Thread thread;
+        private volatile Redis redis;
+        private volatile Redis raw;
+        private boolean connecting;
+        private int inFlight;
+        private final ArrayDeque<Handler<Redis>> waiting = new ArrayDeque<>();
+        private final ArrayDeque<Handler<Throwable>> waitingFailures = new ArrayDeque<>();
+
+        synchronized int pending() {
+            return waiting.size();
+        }
+
+        <T> void submit(Handler<Redis> command, Handler<AsyncResult<T>> handler) {
+            Redis current;
+            synchronized (this) {
+                current = redis;
+                if (current == null || inFlight >= maxInFlight) {
+                    waiting.add(command);
+                    waitingFailures.add(e -> handler.handle(Future.failedFuture(e)));
+                    if (current == null && !connecting) {
+                        open(r -> {
+                        });
+                    }
+                    return;
+                }
+                inFlight++;
+            }
+            command.handle(current);
+        }
+
+        void open(Handler<AsyncResult<Void>> handler) {
+            synchronized (this) {
+                connecting = true;
+            }
+            if (loop != null && Vertx.currentContext() != loop) {
+                // a reconnect asked for by another caller, the socket stays on the loop
+                loop.runOnContext(v -> connect(handler));
+                return;
+            }
+            connect(handler);
+        }
+
+        private void connect(Handler<AsyncResult<Void>> handler) {
+            Redis.createClient(loop == null ? vertx : loop.owner(), options).connect(cr -> {
+                if (cr.failed()) {
+                    log.error("redis connection pool connect failed", cr.cause());
+                    fail(cr.cause());
+                    handler.handle(Future.failedFuture(cr.cause()));
+                    return;
+                }
+                Redis connected = cr.result();
+                connected.exceptionHandler(e -> {
+                    lost(connected);
+                    if (onException != null) {
+                        onException.handle(e);
+                    }
+                });
+                connected.endHandler(v -> {
+                    lost(connected);
+                    if (onEnd != null) {
+                        onEnd.handle(v);
+                    }
+                });
+                if (onMessage != null) {
+                    connected.handler(onMessage);
+                }
+                initialize(connected, null, handler);
+            });
+        }
+
+        /**
+         * runs the pool's initializer on the connection before commands go through it. the connection is published
+         * (raw) first, an initializer set from then on runs on it through {@link #initializer(Function, Handler)},
+         * one set before is seen here when re-reading it.
+         */
+        private void initialize(Redis connected, Function<Redis, Future<Void>> applied, Handler<AsyncResult<Void>> handler) {
+            synchronized (this) {
+                raw = connected;
+            }
+            Function<Redis, Future<Void>> init = initializer;
+            if (init == applied) {
+                boolean lost;
+                synchronized (this) {
+                    connecting = false;
+                    // lost or closed during setup
+                    lost = raw != connected;
+                    if (!lost) {
+                        redis = new Tracked(connected);
+                    }
+                }
+                if (lost) {
+                    IllegalStateException cause = new IllegalStateException("redis connection lost during setup");
+                    fail(cause);
+                    handler.handle(Future.failedFuture(cause));
+                    return;
+                }
+                drain();
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            init.apply(connected).setHandler(ir -> {
+                if (ir.failed()) {
+                    log.error("redis connection pool connection setup failed", ir.cause());
+                    synchronized (this) {
+                        if (raw == connected) {
+                            raw = null;
+                        }
+                    }
+                    connected.close();
+                    fail(ir.cause());
+                    handler.handle(Future.failedFuture(ir.cause()));
+                    return;
+                }
+                initialize(connected, init, handler);
+            });
+        }
+
+        void completed(Redis from, boolean failed) {
+            synchronized (this) {
+                // replies of a lost connection must not free slots of its replacement
+                if (redis == from && inFlight > 0) {
+                    inFlight--;
+                }
+            }
+            Context context = Vertx.currentContext();
+            if (failed && context != null) {
+                // a closing connection fails its replies before it ends, the waiting commands go to its replacement
+                context.runOnContext(v -> drain());
+                return;
+            }
+            drain();
+        }
+
+        void drain() {
+            while (true) {
+                Handler<Redis> command;
+                Redis current;
+                synchronized (this) {
+                    current = redis;
+                    if (current == null || inFlight >= maxInFlight || waiting.isEmpty()) {
+                        return;
+                    }
+                    command = waiting.poll();
+                    waitingFailures.poll();
+                    inFlight++;
+                }
+                command.handle(current);
+            }
+        }
+
+        void lost(Redis connected) {
+            boolean current;
+            boolean reopen = false;
+            synchronized (this) {
+                current = raw == connected;
+                if (current) {
+                    redis = null;
+                    raw = null;
+                    inFlight = 0;
+                    // the commands waiting for a slot go out once the replacement is up, or fail with its connect
+                    reopen = !waiting.isEmpty() && !connecting;
+                }
+            }
+            Handler<Void> handler = onLost;
+            if (current && handler != null) {
+                handler.handle(null);
+            }
+            if (reopen) {
+                open(r -> {
+                });
+            }
+        }
+
+        void fail(Throwable cause) {
+            List<Handler<Throwable>> failures;
+            synchronized (this) {
+                connecting = false;
+                failures = new ArrayList<>(waitingFailures);
+                waiting.clear();
+                waitingFailures.clear();
+            }
+            for (Handler<Throwable> failure : failures) {
+                failure.handle(cause);
+            }
+        }
+
+        void close() {
+            Redis current;
+            synchronized (this) {
+                current = raw;
+                redis = null;
+                raw = null;
+            }
+            if (current != null) {
+                current.close();
+            }
+            fail(new IllegalStateException("redis connection pool closed"));
+        }
+
+        /**
+         * the pooled connection, releasing the in-flight slot when a reply (or failure) comes back.
+         */
+        private class Tracked implements Redis {
+
+            private Tracked(Redis delegate) {
+                this.delegate = delegate;
+            }
+
+            private final Redis delegate;
+
+            @Override
+            public Redis connect(Handler<AsyncResult<Redis>> handler) {
+                handler.handle(Future.succeededFuture(this));
+                return this;
+            }
+
+            @Override
+            public Redis send(Request request, Handler<AsyncResult<Response>> handler) {
+                delegate.send(request, r -> {
+                    completed(this, r.failed());
+                    handler.handle(r);
+                });
+                return this;
+            }
+
+            /**
+             * sends the requests one after the other on this connection, pipelined, and fails them together when
+             * one fails. the 3.7 client's own batch queues its reply handlers only once the write completed, a send
+             * on the connection in between would take a reply of the batch.
+             */
+            @Override
+            public Redis batch(List<Request> requests, Handler<AsyncResult<List<Response>>> handler) {
+                if (requests.isEmpty()) {
+                    completed(this, false);
+                    handler.handle(Future.succeededFuture(new ArrayList<>(0)));
+                    return this;
+                }
+                Response[] responses = new Response[requests.size()];
+                AtomicInteger remaining = new AtomicInteger(requests.size());
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                for (int i = 0; i < requests.size(); i++) {
+                    int at = i;
+                    delegate.send(requests.get(i), r -> {
+                        if (r.failed()) {
+                            failure.compareAndSet(null, r.cause());
+                        } else {
+                            responses[at] = r.result();
+                        }
+                        if (remaining.decrementAndGet() > 0) {
+                            return;
+                        }
+                        Throwable cause = failure.get();
+                        completed(this, cause != null);
+                        handler.handle(cause == null ? Future.succeededFuture(Arrays.asList(responses)) : Future.failedFuture(cause));
+                    });
+                }
+                return this;
+            }
+
+            @Override
+            public Redis exceptionHandler(Handler<Throwable> handler) {
+                delegate.exceptionHandler(handler);
+                return this;
+            }
+
+            @Override
+            public Redis endHandler(Handler<Void> handler) {
+                delegate.endHandler(handler);
+                return this;
+            }
+
+            @Override
+            public Redis handler(Handler<Response> handler) {
+                delegate.handler(handler);
+                return this;
+            }
+
+            @Override
+            public Redis pause() {
+                delegate.pause();
+                return this;
+            }
+
+            @Override
+            public Redis resume() {
+                delegate.resume();
+                return this;
+            }
+
+            @Override
+            public Redis fetch(long amount) {
+                delegate.fetch(amount);
+                return this;
+            }
+
+            @Override
+            public SocketAddress socketAddress() {
+                return delegate.socketAddress();
+            }
+
+            @Override
+            public void close() {
+                delegate.close();
+            }
+        }
+    }
+
+}
@@ -6,6 +6,7 @@ import io.vertx.core.Handler;
 import io.vertx.core.shareddata.Counter;
 import io.vertx.redis.client.RedisAPI;
 import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.ClusterMetrics;
 
 import java.nio.charset.Charset;
 import java.util.List;
@@ -16,16 +17,25 @@ public class RedisCounter implements Counter {
     private static final String COUNT_PREFIX = "__vertx.sync.count.";
 
     public RedisCounter(String name, RedisAPI api) {
+        this(name, api, ClusterMetrics.NONE);
+    }
+
+    public RedisCounter(String name, RedisAPI api, ClusterMetrics metrics) {
         this.name = name = COUNT_PREFIX + name;
         this.api = api;
+        this.metrics = metrics;
         api.set(List.of(name, "0"),  r -> {});
     }
 
     private String name;
     private RedisAPI api;
+    private ClusterMetrics metrics;
 
     @Override
-    public void get(Handler<AsyncResult<Long>> handler) {
+    public void get(Handler<AsyncResult<Long>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "get");
+        Handler<AsyncResult<Long>> handler = op.end(resultHandler);
+        op.roundTrip();
         api.get(name, r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
@@ -40,7 +50,10 @@ public class RedisCounter implements Counter {
     }
 
     @Override
-    public void incrementAndGet(Handler<AsyncResult<Long>> handler) {
+    public void incrementAndGet(Handler<AsyncResult<Long>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "incrementAndGet");
+        Handler<AsyncResult<Long>> handler = op.end(resultHandler);
+        op.roundTrip();
         api.incr(name, r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
@@ -55,7 +68,9 @@ public class RedisCounter implements Counter {
     }
 
     @Override
-    public void getAndIncrement(Handler<AsyncResult<Long>> handler) {
+    public void getAndIncrement(Handler<AsyncResult<Long>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "getAndIncrement");
+        Handler<AsyncResult<Long>> handler = op.end(resultHandler);
         this.get(gr -> {
             if (gr.failed()) {
                 handler.handle(Future.failedFuture(gr.cause()));
@@ -73,7 +88,10 @@ public class RedisCounter implements Counter {
     }
 
     @Override
-    public void decrementAndGet(Handler<AsyncResult<Long>> handler) {
+    public void decrementAndGet(Handler<AsyncResult<Long>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "decrementAndGet");
+        Handler<AsyncResult<Long>> handler = op.end(resultHandler);
+        op.roundTrip();
         api.decr(name, r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
@@ -88,8 +106,11 @@ public class RedisCounter implements Counter {
     }
 
     @Override
-    public void addAndGet(long value, Handler<AsyncResult<Long>> handler) {
+    public void addAndGet(long value, Handler<AsyncResult<Long>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "addAndGet");
+        Handler<AsyncResult<Long>> handler = op.end(resultHandler);
         if (value > 0) {
+            op.roundTrip();
             api.incrby(name, "" + value, r -> {
                 if (r.failed()) {
                     handler.handle(Future.failedFuture(r.cause()));
@@ -102,6 +123,7 @@ public class RedisCounter implements Counter {
                 handler.handle(Future.succeededFuture(r.result().toLong()));
             });
         } else {
+            op.roundTrip();
             api.decrby(name, "" + (value * -1), r -> {
                 if (r.failed()) {
                     handler.handle(Future.failedFuture(r.cause()));
@@ -117,7 +139,9 @@ public class RedisCounter implements Counter {
     }
 
     @Override
-    public void getAndAdd(long value, Handler<AsyncResult<Long>> handler) {
+    public void getAndAdd(long value, Handler<AsyncResult<Long>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "getAndAdd");
+        Handler<AsyncResult<Long>> handler = op.end(resultHandler);
         this.get(gr -> {
             if (gr.failed()) {
                 handler.handle(Future.failedFuture(gr.cause()));
@@ -135,13 +159,16 @@ public class RedisCounter implements Counter {
     }
 
     @Override
-    public void compareAndSet(long expected, long value, Handler<AsyncResult<Boolean>> handler) {
+    public void compareAndSet(long expected, long value, Handler<AsyncResult<Boolean>> resultHandler) {
+        Operation op = Operation.start(metrics, name, "compareAndSet");
+        Handler<AsyncResult<Boolean>> handler = op.end(resultHandler);
         this.get(gr -> {
             if (gr.failed()) {
                 handler.handle(Future.failedFuture(gr.cause()));
                 return;
             }
             if (expected == Optional.ofNullable(gr.result()).orElse(-1L)) {
+              op.roundTrip();
               api.set(List.of(name, "" + value), sr -> {
                   if (sr.failed()) {
                       handler.handle(Future.failedFuture(sr.cause()));
@@ -8,11 +8,17 @@ import io.vertx.core.net.SocketAddress;
 import io.vertx.core.shareddata.impl.ClusterSerializable;
 import io.vertx.redis.client.RedisClientType;
 import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Response;
+import org.pharosnet.vertx.cluster.redis.ClusterMetrics;
+import org.pharosnet.vertx.cluster.redis.ReadPreference;
 import org.redisson.Redisson;
 import org.redisson.RedissonMapEntry;
+import org.redisson.api.RMap;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
 import org.redisson.config.ClusterServersConfig;
 import org.redisson.config.Config;
+import org.redisson.config.ReadMode;
 import org.redisson.config.SentinelServersConfig;
 
 import java.io.*;
@@ -24,32 +30,40 @@ public class RedisHMap<K, V> implements Map<K, V> {
 
     private static final Logger log = LoggerFactory.getLogger(RedisHMap.class);
 
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
     public RedisHMap() {
     }
 
     public RedisHMap(RedisOptions options, String name) {
+        this(options, name, ReadPreference.MASTER);
+    }
+
+    public RedisHMap(RedisOptions options, String name, ReadPreference readPreference) {
         Config config = new Config();
         if (options.getType().equals(RedisClientType.STANDALONE)) {
             String host = options.getEndpoint().host();
             int port = options.getEndpoint().port();
             config.useSingleServer()
-                    .setAddress(String.format("%s:%d", host, port))
-                    .setDatabase(options.getSelect())
+                    .setAddress(String.format("redis://%s:%d", host, port))
+                    .setDatabase(options.getSelect() == null ? 0 : options.getSelect())
                     .setPassword(options.getPassword());
         } else if (options.getType().equals(RedisClientType.SENTINEL)) {
             SentinelServersConfig sentinelConfig = config.useSentinelServers()
-                    .setDatabase(options.getSelect())
+                    .setDatabase(options.getSelect() == null ? 0 : options.getSelect())
                     .setMasterName(options.getMasterName())
-                    .setPassword(options.getPassword());
+                    .setPassword(options.getPassword())
+                    .setReadMode(readMode(readPreference));
             List<SocketAddress> endpoints = options.getEndpoints();
             for (SocketAddress address : endpoints) {
                 String host = address.host();
                 int port = address.port();
-                sentinelConfig.addSentinelAddress(String.format("%s:%d", host, port));
+                sentinelConfig.addSentinelAddress(String.format("redis://%s:%d", host, port));
             }
         } else if (options.getType().equals(RedisClientType.CLUSTER)) {
             ClusterServersConfig clusterServersConfig = config.useClusterServers()
                     .setPassword(options.getPassword())
+                    .setReadMode(readMode(readPreference))
                     .setScanInterval(2000);
             List<SocketAddress> endpoints = options.getEndpoints();
             for (SocketAddress address : endpoints) {
@@ -60,17 +74,90 @@ public class RedisHMap<K, V> implements Map<K, V> {
         }
         this.redisson = Redisson.create(config);
         this.name = name;
+        this.metricName = name;
+    }
+
+    private static ReadMode readMode(ReadPreference readPreference) {
+        switch (readPreference) {
+            case REPLICA:
+            case REPLICA_PREFERRED:
+                return ReadMode.SLAVE;
+            case NEAREST:
+                return ReadMode.MASTER_SLAVE;
+            default:
+                return ReadMode.MASTER;
+        }
     }
 
     private Vertx vertx;
     private RedissonClient redisson;
     private String name;
 
+    protected ClusterMetrics metrics = ClusterMetrics.NONE;
+    protected String metricName;
+
+    public void setMetrics(ClusterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * the serialized bytes as a string of one char per byte (ISO-8859-1), so any byte survives.
+     * keys are built of such strings, send them with {@link #bytes(String)} and read them back with {@link #string(Response)}.
+     */
     String asString(Object object) throws IOException {
-        return new String(asByte(object), Charset.forName("UTF-8"));
+        return new String(asByte(object), ISO_8859_1);
+    }
+
+    /**
+     * the bytes redis stores for a string of one char per byte, a key or a value of {@link #asString(Object)}.
+     * {@link io.vertx.redis.client.Request#arg(String)} would send the chars above 0x7F as two bytes each.
+     */
+    static byte[] bytes(String string) {
+        return string.getBytes(ISO_8859_1);
+    }
+
+    /**
+     * a key or value read back as a string of one char per byte.
+     */
+    static String string(Response response) {
+        return new String(response.toBytes(), ISO_8859_1);
+    }
+
+    /**
+     * a name as a string of one char per byte of its UTF-8 form, so the keys built of it store the name as UTF-8.
+     */
+    static String byteString(String name) {
+        return new String(name.getBytes(Charset.forName("UTF-8")), ISO_8859_1);
+    }
+
+    /**
+     * the serialized bytes of a value written with {@link #asString(Object)}.
+     */
+    static byte[] serialized(Response response) {
+        return response.toBytes();
     }
 
     byte[] asByte(Object object) throws IOException {
+        if (metrics == ClusterMetrics.NONE) {
+            return encode(object);
+        }
+        long started = System.nanoTime();
+        byte[] bytes = encode(object);
+        metrics.serialization(metricName, true, System.nanoTime() - started, bytes.length);
+        return bytes;
+    }
+
+    <T> T asObject(byte[] bytes) throws Exception {
+        if (metrics == ClusterMetrics.NONE) {
+            return decode(bytes);
+        }
+        long started = System.nanoTime();
+        T object = decode(bytes);
+        metrics.serialization(metricName, false, System.nanoTime() - started, bytes.length);
+        return object;
+    }
+
+    private byte[] encode(Object object) throws IOException {
         ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
         DataOutput dataOutput = new DataOutputStream(byteOut);
         if (object instanceof ClusterSerializable) {
@@ -92,7 +179,7 @@ public class RedisHMap<K, V> implements Map<K, V> {
         return byteOut.toByteArray();
     }
 
-    <T> T asObject(byte[] bytes) throws Exception {
+    private <T> T decode(byte[] bytes) throws Exception {
         ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
         DataInputStream in = new DataInputStream(byteIn);
         boolean isClusterSerializable = in.readBoolean();
@@ -125,9 +212,43 @@ public class RedisHMap<K, V> implements Map<K, V> {
         }
     }
 
+    /**
+     * shuts the redisson client down, a map of {@link #RedisHMap(RedisOptions, String)} is not usable afterwards.
+     */
+    public void close() {
+        if (redisson != null) {
+            redisson.shutdown();
+        }
+    }
+
+    /**
+     * the redisson map, keys and values are stored as their serialized bytes.
+     */
+    private RMap<byte[], byte[]> map() {
+        return redisson.getMap(name, ByteArrayCodec.INSTANCE);
+    }
+
+    private long started() {
+        return metrics == ClusterMetrics.NONE ? 0L : System.nanoTime();
+    }
+
+    private void record(String operation, long started, boolean succeeded) {
+        if (started != 0L) {
+            metrics.operation(metricName, operation, System.nanoTime() - started, 1, succeeded);
+        }
+    }
+
     @Override
     public int size() {
-        return redisson.getMap(name).size();
+        long started = started();
+        boolean succeeded = false;
+        try {
+            int size = map().size();
+            succeeded = true;
+            return size;
+        } finally {
+            record("size", started, succeeded);
+        }
     }
 
     @Override
@@ -137,65 +258,111 @@ public class RedisHMap<K, V> implements Map<K, V> {
 
     @Override
     public boolean containsKey(Object key) {
-        return redisson.getMap(name).containsKey(key);
+        long started = started();
+        boolean succeeded = false;
+        try {
+            boolean contains = map().containsKey(asByte(key));
+            succeeded = true;
+            return contains;
+        } catch (IOException e) {
+            log.error("sync map containsKey {} failed", e, key);
+            return false;
+        } finally {
+            record("containsKey", started, succeeded);
+        }
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return redisson.getMap(name).containsValue(value);
+        try {
+            return map().containsValue(asByte(value));
+        } catch (IOException e) {
+            log.error("sync map containsValue {} failed", e, value);
+            return false;
+        }
     }
 
     @Override
     public V get(Object key) {
+        long started = started();
         V v = null;
         try {
-            Object value = redisson.getMap(name).get(key);
-            v = asObject(value.toString().getBytes(Charset.forName("UTF-8")));
+            byte[] value = map().get(asByte(key));
+            if (value != null) {
+                v = asObject(value);
+            }
         } catch (Exception e) {
             log.error("sync map get {} failed", e, key);
         }
+        record("get", started, v != null);
         return v;
     }
 
     @Override
     public V put(K key, V value) {
-        String k = null;
-        String v = null;
+        byte[] k = null;
+        byte[] v = null;
         try {
-            k = asString(key);
-            v = asString(value);
+            k = asByte(key);
+            v = asByte(value);
         } catch (Exception e) {
             log.error("sync map put {} {} failed", e, key, value);
         }
-        redisson.getMap(name).put(k, v);
+        long started = started();
+        boolean succeeded = false;
+        try {
+            map().put(k, v);
+            succeeded = true;
+        } finally {
+            record("put", started, succeeded);
+        }
         return value;
     }
 
     @Override
     public V remove(Object key) {
         V v = this.get(key);
-        redisson.getMap(name).remove(key);
+        long started = started();
+        boolean succeeded = false;
+        try {
+            map().remove(asByte(key));
+            succeeded = true;
+        } catch (IOException e) {
+            log.error("sync map remove {} failed", e, key);
+        } finally {
+            record("remove", started, succeeded);
+        }
         return v;
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        redisson.getMap(name).putAll(m);
+        Map<byte[], byte[]> bytes = new LinkedHashMap<>();
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            try {
+                bytes.put(asByte(entry.getKey()), asByte(entry.getValue()));
+            } catch (IOException e) {
+                log.error("sync map putAll {} failed", e, entry.getKey());
+            }
+        }
+        map().putAll(bytes);
     }
 
     @Override
     public void clear() {
-        redisson.getMap(name).clear();
+        map().clear();
     }
 
     @Override
     public Set<K> keySet() {
         Set<K> ks = new HashSet<>();
 
-        Set<Object> set = redisson.getMap(name).keySet();
-        for (Object key : set) {
+        long started = started();
+        Set<byte[]> set = map().keySet();
+        record("keySet", started, true);
+        for (byte[] key : set) {
             try {
-                K k = asObject(key.toString().getBytes(Charset.forName("UTF-8")));
+                K k = asObject(key);
                 ks.add(k);
             } catch (Exception e) {
                 log.error("sync map keySet {} failed", e, key);
@@ -217,11 +384,13 @@ public class RedisHMap<K, V> implements Map<K, V> {
     public Collection<V> values() {
         List<V> vs = new ArrayList<>();
 
-        Collection<Object> values = redisson.getMap(name).values();
+        long started = started();
+        Collection<byte[]> values = map().values();
+        record("values", started, true);
 
-        for (Object value : values) {
+        for (byte[] value : values) {
             try {
-                V v = asObject(value.toString().getBytes(Charset.forName("UTF-8")));
+                V v = asObject(value);
                 vs.add(v);
             } catch (Exception e) {
                 log.error("sync map values {} failed", e, value);
@@ -233,14 +402,16 @@ public class RedisHMap<K, V> implements Map<K, V> {
     @Override
     public Set<Entry<K, V>> entrySet() {
         Set<Entry<K, V>> set = new HashSet<>();
-        Set<Entry<Object, Object>> entries = redisson.getMap(name).entrySet();
-        for (Entry<Object, Object> entry : entries) {
-            Object key = entry.getKey();
-            Object value = entry.getValue();
+        long started = started();
+        Set<Entry<byte[], byte[]>> entries = map().entrySet();
+        record("entrySet", started, true);
+        for (Entry<byte[], byte[]> entry : entries) {
+            byte[] key = entry.getKey();
+            byte[] value = entry.getValue();
 
             try {
-                K k = asObject(key.toString().getBytes(Charset.forName("UTF-8")));
-                V v = asObject(value.toString().getBytes(Charset.forName("UTF-8")));
+                K k = asObject(key);
+                V v = asObject(value);
 
                 set.add(new RedissonMapEntry<K, V>(k, v));
             } catch (Exception e) {
@@ -0,0 +1,726 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.ClusterMetrics;
+import org.pharosnet.vertx.cluster.redis.Lane;
+
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Key routing plus the multi-key and keyspace operations that have to respect the key layout.
+ * In cluster mode multi-key commands are split per slot and scans fan out over every master,
+ * with client side sharding keys are placed on a consistent hash ring of standalone servers.
+ */
+public class RedisKeyspace {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisKeyspace.class);
+
+    private static final String SCAN_COUNT = "1000";
+
+    public RedisKeyspace(Vertx vertx, RedisOptions options, RedisLanes main) {
+        this.vertx = vertx;
+        this.options = options;
+        this.main = main;
+        this.cluster = RedisClientType.CLUSTER.equals(options.getType());
+        this.masters = new ConcurrentHashMap<>();
+        this.nodeAliases = NodeAliases.resolver(this);
+    }
+
+    public RedisKeyspace(Vertx vertx, RedisOptions options, RedisLanes main, Map<String, RedisLanes> shards, int virtualNodes) {
+        this(vertx, options, main);
+        this.shards = shards;
+        this.ring = new ConsistentHashRing<>(virtualNodes);
+        for (Map.Entry<String, RedisLanes> shard : shards.entrySet()) {
+            this.ring.add(shard.getKey(), shard.getValue());
+        }
+    }
+
+    private Vertx vertx;
+    private RedisOptions options;
+    private RedisLanes main;
+    private boolean cluster;
+    private Map<String, Redis> masters;
+    private Map<String, RedisLanes> shards;
+    private ConsistentHashRing<RedisLanes> ring;
+    private RedisReadRouter readRouter;
+    private NearCache nearCache;
+    private NodeAliases nodeAliases;
+    private NodeLocality nodeLocality;
+    private NodeLoad nodeLoad;
+    private NegativeCache negativeCache;
+    private RedisNegativeCacheInvalidation negativeCacheInvalidation;
+    private final SingleFlight singleFlight = new SingleFlight();
+    private List<RedisClientTracking> trackings = new ArrayList<>();
+    private final List<RedisMultiMapReplica> replicas = new ArrayList<>();
+    private RegistrationBatcher batcher;
+    private WriteBehind writeBehind;
+    private ClusterMetrics metrics = ClusterMetrics.NONE;
+
+    public void setMetrics(ClusterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ClusterMetrics metrics() {
+        return metrics;
+    }
+
+    public void setReadRouter(RedisReadRouter readRouter) {
+        this.readRouter = readRouter;
+    }
+
+    public NearCache nearCache() {
+        return nearCache;
+    }
+
+    /**
+     * the node aliases of subscription values, a {@link NodeAliases#resolver(RedisKeyspace)} unless this node stores them.
+     */
+    public NodeAliases nodeAliases() {
+        return nodeAliases;
+    }
+
+    public void setNodeAliases(NodeAliases nodeAliases) {
+        this.nodeAliases = nodeAliases;
+    }
+
+    /**
+     * the localities of the nodes, null when choosing ignores locality.
+     */
+    public NodeLocality nodeLocality() {
+        return nodeLocality;
+    }
+
+    public void setNodeLocality(NodeLocality nodeLocality) {
+        this.nodeLocality = nodeLocality;
+    }
+
+    /**
+     * the loads of the nodes, null when choosing ignores load.
+     */
+    public NodeLoad nodeLoad() {
+        return nodeLoad;
+    }
+
+    public void setNodeLoad(NodeLoad nodeLoad) {
+        this.nodeLoad = nodeLoad;
+    }
+
+    /**
+     * the queue of the write-behind async maps' puts, null when no map writes behind.
+     */
+    public WriteBehind writeBehind() {
+        return writeBehind;
+    }
+
+    public void setWriteBehind(WriteBehind writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * the reads in flight, identical gets wait for the one sent.
+     */
+    public SingleFlight singleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * drops a key this node is about to write, so its own reads see the write before the server's invalidation
+     * and do not join a read sent before it.
+     */
+    public void invalidate(String key) {
+        singleFlight.forget(key);
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        NegativeCache empty = negativeCache;
+        if (empty != null) {
+            empty.invalidate(key);
+        }
+    }
+
+    public void invalidatePrefix(String prefix) {
+        singleFlight.forgetPrefix(prefix);
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidatePrefix(prefix);
+        }
+        NegativeCache empty = negativeCache;
+        if (empty != null) {
+            empty.clear();
+        }
+    }
+
+    /**
+     * the multi map keys recently read empty, null when it is off.
+     */
+    public NegativeCache negativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * subscribes to the first-value notifications, the negative cache is only used once the subscription is up.
+     */
+    public void enableNegativeCache(NegativeCache cache, Handler<AsyncResult<Void>> handler) {
+        if (cluster) {
+            handler.handle(Future.failedFuture("negative cache is not supported in cluster mode"));
+            return;
+        }
+        RedisNegativeCacheInvalidation invalidation = new RedisNegativeCacheInvalidation(vertx, options, cache);
+        invalidation.start(r -> {
+            if (r.failed()) {
+                invalidation.close();
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            this.negativeCacheInvalidation = invalidation;
+            this.negativeCache = cache;
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    /**
+     * tells every node that the multi map key got its first value, a no-op when the negative cache is off.
+     */
+    public void publishFirstValue(String key, Handler<AsyncResult<Void>> handler) {
+        if (negativeCache == null) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        Request publish = Request.cmd(Command.PUBLISH).arg(RedisNegativeCacheInvalidation.CHANNEL).arg(RedisHMap.bytes(key));
+        Handler<AsyncResult<Response>> published = r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture());
+        };
+        Redis redis = main.redis(Lane.INTERACTIVE);
+        RegistrationBatcher batcher = this.batcher;
+        if (batcher == null) {
+            redis.send(publish, published);
+            return;
+        }
+        batcher.send(redis, key, publish, published);
+    }
+
+    /**
+     * starts a multi map's in-memory copy, it serves lookups once it caught up with the change log.
+     */
+    public void startReplica(RedisMultiMapReplica replica, Handler<AsyncResult<Void>> handler) {
+        if (cluster || ring != null) {
+            handler.handle(Future.failedFuture("multi map replicas are not supported in cluster mode or with sharding"));
+            return;
+        }
+        replica.start(r -> {
+            if (r.failed()) {
+                replica.close();
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            synchronized (replicas) {
+                replicas.add(replica);
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    /**
+     * turns on client tracking for every data connection, the near cache is only used once all of them track.
+     */
+    public void enableNearCache(NearCache cache, boolean broadcast, List<String> prefixes, Handler<AsyncResult<Void>> handler) {
+        if (cluster) {
+            handler.handle(Future.failedFuture("near cache is not supported in cluster mode"));
+            return;
+        }
+        List<RedisClientTracking> started = new ArrayList<>();
+        if (ring == null) {
+            started.add(new RedisClientTracking(vertx, options, main.redis(Lane.INTERACTIVE), cache, broadcast, prefixes));
+        } else {
+            for (Map.Entry<String, RedisLanes> shard : shards.entrySet()) {
+                started.add(new RedisClientTracking(vertx, standalone(shard.getKey()), shard.getValue().redis(Lane.INTERACTIVE), cache, broadcast, prefixes));
+            }
+        }
+        List<Future> futures = new ArrayList<>();
+        for (RedisClientTracking tracking : started) {
+            Future<Void> future = Future.future();
+            tracking.start(future);
+            futures.add(future);
+        }
+        CompositeFuture.join(futures).setHandler(r -> {
+            if (r.failed()) {
+                for (RedisClientTracking tracking : started) {
+                    tracking.close();
+                }
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            this.trackings = started;
+            this.nearCache = cache;
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    public boolean isCluster() {
+        return cluster;
+    }
+
+    public boolean isSharded() {
+        return ring != null;
+    }
+
+    public RedisLanes lanes() {
+        return main;
+    }
+
+    public RedisAPI api(String key) {
+        return api(Lane.INTERACTIVE, key);
+    }
+
+    /**
+     * the lane's connection owning the key, on the shard picked by the hash ring when sharding is enabled.
+     */
+    public RedisAPI api(Lane lane, String key) {
+        if (ring == null) {
+            return main.api(lane);
+        }
+        return ring.get(HashSlot.routingKey(key)).api(lane);
+    }
+
+    /**
+     * the interactive connection owning the key, as a {@link Redis} for raw requests and batches.
+     * requests carrying keys or values send them with {@link RedisHMap#bytes(String)}.
+     */
+    public Redis redis(String key) {
+        return redis(Lane.INTERACTIVE, key);
+    }
+
+    public Redis redis(Lane lane, String key) {
+        if (ring == null) {
+            return main.redis(lane);
+        }
+        return ring.get(HashSlot.routingKey(key)).redis(lane);
+    }
+
+    /**
+     * batches the multi map writes sent through {@link #send(String, Request, Handler)}.
+     */
+    public void setRegistrationBatcher(RegistrationBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    /**
+     * a multi map write of the key, batched with the others issued meanwhile when registration batching is on.
+     */
+    public void send(String key, Request request, Handler<AsyncResult<Response>> handler) {
+        RegistrationBatcher batcher = this.batcher;
+        if (batcher == null) {
+            redis(key).send(request, handler);
+            return;
+        }
+        batcher.send(redis(key), key, request, handler);
+    }
+
+    /**
+     * sends the requests, the i-th of them for the i-th key, as one pipelined batch per connection (per slot in
+     * cluster mode) and hands back the replies in the same order. an error reply fails the whole result.
+     */
+    public void pipeline(List<String> keys, List<Request> requests, Handler<AsyncResult<List<Response>>> handler) {
+        Map<Object, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            Object group = cluster ? (Object) HashSlot.slot(key) : redis(key);
+            groups.computeIfAbsent(group, g -> new ArrayList<>()).add(i);
+        }
+        Response[] responses = new Response[requests.size()];
+        List<Future> futures = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups.values()) {
+            List<Request> batch = new ArrayList<>(group.size());
+            for (Integer i : group) {
+                batch.add(requests.get(i));
+            }
+            Future<Void> future = Future.future();
+            futures.add(future);
+            redis(keys.get(group.get(0))).batch(batch, r -> {
+                if (r.failed()) {
+                    future.fail(r.cause());
+                    return;
+                }
+                for (int j = 0; j < group.size(); j++) {
+                    responses[group.get(j)] = r.result().get(j);
+                }
+                future.complete();
+            });
+        }
+        CompositeFuture.all(futures).setHandler(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture(Arrays.asList(responses)));
+        });
+    }
+
+    /**
+     * the connection for read-mostly lookups of the key, a replica when the read preference allows it.
+     */
+    public Redis readRedis(String key) {
+        // cached reads must go through the connection that has client tracking enabled
+        if (readRouter == null || ring != null || nearCache != null) {
+            return redis(key);
+        }
+        return readRouter.select();
+    }
+
+    /**
+     * true when the connection (of {@link #readRedis(String)}) reads from a replica, whose answers may lag behind the master.
+     */
+    public boolean readsReplica(Redis redis) {
+        return readRouter != null && ring == null && nearCache == null && readRouter.isReplica(redis);
+    }
+
+    /**
+     * opens the connections of the vertx's event loops on them from now on, see {@link RedisConnectionPool#bindLoops(Vertx)}.
+     */
+    public void bindLoops(Vertx loops) {
+        main.bindLoops(loops);
+        if (shards != null) {
+            for (RedisLanes shard : shards.values()) {
+                shard.bindLoops(loops);
+            }
+        }
+    }
+
+    /**
+     * commands waiting for an in-flight slot on the lane, over the main connections and every shard.
+     */
+    public int pending(Lane lane) {
+        int pending = main.pending(lane);
+        if (shards != null) {
+            for (RedisLanes shard : shards.values()) {
+                pending += shard.pending(lane);
+            }
+        }
+        return pending;
+    }
+
+    public void scan(String prefix, Operation op, Handler<AsyncResult<List<String>>> resultHandler) {
+        Handler<AsyncResult<List<String>>> handler = scanEvent(prefix, op, resultHandler);
+        if (ring != null) {
+            List<Redis> nodes = new ArrayList<>();
+            for (RedisLanes shard : shards.values()) {
+                nodes.add(shard.redis(Lane.BULK));
+            }
+            scan(nodes, prefix, op, handler);
+            return;
+        }
+        if (!cluster) {
+            List<String> keys = new ArrayList<>();
+            scan(main.redis(Lane.BULK), prefix + "*", "0", keys, op, handler);
+            return;
+        }
+        op.roundTrip();
+        masters(mr -> {
+            if (mr.failed()) {
+                handler.handle(Future.failedFuture(mr.cause()));
+                return;
+            }
+            scan(mr.result(), prefix, op, handler);
+        });
+    }
+
+    private Handler<AsyncResult<List<String>>> scanEvent(String prefix, Operation op, Handler<AsyncResult<List<String>>> handler) {
+        ScanEvent event = new ScanEvent();
+        if (!event.isEnabled()) {
+            return handler;
+        }
+        event.begin();
+        int roundTrips = op.roundTrips();
+        return r -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.prefix = prefix;
+                event.keys = r.succeeded() ? r.result().size() : 0;
+                event.roundTrips = op.roundTrips() - roundTrips;
+                event.succeeded = r.succeeded();
+                event.commit();
+            }
+            handler.handle(r);
+        };
+    }
+
+    public void del(List<String> keys, Operation op, Handler<AsyncResult<Long>> handler) {
+        if (keys.isEmpty()) {
+            handler.handle(Future.succeededFuture(0L));
+            return;
+        }
+        List<KeyValue<Redis, List<String>>> groups = split(keys);
+        List<Future> futures = new ArrayList<>(groups.size());
+        for (KeyValue<Redis, List<String>> group : groups) {
+            Future<Response> future = Future.future();
+            op.roundTrip();
+            group.getKey().send(keys(Command.DEL, group.getValue()), future);
+            futures.add(future);
+        }
+        CompositeFuture.all(futures).setHandler(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            long deleted = 0;
+            List<Response> responses = r.result().list();
+            for (Response response : responses) {
+                if (response.type() == ResponseType.ERROR) {
+                    handler.handle(Future.failedFuture("redis del failed," + response.toString(Charset.forName("UTF-8"))));
+                    return;
+                }
+                deleted += Optional.ofNullable(response.toLong()).orElse(0L);
+            }
+            handler.handle(Future.succeededFuture(deleted));
+        });
+    }
+
+    /**
+     * MGET split per slot, the responses are returned in the order of the given keys.
+     */
+    public void mget(List<String> keys, Operation op, Handler<AsyncResult<List<Response>>> handler) {
+        if (keys.isEmpty()) {
+            handler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        List<KeyValue<Redis, List<String>>> groups = split(keys);
+        List<Future> futures = new ArrayList<>(groups.size());
+        for (KeyValue<Redis, List<String>> group : groups) {
+            Future<Response> future = Future.future();
+            op.roundTrip();
+            group.getKey().send(keys(Command.MGET, group.getValue()), future);
+            futures.add(future);
+        }
+        CompositeFuture.all(futures).setHandler(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            Map<String, Response> values = new HashMap<>();
+            for (int i = 0; i < groups.size(); i++) {
+                Response response = r.result().resultAt(i);
+                if (response.type() == ResponseType.ERROR) {
+                    handler.handle(Future.failedFuture("redis mget failed," + response.toString(Charset.forName("UTF-8"))));
+                    return;
+                }
+                List<String> group = groups.get(i).getValue();
+                for (int j = 0; j < group.size(); j++) {
+                    values.put(group.get(j), response.get(j));
+                }
+            }
+            List<Response> result = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                result.add(values.get(key));
+            }
+            handler.handle(Future.succeededFuture(result));
+        });
+    }
+
+    /**
+     * closes the multi map replicas, the handler completes once their snapshot files are written.
+     */
+    public void closeReplicas(Handler<AsyncResult<Void>> handler) {
+        List<RedisMultiMapReplica> closing;
+        synchronized (replicas) {
+            closing = new ArrayList<>(replicas);
+            replicas.clear();
+        }
+        List<Future> closed = new ArrayList<>(closing.size());
+        for (RedisMultiMapReplica replica : closing) {
+            Future<Void> future = Future.future();
+            replica.close(future);
+            closed.add(future);
+        }
+        CompositeFuture.all(closed).setHandler(r -> handler.handle(Future.succeededFuture()));
+    }
+
+    public void close() {
+        for (RedisClientTracking tracking : trackings) {
+            tracking.close();
+        }
+        synchronized (replicas) {
+            for (RedisMultiMapReplica replica : replicas) {
+                replica.close();
+            }
+            replicas.clear();
+        }
+        if (negativeCacheInvalidation != null) {
+            negativeCacheInvalidation.close();
+            negativeCache.setEnabled(false);
+        }
+        if (nearCache != null) {
+            nearCache.setEnabled(false);
+        }
+        if (readRouter != null) {
+            readRouter.close();
+        }
+        for (Redis master : masters.values()) {
+            master.close();
+        }
+        masters.clear();
+        if (shards != null) {
+            for (RedisLanes shard : shards.values()) {
+                shard.close();
+            }
+        }
+    }
+
+    private List<KeyValue<Redis, List<String>>> split(List<String> keys) {
+        List<KeyValue<Redis, List<String>>> groups = new ArrayList<>();
+        if (ring != null) {
+            Map<Redis, List<String>> owners = new LinkedHashMap<>();
+            for (String key : keys) {
+                owners.computeIfAbsent(redis(Lane.BULK, key), o -> new ArrayList<>()).add(key);
+            }
+            for (Map.Entry<Redis, List<String>> owner : owners.entrySet()) {
+                groups.add(new KeyValue<>(owner.getKey(), owner.getValue()));
+            }
+        } else if (cluster) {
+            for (List<String> slot : HashSlot.groupBySlot(keys).values()) {
+                groups.add(new KeyValue<>(main.redis(Lane.BULK), slot));
+            }
+        } else {
+            groups.add(new KeyValue<>(main.redis(Lane.BULK), keys));
+        }
+        return groups;
+    }
+
+    private static Request keys(Command command, List<String> keys) {
+        Request request = Request.cmd(command);
+        for (String key : keys) {
+            request.arg(RedisHMap.bytes(key));
+        }
+        return request;
+    }
+
+    private void scan(List<Redis> nodes, String prefix, Operation op, Handler<AsyncResult<List<String>>> handler) {
+        List<Future> futures = new ArrayList<>();
+        for (Redis node : nodes) {
+            Future<List<String>> future = Future.future();
+            scan(node, prefix + "*", "0", new ArrayList<>(), op, future);
+            futures.add(future);
+        }
+        CompositeFuture.all(futures).setHandler(r -> {
+            if (r.failed()) {
+                log.error("redis keyspace scan {} failed", r.cause(), prefix);
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            List<String> keys = new ArrayList<>();
+            List<List<String>> parts = r.result().list();
+            for (List<String> part : parts) {
+                keys.addAll(part);
+            }
+            handler.handle(Future.succeededFuture(keys));
+        });
+    }
+
+    private void scan(Redis node, String pattern, String cursor, List<String> keys, Operation op, Handler<AsyncResult<List<String>>> handler) {
+        op.roundTrip();
+        node.send(Request.cmd(Command.SCAN).arg(cursor).arg("MATCH").arg(RedisHMap.bytes(pattern)).arg("COUNT").arg(SCAN_COUNT), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis scan failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            String next = r.result().get(0).toString(Charset.forName("UTF-8"));
+            Response page = r.result().get(1);
+            int size = page.size();
+            for (int i = 0; i < size; i++) {
+                keys.add(RedisHMap.string(page.get(i)));
+            }
+            if ("0".equals(next)) {
+                handler.handle(Future.succeededFuture(keys));
+                return;
+            }
+            scan(node, pattern, next, keys, op, handler);
+        });
+    }
+
+    private void masters(Handler<AsyncResult<List<Redis>>> handler) {
+        main.api(Lane.BULK).cluster(List.of("SLOTS"), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis cluster slots failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            Set<String> addresses = new LinkedHashSet<>();
+            for (Response range : r.result()) {
+                // [start, end, [master host, port, id], [replica host, port, id]...]
+                Response master = range.get(2);
+                addresses.add(master.get(0).toString(Charset.forName("UTF-8")) + ":" + master.get(1).toInteger());
+            }
+            List<Future> futures = new ArrayList<>();
+            for (String address : addresses) {
+                Future<Redis> future = Future.future();
+                master(address, future);
+                futures.add(future);
+            }
+            CompositeFuture.all(futures).setHandler(cr -> {
+                if (cr.failed()) {
+                    handler.handle(Future.failedFuture(cr.cause()));
+                    return;
+                }
+                handler.handle(Future.succeededFuture(cr.result().list()));
+            });
+        });
+    }
+
+    private void master(String address, Handler<AsyncResult<Redis>> handler) {
+        Redis master = masters.get(address);
+        if (master != null) {
+            handler.handle(Future.succeededFuture(master));
+            return;
+        }
+        // a pool of one, so replies come back on the caller's context
+        new RedisConnectionPool(vertx, standalone(address), 1, Integer.MAX_VALUE).connect(r -> {
+            if (r.failed()) {
+                log.error("redis keyspace connect to master {} failed", r.cause(), address);
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            Redis redis = r.result();
+            redis.exceptionHandler(e -> masters.remove(address));
+            redis.endHandler(v -> masters.remove(address));
+            masters.put(address, redis);
+            handler.handle(Future.succeededFuture(redis));
+        });
+    }
+
+    private RedisOptions standalone(String address) {
+        int split = address.lastIndexOf(':');
+        SocketAddress endpoint = SocketAddress.inetSocketAddress(Integer.parseInt(address.substring(split + 1)), address.substring(0, split));
+        return new RedisOptions(options)
+                .setType(RedisClientType.STANDALONE)
+                .setEndpoints(new ArrayList<>(List.of(endpoint)));
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import org.pharosnet.vertx.cluster.redis.Lane;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The connections of every {@link Lane} to one redis server (or one cluster).
+ */
+public class RedisLanes {
+
+    public RedisLanes(Map<Lane, Redis> lanes) {
+        this.lanes = new EnumMap<>(lanes);
+        this.apis = new EnumMap<>(Lane.class);
+        for (Map.Entry<Lane, Redis> lane : this.lanes.entrySet()) {
+            this.apis.put(lane.getKey(), RedisAPI.api(lane.getValue()));
+        }
+    }
+
+    private final Map<Lane, Redis> lanes;
+    private final Map<Lane, RedisAPI> apis;
+
+    public Redis redis(Lane lane) {
+        return lanes.get(lane);
+    }
+
+    public RedisAPI api(Lane lane) {
+        return apis.get(lane);
+    }
+
+    /**
+     * commands waiting for an in-flight slot on the lane, 0 unless it is pooled.
+     */
+    public int pending(Lane lane) {
+        Redis redis = lanes.get(lane);
+        return redis instanceof RedisConnectionPool ? ((RedisConnectionPool) redis).pending() : 0;
+    }
+
+    /**
+     * see {@link RedisConnectionPool#bindLoops(Vertx)}, for the pooled lanes.
+     */
+    public void bindLoops(Vertx loops) {
+        for (Redis redis : lanes.values()) {
+            if (redis instanceof RedisConnectionPool) {
+                ((RedisConnectionPool) redis).bindLoops(loops);
+            }
+        }
+    }
+
+    public void connect(Handler<AsyncResult<RedisLanes>> handler) {
+        List<Future> futures = new ArrayList<>();
+        for (Redis redis : lanes.values()) {
+            Future<Redis> future = Future.future();
+            redis.connect(future);
+            futures.add(future);
+        }
+        CompositeFuture.join(futures).setHandler(r -> {
+            if (r.failed()) {
+                close();
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture(this));
+        });
+    }
+
+    public void close() {
+        for (Redis redis : lanes.values()) {
+            redis.close();
+        }
+    }
+
+}
@@ -6,6 +6,7 @@ import io.vertx.core.Handler;
 import io.vertx.core.shareddata.Lock;
 import io.vertx.redis.client.RedisAPI;
 import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.ClusterMetrics;
 
 import java.nio.charset.Charset;
 import java.time.Instant;
@@ -17,20 +18,36 @@ public class RedisLock implements Lock {
     private static final String LOCK_PREFIX = "__vertx.sync.lock.";
 
     public RedisLock(String name, RedisAPI api, long timeout) {
+        this(name, api, timeout, ClusterMetrics.NONE);
+    }
+
+    public RedisLock(String name, RedisAPI api, long timeout, ClusterMetrics metrics) {
         this.name =  name = LOCK_PREFIX + name;
         this.api = api;
         this.deadline = Instant.now().plusSeconds(timeout);
+        this.metrics = metrics;
+        this.started = System.nanoTime();
+        this.event = new LockEvent();
+        this.event.begin();
     }
 
     private String name;
     private RedisAPI api;
     private Instant deadline;
+    private ClusterMetrics metrics;
+    private long started;
+    private int attempts;
+    private LockEvent event;
+    private long acquired;
 
     public void lock(Handler<AsyncResult<Lock>> handler) {
         if (!Instant.now().isBefore(this.deadline)) {
+            metrics.lock(name, System.nanoTime() - started, attempts, false);
+            commit("acquire", false);
             handler.handle(Future.failedFuture("timeout"));
             return;
         }
+        attempts++;
         api.exists(List.of(name), r -> {
             if (r.failed()) {
                 handler.handle(Future.failedFuture(r.cause()));
@@ -58,6 +75,9 @@ public class RedisLock implements Lock {
                     handler.handle(Future.failedFuture("redis lock failed at put," + sr.result().toString(Charset.forName("UTF-8"))));
                     return;
                 }
+                acquired = System.nanoTime();
+                metrics.lock(name, acquired - started, attempts, true);
+                commit("acquire", true);
                 handler.handle(Future.succeededFuture(this));
             });
         });
@@ -66,9 +86,26 @@ public class RedisLock implements Lock {
 
     @Override
     public void release() {
+        event = new LockEvent();
+        event.begin();
         api.del(List.of(name), r -> {
-
+            commit("release", r.succeeded());
         });
     }
 
+    private void commit(String operation, boolean succeeded) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.name = name;
+        event.operation = operation;
+        event.attempts = attempts;
+        event.acquired = "acquire".equals(operation) && succeeded;
+        event.heldTime = "release".equals(operation) ? System.nanoTime() - acquired : 0L;
+        // each attempt is an EXISTS, the acquisition adds the SET
+        event.roundTrips = "release".equals(operation) ? 1 : attempts + (succeeded ? 1 : 0);
+        event.commit();
+    }
+
 }
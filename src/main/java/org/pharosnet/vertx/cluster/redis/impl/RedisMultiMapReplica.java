@@ -0,0 +1,827 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+import org.pharosnet.vertx.cluster.redis.Lane;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * An in-memory copy of a multi map, kept up to date from a change log so lookups never go to redis.
+ * <p>
+ * Every add and remove also appends an entry (op, key, value) to the map's stream, in the same script as the
+ * list write. Each node tails the stream with a blocking XREAD on a connection of its own and applies the entries
+ * in id order with set semantics, so an entry applied twice changes nothing. A node's own writes are applied as
+ * soon as they succeed, and again when they come back from the stream.
+ * <p>
+ * The stream is capped near {@code maxLength} entries. A node bootstraps from the latest snapshot (the whole map
+ * plus the stream id it was taken at, written periodically by one node) and replays the stream after it; without a
+ * usable snapshot it reads the lists themselves. After a reconnect it resumes from its last id, unless the stream
+ * was trimmed past it, then it bootstraps again. The copy is live once a read of the stream came back short, i.e.
+ * it replayed everything after its id; until then lookups fall back to redis.
+ * <p>
+ * With a snapshot file the copy is also written to disk, periodically and on close, through a memory mapping.
+ * A restarted node maps it, checks that the stream still holds the id it was taken at (the version stamp) and only
+ * reads the entries after it, instead of the whole map from redis.
+ * <p>
+ * A {@link ReplicaReconciler} compares bucket digests with redis every {@code reconcileInterval} and fetches the
+ * buckets that drifted, e.g. after a write that reached the lists but not the log.
+ */
+public class RedisMultiMapReplica {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisMultiMapReplica.class);
+
+    static final String OP_ADD = "a";
+    static final String OP_REMOVE = "r";
+    /**
+     * the value removed from every key, the key field is empty.
+     */
+    static final String OP_REMOVE_ALL = "ra";
+
+    private static final String ADD_SCRIPT = "local n = redis.call('LPUSH', KEYS[1], ARGV[1]) "
+            + "redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[2], '*', 'op', 'a', 'key', KEYS[1], 'value', ARGV[1]) "
+            + "return n";
+
+    private static final String REMOVE_SCRIPT = "local n = redis.call('LREM', KEYS[1], '0', ARGV[1]) "
+            + "if n > 0 then "
+            + "redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[2], '*', 'op', 'r', 'key', KEYS[1], 'value', ARGV[1]) "
+            + "end "
+            + "return n";
+
+    private static final String ZERO_ID = "0-0";
+    private static final int READ_COUNT = 1000;
+    private static final String READ_BLOCK = "1000";
+    private static final long RECONNECT_DELAY = 1000L;
+    /**
+     * the first int of a snapshot file, followed by the stream key and the snapshot.
+     */
+    private static final int FILE_MAGIC = 0x56435231;
+
+    public RedisMultiMapReplica(Vertx vertx, RedisOptions options, RedisKeyspace keyspace, String keyPrefix, String logKey,
+                                int maxLength, long snapshotInterval, long reconcileInterval, Path snapshotFile) {
+        this.vertx = vertx;
+        this.options = options;
+        this.keyspace = keyspace;
+        this.keyPrefix = keyPrefix;
+        this.logKey = logKey;
+        this.snapshotKey = logKey + ".snapshot";
+        this.snapshotLockKey = logKey + ".snapshot.lock";
+        this.maxLength = Integer.toString(maxLength);
+        this.snapshotInterval = snapshotInterval;
+        this.reconcileInterval = reconcileInterval;
+        this.snapshotFile = snapshotFile;
+        this.reconciler = new ReplicaReconciler(this, keyspace.lanes().redis(Lane.BULK), keyPrefix);
+    }
+
+    private final Vertx vertx;
+    private final RedisOptions options;
+    private final RedisKeyspace keyspace;
+    private final String keyPrefix;
+    private final String logKey;
+    private final String snapshotKey;
+    private final String snapshotLockKey;
+    private final String maxLength;
+    private final long snapshotInterval;
+    private final long reconcileInterval;
+    /**
+     * null when the copy is not kept on disk.
+     */
+    private final Path snapshotFile;
+    private final ReplicaReconciler reconciler;
+
+    private final Map<String, Values> entries = new ConcurrentHashMap<>();
+    private String lastId = ZERO_ID;
+    private volatile boolean live;
+    private volatile boolean closed;
+    private Redis consumer;
+    private long snapshotTimer = -1L;
+    private long reconcileTimer = -1L;
+    /**
+     * keys changed while a reconciliation runs, its fetched values are older than theirs.
+     */
+    private Set<String> touched;
+
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder bootstraps = new LongAdder();
+    private final LongAdder repairedBuckets = new LongAdder();
+
+    /**
+     * the values of one key as stored, with their decoded form once a lookup decoded them.
+     */
+    public static final class Values {
+
+        static final Values EMPTY = new Values(Collections.emptySet());
+
+        private Values(Set<String> stored) {
+            this.stored = stored;
+        }
+
+        private final Set<String> stored;
+        private volatile Object decoded;
+
+        public Set<String> stored() {
+            return stored;
+        }
+
+        public List<byte[]> bytes() {
+            List<byte[]> bytes = new ArrayList<>(stored.size());
+            for (String value : stored) {
+                bytes.add(RedisHMap.bytes(value));
+            }
+            return bytes;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T decoded() {
+            return (T) decoded;
+        }
+
+        public void decoded(Object decoded) {
+            this.decoded = decoded;
+        }
+    }
+
+    /**
+     * connects the stream consumer and bootstraps, lookups are served once the copy is complete.
+     */
+    public void start(Handler<AsyncResult<Void>> handler) {
+        Redis.createClient(vertx, options).connect(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            connected(r.result());
+            handler.handle(Future.succeededFuture());
+            if (snapshotFile == null) {
+                bootstrap();
+            } else {
+                restore();
+            }
+        });
+        snapshotTimer = vertx.setPeriodic(snapshotInterval, id -> snapshot());
+        if (reconcileInterval > 0) {
+            reconcileTimer = vertx.setPeriodic(reconcileInterval, id -> reconcile(r -> {
+                if (r.failed()) {
+                    log.warn("redis multi map replica {} reconciliation failed", r.cause(), logKey);
+                }
+            }));
+        }
+    }
+
+    /**
+     * compares the copy with redis and fetches the buckets that differ, the handler gets how many.
+     */
+    public void reconcile(Handler<AsyncResult<Integer>> handler) {
+        reconciler.reconcile(handler);
+    }
+
+    public void close() {
+        close(r -> {
+        });
+    }
+
+    /**
+     * stops following the log, the handler completes once the snapshot file is written (on a worker thread).
+     */
+    public void close(Handler<AsyncResult<Void>> handler) {
+        closed = true;
+        Buffer snapshot = null;
+        if (snapshotFile != null && live) {
+            // the next start only reads what changed after this
+            synchronized (this) {
+                snapshot = writeSnapshot();
+            }
+        }
+        live = false;
+        if (snapshotTimer >= 0) {
+            vertx.cancelTimer(snapshotTimer);
+        }
+        if (reconcileTimer >= 0) {
+            vertx.cancelTimer(reconcileTimer);
+        }
+        if (consumer != null) {
+            consumer.close();
+        }
+        if (snapshot == null) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        Buffer written = snapshot;
+        vertx.<Void>executeBlocking(f -> {
+            try {
+                writeFile(written);
+                f.complete();
+            } catch (IOException e) {
+                f.fail(e);
+            }
+        }, false, fr -> {
+            if (fr.failed()) {
+                log.warn("redis multi map replica {} could not write {}", fr.cause(), logKey, snapshotFile);
+            }
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * the key's values, empty when it has none, null while the copy is not live.
+     */
+    public Values get(String key) {
+        if (!live) {
+            return null;
+        }
+        return entries.getOrDefault(key, Values.EMPTY);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * log entries applied, from the stream and from this node's own writes.
+     */
+    public long getApplied() {
+        return applied.sum();
+    }
+
+    public long getBootstraps() {
+        return bootstraps.sum();
+    }
+
+    /**
+     * buckets the reconciler found different from redis and fetched again.
+     */
+    public long getRepairedBuckets() {
+        return repairedBuckets.sum();
+    }
+
+    /**
+     * LPUSH and the log entry in one script, the result is LPUSH's.
+     */
+    public void add(String key, String value, Handler<AsyncResult<Response>> handler) {
+        write(ADD_SCRIPT, OP_ADD, key, value, handler);
+    }
+
+    /**
+     * LREM and, when something was removed, the log entry in one script, the result is LREM's.
+     */
+    public void remove(String key, String value, Handler<AsyncResult<Response>> handler) {
+        write(REMOVE_SCRIPT, OP_REMOVE, key, value, handler);
+    }
+
+    private void write(String script, String op, String key, String value, Handler<AsyncResult<Response>> handler) {
+        Request eval = Request.cmd(Command.EVAL).arg(script).arg(2).arg(RedisHMap.bytes(key)).arg(RedisHMap.bytes(logKey))
+                .arg(RedisHMap.bytes(value)).arg(maxLength);
+        keyspace.send(key, eval, r -> {
+            if (r.succeeded() && r.result().type() != ResponseType.ERROR) {
+                apply(op, key, value);
+            }
+            handler.handle(r);
+        });
+    }
+
+    /**
+     * logs a value removed from every key, after the lists were cleaned up.
+     */
+    public void removeAll(String value, Handler<AsyncResult<Void>> handler) {
+        Request xadd = Request.cmd(Command.XADD).arg(RedisHMap.bytes(logKey)).arg("MAXLEN").arg("~").arg(maxLength).arg("*")
+                .arg("op").arg(OP_REMOVE_ALL).arg("key").arg("").arg("value").arg(RedisHMap.bytes(value));
+        keyspace.lanes().redis(Lane.BULK).send(xadd, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis xadd failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            apply(OP_REMOVE_ALL, "", value);
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    private synchronized void apply(String op, String key, String value) {
+        applied.increment();
+        switch (op) {
+            case OP_ADD: {
+                Values current = entries.getOrDefault(key, Values.EMPTY);
+                if (current.stored.contains(value)) {
+                    return;
+                }
+                Set<String> stored = new LinkedHashSet<>(current.stored);
+                stored.add(value);
+                entries.put(key, new Values(stored));
+                touch(key);
+                return;
+            }
+            case OP_REMOVE: {
+                remove(key, value);
+                return;
+            }
+            case OP_REMOVE_ALL: {
+                for (Map.Entry<String, Values> entry : entries.entrySet()) {
+                    if (entry.getValue().stored.contains(value)) {
+                        remove(entry.getKey(), value);
+                    }
+                }
+                return;
+            }
+            default:
+                log.warn("redis multi map replica {} skipped unknown op {}", logKey, op);
+        }
+    }
+
+    private void remove(String key, String value) {
+        Values current = entries.get(key);
+        if (current == null || !current.stored.contains(value)) {
+            return;
+        }
+        touch(key);
+        if (current.stored.size() == 1) {
+            entries.remove(key);
+            return;
+        }
+        Set<String> stored = new LinkedHashSet<>(current.stored);
+        stored.remove(value);
+        entries.put(key, new Values(stored));
+    }
+
+    private void touch(String key) {
+        if (touched != null) {
+            touched.add(key);
+        }
+    }
+
+    synchronized void beginReconcile() {
+        touched = new HashSet<>();
+    }
+
+    /**
+     * takes the fetched keys of the differing buckets, null when the run failed. keys changed by the log during
+     * the run keep their values, the copy was replaced meanwhile when a bootstrap ended the run.
+     */
+    synchronized void endReconcile(Map<String, Set<String>> fetched, Predicate<String> differs, int buckets) {
+        Set<String> changed = touched;
+        touched = null;
+        if (fetched == null || changed == null) {
+            return;
+        }
+        for (String key : new ArrayList<>(entries.keySet())) {
+            if (differs.test(key) && !fetched.containsKey(key) && !changed.contains(key)) {
+                entries.remove(key);
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : fetched.entrySet()) {
+            if (changed.contains(entry.getKey())) {
+                continue;
+            }
+            Values current = entries.get(entry.getKey());
+            if (current == null || !current.stored.equals(entry.getValue())) {
+                entries.put(entry.getKey(), new Values(entry.getValue()));
+            }
+        }
+        repairedBuckets.add(buckets);
+    }
+
+    /**
+     * the stored values of every key, as the copy is now.
+     */
+    Map<String, Set<String>> stored() {
+        Map<String, Set<String>> stored = new HashMap<>();
+        for (Map.Entry<String, Values> entry : entries.entrySet()) {
+            stored.put(entry.getKey(), entry.getValue().stored);
+        }
+        return stored;
+    }
+
+    private void connected(Redis redis) {
+        consumer = redis;
+        redis.exceptionHandler(e -> lost(redis, e.getMessage()));
+        redis.endHandler(v -> lost(redis, "connection closed"));
+    }
+
+    private void lost(Redis redis, String reason) {
+        if (closed || consumer != redis) {
+            return;
+        }
+        consumer = null;
+        live = false;
+        log.warn("redis multi map replica {} lost its stream connection, lookups go to redis until it resumes, {}", logKey, reason);
+        vertx.setTimer(RECONNECT_DELAY, t -> reconnect());
+    }
+
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        Redis.createClient(vertx, options).connect(r -> {
+            if (r.failed()) {
+                vertx.setTimer(RECONNECT_DELAY, t -> reconnect());
+                return;
+            }
+            connected(r.result());
+            resume();
+        });
+    }
+
+    /**
+     * continues from the last id when the stream still holds it, bootstraps again when it was trimmed past it.
+     */
+    private void resume() {
+        String from = lastId();
+        if (ZERO_ID.equals(from)) {
+            bootstrap();
+            return;
+        }
+        consumer.send(first(from), r -> {
+            if (r.failed() || r.result().type() == ResponseType.ERROR) {
+                failed("resume", r.failed() ? r.cause().getMessage() : r.result().toString(Charset.forName("UTF-8")));
+                return;
+            }
+            if (r.result().size() == 0 || !from.equals(r.result().get(0).get(0).toString(Charset.forName("UTF-8")))) {
+                log.info("redis multi map replica {} was trimmed past {}, bootstrapping again", logKey, from);
+                bootstrap();
+                return;
+            }
+            consume();
+        });
+    }
+
+    /**
+     * the copy from the snapshot file when redis still has the stream id it was taken at, a bootstrap otherwise.
+     */
+    private void restore() {
+        vertx.<KeyValue<String, Map<String, Set<String>>>>executeBlocking(f -> {
+            if (!Files.exists(snapshotFile)) {
+                f.complete();
+                return;
+            }
+            try {
+                Map<String, Set<String>> snapshot = new HashMap<>();
+                String id = readFile(snapshot);
+                f.complete(id == null ? null : new KeyValue<>(id, snapshot));
+            } catch (IOException | RuntimeException e) {
+                f.fail(e);
+            }
+        }, false, fr -> {
+            if (fr.failed()) {
+                log.warn("redis multi map replica {} ignored the broken snapshot file {}", fr.cause(), logKey, snapshotFile);
+            }
+            if (fr.failed() || fr.result() == null) {
+                bootstrap();
+                return;
+            }
+            String id = fr.result().getKey();
+            consumer.send(first(id), xr -> {
+                if (xr.failed() || xr.result().type() == ResponseType.ERROR
+                        || xr.result().size() == 0 || !id.equals(xr.result().get(0).get(0).toString(Charset.forName("UTF-8")))) {
+                    log.info("redis multi map replica {} snapshot file {} is older than the stream, bootstrapping", logKey, snapshotFile);
+                    bootstrap();
+                    return;
+                }
+                replace(fr.result().getValue(), id);
+                consume();
+            });
+        });
+    }
+
+    /**
+     * the stream's entry at or after the id, it is the id itself while the stream was not trimmed past it.
+     */
+    private Request first(String id) {
+        return Request.cmd(Command.XRANGE).arg(RedisHMap.bytes(logKey)).arg(id).arg("+").arg("COUNT").arg(1);
+    }
+
+    private void bootstrap() {
+        bootstraps.increment();
+        consumer.send(Request.cmd(Command.GET).arg(RedisHMap.bytes(snapshotKey)), r -> {
+            if (r.failed() || r.result() != null && r.result().type() == ResponseType.ERROR) {
+                failed("bootstrap", r.failed() ? r.cause().getMessage() : r.result().toString(Charset.forName("UTF-8")));
+                return;
+            }
+            if (r.result() == null) {
+                reload();
+                return;
+            }
+            Map<String, Set<String>> snapshot = new HashMap<>();
+            String id;
+            try {
+                id = readSnapshot(Buffer.buffer(RedisHMap.serialized(r.result())), new int[]{0}, snapshot);
+            } catch (RuntimeException e) {
+                log.warn("redis multi map replica {} ignored a broken snapshot", e, logKey);
+                reload();
+                return;
+            }
+            // the snapshot is only usable while the stream still holds its id
+            consumer.send(first(id), xr -> {
+                if (xr.failed() || xr.result().type() == ResponseType.ERROR
+                        || xr.result().size() == 0 || !id.equals(xr.result().get(0).get(0).toString(Charset.forName("UTF-8")))) {
+                    reload();
+                    return;
+                }
+                replace(snapshot, id);
+                consume();
+            });
+        });
+    }
+
+    /**
+     * the lists themselves, read after the stream's last id so the entries after it cover what changed meanwhile.
+     */
+    private void reload() {
+        consumer.send(Request.cmd(Command.XREVRANGE).arg(RedisHMap.bytes(logKey)).arg("+").arg("-").arg("COUNT").arg(1), xr -> {
+            if (xr.failed() || xr.result().type() == ResponseType.ERROR) {
+                failed("reload", xr.failed() ? xr.cause().getMessage() : xr.result().toString(Charset.forName("UTF-8")));
+                return;
+            }
+            String id = xr.result().size() == 0 ? ZERO_ID : xr.result().get(0).get(0).toString(Charset.forName("UTF-8"));
+            keyspace.scan(keyPrefix, Operation.NONE, kr -> {
+                if (kr.failed()) {
+                    failed("reload", kr.cause().getMessage());
+                    return;
+                }
+                List<Future> futures = new ArrayList<>(kr.result().size());
+                for (String key : kr.result()) {
+                    Future<Response> future = Future.future();
+                    keyspace.redis(Lane.BULK, key).send(Request.cmd(Command.LRANGE).arg(RedisHMap.bytes(key)).arg(0).arg(-1), future);
+                    futures.add(future);
+                }
+                CompositeFuture.all(futures).setHandler(lr -> {
+                    if (lr.failed()) {
+                        failed("reload", lr.cause().getMessage());
+                        return;
+                    }
+                    Map<String, Set<String>> lists = new HashMap<>();
+                    for (int i = 0; i < kr.result().size(); i++) {
+                        Response values = lr.result().resultAt(i);
+                        if (values.type() == ResponseType.ERROR || values.size() == 0) {
+                            continue;
+                        }
+                        Set<String> stored = new LinkedHashSet<>();
+                        for (Response value : values) {
+                            stored.add(RedisHMap.string(value));
+                        }
+                        lists.put(kr.result().get(i), stored);
+                    }
+                    replace(lists, id);
+                    consume();
+                });
+            });
+        });
+    }
+
+    private synchronized void replace(Map<String, Set<String>> copy, String id) {
+        touched = null;
+        entries.clear();
+        for (Map.Entry<String, Set<String>> entry : copy.entrySet()) {
+            entries.put(entry.getKey(), new Values(entry.getValue()));
+        }
+        lastId = id;
+    }
+
+    private synchronized String lastId() {
+        return lastId;
+    }
+
+    private void consume() {
+        Redis redis = consumer;
+        if (closed || redis == null) {
+            return;
+        }
+        Request xread = Request.cmd(Command.XREAD).arg("COUNT").arg(READ_COUNT);
+        if (live) {
+            // a catch up read returns at once, so nothing left after the id makes the copy live without a wait
+            xread.arg("BLOCK").arg(READ_BLOCK);
+        }
+        xread.arg("STREAMS").arg(RedisHMap.bytes(logKey)).arg(lastId());
+        redis.send(xread, r -> {
+            if (r.failed()) {
+                failed("consume", r.cause().getMessage());
+                return;
+            }
+            Response streams = r.result();
+            if (streams != null && streams.type() == ResponseType.ERROR) {
+                failed("consume", streams.toString(Charset.forName("UTF-8")));
+                return;
+            }
+            int read = 0;
+            if (streams != null && streams.size() > 0) {
+                // [[stream, [[id, [field, value...]]...]]]
+                Response logEntries = streams.get(0).get(1);
+                read = logEntries.size();
+                applyAll(logEntries);
+            }
+            if (!live && read < READ_COUNT && !closed && consumer == redis) {
+                // caught up with the stream, the copy is as recent as redis
+                live = true;
+            }
+            consume();
+        });
+    }
+
+    private synchronized void applyAll(Response logEntries) {
+        for (Response entry : logEntries) {
+            Response fields = entry.get(1);
+            String op = null;
+            String key = null;
+            String value = null;
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                String field = fields.get(i).toString(Charset.forName("UTF-8"));
+                String text = RedisHMap.string(fields.get(i + 1));
+                if (field.equals("op")) {
+                    op = text;
+                } else if (field.equals("key")) {
+                    key = text;
+                } else if (field.equals("value")) {
+                    value = text;
+                }
+            }
+            if (op != null && key != null && value != null) {
+                apply(op, key, value);
+            }
+            lastId = entry.get(0).toString(Charset.forName("UTF-8"));
+        }
+    }
+
+    private void failed(String step, String reason) {
+        if (closed) {
+            return;
+        }
+        Redis redis = consumer;
+        if (redis == null) {
+            return;
+        }
+        // closing the consumer reconnects and resumes from the last id
+        log.warn("redis multi map replica {} {} failed, {}", logKey, step, reason);
+        lost(redis, reason);
+        redis.close();
+    }
+
+    /**
+     * writes the copy and its stream id when this node wins the snapshot lock of the interval.
+     */
+    private void snapshot() {
+        if (!live) {
+            return;
+        }
+        if (snapshotFile != null) {
+            vertx.executeBlocking(f -> {
+                Buffer snapshot;
+                synchronized (this) {
+                    snapshot = writeSnapshot();
+                }
+                try {
+                    writeFile(snapshot);
+                    f.complete();
+                } catch (IOException e) {
+                    f.fail(e);
+                }
+            }, false, fr -> {
+                if (fr.failed()) {
+                    log.warn("redis multi map replica {} could not write {}", fr.cause(), logKey, snapshotFile);
+                }
+            });
+        }
+        Request lock = Request.cmd(Command.SET).arg(RedisHMap.bytes(snapshotLockKey)).arg("1").arg("NX").arg("PX").arg(snapshotInterval);
+        keyspace.lanes().redis(Lane.BULK).send(lock, lr -> {
+            if (lr.failed() || lr.result() == null || lr.result().type() == ResponseType.ERROR) {
+                return;
+            }
+            byte[] snapshot;
+            synchronized (this) {
+                if (!live) {
+                    return;
+                }
+                snapshot = writeSnapshot().getBytes();
+            }
+            keyspace.lanes().redis(Lane.BULK).send(Request.cmd(Command.SET).arg(RedisHMap.bytes(snapshotKey)).arg(snapshot), sr -> {
+                if (sr.failed()) {
+                    log.warn("redis multi map replica {} snapshot failed", sr.cause(), logKey);
+                }
+            });
+        });
+    }
+
+    /**
+     * [id, key count, (key, value count, values...)...], strings length prefixed.
+     */
+    private Buffer writeSnapshot() {
+        Buffer buffer = Buffer.buffer();
+        writeString(buffer, lastId);
+        buffer.appendInt(entries.size());
+        for (Map.Entry<String, Values> entry : entries.entrySet()) {
+            writeString(buffer, entry.getKey());
+            buffer.appendInt(entry.getValue().stored.size());
+            for (String value : entry.getValue().stored) {
+                writeString(buffer, value);
+            }
+        }
+        return buffer;
+    }
+
+    private static String readSnapshot(Buffer buffer, int[] pos, Map<String, Set<String>> snapshot) {
+        String id = readString(buffer, pos);
+        int keys = buffer.getInt(pos[0]);
+        pos[0] += 4;
+        for (int i = 0; i < keys; i++) {
+            String key = readString(buffer, pos);
+            int count = buffer.getInt(pos[0]);
+            pos[0] += 4;
+            Set<String> stored = new LinkedHashSet<>(count);
+            for (int j = 0; j < count; j++) {
+                stored.add(readString(buffer, pos));
+            }
+            snapshot.put(key, stored);
+        }
+        return id;
+    }
+
+    /**
+     * written to a temporary file through a mapping, then moved over the previous one.
+     */
+    private void writeFile(Buffer snapshot) throws IOException {
+        Buffer header = Buffer.buffer().appendInt(FILE_MAGIC);
+        writeString(header, logKey);
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path written = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(written, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.length() + snapshot.length());
+                mapped.put(header.getByteBuf().nioBuffer());
+                mapped.put(snapshot.getByteBuf().nioBuffer());
+                mapped.force();
+            }
+            Files.move(written, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(written);
+        }
+    }
+
+    /**
+     * @return the stream id of the snapshot, null when the file belongs to another stream.
+     */
+    private String readFile(Map<String, Set<String>> snapshot) throws IOException {
+        Buffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = Buffer.buffer(Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+        if (buffer.length() < 4 || buffer.getInt(0) != FILE_MAGIC) {
+            throw new IOException("not a snapshot file");
+        }
+        int[] pos = {4};
+        if (!logKey.equals(readString(buffer, pos))) {
+            return null;
+        }
+        return readSnapshot(buffer, pos, snapshot);
+    }
+
+    private static void writeString(Buffer buffer, String value) {
+        byte[] bytes = RedisHMap.bytes(value);
+        buffer.appendInt(bytes.length);
+        buffer.appendBytes(bytes);
+    }
+
+    private static String readString(Buffer buffer, int[] pos) {
+        int length = buffer.getInt(pos[0]);
+        String value = buffer.getString(pos[0] + 4, pos[0] + 4 + length, "ISO-8859-1");
+        pos[0] += 4 + length;
+        return value;
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * The {@value #CHANNEL} channel: a node that adds the first value of a multi map key publishes the key, every node
+ * drops it from its {@link NegativeCache}. The subscription runs on a connection of its own.
+ * <p>
+ * While that connection is down the cache is suspended, it reconnects with backoff and resumes the (cleared) cache
+ * once it is subscribed again.
+ */
+public class RedisNegativeCacheInvalidation {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisNegativeCacheInvalidation.class);
+
+    public static final String CHANNEL = "__vertx.multi.map.added";
+
+    private static final long RECONNECT_DELAY = 1000L;
+
+    private static final long MAX_RECONNECT_DELAY = 30_000L;
+
+    public RedisNegativeCacheInvalidation(Vertx vertx, RedisOptions options, NegativeCache cache) {
+        this.vertx = vertx;
+        this.options = options;
+        this.cache = cache;
+    }
+
+    private Vertx vertx;
+    private RedisOptions options;
+    private NegativeCache cache;
+    private volatile Redis subscriber;
+    private volatile boolean closed;
+    private boolean suspended;
+    private long reconnectDelay = RECONNECT_DELAY;
+
+    public void start(Handler<AsyncResult<Void>> handler) {
+        subscribe(handler);
+    }
+
+    private void subscribe(Handler<AsyncResult<Void>> handler) {
+        Redis.createClient(vertx, options).connect(cr -> {
+            if (cr.failed()) {
+                handler.handle(Future.failedFuture(cr.cause()));
+                return;
+            }
+            Redis connection = cr.result();
+            if (closed) {
+                connection.close();
+                handler.handle(Future.failedFuture("redis negative cache invalidation closed"));
+                return;
+            }
+            subscriber = connection;
+            connection.handler(this::onMessage);
+            connection.exceptionHandler(e -> lost(connection, e.getMessage()));
+            connection.endHandler(v -> lost(connection, "connection closed"));
+            RedisAPI.api(connection).subscribe(List.of(CHANNEL), sr -> {
+                if (sr.failed()) {
+                    handler.handle(Future.failedFuture(sr.cause()));
+                    return;
+                }
+                if (sr.result() != null && sr.result().type() == ResponseType.ERROR) {
+                    handler.handle(Future.failedFuture("redis subscribe failed," + sr.result().toString(Charset.forName("UTF-8"))));
+                    return;
+                }
+                handler.handle(Future.succeededFuture());
+            });
+        });
+    }
+
+    public void close() {
+        closed = true;
+        Redis current = subscriber;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void onMessage(Response message) {
+        // ["message", channel, key]
+        if (message == null || message.type() != ResponseType.MULTI || message.size() < 3) {
+            return;
+        }
+        if (!"message".equals(message.get(0).toString(Charset.forName("UTF-8")))) {
+            return;
+        }
+        cache.invalidate(RedisHMap.string(message.get(2)));
+    }
+
+    private void lost(Redis connection, String reason) {
+        synchronized (this) {
+            if (closed || subscriber != connection) {
+                return;
+            }
+            subscriber = null;
+            if (!suspended) {
+                suspended = true;
+                cache.suspend();
+            }
+        }
+        log.warn("redis negative cache invalidation channel lost, negative cache suspended until it is back, {}", reason);
+        vertx.setTimer(reconnectDelay, t -> reconnect());
+    }
+
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        subscribe(r -> {
+            if (r.failed()) {
+                if (closed) {
+                    return;
+                }
+                Redis current = subscriber;
+                subscriber = null;
+                if (current != null) {
+                    current.close();
+                }
+                synchronized (this) {
+                    reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+                }
+                log.warn("redis negative cache invalidation reconnect failed, retrying in {} ms, {}", reconnectDelay, r.cause().getMessage());
+                vertx.setTimer(reconnectDelay, t -> reconnect());
+                return;
+            }
+            synchronized (this) {
+                reconnectDelay = RECONNECT_DELAY;
+                if (suspended) {
+                    suspended = false;
+                    cache.resume();
+                }
+            }
+            log.info("redis negative cache invalidation channel is back, negative cache resumed");
+        });
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.RedisRole;
+import io.vertx.redis.client.RedisSlaves;
+import io.vertx.redis.client.Request;
+import org.pharosnet.vertx.cluster.redis.ReadPreference;
+
+/**
+ * Picks the connection read-mostly lookups are sent to, following the {@link ReadPreference}.
+ * The replica connection is a sentinel client in the slave role, or a cluster client that sends
+ * read-only commands to the replicas. RTTs of both connections are probed with PING.
+ */
+public class RedisReadRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisReadRouter.class);
+
+    private static final double RTT_WEIGHT = 0.2;
+
+    public RedisReadRouter(Vertx vertx, RedisOptions options, Redis master, ReadPreference preference, long probeInterval) {
+        this.vertx = vertx;
+        this.options = options;
+        this.master = master;
+        this.preference = preference;
+        this.probeInterval = probeInterval;
+    }
+
+    private Vertx vertx;
+    private RedisOptions options;
+    private Redis master;
+    private volatile Redis replica;
+    private volatile boolean connecting;
+    private ReadPreference preference;
+    private long probeInterval;
+    private long probeTimer = -1;
+    private volatile double masterRtt = -1;
+    private volatile double replicaRtt = -1;
+
+    public void start(Handler<AsyncResult<Void>> handler) {
+        if (preference == ReadPreference.MASTER) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        connectReplica(r -> {
+            if (r.failed() && preference == ReadPreference.REPLICA) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            probeTimer = vertx.setPeriodic(probeInterval, t -> probe());
+            handler.handle(Future.succeededFuture());
+        });
+    }
+
+    public Redis select() {
+        Redis current = replica;
+        if (current == null) {
+            return master;
+        }
+        if (preference == ReadPreference.NEAREST && masterRtt >= 0 && (replicaRtt < 0 || masterRtt < replicaRtt)) {
+            return master;
+        }
+        return current;
+    }
+
+    /**
+     * true when the connection (of {@link #select()}) is not the master's.
+     */
+    public boolean isReplica(Redis redis) {
+        return redis != master;
+    }
+
+    public void close() {
+        if (probeTimer >= 0) {
+            vertx.cancelTimer(probeTimer);
+        }
+        Redis current = replica;
+        replica = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void connectReplica(Handler<AsyncResult<Redis>> handler) {
+        connecting = true;
+        RedisOptions replicaOptions = new RedisOptions(options);
+        if (RedisClientType.SENTINEL.equals(options.getType())) {
+            replicaOptions.setRole(RedisRole.SLAVE);
+        } else {
+            // NEAREST lets the cluster client spread reads over masters and replicas, the others read from replicas only
+            replicaOptions.setUseSlave(preference == ReadPreference.NEAREST ? RedisSlaves.SHARE : RedisSlaves.ALWAYS);
+        }
+        replicaClient(replicaOptions).connect(r -> {
+            connecting = false;
+            if (r.failed()) {
+                log.warn("redis read router connect to replica failed, reads go to the master", r.cause());
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            Redis redis = r.result();
+            redis.exceptionHandler(e -> lost(redis));
+            redis.endHandler(v -> lost(redis));
+            replica = redis;
+            replicaRtt = -1;
+            handler.handle(Future.succeededFuture(redis));
+        });
+    }
+
+    /**
+     * the client of the replica connection.
+     */
+    Redis replicaClient(RedisOptions replicaOptions) {
+        // a pool of one, so replies come back on the caller's context
+        return new RedisConnectionPool(vertx, replicaOptions, 1, Integer.MAX_VALUE);
+    }
+
+    private void lost(Redis redis) {
+        if (replica == redis) {
+            log.warn("redis read router lost the replica connection, reads go to the master until it is back");
+            replica = null;
+        }
+    }
+
+    private void probe() {
+        Redis current = replica;
+        if (current == null) {
+            if (!connecting) {
+                connectReplica(r -> {
+                });
+            }
+            return;
+        }
+        if (preference != ReadPreference.NEAREST) {
+            return;
+        }
+        long masterStart = System.nanoTime();
+        master.send(Request.cmd(Command.PING), r -> {
+            if (r.succeeded()) {
+                masterRtt = rtt(masterRtt, System.nanoTime() - masterStart);
+            }
+        });
+        long replicaStart = System.nanoTime();
+        current.send(Request.cmd(Command.PING), r -> {
+            if (r.succeeded()) {
+                replicaRtt = rtt(replicaRtt, System.nanoTime() - replicaStart);
+            }
+        });
+    }
+
+    private static double rtt(double average, long sample) {
+        if (average < 0) {
+            return sample;
+        }
+        return average + RTT_WEIGHT * (sample - average);
+    }
+
+}
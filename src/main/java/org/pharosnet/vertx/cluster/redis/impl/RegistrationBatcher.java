@@ -0,0 +1,160 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the multi map writes (adds and removes) issued within a window and sends them as pipelined batches,
+ * one socket write per batch instead of one per command. Deploying a verticle with thousands of consumers then
+ * costs a few writes. Each handler gets its own command's reply, on its own context.
+ * <p>
+ * A window of 0 sends at the end of the current event loop turn, so only what was issued together waits.
+ * A batch holds at most maxSize commands and only commands for one connection (and one slot in cluster mode).
+ * The redis client fails a whole batch when one of its replies is an error, every handler of the batch then fails.
+ * At most maxInFlight commands wait for their replies, the rest are sent as replies come back, a burst larger than
+ * the client's waiting queue would fail otherwise.
+ */
+public class RegistrationBatcher {
+
+    public RegistrationBatcher(Vertx vertx, RedisKeyspace keyspace, int maxSize, long window, int maxInFlight) {
+        this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
+        this.keyspace = keyspace;
+        this.maxSize = Math.max(1, maxSize);
+        this.window = window;
+        this.maxInFlight = Math.max(this.maxSize, maxInFlight);
+    }
+
+    private final Vertx vertx;
+    private final Context context;
+    private final RedisKeyspace keyspace;
+    private final int maxSize;
+    private final long window;
+    private final int maxInFlight;
+    private int inFlight;
+    private List<Pending> pending = new ArrayList<>();
+    private boolean scheduled;
+    private boolean flushing;
+
+    private static class Pending {
+
+        private Pending(Redis redis, String key, Request request, Handler<AsyncResult<Response>> handler) {
+            this.redis = redis;
+            this.key = key;
+            this.request = request;
+            this.handler = handler;
+        }
+
+        private final Redis redis;
+        private final String key;
+        private final Request request;
+        private final Handler<AsyncResult<Response>> handler;
+    }
+
+    /**
+     * queues the request for the connection, the key picks its slot in cluster mode.
+     */
+    public void send(Redis redis, String key, Request request, Handler<AsyncResult<Response>> handler) {
+        boolean full;
+        boolean schedule;
+        synchronized (this) {
+            pending.add(new Pending(redis, key, request, SingleFlight.onCaller(handler)));
+            full = pending.size() >= maxSize && !flushing;
+            if (full) {
+                flushing = true;
+            }
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        // always sent from the batcher's context, one connection keeps the writes in order
+        if (full || schedule && window <= 0) {
+            context.runOnContext(v -> flush());
+        } else if (schedule) {
+            vertx.setTimer(window, t -> flush());
+        }
+    }
+
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            scheduled = false;
+            flushing = false;
+            int room = Math.min(pending.size(), maxInFlight - inFlight);
+            if (room <= 0) {
+                // flushed again once replies make room
+                return;
+            }
+            if (room == pending.size()) {
+                batch = pending;
+                pending = new ArrayList<>();
+            } else {
+                batch = new ArrayList<>(pending.subList(0, room));
+                pending.subList(0, room).clear();
+            }
+            inFlight += batch.size();
+        }
+        send(batch);
+    }
+
+    private void replied(int count) {
+        boolean schedule;
+        synchronized (this) {
+            inFlight -= count;
+            schedule = !pending.isEmpty() && !scheduled;
+            if (schedule) {
+                scheduled = true;
+            }
+        }
+        if (schedule) {
+            context.runOnContext(v -> flush());
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        Map<Object, List<Pending>> groups = new LinkedHashMap<>();
+        for (Pending p : batch) {
+            // one cluster connection routes by slot, shards each have their own
+            Object group = keyspace.isCluster() ? (Object) HashSlot.slot(p.key) : p.redis;
+            groups.computeIfAbsent(group, g -> new ArrayList<>()).add(p);
+        }
+        for (List<Pending> all : groups.values()) {
+            for (int from = 0; from < all.size(); from += maxSize) {
+                sendGroup(all.subList(from, Math.min(all.size(), from + maxSize)));
+            }
+        }
+    }
+
+    private void sendGroup(List<Pending> group) {
+        Redis redis = group.get(0).redis;
+        if (group.size() == 1) {
+            Pending single = group.get(0);
+            redis.send(single.request, r -> {
+                replied(1);
+                single.handler.handle(r);
+            });
+            return;
+        }
+        List<Request> requests = new ArrayList<>(group.size());
+        for (Pending p : group) {
+            requests.add(p.request);
+        }
+        redis.batch(requests, r -> {
+            replied(group.size());
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).handler.handle(r.failed() ? Future.failedFuture(r.cause()) : Future.succeededFuture(r.result().get(i)));
+            }
+        });
+    }
+
+}
@@ -0,0 +1,222 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * How many times this node added each (key, stored value) pair of a multi map, so redis is only written when a
+ * pair is added the first time and removed the last time. Several consumers of one address on a node then cost one
+ * list element, not one each.
+ * <p>
+ * The writes of a pair run one after the other, the write of a remove lands before the push of a later add. An add
+ * that finds the pair's push still in flight completes with it, not before the value is in redis, and fails with
+ * it: a failed push gives up the adds that waited for it. Only pairs added through this node are counted, removing
+ * any other pair goes to redis as before.
+ */
+public class RegistrationCounts {
+
+    private final Map<Pair, Holders> counts = new HashMap<>();
+
+    private static final class Pair {
+
+        private Pair(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private final String key;
+        private final String value;
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Pair)) {
+                return false;
+            }
+            Pair pair = (Pair) other;
+            return key.equals(pair.key) && value.equals(pair.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, value);
+        }
+    }
+
+    private static final class Holders {
+
+        private int count;
+        /**
+         * the last write of the pair not landed yet, null when there is none.
+         */
+        private Write tail;
+        private final ArrayDeque<Write> queued = new ArrayDeque<>(1);
+        private boolean writing;
+    }
+
+    private static final class Write {
+
+        private Write(boolean add, Consumer<Handler<AsyncResult<Object>>> send) {
+            this.add = add;
+            this.send = send;
+        }
+
+        private final boolean add;
+        private final Consumer<Handler<AsyncResult<Object>>> send;
+        private final List<Handler<AsyncResult<Object>>> waiters = new ArrayList<>(1);
+        private Holders holders;
+    }
+
+    /**
+     * counts an add, the first one of the pair is pushed by the write. the handler completes once the pair is in
+     * redis.
+     */
+    @SuppressWarnings("unchecked")
+    public void acquire(String key, String value, Consumer<Handler<AsyncResult<Void>>> push, Handler<AsyncResult<Void>> resultHandler) {
+        Handler<AsyncResult<Void>> handler = SingleFlight.onCaller(resultHandler);
+        Pair pair = new Pair(key, value);
+        Write write = null;
+        boolean held = false;
+        synchronized (this) {
+            Holders holders = counts.computeIfAbsent(pair, p -> new Holders());
+            if (++holders.count > 1) {
+                if (holders.tail == null) {
+                    held = true;
+                } else {
+                    holders.tail.waiters.add((Handler<AsyncResult<Object>>) (Handler<?>) handler);
+                }
+            } else {
+                write = schedule(holders, new Write(true, (Consumer<Handler<AsyncResult<Object>>>) (Consumer<?>) push),
+                        (Handler<AsyncResult<Object>>) (Handler<?>) handler);
+            }
+        }
+        if (held) {
+            handler.handle(Future.succeededFuture());
+        } else if (write != null) {
+            send(pair, write);
+        }
+    }
+
+    /**
+     * counts a remove, the last one of the pair (or one of an uncounted pair) is removed by the write. the handler
+     * gets true when the pair was there.
+     */
+    @SuppressWarnings("unchecked")
+    public void release(String key, String value, Consumer<Handler<AsyncResult<Boolean>>> remove, Handler<AsyncResult<Boolean>> resultHandler) {
+        Handler<AsyncResult<Boolean>> handler = SingleFlight.onCaller(resultHandler);
+        Pair pair = new Pair(key, value);
+        boolean counted;
+        boolean held = false;
+        Write write = null;
+        synchronized (this) {
+            Holders holders = counts.get(pair);
+            // a pair with writes in flight is removed after them, even when no add holds it
+            counted = holders != null;
+            if (counted) {
+                if (holders.count > 1) {
+                    holders.count--;
+                    held = true;
+                } else {
+                    holders.count = 0;
+                    write = schedule(holders, new Write(false, (Consumer<Handler<AsyncResult<Object>>>) (Consumer<?>) remove),
+                            (Handler<AsyncResult<Object>>) (Handler<?>) handler);
+                }
+            }
+        }
+        if (!counted) {
+            remove.accept(handler);
+        } else if (held) {
+            // other adds of this node still hold the pair
+            handler.handle(Future.succeededFuture(true));
+        } else if (write != null) {
+            send(pair, write);
+        }
+    }
+
+    /**
+     * makes the write the tail of the pair, returned when it can be sent now, queued behind the one in flight otherwise.
+     */
+    private Write schedule(Holders holders, Write write, Handler<AsyncResult<Object>> handler) {
+        write.holders = holders;
+        write.waiters.add(handler);
+        holders.tail = write;
+        if (holders.writing) {
+            holders.queued.add(write);
+            return null;
+        }
+        holders.writing = true;
+        return write;
+    }
+
+    private void send(Pair pair, Write write) {
+        write.send.accept(r -> landed(pair, write, r));
+    }
+
+    private void landed(Pair pair, Write write, AsyncResult<Object> result) {
+        Write next;
+        List<Handler<AsyncResult<Object>>> waiters;
+        synchronized (this) {
+            Holders holders = write.holders;
+            if (write.add && result.failed()) {
+                // the adds that waited for the push fail with it
+                holders.count = Math.max(0, holders.count - write.waiters.size());
+            }
+            if (holders.tail == write) {
+                holders.tail = null;
+            }
+            next = holders.queued.poll();
+            if (next == null) {
+                holders.writing = false;
+                if (holders.count == 0 && holders.tail == null) {
+                    counts.remove(pair, holders);
+                }
+            }
+            waiters = new ArrayList<>(write.waiters);
+        }
+        for (Handler<AsyncResult<Object>> waiter : waiters) {
+            waiter.handle(result);
+        }
+        if (next != null) {
+            send(pair, next);
+        }
+    }
+
+    /**
+     * forgets the pair, it was removed from redis for every holder.
+     */
+    public synchronized void forget(String key, String value) {
+        counts.remove(new Pair(key, value));
+    }
+
+    public synchronized void forgetValue(String value) {
+        Iterator<Pair> pairs = counts.keySet().iterator();
+        while (pairs.hasNext()) {
+            if (pairs.next().value.equals(value)) {
+                pairs.remove();
+            }
+        }
+    }
+
+    /**
+     * the pairs held by this node.
+     */
+    public synchronized int size() {
+        int held = 0;
+        for (Holders holders : counts.values()) {
+            if (holders.count > 0) {
+                held++;
+            }
+        }
+        return held;
+    }
+
+}
@@ -0,0 +1,360 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Anti-entropy for a {@link RedisMultiMapReplica}: the keys are hashed into {@value #BUCKETS} buckets, redis digests
+ * every bucket, the replica digests its own copy the same way and only the buckets that differ are fetched again.
+ * A run costs one digest pass plus what drifted, not a full reload.
+ * <p>
+ * The keys are listed with SCAN, a script digests the lists of a page's keys and reads at most {@value #VALUES}
+ * values a call, so no call blocks redis for long however long the lists are. A list longer than that is read in
+ * LRANGE ranges of {@value #VALUES} and digested here. The differing buckets are fetched the same way.
+ * <p>
+ * A bucket digest is the xor of the first 32 bits of sha1(key NUL value) over the distinct values of its keys.
+ * Both sides hash the bytes redis stores, one per char of the replica's strings. A key SCAN returns twice or a
+ * write racing the run makes a bucket look different, it is then fetched for nothing, never left wrong.
+ */
+public class ReplicaReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaReconciler.class);
+
+    public static final int BUCKETS = 128;
+
+    private static final String PAGE = "1000";
+
+    static final int VALUES = 1000;
+
+    /**
+     * KEYS: key..., ARGV: buckets, values. digests the keys in order until the next one would read more than values
+     * values, a key longer than that is only listed. returns [keys done, [digest of bucket 0, 1, ...], [long key...]].
+     */
+    public static final String DIGEST_SCRIPT = "local buckets = tonumber(ARGV[1]) "
+            + "local budget = tonumber(ARGV[2]) "
+            + "local digests = {} "
+            + "for i = 1, buckets do digests[i] = 0 end "
+            + "local long = {} "
+            + "local read = 0 "
+            + "local done = 0 "
+            + "for i = 1, #KEYS do "
+            + "local key = KEYS[i] "
+            + "local length = redis.call('LLEN', key) "
+            + "if length > budget then "
+            + "long[#long + 1] = key "
+            + "else "
+            + "if read + length > budget then break end "
+            + "read = read + length "
+            + "local h = 0 "
+            + "for j = 1, #key do h = (h * 31 + string.byte(key, j)) % 16777216 end "
+            + "local b = h % buckets + 1 "
+            + "local seen = {} "
+            + "for _, value in ipairs(redis.call('LRANGE', key, 0, -1)) do "
+            + "if not seen[value] then "
+            + "seen[value] = true "
+            + "digests[b] = bit.bxor(digests[b], tonumber(string.sub(redis.sha1hex(key .. '\\0' .. value), 1, 8), 16)) "
+            + "end "
+            + "end "
+            + "end "
+            + "done = i "
+            + "end "
+            + "return {done, digests, long}";
+
+    ReplicaReconciler(RedisMultiMapReplica replica, Redis redis, String keyPrefix) {
+        this.replica = replica;
+        this.redis = redis;
+        this.pattern = keyPrefix + "*";
+    }
+
+    private final RedisMultiMapReplica replica;
+    private final Redis redis;
+    private final String pattern;
+    private boolean running;
+
+    /**
+     * one run, the handler gets the number of buckets fetched again. a run already going makes this one a no-op.
+     */
+    void reconcile(Handler<AsyncResult<Integer>> handler) {
+        synchronized (this) {
+            if (running || !replica.isLive()) {
+                handler.handle(Future.succeededFuture(0));
+                return;
+            }
+            running = true;
+        }
+        Handler<AsyncResult<Integer>> done = r -> {
+            synchronized (this) {
+                running = false;
+            }
+            handler.handle(r);
+        };
+        replica.beginReconcile();
+        digest(dr -> {
+            if (dr.failed()) {
+                replica.endReconcile(null, null, 0);
+                done.handle(Future.failedFuture(dr.cause()));
+                return;
+            }
+            int[] local = digests(replica.stored());
+            Set<Integer> differ = new LinkedHashSet<>();
+            for (int b = 0; b < BUCKETS; b++) {
+                if (dr.result()[b] != local[b]) {
+                    differ.add(b);
+                }
+            }
+            if (differ.isEmpty()) {
+                replica.endReconcile(null, null, 0);
+                done.handle(Future.succeededFuture(0));
+                return;
+            }
+            fetch("0", differ, new HashMap<>(), fr -> {
+                if (fr.failed()) {
+                    replica.endReconcile(null, null, 0);
+                    done.handle(Future.failedFuture(fr.cause()));
+                    return;
+                }
+                log.debug("redis multi map replica {} buckets differ from redis, fetched again", differ.size());
+                replica.endReconcile(fr.result(), key -> differ.contains(bucket(key)), differ.size());
+                done.handle(Future.succeededFuture(differ.size()));
+            });
+        });
+    }
+
+    /**
+     * the digests of redis.
+     */
+    void digest(Handler<AsyncResult<int[]>> handler) {
+        digest("0", new int[BUCKETS], handler);
+    }
+
+    private void digest(String cursor, int[] digests, Handler<AsyncResult<int[]>> handler) {
+        scan(cursor, sr -> {
+            if (sr.failed()) {
+                handler.handle(Future.failedFuture(sr.cause()));
+                return;
+            }
+            String next = sr.result().get(0).toString(Charset.forName("UTF-8"));
+            List<String> keys = new ArrayList<>();
+            for (Response key : sr.result().get(1)) {
+                keys.add(RedisHMap.string(key));
+            }
+            digestKeys(keys, 0, digests, dr -> {
+                if (dr.failed()) {
+                    handler.handle(Future.failedFuture(dr.cause()));
+                    return;
+                }
+                if ("0".equals(next)) {
+                    handler.handle(Future.succeededFuture(digests));
+                    return;
+                }
+                digest(next, digests, handler);
+            });
+        });
+    }
+
+    private void digestKeys(List<String> keys, int from, int[] digests, Handler<AsyncResult<Void>> handler) {
+        if (from >= keys.size()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        List<String> rest = keys.subList(from, keys.size());
+        // the keys are declared, so a cluster proxy or acl can route and check them
+        Request eval = Request.cmd(Command.EVAL).arg(DIGEST_SCRIPT).arg(rest.size());
+        for (String key : rest) {
+            eval.arg(RedisHMap.bytes(key));
+        }
+        eval.arg(BUCKETS).arg(VALUES);
+        redis.send(eval, r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis digest failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            int done = r.result().get(0).toInteger();
+            Response page = r.result().get(1);
+            for (int b = 0; b < BUCKETS && b < page.size(); b++) {
+                digests[b] ^= page.get(b).toLong().intValue();
+            }
+            List<String> longKeys = new ArrayList<>();
+            for (Response key : r.result().get(2)) {
+                longKeys.add(RedisHMap.string(key));
+            }
+            digestLong(longKeys, 0, digests, lr -> {
+                if (lr.failed()) {
+                    handler.handle(Future.failedFuture(lr.cause()));
+                    return;
+                }
+                digestKeys(keys, from + done, digests, handler);
+            });
+        });
+    }
+
+    /**
+     * digests the keys too long for the script here.
+     */
+    private void digestLong(List<String> keys, int at, int[] digests, Handler<AsyncResult<Void>> handler) {
+        if (at >= keys.size()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        String key = keys.get(at);
+        values(key, 0, new LinkedHashSet<>(), vr -> {
+            if (vr.failed()) {
+                handler.handle(Future.failedFuture(vr.cause()));
+                return;
+            }
+            digests[bucket(key)] ^= digest(key, vr.result());
+            digestLong(keys, at + 1, digests, handler);
+        });
+    }
+
+    private void fetch(String cursor, Set<Integer> wanted, Map<String, Set<String>> found, Handler<AsyncResult<Map<String, Set<String>>>> handler) {
+        scan(cursor, sr -> {
+            if (sr.failed()) {
+                handler.handle(Future.failedFuture(sr.cause()));
+                return;
+            }
+            String next = sr.result().get(0).toString(Charset.forName("UTF-8"));
+            List<String> keys = new ArrayList<>();
+            for (Response key : sr.result().get(1)) {
+                String k = RedisHMap.string(key);
+                if (wanted.contains(bucket(k))) {
+                    keys.add(k);
+                }
+            }
+            fetchKeys(keys, 0, found, fr -> {
+                if (fr.failed()) {
+                    handler.handle(Future.failedFuture(fr.cause()));
+                    return;
+                }
+                if ("0".equals(next)) {
+                    handler.handle(Future.succeededFuture(found));
+                    return;
+                }
+                fetch(next, wanted, found, handler);
+            });
+        });
+    }
+
+    private void fetchKeys(List<String> keys, int at, Map<String, Set<String>> found, Handler<AsyncResult<Void>> handler) {
+        if (at >= keys.size()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        String key = keys.get(at);
+        values(key, 0, new LinkedHashSet<>(), vr -> {
+            if (vr.failed()) {
+                handler.handle(Future.failedFuture(vr.cause()));
+                return;
+            }
+            if (!vr.result().isEmpty()) {
+                found.put(key, vr.result());
+            }
+            fetchKeys(keys, at + 1, found, handler);
+        });
+    }
+
+    private void scan(String cursor, Handler<AsyncResult<Response>> handler) {
+        redis.send(Request.cmd(Command.SCAN).arg(cursor).arg("MATCH").arg(RedisHMap.bytes(pattern)).arg("COUNT").arg(PAGE), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis scan failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            handler.handle(Future.succeededFuture(r.result()));
+        });
+    }
+
+    /**
+     * the distinct values of the key, read {@value #VALUES} at a time.
+     */
+    private void values(String key, int from, Set<String> values, Handler<AsyncResult<Set<String>>> handler) {
+        redis.send(Request.cmd(Command.LRANGE).arg(RedisHMap.bytes(key)).arg(from).arg(from + VALUES - 1), r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            if (r.result().type() == ResponseType.ERROR) {
+                handler.handle(Future.failedFuture("redis lrange failed," + r.result().toString(Charset.forName("UTF-8"))));
+                return;
+            }
+            for (Response value : r.result()) {
+                values.add(RedisHMap.string(value));
+            }
+            if (r.result().size() < VALUES) {
+                handler.handle(Future.succeededFuture(values));
+                return;
+            }
+            values(key, from + VALUES, values, handler);
+        });
+    }
+
+    static int[] digests(Map<String, Set<String>> copy) {
+        int[] digests = new int[BUCKETS];
+        for (Map.Entry<String, Set<String>> entry : copy.entrySet()) {
+            digests[bucket(entry.getKey())] ^= digest(entry.getKey(), entry.getValue());
+        }
+        return digests;
+    }
+
+    /**
+     * the xor of the digests of the key's values.
+     */
+    private static int digest(String key, Set<String> values) {
+        byte[] bytes = RedisHMap.bytes(key);
+        MessageDigest sha1 = sha1();
+        int digest = 0;
+        for (String value : values) {
+            sha1.update(bytes);
+            sha1.update((byte) 0);
+            byte[] hash = sha1.digest(RedisHMap.bytes(value));
+            digest ^= ((hash[0] & 0xFF) << 24) | ((hash[1] & 0xFF) << 16) | ((hash[2] & 0xFF) << 8) | (hash[3] & 0xFF);
+        }
+        return digest;
+    }
+
+    static int bucket(String key) {
+        return bucket(RedisHMap.bytes(key));
+    }
+
+    private static int bucket(byte[] key) {
+        int h = 0;
+        for (byte b : key) {
+            h = (h * 31 + (b & 0xFF)) % 16777216;
+        }
+        return h % BUCKETS;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
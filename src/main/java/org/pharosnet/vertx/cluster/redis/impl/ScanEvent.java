@@ -0,0 +1,34 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of one keyspace SCAN behind clear, size, keys, values, entries and the multi map sweeps.
+ */
+@Name("org.pharosnet.vertx.cluster.redis.Scan")
+@Label("Cluster Keyspace Scan")
+@Category({"Vert.x", "Redis Cluster Manager"})
+@Description("A keyspace scan of the redis cluster manager")
+@Threshold("20 ms")
+@StackTrace(false)
+public class ScanEvent extends jdk.jfr.Event {
+
+    @Label("Prefix")
+    String prefix;
+
+    @Label("Keys")
+    int keys;
+
+    @Label("Round Trips")
+    @Description("SCAN pages over every node")
+    int roundTrips;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+}
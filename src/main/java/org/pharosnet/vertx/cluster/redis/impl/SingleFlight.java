@@ -0,0 +1,164 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-flight reads keyed by redis key: a read of a key that is already being read waits for that one, so a burst
+ * of identical gets sends one command. The waiters share the result of the read; a read whose result the callers
+ * may change (an async map value) reads the stored bytes and gives a decode, run for every waiter on its own.
+ * <p>
+ * A write forgets the key's flight ({@link #forget(String)}), reads after it start a new one and never see
+ * a value read before the write. Every waiter is completed on its own context. A read that throws instead of
+ * completing its handler fails the waiters, the next read of the key starts a new one.
+ */
+public class SingleFlight {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    @FunctionalInterface
+    public interface Decode<R, T> {
+
+        T decode(R read) throws Exception;
+    }
+
+    private static class Flight {
+
+        private final List<Handler<AsyncResult<Object>>> waiters = new ArrayList<>(2);
+        private boolean landed;
+    }
+
+    /**
+     * runs the read unless one of the key is in flight, the handler gets its result either way.
+     */
+    public <T> void read(String key, Consumer<Handler<AsyncResult<T>>> read, Handler<AsyncResult<T>> handler) {
+        read(key, read, (T r) -> r, handler);
+    }
+
+    /**
+     * runs the read unless one of the key is in flight, the handler gets its result decoded for it alone. a decode
+     * that throws fails that handler only.
+     */
+    @SuppressWarnings("unchecked")
+    public <R, T> void read(String key, Consumer<Handler<AsyncResult<R>>> read, Decode<R, T> decode, Handler<AsyncResult<T>> handler) {
+        Handler<AsyncResult<Object>> waiter = onCaller(r -> {
+            if (r.failed()) {
+                handler.handle(Future.failedFuture(r.cause()));
+                return;
+            }
+            T decoded;
+            try {
+                decoded = decode.decode((R) r.result());
+            } catch (Exception e) {
+                handler.handle(Future.failedFuture(e));
+                return;
+            }
+            handler.handle(Future.succeededFuture(decoded));
+        });
+        Flight started = new Flight();
+        started.waiters.add(waiter);
+        Flight flight = flights.compute(key, (k, current) -> {
+            if (current == null) {
+                return started;
+            }
+            synchronized (current) {
+                current.waiters.add(waiter);
+            }
+            return current;
+        });
+        if (flight != started) {
+            coalesced.increment();
+            return;
+        }
+        reads.increment();
+        try {
+            read.accept(r -> land(key, started, (AsyncResult<Object>) (AsyncResult<?>) r));
+        } catch (RuntimeException e) {
+            log.error("read of {} failed", e, key);
+            land(key, started, Future.failedFuture(e));
+        }
+    }
+
+    private void land(String key, Flight flight, AsyncResult<Object> result) {
+        flights.remove(key, flight);
+        List<Handler<AsyncResult<Object>>> waiters;
+        synchronized (flight) {
+            if (flight.landed) {
+                // a read that completed its handler and threw afterwards
+                return;
+            }
+            flight.landed = true;
+            waiters = new ArrayList<>(flight.waiters);
+        }
+        for (Handler<AsyncResult<Object>> w : waiters) {
+            try {
+                w.handle(result);
+            } catch (RuntimeException e) {
+                log.error("waiter of {} failed", e, key);
+            }
+        }
+    }
+
+    /**
+     * detaches the key's flight, its waiters still get its result.
+     */
+    public void forget(String key) {
+        flights.remove(key);
+    }
+
+    public void forgetPrefix(String prefix) {
+        flights.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * the handler run on the caller's context.
+     */
+    static <T> Handler<AsyncResult<T>> onCaller(Handler<AsyncResult<T>> handler) {
+        Context caller = Vertx.currentContext();
+        if (caller == null) {
+            return handler;
+        }
+        return r -> {
+            if (Vertx.currentContext() == caller) {
+                handler.handle(r);
+            } else {
+                caller.runOnContext(v -> handler.handle(r));
+            }
+        };
+    }
+
+    /**
+     * reads sent to redis.
+     */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /**
+     * reads that waited for one in flight instead.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public int size() {
+        return flights.size();
+    }
+
+}
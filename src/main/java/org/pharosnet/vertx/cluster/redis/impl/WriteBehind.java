@@ -0,0 +1,335 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Request;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the puts of the write-behind async maps to redis after they completed, for caches that can afford to lose
+ * the last moments of writes when a node dies.
+ * <p>
+ * A put is queued by key and completes at once, a later put of the same key replaces it (last write wins), so a key
+ * written many times between two flushes costs one SET. The queue is flushed as pipelined batches of at most
+ * batchSize writes once it holds batchSize keys, otherwise interval milliseconds after a write. One flush is in
+ * flight at a time, so the writes of a key reach redis in order. Gets see the queued and in-flight values.
+ * <p>
+ * The queue holds at most maxPending keys, a put of a further key fails at once and is not queued, the caller backs
+ * off or writes elsewhere until a flush made room; a put of a queued key replaces it and always fits. A flush sends
+ * at most maxInFlight writes.
+ * Writes of a failed batch are queued again (unless the key was written since) and retried with the next flush, a
+ * write that failed {@value #MAX_ATTEMPTS} times is dropped and logged, and the flushes waiting while it was dropped
+ * fail.
+ */
+public class WriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehind.class);
+
+    static final int MAX_ATTEMPTS = 3;
+
+    public WriteBehind(Vertx vertx, RedisKeyspace keyspace, int batchSize, long interval, int maxPending, int maxInFlight) {
+        this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
+        this.keyspace = keyspace;
+        this.batchSize = Math.max(1, batchSize);
+        this.interval = Math.max(1L, interval);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+        this.maxInFlight = Math.max(this.batchSize, maxInFlight);
+    }
+
+    private final Vertx vertx;
+    private final Context context;
+    private final RedisKeyspace keyspace;
+    private final int batchSize;
+    private final long interval;
+    private final int maxPending;
+    private final int maxInFlight;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private LinkedHashMap<String, Write> pending = new LinkedHashMap<>();
+    private final Map<String, Write> writing = new HashMap<>();
+    private List<Waiter> waiters = new ArrayList<>();
+    private long sequence;
+    private boolean scheduled;
+    private boolean running;
+
+    static final class Write {
+
+        private Write(String key, String value, long deadline, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        private final String key;
+        private final String value;
+        private final long deadline;
+        private final long sequence;
+        private int attempts;
+
+        /**
+         * the value written, null once its ttl passed.
+         */
+        String value() {
+            return deadline > 0 && deadline <= System.currentTimeMillis() ? null : value;
+        }
+
+        private Request request() {
+            if (deadline <= 0) {
+                return Request.cmd(Command.SET).arg(RedisHMap.bytes(key)).arg(RedisHMap.bytes(value));
+            }
+            long ttl = deadline - System.currentTimeMillis();
+            if (ttl <= 0) {
+                // expired while queued, what redis holds was replaced by it
+                return Request.cmd(Command.DEL).arg(RedisHMap.bytes(key));
+            }
+            return Request.cmd(Command.SET).arg(RedisHMap.bytes(key)).arg(RedisHMap.bytes(value)).arg("PX").arg(ttl);
+        }
+    }
+
+    private static final class Waiter {
+
+        private Waiter(long sequence, long dropped, Handler<AsyncResult<Void>> handler) {
+            this.sequence = sequence;
+            this.dropped = dropped;
+            this.handler = handler;
+        }
+
+        private final long sequence;
+        /**
+         * the writes dropped before the flush was asked for.
+         */
+        private final long dropped;
+        private final Handler<AsyncResult<Void>> handler;
+    }
+
+    /**
+     * queues the value (a string of {@link RedisHMap#asString(Object)}) of the key, ttl in milliseconds, 0 for none.
+     * fails without queueing when the queue is full.
+     */
+    public void put(String key, String value, long ttl, Handler<AsyncResult<Void>> handler) {
+        boolean full;
+        boolean flush = false;
+        boolean schedule = false;
+        synchronized (this) {
+            // a replaced key takes no more room
+            full = pending.size() >= maxPending && !pending.containsKey(key);
+            if (full) {
+                rejected.increment();
+            } else if (pending.put(key, new Write(key, value, ttl > 0 ? System.currentTimeMillis() + ttl : 0L, ++sequence)) != null) {
+                coalesced.increment();
+            }
+            if (!running) {
+                if (pending.size() >= batchSize) {
+                    running = true;
+                    flush = true;
+                } else if (!scheduled) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+        }
+        if (flush) {
+            context.runOnContext(v -> flush());
+        } else if (schedule) {
+            vertx.setTimer(interval, t -> due());
+        }
+        if (full) {
+            handler.handle(Future.failedFuture("write behind failed, " + maxPending + " keys queued"));
+            return;
+        }
+        handler.handle(Future.succeededFuture());
+    }
+
+    /**
+     * the write of the key queued or in flight, null when there is none.
+     */
+    public synchronized Write queued(String key) {
+        Write write = pending.get(key);
+        return write != null ? write : writing.get(key);
+    }
+
+    /**
+     * writes everything queued now and completes once it is in redis, e.g. before a read that has to see every put,
+     * and on leave. fails when writes were dropped meanwhile, they are not in redis.
+     */
+    public void flush(Handler<AsyncResult<Void>> handler) {
+        boolean flush = false;
+        synchronized (this) {
+            if (pending.isEmpty() && writing.isEmpty()) {
+                flush = true;
+            } else {
+                waiters.add(new Waiter(sequence, dropped.sum(), SingleFlight.onCaller(handler)));
+                if (!running) {
+                    running = true;
+                    context.runOnContext(v -> flush());
+                }
+            }
+        }
+        if (flush) {
+            handler.handle(Future.succeededFuture());
+        }
+    }
+
+    /**
+     * keys queued and not yet sent.
+     */
+    public synchronized int pending() {
+        return pending.size();
+    }
+
+    /**
+     * writes sent to redis.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * puts that replaced a queued one of the same key.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * writes given up after {@value #MAX_ATTEMPTS} failed attempts.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * puts failed because the queue was full.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void due() {
+        boolean flush;
+        synchronized (this) {
+            scheduled = false;
+            flush = !running && !pending.isEmpty();
+            if (flush) {
+                running = true;
+            }
+        }
+        if (flush) {
+            context.runOnContext(v -> flush());
+        }
+    }
+
+    private void flush() {
+        List<Write> batch = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Write> it = pending.values().iterator();
+            while (it.hasNext() && batch.size() < maxInFlight) {
+                Write write = it.next();
+                it.remove();
+                writing.put(write.key, write);
+                batch.add(write);
+            }
+        }
+        if (batch.isEmpty()) {
+            finished();
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger((batch.size() + batchSize - 1) / batchSize);
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            List<Write> chunk = batch.subList(from, Math.min(batch.size(), from + batchSize));
+            List<String> keys = new ArrayList<>(chunk.size());
+            List<Request> requests = new ArrayList<>(chunk.size());
+            for (Write write : chunk) {
+                keys.add(write.key);
+                requests.add(write.request());
+            }
+            keyspace.pipeline(keys, requests, r -> {
+                sent(chunk, r.failed() ? r.cause() : null);
+                if (remaining.decrementAndGet() == 0) {
+                    finished();
+                }
+            });
+        }
+    }
+
+    private void sent(List<Write> chunk, Throwable failure) {
+        if (failure == null) {
+            written.add(chunk.size());
+        } else {
+            log.warn("write behind of {} keys failed, {}", chunk.size(), failure.getMessage());
+        }
+        synchronized (this) {
+            for (Write write : chunk) {
+                writing.remove(write.key, write);
+                if (failure == null || pending.containsKey(write.key)) {
+                    continue;
+                }
+                if (++write.attempts >= MAX_ATTEMPTS) {
+                    dropped.increment();
+                    log.error("write behind of {} dropped after {} attempts", write.key, write.attempts);
+                    continue;
+                }
+                pending.put(write.key, write);
+            }
+        }
+    }
+
+    private void finished() {
+        List<Waiter> done = new ArrayList<>();
+        boolean flush;
+        boolean schedule = false;
+        synchronized (this) {
+            running = false;
+            if (!waiters.isEmpty()) {
+                long oldest = Long.MAX_VALUE;
+                for (Write write : pending.values()) {
+                    oldest = Math.min(oldest, write.sequence);
+                }
+                List<Waiter> waiting = new ArrayList<>();
+                for (Waiter waiter : waiters) {
+                    (waiter.sequence < oldest ? done : waiting).add(waiter);
+                }
+                waiters = waiting;
+            }
+            flush = !pending.isEmpty() && (pending.size() >= batchSize || !waiters.isEmpty());
+            if (flush) {
+                running = true;
+            } else if (!pending.isEmpty() && !scheduled) {
+                scheduled = true;
+                schedule = true;
+            }
+        }
+        long dropped = this.dropped.sum();
+        for (Waiter waiter : done) {
+            if (dropped > waiter.dropped) {
+                waiter.handler.handle(Future.failedFuture("write behind dropped " + (dropped - waiter.dropped) + " writes"));
+            } else {
+                waiter.handler.handle(Future.succeededFuture());
+            }
+        }
+        if (flush) {
+            context.runOnContext(v -> flush());
+        } else if (schedule) {
+            vertx.setTimer(interval, t -> due());
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package org.pharosnet.vertx.cluster.redis;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MicrometerClusterMetricsTest {
+
+    @Test
+    public void pendingCommandsSurviveGc() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicInteger depth = new AtomicInteger(7);
+        new MicrometerClusterMetrics(registry).pendingCommands(Lane.BULK, depth::get);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertEquals(7.0, registry.get("vertx.redis.cluster.commands.pending").tag("lane", "bulk").gauge().value());
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.pharosnet.vertx.cluster.redis;
+
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RedisClusterManagerTest {
+
+    private StandInCluster cluster;
+    private Vertx vertx;
+
+    @BeforeEach
+    public void start() {
+        cluster = new StandInCluster();
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    public void stop() {
+        StandInCluster.<Void>await(vertx::close);
+        cluster.close();
+    }
+
+    @Test
+    public void joiningAgainLeavesNoThreadsBehind() {
+        // one blocked thread checker per vertx, the test's own
+        assertEquals(1, threads("vertx-blocked-thread-checker"));
+        RedisClusterManager manager = new RedisClusterManager(cluster.options());
+        manager.setVertx(vertx);
+
+        StandInCluster.<Void>await(manager::join);
+        // a retried join replaces the transport and the clients of the first
+        StandInCluster.<Void>await(manager::join);
+        StandInCluster.<Void>await(manager::leave);
+        StandInCluster.<Void>await(manager::join);
+        StandInCluster.<Void>await(manager::leave);
+
+        until(() -> threads("vertx-blocked-thread-checker") == 1 && threads("redisson-") == 0);
+    }
+
+    private static int threads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.pharosnet.vertx.cluster.redis;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.RedisOptions;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Clustered vert.x nodes on one redis stand-in, for tests. Closing it closes the nodes still running and the stand-in.
+ */
+public class StandInCluster implements AutoCloseable {
+
+    public StandInCluster() {
+        this.redis = new RedisStandIn().start();
+    }
+
+    private final RedisStandIn redis;
+    private final List<Vertx> nodes = new ArrayList<>();
+    private final Map<Vertx, RedisClusterManager> managers = new IdentityHashMap<>();
+
+    public RedisStandIn redis() {
+        return redis;
+    }
+
+    /**
+     * options pointing at the stand-in.
+     */
+    public RedisClusterManagerOptions options() {
+        return new RedisClusterManagerOptions(new RedisOptions().setEndpoint(SocketAddress.inetSocketAddress(redis.port(), "127.0.0.1")));
+    }
+
+    public Vertx node() {
+        return node(options());
+    }
+
+    public synchronized Vertx node(RedisClusterManagerOptions options) {
+        RedisClusterManager manager = new RedisClusterManager(options);
+        Vertx vertx = await(h -> Vertx.clusteredVertx(new VertxOptions().setEventLoopPoolSize(2).setClusterManager(manager), h));
+        nodes.add(vertx);
+        managers.put(vertx, manager);
+        return vertx;
+    }
+
+    public synchronized RedisClusterManager manager(Vertx node) {
+        return managers.get(node);
+    }
+
+    /**
+     * closes the node, which makes it leave the cluster.
+     */
+    public void close(Vertx node) {
+        synchronized (this) {
+            if (!nodes.remove(node)) {
+                return;
+            }
+        }
+        StandInCluster.<Void>await(node::close);
+    }
+
+    @Override
+    public void close() {
+        List<Vertx> running;
+        synchronized (this) {
+            running = new ArrayList<>(nodes);
+        }
+        for (Vertx node : running) {
+            close(node);
+        }
+        redis.stop();
+    }
+
+    /**
+     * the result of the asynchronous call, its failure thrown.
+     */
+    public static <T> T await(Consumer<Handler<AsyncResult<T>>> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(r -> {
+            if (r.failed()) {
+                future.completeExceptionally(r.cause());
+                return;
+            }
+            future.complete(r.result());
+        });
+        try {
+            return future.get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
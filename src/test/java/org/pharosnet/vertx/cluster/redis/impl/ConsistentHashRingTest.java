@@ -0,0 +1,70 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.RedisClusterManagerOptions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    public void anotherShardMovesItsShareOfTheKeys() {
+        int shards = 10;
+        ConsistentHashRing<String> ring = ring(shards);
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String key = "__vertx.map.key-" + i;
+            before.put(key, ring.get(key));
+        }
+
+        ring.add("shard-" + shards, "shard-" + shards);
+        int moved = 0;
+        for (Map.Entry<String, String> key : before.entrySet()) {
+            String owner = ring.get(key.getKey());
+            if (!owner.equals(key.getValue())) {
+                // keys only move to the new shard
+                assertEquals("shard-" + shards, owner);
+                moved++;
+            }
+        }
+        double share = moved / (double) KEYS;
+        double expected = 1.0 / (shards + 1);
+        assertTrue(Math.abs(share - expected) < expected * 0.25, share + " of the keys moved, " + expected + " expected");
+    }
+
+    @Test
+    public void spreadsKeysOverTheShards() {
+        ConsistentHashRing<String> ring = ring(4);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.get("key-" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - KEYS / 4) < KEYS / 4 * 0.2, counts.toString());
+        }
+    }
+
+    @Test
+    public void emptyRingHasNoOwner() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(RedisClusterManagerOptions.DEFAULT_VIRTUAL_NODES);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.get("key"));
+    }
+
+    private static ConsistentHashRing<String> ring(int shards) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(RedisClusterManagerOptions.DEFAULT_VIRTUAL_NODES);
+        for (int i = 0; i < shards; i++) {
+            ring.add("shard-" + i, "shard-" + i);
+        }
+        return ring;
+    }
+
+}
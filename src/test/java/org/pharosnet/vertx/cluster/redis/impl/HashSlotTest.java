@@ -0,0 +1,63 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * the vectors of the redis cluster specification.
+ */
+public class HashSlotTest {
+
+    @Test
+    public void crc16OfTheReference() {
+        byte[] bytes = "123456789".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0x31C3, HashSlot.crc16(bytes, 0, bytes.length));
+        assertEquals(0x31C3 & (HashSlot.SLOTS - 1), HashSlot.slot("123456789"));
+    }
+
+    @Test
+    public void slotsOfRedis() {
+        // CLUSTER KEYSLOT of a redis server
+        assertEquals(12182, HashSlot.slot("foo"));
+        assertEquals(5061, HashSlot.slot("bar"));
+        assertEquals(866, HashSlot.slot("hello"));
+    }
+
+    @Test
+    public void tagsDecideTheSlot() {
+        assertEquals(HashSlot.slot("{user1000}.following"), HashSlot.slot("{user1000}.followers"));
+        assertEquals(HashSlot.slot("hello"), HashSlot.slot("somekey{hello}"));
+        // the first { and the next } after it
+        assertEquals(HashSlot.slot("{bar"), HashSlot.slot("foo{{bar}}zap"));
+        assertEquals(HashSlot.slot("bar"), HashSlot.slot("foo{bar}{zap}"));
+    }
+
+    @Test
+    public void emptyOrOpenTagsHashTheWholeKey() {
+        assertEquals(whole("{}"), HashSlot.slot("{}"));
+        assertEquals(whole("foo{}{bar}"), HashSlot.slot("foo{}{bar}"));
+        assertEquals(whole("{"), HashSlot.slot("{"));
+        assertEquals(whole("foo{bar"), HashSlot.slot("foo{bar"));
+        assertEquals("foo{}{bar}", HashSlot.routingKey("foo{}{bar}"));
+        assertEquals("user1000", HashSlot.routingKey("{user1000}.following"));
+    }
+
+    @Test
+    public void groupsKeysBySlot() {
+        Map<Integer, List<String>> groups = HashSlot.groupBySlot(List.of("{a}.1", "b", "{a}.2"));
+        assertEquals(2, groups.size());
+        assertEquals(List.of("{a}.1", "{a}.2"), groups.get(HashSlot.slot("a")));
+        assertEquals(List.of("b"), groups.get(HashSlot.slot("b")));
+    }
+
+    private static int whole(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return HashSlot.crc16(bytes, 0, bytes.length) & (HashSlot.SLOTS - 1);
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LazyChoosableSetTest {
+
+    private final AtomicInteger decodes = new AtomicInteger();
+
+    private LazyChoosableSet<String> set(int size) {
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            values.add(("v" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        return new LazyChoosableSet<>(values, bytes -> {
+            decodes.incrementAndGet();
+            return new String(bytes, StandardCharsets.UTF_8);
+        });
+    }
+
+    @Test
+    public void choosingDecodesOnlyTheChosen() {
+        LazyChoosableSet<String> set = set(3000);
+        String first = set.choose();
+        String second = set.choose();
+        assertNotEquals(first, second);
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    public void iteratesEveryDistinctValueOnce() {
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            values.add(("v" + (i % 300)).getBytes(StandardCharsets.UTF_8));
+        }
+        LazyChoosableSet<String> set = new LazyChoosableSet<>(values, bytes -> {
+            decodes.incrementAndGet();
+            return new String(bytes, StandardCharsets.UTF_8);
+        });
+        Set<String> seen = new HashSet<>();
+        for (String value : set) {
+            assertTrue(seen.add(value));
+        }
+        assertEquals(300, seen.size());
+        assertEquals(300, decodes.get());
+        // decoded once, kept
+        set.forEach(v -> {
+        });
+        assertEquals(300, decodes.get());
+    }
+
+    @Test
+    public void skipsValuesThatDoNotDecode() {
+        List<byte[]> values = List.of("bad".getBytes(StandardCharsets.UTF_8), "good".getBytes(StandardCharsets.UTF_8));
+        LazyChoosableSet<String> set = new LazyChoosableSet<>(values, bytes -> {
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            if (value.equals("bad")) {
+                throw new IllegalArgumentException(value);
+            }
+            return value;
+        });
+        assertEquals("good", set.choose());
+        assertEquals("good", set.choose());
+        List<String> all = new ArrayList<>();
+        set.forEach(all::add);
+        assertEquals(List.of("good"), all);
+        assertNull(new LazyChoosableSet<String>(List.of(), bytes -> "x").choose());
+    }
+
+}
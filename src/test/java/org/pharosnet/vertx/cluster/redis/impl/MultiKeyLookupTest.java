@@ -0,0 +1,89 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.spi.cluster.AsyncMultiMap;
+import io.vertx.core.spi.cluster.ChoosableIterable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pharosnet.vertx.cluster.redis.StandInCluster.await;
+
+public class MultiKeyLookupTest {
+
+    private StandInCluster cluster;
+    private RedisAsyncMultiMap<String, ClusterNodeInfo> subs;
+
+    @BeforeEach
+    public void start() throws InterruptedException {
+        cluster = new StandInCluster();
+        Vertx a = cluster.node();
+        Vertx b = cluster.node();
+        CountDownLatch registered = new CountDownLatch(100);
+        for (int i = 0; i < 50; i++) {
+            a.eventBus().consumer("addr" + i, m -> {
+            }).completionHandler(r -> registered.countDown());
+            b.eventBus().consumer("addr" + i, m -> {
+            }).completionHandler(r -> registered.countDown());
+        }
+        assertTrue(registered.await(30, TimeUnit.SECONDS));
+        AsyncMultiMap<String, ClusterNodeInfo> map = await(h -> cluster.manager(a).getAsyncMultiMap("__vertx.subs", h));
+        subs = (RedisAsyncMultiMap<String, ClusterNodeInfo>) map;
+    }
+
+    @AfterEach
+    public void stop() {
+        cluster.close();
+    }
+
+    @Test
+    public void oneRangePerKeyInOnePipeline() throws InterruptedException {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 55; i++) {
+            keys.add("addr" + i);
+        }
+        keys.add("addr3");
+        RedisStandIn redis = cluster.redis();
+        // the first adds publish negative cache invalidations, a lookup overlapping them caches no empty key
+        quiet(redis);
+        redis.resetCommandCounts();
+
+        Map<String, ChoosableIterable<ClusterNodeInfo>> found = await(h -> subs.getAll(keys, h));
+        assertEquals(55, found.size());
+        int values = 0;
+        for (ChoosableIterable<ClusterNodeInfo> nodes : found.values()) {
+            for (ClusterNodeInfo node : nodes) {
+                values++;
+            }
+        }
+        assertEquals(100, values);
+        assertTrue(found.get("addr52").isEmpty());
+        assertEquals(55L, redis.commandCount("LRANGE"));
+        assertEquals(0L, redis.commandCount("LLEN"));
+
+        // the keys without values are known empty now
+        redis.resetCommandCounts();
+        assertEquals(55, StandInCluster.<Map<String, ChoosableIterable<ClusterNodeInfo>>>await(h -> subs.getAll(keys, h)).size());
+        assertTrue(redis.commandCount("LRANGE") <= 50L);
+    }
+
+    private static void quiet(RedisStandIn redis) throws InterruptedException {
+        long published = -1;
+        while (published != redis.commandCount("PUBLISH")) {
+            published = redis.commandCount("PUBLISH");
+            Thread.sleep(200);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NearCacheTest {
+
+    @Test
+    public void invalidationRemovesTheValue() {
+        NearCache cache = new NearCache(100);
+        cache.put("a", "1", cache.stamp());
+        cache.put("b", "1", cache.stamp());
+        assertEquals("1", cache.get("a"));
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals("1", cache.get("b"));
+        assertEquals(1L, cache.getInvalidations());
+    }
+
+    @Test
+    public void lateReplyDoesNotResurrectAnInvalidatedValue() {
+        NearCache cache = new NearCache(100);
+        // the read is sent, the key changes before its reply is stored
+        long stamp = cache.stamp();
+        cache.invalidate("a");
+        cache.put("a", "stale", stamp);
+        assertNull(cache.get("a"));
+
+        long prefixStamp = cache.stamp();
+        cache.invalidatePrefix("__vertx.");
+        cache.put("__vertx.a", "stale", prefixStamp);
+        assertNull(cache.get("__vertx.a"));
+
+        cache.put("a", "fresh", cache.stamp());
+        assertEquals("fresh", cache.get("a"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedBeyondMaxSize() {
+        NearCache cache = new NearCache(64);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key-" + i, i, cache.stamp());
+        }
+        assertTrue(cache.size() <= 64, cache.size() + " entries");
+        assertEquals(1000 - cache.size(), cache.getEvictions());
+        // the last ones written are kept
+        assertEquals(999, (int) cache.get("key-999"));
+    }
+
+    @Test
+    public void suspendedWhileAnyChannelIsDown() {
+        NearCache cache = new NearCache(100);
+        cache.put("a", "1", cache.stamp());
+        cache.suspend();
+        cache.suspend();
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get("a"));
+        cache.put("a", "1", cache.stamp());
+
+        cache.resume();
+        assertFalse(cache.isEnabled());
+        cache.resume();
+        assertTrue(cache.isEnabled());
+        // nothing from before the channel went down survives
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NegativeCacheTest {
+
+    @Test
+    public void invalidationRemovesTheKey() {
+        NegativeCache cache = new NegativeCache(100, 60_000);
+        cache.put("a", cache.stamp());
+        cache.put("b", cache.stamp());
+        assertTrue(cache.isEmpty("a"));
+
+        cache.invalidate("a");
+        assertFalse(cache.isEmpty("a"));
+        assertTrue(cache.isEmpty("b"));
+        assertEquals(1L, cache.getInvalidations());
+    }
+
+    @Test
+    public void lateReplyDoesNotCacheAnAddedKey() {
+        NegativeCache cache = new NegativeCache(100, 60_000);
+        // the read is sent, the first value is added before its empty reply is stored
+        long stamp = cache.stamp();
+        cache.invalidate("a");
+        cache.put("a", stamp);
+        assertFalse(cache.isEmpty("a"));
+
+        long clearStamp = cache.stamp();
+        cache.clear();
+        cache.put("a", clearStamp);
+        assertFalse(cache.isEmpty("a"));
+
+        cache.put("a", cache.stamp());
+        assertTrue(cache.isEmpty("a"));
+    }
+
+    @Test
+    public void expiresAfterTheTtl() throws Exception {
+        NegativeCache cache = new NegativeCache(100, 20);
+        cache.put("a", cache.stamp());
+        assertTrue(cache.isEmpty("a"));
+        Thread.sleep(40);
+        assertFalse(cache.isEmpty("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void suspendedWhileTheChannelIsDown() {
+        NegativeCache cache = new NegativeCache(100, 60_000);
+        cache.put("a", cache.stamp());
+        cache.suspend();
+        assertFalse(cache.isEnabled());
+        assertFalse(cache.isEmpty("a"));
+        cache.put("a", cache.stamp());
+
+        cache.resume();
+        assertTrue(cache.isEnabled());
+        // nothing from before the channel went down survives
+        assertFalse(cache.isEmpty("a"));
+        assertEquals(0, cache.size());
+    }
+
+}
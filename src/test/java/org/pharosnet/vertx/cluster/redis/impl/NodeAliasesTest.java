@@ -0,0 +1,114 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.spi.cluster.AsyncMultiMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class NodeAliasesTest {
+
+    private StandInCluster cluster;
+    private RedisStandIn redis;
+
+    @BeforeEach
+    public void start() {
+        cluster = new StandInCluster();
+        redis = cluster.redis();
+    }
+
+    @AfterEach
+    public void stop() {
+        cluster.close();
+    }
+
+    @Test
+    public void nodesWithoutAliasesReachAliasedOnes() {
+        Vertx aliased = cluster.node(cluster.options().setNodeAliases(true));
+        Vertx plain = cluster.node();
+        consume(aliased, "echo");
+
+        List<?> stored = (List<?>) redis.execute("LRANGE", key("echo"), "0", "-1");
+        assertEquals(1, stored.size());
+        assertEquals('\u0002', stored.get(0).toString().charAt(0));
+        assertEquals("ping", request(plain, "echo"));
+    }
+
+    @Test
+    public void aliasesOffByDefault() {
+        Vertx plain = cluster.node();
+        consume(plain, "echo");
+
+        List<?> stored = (List<?>) redis.execute("LRANGE", key("echo"), "0", "-1");
+        assertNotEquals('\u0002', stored.get(0).toString().charAt(0));
+        assertEquals(0L, redis.execute("EXISTS", NodeAliases.REGISTRY));
+    }
+
+    @Test
+    public void skipsAliasesMissingFromTheRegistry() {
+        Vertx a = cluster.node();
+        Vertx b = cluster.node();
+        consume(a, "echo");
+        redis.execute("LPUSH", key("echo"), "\u0002" + "999");
+        // both values are chosen in turn, the lookup does not fail on the unknown one
+        for (int i = 0; i < 4; i++) {
+            assertEquals("ping", request(b, "echo"));
+        }
+    }
+
+    @Test
+    public void releasesTheRegistryEntriesOnLeaveWithoutSubscriptions() {
+        Vertx aliased = cluster.node(cluster.options().setNodeAliases(true));
+        Vertx plain = cluster.node();
+        consume(aliased, "echo");
+        assertEquals("ping", request(plain, "echo"));
+        assertEquals(2L, redis.execute("HLEN", NodeAliases.REGISTRY));
+        String key = key("echo");
+
+        cluster.close(aliased);
+        assertEquals(0L, redis.execute("EXISTS", key));
+        assertEquals(0L, redis.execute("HLEN", NodeAliases.REGISTRY));
+    }
+
+    @Test
+    public void forgetsTheAliasOnceTheSubscriptionsOfAFailedNodeAreRemoved() {
+        Vertx aliased = cluster.node(cluster.options().setNodeAliases(true));
+        Vertx plain = cluster.node();
+        consume(aliased, "echo");
+        assertEquals("ping", request(plain, "echo"));
+        String failed = cluster.manager(aliased).getNodeID();
+
+        // what the node taking over a crashed one does with its subscriptions
+        AsyncMultiMap<String, ClusterNodeInfo> subs = StandInCluster.await(h -> cluster.manager(plain).getAsyncMultiMap("__vertx.subs", h));
+        StandInCluster.<Void>await(h -> subs.removeAllMatching(node -> node.nodeId.equals(failed), h));
+        assertEquals(0L, redis.execute("HLEN", NodeAliases.REGISTRY));
+    }
+
+    private static void consume(Vertx node, String address) {
+        StandInCluster.<Void>await(h -> node.eventBus().<String>consumer(address, m -> m.reply(m.body())).completionHandler(h));
+    }
+
+    private static String request(Vertx node, String address) {
+        Message<String> reply = StandInCluster.await(h -> node.eventBus().send(address, "ping", h));
+        return reply.body();
+    }
+
+    /**
+     * the list of the address in the subscription map.
+     */
+    private String key(String address) {
+        List<?> keys = (List<?>) redis.execute("KEYS", RedisAsyncMultiMap.KEY_PREFIX + "*" + address);
+        assertEquals(1, keys.size());
+        return keys.get(0).toString();
+    }
+
+}
@@ -0,0 +1,40 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.net.impl.ServerID;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NodeChoosableSetTest {
+
+    private final AtomicInteger decodes = new AtomicInteger();
+
+    private LazyChoosableSet<ClusterNodeInfo> set(int size) {
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            values.add(("node-" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        return new LazyChoosableSet<>(values, bytes -> {
+            decodes.incrementAndGet();
+            return new ClusterNodeInfo(new String(bytes, StandardCharsets.UTF_8), new ServerID(1, "localhost"));
+        });
+    }
+
+    @Test
+    public void ranksASampleOfLargeSets() {
+        NodeChoosableSet<ClusterNodeInfo> set = new NodeChoosableSet<>(set(3000), null, null);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(set.choose());
+        }
+        // the sample and the values chosen, not the 3000
+        assertTrue(decodes.get() <= NodeChoosableSet.SAMPLE + 10, decodes.get() + " decoded");
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NodeLoadTest {
+
+    private static final long INTERVAL = 100;
+
+    private StandInCluster cluster;
+    private RedisStandIn redis;
+
+    @BeforeEach
+    public void start() {
+        cluster = new StandInCluster();
+        redis = cluster.redis();
+    }
+
+    @AfterEach
+    public void stop() {
+        cluster.close();
+    }
+
+    @Test
+    public void reportsExpireUnlessRenewed() {
+        Vertx node = cluster.node(cluster.options().setLoadAware(true).setLoadReportInterval(INTERVAL));
+        String key = NodeLoad.key(cluster.manager(node).getNodeID());
+        until(() -> Long.valueOf(1L).equals(redis.execute("EXISTS", key)));
+
+        long ttl = (Long) redis.execute("PTTL", key);
+        assertTrue(ttl > 0 && ttl <= INTERVAL * NodeLoad.TTL_INTERVALS, ttl + " ms");
+    }
+
+    @Test
+    public void leavingRemovesTheReport() {
+        Vertx node = cluster.node(cluster.options().setLoadAware(true).setLoadReportInterval(INTERVAL));
+        String key = NodeLoad.key(cluster.manager(node).getNodeID());
+        until(() -> Long.valueOf(1L).equals(redis.execute("EXISTS", key)));
+
+        cluster.close(node);
+        assertEquals(0L, redis.execute("EXISTS", key));
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.impl.clustered.ClusterNodeInfo;
+import io.vertx.core.net.impl.ServerID;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.types.BulkType;
+import io.vertx.redis.client.impl.types.IntegerType;
+import io.vertx.redis.client.impl.types.MultiType;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.Lane;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NodeLocalityTest {
+
+    /**
+     * the registry's entries, a node without one is missing.
+     */
+    private final Map<String, String> registry = new ConcurrentHashMap<>();
+    /**
+     * the nodes whose fetch fails.
+     */
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+    private final RecordingRedis redis = new RecordingRedis(this::reply);
+
+    private AsyncResult<Response> reply(List<String> command) {
+        switch (command.get(0).toUpperCase()) {
+            case "HGET": {
+                String id = command.get(2);
+                if (failing.contains(id)) {
+                    return Future.failedFuture("connection lost");
+                }
+                String place = registry.get(id);
+                return Future.succeededFuture(place == null ? null : BulkType.create(Buffer.buffer(place)));
+            }
+            case "HKEYS": {
+                Response[] fields = registry.keySet().stream().sorted().map(id -> BulkType.create(Buffer.buffer(id))).toArray(Response[]::new);
+                return Future.succeededFuture(MultiType.create(fields));
+            }
+            case "HDEL": {
+                for (String id : command.subList(2, command.size())) {
+                    registry.remove(id);
+                }
+                return Future.succeededFuture(IntegerType.create((long) command.size() - 2));
+            }
+            default:
+                throw new IllegalArgumentException(command.toString());
+        }
+    }
+
+    private NodeLocality locality(String nodeId, long unknownTtl) {
+        Map<Lane, io.vertx.redis.client.Redis> lanes = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, redis.redis());
+        }
+        RedisKeyspace keyspace = new RedisKeyspace(null, new RedisOptions(), new RedisLanes(lanes));
+        return new NodeLocality(keyspace, nodeId, "h1", "z1", "r1", 0.5, unknownTtl);
+    }
+
+    private static ClusterNodeInfo node(String id) {
+        return new ClusterNodeInfo(id, new ServerID(1234, "localhost"));
+    }
+
+    @Test
+    public void ranksByPlaceOnceFetched() {
+        registry.put("host", "h1\tz9\tr9");
+        registry.put("rack", "h2\tz1\tr1");
+        registry.put("zone", "h2\tz1\tr2");
+        registry.put("remote", "h2\tz2\tr1");
+        NodeLocality locality = locality("self", 60_000);
+
+        assertTrue(locality.known(node("self")));
+        assertEquals(3, locality.rank(node("self")));
+        assertTrue(locality.known("not a node"));
+        assertEquals(0, locality.rank("not a node"));
+
+        // unknown, fetched in the background
+        assertFalse(locality.known(node("host")));
+        assertEquals(0, locality.rank(node("host")));
+        assertTrue(locality.known(node("host")));
+        assertEquals(3, locality.rank(node("host")));
+
+        for (String id : List.of("rack", "zone", "remote")) {
+            locality.rank(node(id));
+        }
+        assertEquals(2, locality.rank(node("rack")));
+        assertEquals(1, locality.rank(node("zone")));
+        assertEquals(0, locality.rank(node("remote")));
+        assertEquals(4, redis.sent.size());
+    }
+
+    @Test
+    public void missingAndFailedFetchesAreRetriedAfterTheTtl() throws Exception {
+        failing.add("failing");
+        NodeLocality locality = locality("self", 50);
+        locality.rank(node("missing"));
+        locality.rank(node("failing"));
+        int version = locality.version();
+        assertTrue(locality.known(node("missing")));
+        assertTrue(locality.known(node("failing")));
+        // remote meanwhile, not fetched again
+        assertEquals(0, locality.rank(node("missing")));
+        assertEquals(0, locality.rank(node("failing")));
+        assertEquals(2, redis.sent.size());
+
+        // registered late, reachable again
+        registry.put("missing", "h1\tz1\tr1");
+        failing.clear();
+        registry.put("failing", "h2\tz1\tr1");
+        Thread.sleep(80);
+        assertFalse(locality.known(node("missing")));
+        assertFalse(locality.known(node("failing")));
+        locality.rank(node("missing"));
+        locality.rank(node("failing"));
+        assertEquals(3, locality.rank(node("missing")));
+        assertEquals(2, locality.rank(node("failing")));
+        assertTrue(locality.version() > version);
+    }
+
+    @Test
+    public void sweepForgetsLeftNodesAndTheLeaderRemovesDeadEntries() {
+        registry.put("a", "h1\tz1\tr1");
+        registry.put("b", "h2\tz1\tr1");
+        registry.put("crashed", "h3\tz1\tr1");
+        NodeLocality leader = locality("a", 60_000);
+        NodeLocality other = locality("b", 60_000);
+        other.rank(node("crashed"));
+        assertTrue(other.known(node("crashed")));
+
+        StandInCluster.<Void>await(h -> other.sweep(List.of("a", "b"), h));
+        assertFalse(other.known(node("crashed")));
+        // only the leader cleans up
+        assertEquals(3, registry.size());
+
+        // missing once could be a node about to be listed
+        StandInCluster.<Void>await(h -> leader.sweep(List.of("a", "b"), h));
+        assertEquals(3, registry.size());
+        StandInCluster.<Void>await(h -> leader.sweep(List.of("a", "b"), h));
+        assertEquals(Map.of("a", "h1\tz1\tr1", "b", "h2\tz1\tr1"), registry);
+    }
+
+}
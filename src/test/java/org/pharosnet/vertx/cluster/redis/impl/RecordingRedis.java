@@ -0,0 +1,120 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A connection that keeps the commands sent on it and answers them at once, with the reply of the given function.
+ */
+final class RecordingRedis {
+
+    @SuppressWarnings("unchecked")
+    RecordingRedis(Function<List<String>, AsyncResult<Response>> replies) {
+        this.replies = replies;
+        this.redis = (Redis) Proxy.newProxyInstance(Redis.class.getClassLoader(), new Class<?>[]{Redis.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "send":
+                    List<String> command = command((Request) args[0]);
+                    sent.add(command);
+                    Handler<AsyncResult<Response>> reply = RecordingRedis.handler(args[1]);
+                    if (delay > 0) {
+                        vertx.setTimer(delay, t -> reply.handle(replies.apply(command)));
+                    } else {
+                        reply.handle(replies.apply(command));
+                    }
+                    return proxy;
+                case "connect":
+                    RecordingRedis.<Object>handler(args[0]).handle(refused ? Future.failedFuture("connection refused") : Future.succeededFuture(proxy));
+                    return proxy;
+                case "exceptionHandler":
+                    exceptionHandler = (Handler<Throwable>) args[0];
+                    return proxy;
+                case "endHandler":
+                case "handler":
+                    return proxy;
+                case "close":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "recording redis";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private final Function<List<String>, AsyncResult<Response>> replies;
+    private final Redis redis;
+    final List<List<String>> sent = new CopyOnWriteArrayList<>();
+    private volatile Handler<Throwable> exceptionHandler;
+    private volatile Vertx vertx;
+    private volatile long delay;
+    volatile boolean refused;
+
+    Redis redis() {
+        return redis;
+    }
+
+    /**
+     * answers after the delay in milliseconds, 0 for at once.
+     */
+    RecordingRedis delay(Vertx vertx, long delay) {
+        this.vertx = vertx;
+        this.delay = delay;
+        return this;
+    }
+
+    /**
+     * fails the connection like a dropped socket.
+     */
+    void lose(Throwable cause) {
+        Handler<Throwable> handler = exceptionHandler;
+        if (handler != null) {
+            handler.handle(cause);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Handler<AsyncResult<T>> handler(Object handler) {
+        return (Handler<AsyncResult<T>>) handler;
+    }
+
+    /**
+     * the command name and its arguments.
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> command(Request request) {
+        List<String> command = new ArrayList<>();
+        try {
+            // the command's bytes are its name as a bulk string
+            Method name = request.command().getClass().getMethod("getBytes");
+            String[] lines = new String((byte[]) name.invoke(request.command()), StandardCharsets.UTF_8).split("\r\n");
+            command.add(lines[lines.length - 1]);
+            Method args = request.getClass().getDeclaredMethod("getArgs");
+            args.setAccessible(true);
+            for (byte[] arg : (List<byte[]>) args.invoke(request)) {
+                command.add(new String(arg, StandardCharsets.UTF_8));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+        return command;
+    }
+
+}
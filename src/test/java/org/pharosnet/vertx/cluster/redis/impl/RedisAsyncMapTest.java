@@ -0,0 +1,67 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pharosnet.vertx.cluster.redis.StandInCluster.await;
+
+public class RedisAsyncMapTest {
+
+    private StandInCluster cluster;
+    private AsyncMap<String, Object> map;
+
+    @BeforeEach
+    public void start() {
+        cluster = new StandInCluster();
+        Vertx node = cluster.node();
+        map = await(h -> node.sharedData().getAsyncMap("test", h));
+    }
+
+    @AfterEach
+    public void stop() {
+        cluster.close();
+    }
+
+    @Test
+    public void valuesSurviveByteExact() {
+        // java serialization and cluster serializable output are not valid UTF-8
+        JsonObject json = new JsonObject().put("name", "café 中").put("n", 42);
+        StandInCluster.<Void>await(h -> map.put("json", json, h));
+        StandInCluster.<Void>await(h -> map.put("été", "ÿ\u0000\u0080", h));
+        assertEquals(json, await(h -> map.get("json", h)));
+        assertEquals("ÿ\u0000\u0080", await(h -> map.get("été", h)));
+        Map<String, Object> entries = await(map::entries);
+        assertEquals(Map.of("json", json, "été", "ÿ\u0000\u0080"), entries);
+    }
+
+    @Test
+    public void keysAndValuesAreStoredOneByteEach() throws Exception {
+        StandInCluster.<Void>await(h -> map.put("été", "ÿ\u0080", h));
+        RedisHMap<String, Object> codec = new RedisHMap<>();
+        List<?> keys = (List<?>) cluster.redis().execute("KEYS", RedisAsyncMap.KEY_PREFIX + "*");
+        assertEquals(1, keys.size());
+        String key = (String) keys.get(0);
+        assertTrue(key.endsWith(codec.asString("été")));
+        assertEquals((long) codec.asByte("ÿ\u0080").length, cluster.redis().execute("STRLEN", key));
+    }
+
+    @Test
+    public void putWithTtlExpires() throws InterruptedException {
+        StandInCluster.<Void>await(h -> map.put("k", "v", 100, h));
+        assertEquals("v", await(h -> map.get("k", h)));
+        Thread.sleep(250);
+        assertNull(await(h -> map.get("k", h)));
+    }
+
+}
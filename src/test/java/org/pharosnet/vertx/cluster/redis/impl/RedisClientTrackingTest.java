@@ -0,0 +1,157 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * client tracking needs a real redis 6, the stand-in does not track.
+ */
+public class RedisClientTrackingTest {
+
+    private RedisServer server;
+    private Vertx vertx;
+    private RedisOptions options;
+    private RedisConnectionPool data;
+    private Redis writer;
+    private NearCache cache;
+    private RedisClientTracking tracking;
+
+    @BeforeEach
+    public void start() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (Exception e) {
+            server = null;
+            assumeTrue(false, "no redis server for this platform, " + e.getMessage());
+        }
+        vertx = Vertx.vertx();
+        options = new RedisOptions().setEndpoint(SocketAddress.inetSocketAddress(port, "127.0.0.1"));
+        data = new RedisConnectionPool(vertx, options, 1, 16);
+        StandInCluster.<Redis>await(data::connect);
+        writer = StandInCluster.await(h -> Redis.createClient(vertx, options).connect(h));
+        cache = new NearCache(100);
+        tracking = new RedisClientTracking(vertx, options, data, cache, false, List.of());
+        StandInCluster.<Void>await(tracking::start);
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        if (tracking != null) {
+            tracking.close();
+        }
+        if (data != null) {
+            data.close();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        if (vertx != null) {
+            StandInCluster.<Void>await(vertx::close);
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void writesInvalidateWhatWasRead() {
+        write("a", "1");
+        read("a");
+        assertEquals("1", cache.get("a"));
+
+        write("a", "2");
+        until(() -> cache.get("a") == null);
+        read("a");
+        assertEquals("2", cache.get("a"));
+    }
+
+    @Test
+    public void losingTheDataConnectionClearsTheCache() {
+        write("a", "1");
+        read("a");
+        assertEquals("1", cache.get("a"));
+
+        // the data connection only, the invalidation channel is a pubsub client
+        StandInCluster.<Response>await(h -> RedisAPI.api(writer).client(List.of("KILL", "ID", dataClientId()), h));
+        until(() -> cache.get("a") == null);
+
+        // the read that opens the replacement is dropped, it clears the cache when it turns tracking on
+        read("a");
+        assertNull(cache.get("a"));
+        read("a");
+        assertEquals("1", cache.get("a"));
+        write("a", "2");
+        until(() -> cache.get("a") == null);
+    }
+
+    @Test
+    public void resumesOnceTheInvalidationChannelIsBack() {
+        write("a", "1");
+        read("a");
+        StandInCluster.<Response>await(h -> RedisAPI.api(writer).client(List.of("KILL", "TYPE", "pubsub"), h));
+        until(() -> !cache.isEnabled());
+        assertNull(cache.get("a"));
+
+        until(cache::isEnabled);
+        read("a");
+        assertEquals("1", cache.get("a"));
+        write("a", "2");
+        until(() -> cache.get("a") == null);
+    }
+
+    private String dataClientId() {
+        return StandInCluster.<Response>await(h -> data.send(Request.cmd(Command.CLIENT).arg("ID"), h)).toString();
+    }
+
+    private void write(String key, String value) {
+        StandInCluster.<Response>await(h -> RedisAPI.api(writer).set(List.of(key, value), h));
+    }
+
+    /**
+     * reads the key through the tracked connection and caches it, like a near cached get.
+     */
+    private void read(String key) {
+        long stamp = cache.stamp();
+        Response value = StandInCluster.await(h -> RedisAPI.api(data).get(key, h));
+        cache.put(key, value.toString(), stamp);
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
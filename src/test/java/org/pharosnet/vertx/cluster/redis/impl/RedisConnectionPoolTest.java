@@ -0,0 +1,161 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import org.pharosnet.vertx.cluster.redis.standin.RedisStandIn;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RedisConnectionPoolTest {
+
+    private RedisStandIn redis;
+    private Vertx transport;
+    private Vertx loops;
+    private RedisConnectionPool pool;
+
+    @BeforeEach
+    public void start() {
+        redis = new RedisStandIn().start();
+        transport = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        loops = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(2));
+        pool = new RedisConnectionPool(transport, new RedisOptions()
+                .setEndpoint(SocketAddress.inetSocketAddress(redis.port(), "127.0.0.1")), 2, 16);
+        StandInCluster.<Redis>await(pool::connect);
+    }
+
+    @AfterEach
+    public void stop() {
+        pool.close();
+        StandInCluster.<Void>await(transport::close);
+        StandInCluster.<Void>await(loops::close);
+        redis.stop();
+    }
+
+    @Test
+    public void bindsConnectionsToTheCallersLoops() throws Exception {
+        // before binding the loops share the connection of the transport, replies come back on the caller's context
+        Context loop = loops.getOrCreateContext();
+        assertTrue(pingFrom(loop));
+        assertEquals(1, pool.connectionCount());
+
+        pool.bindLoops(loops);
+        assertTrue(pingFrom(loop));
+        assertEquals(2, pool.connectionCount());
+        // the loop keeps its connection
+        assertTrue(pingFrom(loop));
+        assertEquals(2, pool.connectionCount());
+    }
+
+    @Test
+    public void failsCommandsOnceClosed() {
+        pool.close();
+        CompletableFuture<AsyncResult<Response>> reply = new CompletableFuture<>();
+        pool.send(Request.cmd(Command.PING), reply::complete);
+        assertTrue(reply.join().failed());
+        assertTrue(reply.join().cause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void queuedCommandsGoOutOnAReopenedConnection() {
+        RedisConnectionPool single = pool(1);
+        redis.setLatency(200, TimeUnit.MILLISECONDS);
+        List<AsyncResult<Response>> replies = ping(single, 5);
+        until(() -> redis.commandCount("PING") == 1);
+        assertEquals(4, single.pending());
+
+        // nothing else is sent, the queue reopens the connection by itself
+        redis.closeConnections();
+        until(() -> replies.size() == 5);
+        assertTrue(replies.get(0).failed());
+        for (AsyncResult<Response> reply : replies.subList(1, 5)) {
+            assertTrue(reply.succeeded(), String.valueOf(reply.cause()));
+        }
+        assertEquals(0, single.pending());
+        single.close();
+    }
+
+    @Test
+    public void queuedCommandsFailWhenTheConnectionCannotBeReopened() {
+        RedisConnectionPool single = pool(1);
+        redis.setLatency(200, TimeUnit.MILLISECONDS);
+        List<AsyncResult<Response>> replies = ping(single, 5);
+        until(() -> redis.commandCount("PING") == 1);
+
+        redis.stop();
+        until(() -> replies.size() == 5);
+        for (AsyncResult<Response> reply : replies) {
+            assertTrue(reply.failed());
+        }
+        assertEquals(0, single.pending());
+        single.close();
+    }
+
+    private RedisConnectionPool pool(int maxInFlight) {
+        RedisConnectionPool pool = new RedisConnectionPool(transport, new RedisOptions()
+                .setEndpoint(SocketAddress.inetSocketAddress(redis.port(), "127.0.0.1")), 1, maxInFlight);
+        StandInCluster.<Redis>await(pool::connect);
+        return pool;
+    }
+
+    private static List<AsyncResult<Response>> ping(Redis redis, int count) {
+        List<AsyncResult<Response>> replies = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < count; i++) {
+            redis.send(Request.cmd(Command.PING), replies::add);
+        }
+        return replies;
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * pings from the context, true when the reply came back on its thread.
+     */
+    private boolean pingFrom(Context context) throws Exception {
+        CompletableFuture<Boolean> onCaller = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            Thread caller = Thread.currentThread();
+            Handler<AsyncResult<Response>> replied = r -> {
+                if (r.failed()) {
+                    onCaller.completeExceptionally(r.cause());
+                    return;
+                }
+                onCaller.complete(Thread.currentThread() == caller);
+            };
+            pool.send(Request.cmd(Command.PING), replied);
+        });
+        return onCaller.get(30, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.types.BulkType;
+import io.vertx.redis.client.impl.types.IntegerType;
+import io.vertx.redis.client.impl.types.MultiType;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.Lane;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RedisKeyspaceTest {
+
+    private static final List<String> KEYS = List.of("{a}.1", "b", "{a}.2", "c");
+
+    /**
+     * a cluster keyspace whose connection answers DEL with the number of keys and MGET with the keys themselves.
+     */
+    private RecordingRedis redis = new RecordingRedis(command -> {
+        List<String> keys = command.subList(1, command.size());
+        if ("DEL".equalsIgnoreCase(command.get(0))) {
+            return Future.succeededFuture(IntegerType.create((long) keys.size()));
+        }
+        Response[] values = new Response[keys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BulkType.create(Buffer.buffer(keys.get(i)));
+        }
+        return Future.succeededFuture(MultiType.create(values));
+    });
+
+    private RedisKeyspace keyspace(RedisClientType type) {
+        Map<Lane, io.vertx.redis.client.Redis> lanes = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, redis.redis());
+        }
+        return new RedisKeyspace(null, new RedisOptions().setType(type), new RedisLanes(lanes));
+    }
+
+    @Test
+    public void splitsMultiKeyCommandsPerSlot() {
+        RedisKeyspace keyspace = keyspace(RedisClientType.CLUSTER);
+        long deleted = StandInCluster.await(h -> keyspace.del(KEYS, Operation.NONE, h));
+        assertEquals(4L, deleted);
+        assertEquals(3, redis.sent.size());
+        for (List<String> command : redis.sent) {
+            Set<Integer> slots = new HashSet<>();
+            for (String key : command.subList(1, command.size())) {
+                slots.add(HashSlot.slot(key));
+            }
+            assertEquals(1, slots.size(), command + " spans slots");
+        }
+        assertEquals(List.of("{a}.1", "{a}.2"), redis.sent.get(0).subList(1, 3));
+
+        redis.sent.clear();
+        List<Response> values = StandInCluster.await(h -> keyspace.mget(KEYS, Operation.NONE, h));
+        assertEquals(3, redis.sent.size());
+        // in the order of the keys asked for
+        for (int i = 0; i < KEYS.size(); i++) {
+            assertEquals(KEYS.get(i), values.get(i).toString());
+        }
+    }
+
+    @Test
+    public void sendsOneCommandOutsideAClusterMode() {
+        RedisKeyspace keyspace = keyspace(RedisClientType.STANDALONE);
+        StandInCluster.<Long>await(h -> keyspace.del(KEYS, Operation.NONE, h));
+        assertEquals(1, redis.sent.size());
+        assertEquals(KEYS, redis.sent.get(0).subList(1, 5));
+    }
+
+}
@@ -0,0 +1,194 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pharosnet.vertx.cluster.redis.Lane;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * the replica on a real redis, its scripts write the lists and the stream together.
+ */
+public class RedisMultiMapReplicaTest {
+
+    private static final String PREFIX = "_io.vertx.multi.map.test.key_";
+    private static final String LOG = "_io.vertx.multi.map.test.log";
+    private static final String KEY = PREFIX + "addr";
+
+    @TempDir
+    Path directory;
+
+    private RedisServer server;
+    private Vertx vertx;
+    private RedisOptions options;
+    private RedisLanes lanes;
+    private RedisKeyspace keyspace;
+    private final List<RedisMultiMapReplica> replicas = new ArrayList<>();
+
+    @BeforeEach
+    public void start() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (Exception e) {
+            server = null;
+            assumeTrue(false, "no redis server for this platform, " + e.getMessage());
+        }
+        vertx = Vertx.vertx();
+        options = new RedisOptions().setEndpoint(SocketAddress.inetSocketAddress(port, "127.0.0.1"));
+        Map<Lane, Redis> connections = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            connections.put(lane, Redis.createClient(vertx, options));
+        }
+        lanes = StandInCluster.await(new RedisLanes(connections)::connect);
+        keyspace = new RedisKeyspace(vertx, options, lanes);
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        for (RedisMultiMapReplica replica : replicas) {
+            replica.close();
+        }
+        if (lanes != null) {
+            lanes.close();
+        }
+        if (vertx != null) {
+            StandInCluster.<Void>await(vertx::close);
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void liveOnceTheStreamIsReplayed() {
+        Path file = directory.resolve("replica.snapshot");
+        RedisMultiMapReplica first = replica(file);
+        until(first::isLive);
+        add(first, 1, 0);
+        StandInCluster.<Void>await(first::close);
+
+        // more than one read of the stream behind the snapshot file
+        RedisMultiMapReplica writer = replica(null);
+        until(writer::isLive);
+        add(writer, 2500, 1);
+        RedisMultiMapReplica restarted = replica(file);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!restarted.isLive() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(2501, restarted.get(KEY).stored().size());
+        assertEquals(0L, restarted.getBootstraps());
+    }
+
+    @Test
+    public void restoresTheSnapshotFileAndReplaysWhatFollows() {
+        Path file = directory.resolve("replica.snapshot");
+        RedisMultiMapReplica first = replica(file);
+        until(first::isLive);
+        add(first, 10, 0);
+        StandInCluster.<Void>await(first::close);
+        assertTrue(Files.exists(file));
+
+        RedisMultiMapReplica writer = replica(null);
+        until(writer::isLive);
+        add(writer, 3, 10);
+        RedisMultiMapReplica restarted = replica(file);
+        until(restarted::isLive);
+        assertEquals(13, restarted.get(KEY).stored().size());
+        // the copy came from the file, only the entries after its id were read
+        assertEquals(0L, restarted.getBootstraps());
+        assertEquals(3L, restarted.getApplied());
+    }
+
+    @Test
+    public void bootstrapsWhenTheStreamWasTrimmedPastTheFile() {
+        Path file = directory.resolve("replica.snapshot");
+        RedisMultiMapReplica first = replica(file);
+        until(first::isLive);
+        add(first, 10, 0);
+        StandInCluster.<Void>await(first::close);
+
+        RedisMultiMapReplica writer = replica(null);
+        until(writer::isLive);
+        add(writer, 2, 10);
+        StandInCluster.<Response>await(h -> lanes.redis(Lane.BULK)
+                .send(Request.cmd(Command.XTRIM).arg(LOG).arg("MAXLEN").arg(1), h));
+        RedisMultiMapReplica restarted = replica(file);
+        until(restarted::isLive);
+        assertEquals(1L, restarted.getBootstraps());
+        assertEquals(12, restarted.get(KEY).stored().size());
+    }
+
+    /**
+     * a started replica, it may still be catching up.
+     */
+    private RedisMultiMapReplica replica(Path file) {
+        RedisMultiMapReplica replica = new RedisMultiMapReplica(vertx, options, keyspace, PREFIX, LOG, 100_000, 60_000, 0, file);
+        replicas.add(replica);
+        StandInCluster.<Void>await(replica::start);
+        return replica;
+    }
+
+    /**
+     * adds the values "node-from" ... to the key, through the replica.
+     */
+    private static void add(RedisMultiMapReplica replica, int count, int from) {
+        AtomicInteger added = new AtomicInteger();
+        for (int i = from; i < from + count; i++) {
+            replica.add(KEY, "node-" + i, r -> {
+                if (r.succeeded()) {
+                    added.incrementAndGet();
+                }
+            });
+            // below the connection's waiting handlers
+            if ((i - from + 1) % 500 == 0) {
+                int sent = i - from + 1;
+                until(() -> added.get() == sent);
+            }
+        }
+        until(() -> added.get() == count);
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * the subscription is killed on a real redis, the stand-in cannot drop a pubsub client.
+ */
+public class RedisNegativeCacheInvalidationTest {
+
+    private RedisServer server;
+    private Vertx vertx;
+    private Redis publisher;
+    private NegativeCache cache;
+    private RedisNegativeCacheInvalidation invalidation;
+
+    @BeforeEach
+    public void start() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (Exception e) {
+            server = null;
+            assumeTrue(false, "no redis server for this platform, " + e.getMessage());
+        }
+        vertx = Vertx.vertx();
+        RedisOptions options = new RedisOptions().setEndpoint(SocketAddress.inetSocketAddress(port, "127.0.0.1"));
+        publisher = StandInCluster.await(h -> Redis.createClient(vertx, options).connect(h));
+        cache = new NegativeCache(100, 60_000);
+        invalidation = new RedisNegativeCacheInvalidation(vertx, options, cache);
+        StandInCluster.<Void>await(invalidation::start);
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        if (invalidation != null) {
+            invalidation.close();
+        }
+        if (publisher != null) {
+            publisher.close();
+        }
+        if (vertx != null) {
+            StandInCluster.<Void>await(vertx::close);
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void firstValueInvalidatesTheKey() {
+        // keys are held one char per byte, as they are stored
+        String key = RedisHMap.byteString("été");
+        cache.put(key, cache.stamp());
+        publish(key);
+        until(() -> !cache.isEmpty(key));
+    }
+
+    @Test
+    public void resumesOnceResubscribed() {
+        cache.put("a", cache.stamp());
+        StandInCluster.<Response>await(h -> RedisAPI.api(publisher).client(List.of("KILL", "TYPE", "pubsub"), h));
+        until(() -> !cache.isEnabled());
+        assertFalse(cache.isEmpty("a"));
+
+        until(cache::isEnabled);
+        cache.put("a", cache.stamp());
+        assertTrue(cache.isEmpty("a"));
+        publish("a");
+        until(() -> !cache.isEmpty("a"));
+    }
+
+    private void publish(String key) {
+        StandInCluster.<Response>await(h -> publisher.send(Request.cmd(Command.PUBLISH)
+                .arg(RedisNegativeCacheInvalidation.CHANNEL).arg(RedisHMap.bytes(key)), h));
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
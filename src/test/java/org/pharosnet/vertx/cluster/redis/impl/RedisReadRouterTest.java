@@ -0,0 +1,159 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.types.SimpleStringType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.ReadPreference;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RedisReadRouterTest {
+
+    private static final long PROBE_INTERVAL = 20;
+
+    private Vertx vertx;
+    private RecordingRedis master;
+    private RecordingRedis replica;
+    private RedisReadRouter router;
+
+    @BeforeEach
+    public void start() {
+        vertx = Vertx.vertx();
+        master = new RecordingRedis(RedisReadRouterTest::reply);
+        replica = new RecordingRedis(RedisReadRouterTest::reply);
+    }
+
+    @AfterEach
+    public void stop() {
+        if (router != null) {
+            router.close();
+        }
+        StandInCluster.<Void>await(vertx::close);
+    }
+
+    private static AsyncResult<Response> reply(List<String> command) {
+        return Future.succeededFuture(SimpleStringType.create("PING".equals(command.get(0)) ? "PONG" : "OK"));
+    }
+
+    private RedisReadRouter router(ReadPreference preference) {
+        router = new RedisReadRouter(vertx, new RedisOptions().setType(RedisClientType.SENTINEL), master.redis(), preference, PROBE_INTERVAL) {
+            @Override
+            Redis replicaClient(RedisOptions replicaOptions) {
+                return replica.redis();
+            }
+        };
+        return router;
+    }
+
+    /**
+     * the connection a lookup is sent to.
+     */
+    private RecordingRedis read() {
+        int masterSent = master.sent.size();
+        int replicaSent = replica.sent.size();
+        StandInCluster.<Response>await(h -> router.select().send(Request.cmd(Command.GET).arg("key"), h));
+        if (master.sent.size() > masterSent) {
+            return master;
+        }
+        assertTrue(replica.sent.size() > replicaSent);
+        return replica;
+    }
+
+    @Test
+    public void replicaPreferenceReadsTheReplica() {
+        StandInCluster.<Void>await(router(ReadPreference.REPLICA)::start);
+        assertEquals(replica, read());
+        assertTrue(router.isReplica(router.select()));
+    }
+
+    @Test
+    public void readsGoToTheMasterWhileTheReplicaIsLost() {
+        StandInCluster.<Void>await(router(ReadPreference.REPLICA_PREFERRED)::start);
+        assertEquals(replica, read());
+
+        replica.refused = true;
+        replica.lose(new IllegalStateException("connection reset"));
+        assertEquals(master, read());
+        assertFalse(router.isReplica(router.select()));
+
+        // the probe reconnects once the replica is back
+        replica.refused = false;
+        until(() -> router.isReplica(router.select()));
+        assertEquals(replica, read());
+    }
+
+    @Test
+    public void unreachableReplica() {
+        replica.refused = true;
+        AsyncResult<Void> started = result(router(ReadPreference.REPLICA));
+        assertTrue(started.failed());
+        router.close();
+
+        AsyncResult<Void> preferred = result(router(ReadPreference.REPLICA_PREFERRED));
+        assertTrue(preferred.succeeded());
+        assertEquals(master, read());
+    }
+
+    @Test
+    public void masterPreferenceNeverConnectsAReplica() {
+        StandInCluster.<Void>await(router(ReadPreference.MASTER)::start);
+        assertEquals(master, read());
+        assertTrue(replica.sent.isEmpty());
+    }
+
+    @Test
+    public void nearestReadsTheFasterConnection() {
+        master.delay(vertx, 30);
+        StandInCluster.<Void>await(router(ReadPreference.NEAREST)::start);
+        // both measured, the replica answers sooner
+        until(() -> master.sent.size() >= 3);
+        assertTrue(router.isReplica(router.select()));
+        router.close();
+
+        master.delay(vertx, 0);
+        replica.delay(vertx, 30);
+        master.sent.clear();
+        StandInCluster.<Void>await(router(ReadPreference.NEAREST)::start);
+        until(() -> master.sent.size() >= 3 && !router.isReplica(router.select()));
+        assertEquals(master, read());
+    }
+
+    private static AsyncResult<Void> result(RedisReadRouter router) {
+        List<AsyncResult<Void>> results = new CopyOnWriteArrayList<>();
+        router.start(results::add);
+        until(() -> !results.isEmpty());
+        return results.get(0);
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
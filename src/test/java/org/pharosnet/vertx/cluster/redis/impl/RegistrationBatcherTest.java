@@ -0,0 +1,166 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.types.SimpleStringType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RegistrationBatcherTest {
+
+    private Vertx vertx;
+    private RedisKeyspace keyspace;
+    private final List<Sent> sent = new CopyOnWriteArrayList<>();
+    private final List<AsyncResult<Response>> replies = new CopyOnWriteArrayList<>();
+    private Redis redis;
+
+    /**
+     * the requests of one socket write and the handler that completes them.
+     */
+    private static final class Sent {
+
+        private Sent(List<Request> requests, Handler<AsyncResult<List<Response>>> handler) {
+            this.requests = requests;
+            this.handler = handler;
+        }
+
+        private final List<Request> requests;
+        private final Handler<AsyncResult<List<Response>>> handler;
+
+        private void reply() {
+            List<Response> responses = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                responses.add(SimpleStringType.create(Integer.toString(i)));
+            }
+            handler.handle(Future.succeededFuture(responses));
+        }
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void start() {
+        vertx = Vertx.vertx();
+        keyspace = new RedisKeyspace(vertx, new RedisOptions(), null);
+        // a connection that keeps what is sent and replies when told to
+        redis = (Redis) Proxy.newProxyInstance(Redis.class.getClassLoader(), new Class<?>[]{Redis.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "send":
+                    Handler<AsyncResult<Response>> single = (Handler<AsyncResult<Response>>) args[1];
+                    sent.add(new Sent(List.of((Request) args[0]), r -> single.handle(r.map(list -> list.get(0)))));
+                    return proxy;
+                case "batch":
+                    sent.add(new Sent((List<Request>) args[0], (Handler<AsyncResult<List<Response>>>) args[1]));
+                    return proxy;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @AfterEach
+    public void stop() {
+        StandInCluster.<Void>await(vertx::close);
+    }
+
+    @Test
+    public void sendsWhatWasIssuedTogetherAsOneBatch() {
+        Context context = vertx.getOrCreateContext();
+        context.runOnContext(v -> {
+            // flushes on the context it was created on
+            RegistrationBatcher batcher = new RegistrationBatcher(vertx, keyspace, 100, 0, 1000);
+            for (int i = 0; i < 5; i++) {
+                batcher.send(redis, "key" + i, Request.cmd(Command.LPUSH).arg("key" + i).arg("value"), replies::add);
+            }
+        });
+        until(() -> sent.size() == 1);
+        assertEquals(5, sent.get(0).requests.size());
+
+        sent.get(0).reply();
+        until(() -> replies.size() == 5);
+        // each handler gets the reply of its own command
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.toString(i), replies.get(i).result().toString());
+        }
+    }
+
+    @Test
+    public void holdsBackWhatDoesNotFitInFlight() {
+        Context context = vertx.getOrCreateContext();
+        context.runOnContext(v -> {
+            RegistrationBatcher batcher = new RegistrationBatcher(vertx, keyspace, 2, 0, 4);
+            for (int i = 0; i < 10; i++) {
+                batcher.send(redis, "key" + i, Request.cmd(Command.LPUSH).arg("key" + i).arg("value"), replies::add);
+            }
+        });
+        until(() -> sent.size() == 2);
+        assertEquals(4, inFlight(0));
+
+        // a reply makes room for as many commands as it answered
+        sent.get(0).reply();
+        until(() -> sent.size() == 3);
+        assertEquals(4, inFlight(1));
+
+        for (int i = 1; i < 5; i++) {
+            int next = i;
+            until(() -> sent.size() > next);
+            assertTrue(inFlight(next) <= 4);
+            sent.get(next).reply();
+        }
+        until(() -> replies.size() == 10);
+        for (AsyncResult<Response> reply : replies) {
+            assertTrue(reply.succeeded());
+        }
+        for (Sent batch : sent) {
+            assertTrue(batch.requests.size() <= 2);
+        }
+    }
+
+    /**
+     * the commands sent and not answered, the first answered ones before the index.
+     */
+    private int inFlight(int answered) {
+        int count = 0;
+        for (int i = answered; i < sent.size(); i++) {
+            count += sent.get(i).requests.size();
+        }
+        return count;
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
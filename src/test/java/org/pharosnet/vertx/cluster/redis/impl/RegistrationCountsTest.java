@@ -0,0 +1,84 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RegistrationCountsTest {
+
+    private final RegistrationCounts counts = new RegistrationCounts();
+    private final List<String> sent = new ArrayList<>();
+    private final List<Handler<AsyncResult<Void>>> pushes = new ArrayList<>();
+    private final List<Handler<AsyncResult<Boolean>>> removes = new ArrayList<>();
+
+    @Test
+    public void addsCompleteOnceThePushLanded() {
+        List<AsyncResult<Void>> added = new ArrayList<>();
+        add(added);
+        add(added);
+        assertEquals(List.of("LPUSH"), sent);
+        assertEquals(0, added.size());
+
+        pushes.get(0).handle(Future.succeededFuture());
+        assertEquals(2, added.size());
+        assertTrue(added.get(1).succeeded());
+        assertEquals(1, counts.size());
+    }
+
+    @Test
+    public void addsFailWithTheirPush() {
+        List<AsyncResult<Void>> added = new ArrayList<>();
+        add(added);
+        add(added);
+        pushes.get(0).handle(Future.failedFuture("connection lost"));
+        assertTrue(added.get(0).failed());
+        assertTrue(added.get(1).failed());
+        assertEquals(0, counts.size());
+
+        // the next add pushes again
+        add(added);
+        assertEquals(List.of("LPUSH", "LPUSH"), sent);
+    }
+
+    @Test
+    public void writesOfAPairRunInOrder() {
+        List<AsyncResult<Void>> added = new ArrayList<>();
+        List<AsyncResult<Boolean>> removed = new ArrayList<>();
+        add(added);
+        remove(removed);
+        add(added);
+        // the remove waits for the push, the second push for the remove
+        assertEquals(List.of("LPUSH"), sent);
+
+        pushes.get(0).handle(Future.succeededFuture());
+        assertEquals(List.of("LPUSH", "LREM"), sent);
+        removes.get(0).handle(Future.succeededFuture(true));
+        assertEquals(List.of("LPUSH", "LREM", "LPUSH"), sent);
+        pushes.get(1).handle(Future.succeededFuture());
+        assertEquals(2, added.size());
+        assertEquals(1, removed.size());
+        assertEquals(1, counts.size());
+    }
+
+    private void add(List<AsyncResult<Void>> added) {
+        counts.acquire("key", "value", h -> {
+            sent.add("LPUSH");
+            pushes.add(h);
+        }, added::add);
+    }
+
+    private void remove(List<AsyncResult<Boolean>> removed) {
+        counts.release("key", "value", h -> {
+            sent.add("LREM");
+            removes.add(h);
+        }, removed::add);
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * runs the digest script on a real redis, the stand-in runs it in java.
+ */
+public class ReplicaReconcilerTest {
+
+    private static final String PREFIX = "_io.vertx.multi.map.test.key_";
+
+    private RedisServer server;
+    private Vertx vertx;
+    private Redis redis;
+    private RedisAPI api;
+
+    @BeforeEach
+    public void start() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (Exception e) {
+            server = null;
+            assumeTrue(false, "no redis server for this platform, " + e.getMessage());
+        }
+        vertx = Vertx.vertx();
+        redis = StandInCluster.await(h -> Redis.createClient(vertx, new RedisOptions()
+                .setEndpoint(SocketAddress.inetSocketAddress(port, "127.0.0.1"))).connect(h));
+        api = RedisAPI.api(redis);
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        if (redis != null) {
+            redis.close();
+        }
+        if (vertx != null) {
+            StandInCluster.<Void>await(vertx::close);
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void digestsLikeTheReplica() {
+        Map<String, Set<String>> expected = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            List<String> values = new ArrayList<>();
+            for (int j = 0; j <= i % 7; j++) {
+                values.add("node-" + j + (i % 3 == 0 ? "ÿ\u0000\u0080" : ""));
+            }
+            // duplicates count once
+            values.add("node-0" + (i % 3 == 0 ? "ÿ\u0000\u0080" : ""));
+            push(PREFIX + "addr-" + i + (i % 5 == 0 ? "-é" : ""), values, expected);
+        }
+        // longer than one script call reads
+        List<String> many = new ArrayList<>();
+        for (int j = 0; j < ReplicaReconciler.VALUES * 2 + 17; j++) {
+            many.add("node-" + j);
+        }
+        push(PREFIX + "popular", many, expected);
+        push("_io.vertx.multi.map.other.key_addr", List.of("node-0"), new HashMap<>());
+
+        ReplicaReconciler reconciler = new ReplicaReconciler(null, redis, PREFIX);
+        int[] digests = StandInCluster.await(reconciler::digest);
+        assertArrayEquals(ReplicaReconciler.digests(expected), digests);
+
+        // a value missing from the replica shows in its bucket only
+        StandInCluster.<Response>await(h -> api.rpush(List.of(PREFIX + "popular", "node-new"), h));
+        int[] drifted = StandInCluster.await(reconciler::digest);
+        for (int b = 0; b < ReplicaReconciler.BUCKETS; b++) {
+            assertEquals(b == ReplicaReconciler.bucket(PREFIX + "popular"), drifted[b] != digests[b]);
+        }
+    }
+
+    private void push(String key, List<String> values, Map<String, Set<String>> expected) {
+        // stored one byte per char, as the multi maps store them
+        Request rpush = Request.cmd(Command.RPUSH).arg(RedisHMap.bytes(key));
+        for (String value : values) {
+            rpush.arg(RedisHMap.bytes(value));
+        }
+        StandInCluster.<Response>await(h -> redis.send(rpush, h));
+        expected.put(key, new LinkedHashSet<>(values));
+    }
+
+}
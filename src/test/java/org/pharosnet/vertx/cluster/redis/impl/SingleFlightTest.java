@@ -0,0 +1,62 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SingleFlightTest {
+
+    @Test
+    public void decodesForEveryWaiter() {
+        SingleFlight flights = new SingleFlight();
+        AtomicReference<Handler<AsyncResult<String>>> inFlight = new AtomicReference<>();
+        List<AsyncResult<StringBuilder>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            flights.<String, StringBuilder>read("key", inFlight::set, StringBuilder::new, results::add);
+        }
+        assertEquals(1, flights.getReads());
+        assertEquals(2, flights.getCoalesced());
+
+        inFlight.get().handle(Future.succeededFuture("value"));
+        assertEquals(3, results.size());
+        assertEquals("value", results.get(0).result().toString());
+        assertNotSame(results.get(0).result(), results.get(1).result());
+        assertNotSame(results.get(1).result(), results.get(2).result());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void failsTheWaitersOfAReadThatThrows() {
+        SingleFlight flights = new SingleFlight();
+        AtomicReference<Handler<AsyncResult<String>>> inFlight = new AtomicReference<>();
+        List<AsyncResult<String>> results = new ArrayList<>();
+        flights.<String>read("key", h -> {
+            inFlight.set(h);
+            flights.<String>read("key", h2 -> {
+            }, results::add);
+            throw new IllegalStateException("not connected");
+        }, results::add);
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).failed());
+        assertTrue(results.get(1).failed());
+        assertEquals(0, flights.size());
+
+        // the next read starts a new flight, the one that threw cannot complete it
+        flights.<String>read("key", h -> {
+        }, results::add);
+        inFlight.get().handle(Future.succeededFuture("late"));
+        assertEquals(2, results.size());
+        assertEquals(1, flights.size());
+    }
+
+}
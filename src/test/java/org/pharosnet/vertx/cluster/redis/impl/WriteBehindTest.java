@@ -0,0 +1,152 @@
+package org.pharosnet.vertx.cluster.redis.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.types.SimpleStringType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pharosnet.vertx.cluster.redis.StandInCluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteBehindTest {
+
+    private Vertx vertx;
+    private final List<Sent> sent = new CopyOnWriteArrayList<>();
+    private volatile boolean failing;
+
+    /**
+     * the keys of one pipeline and the handler that completes it.
+     */
+    private static final class Sent {
+
+        private Sent(List<String> keys, Handler<AsyncResult<List<Response>>> handler) {
+            this.keys = keys;
+            this.handler = handler;
+        }
+
+        private final List<String> keys;
+        private final Handler<AsyncResult<List<Response>>> handler;
+
+        private void reply() {
+            List<Response> responses = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                responses.add(SimpleStringType.create("OK"));
+            }
+            handler.handle(Future.succeededFuture(responses));
+        }
+    }
+
+    @BeforeEach
+    public void start() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    public void stop() {
+        StandInCluster.<Void>await(vertx::close);
+    }
+
+    /**
+     * a keyspace whose pipelines are kept, or failed at once while failing.
+     */
+    private WriteBehind writeBehind(int batchSize, int maxPending) {
+        RedisKeyspace keyspace = new RedisKeyspace(vertx, new RedisOptions(), null) {
+            @Override
+            public void pipeline(List<String> keys, List<Request> requests, Handler<AsyncResult<List<Response>>> handler) {
+                if (failing) {
+                    handler.handle(Future.failedFuture("connection lost"));
+                    return;
+                }
+                sent.add(new Sent(new ArrayList<>(keys), handler));
+            }
+        };
+        return new WriteBehind(vertx, keyspace, batchSize, 60_000, maxPending, batchSize);
+    }
+
+    @Test
+    public void rejectsKeysBeyondTheQueue() {
+        WriteBehind writeBehind = writeBehind(2, 2);
+        List<AsyncResult<Void>> puts = new CopyOnWriteArrayList<>();
+        writeBehind.put("a", "1", 0, puts::add);
+        writeBehind.put("b", "1", 0, puts::add);
+        until(() -> sent.size() == 1);
+
+        // the flush in flight took a and b, c and d fill the queue
+        writeBehind.put("c", "1", 0, puts::add);
+        writeBehind.put("d", "1", 0, puts::add);
+        writeBehind.put("e", "1", 0, puts::add);
+        writeBehind.put("c", "2", 0, puts::add);
+        assertEquals(6, puts.size());
+        assertTrue(puts.get(3).succeeded());
+        assertTrue(puts.get(4).failed());
+        assertTrue(puts.get(5).succeeded());
+        assertEquals(2, writeBehind.pending());
+        assertEquals(1L, writeBehind.getRejected());
+        assertEquals("2", writeBehind.queued("c").value());
+
+        // the next flush makes room
+        sent.get(0).reply();
+        until(() -> sent.size() == 2);
+        assertEquals(List.of("c", "d"), sent.get(1).keys);
+        writeBehind.put("e", "1", 0, puts::add);
+        assertTrue(puts.get(6).succeeded());
+    }
+
+    @Test
+    public void flushFailsWhenWritesWereDropped() {
+        failing = true;
+        WriteBehind writeBehind = writeBehind(10, 10);
+        writeBehind.put("a", "1", 0, r -> {
+        });
+        AsyncResult<Void> flushed = result(writeBehind::flush);
+        assertTrue(flushed.failed());
+        assertEquals(1L, writeBehind.getDropped());
+
+        // a drop fails the flushes that waited while it happened only
+        failing = false;
+        writeBehind.put("b", "1", 0, r -> {
+        });
+        List<AsyncResult<Void>> later = new CopyOnWriteArrayList<>();
+        writeBehind.flush(later::add);
+        until(() -> sent.size() == 1);
+        sent.get(0).reply();
+        until(() -> later.size() == 1);
+        assertTrue(later.get(0).succeeded());
+    }
+
+    private static AsyncResult<Void> result(Consumer<Handler<AsyncResult<Void>>> call) {
+        List<AsyncResult<Void>> results = new CopyOnWriteArrayList<>();
+        call.accept(results::add);
+        until(() -> !results.isEmpty());
+        return results.get(0);
+    }
+
+    private static void until(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process server speaking enough of RESP2 and the redis commands for the cluster manager to run on,
+ * so tests and benchmarks need no redis and can inject latency, jitter and failures.
+ * <p>
+ * It is single threaded like redis: every connection is served by one event loop, commands are atomic and
+ * scripts run without interleaving. Strings, lists, sets and hashes, key expiry, SCAN, pub/sub, MULTI/EXEC
+ * and a subset of lua (see {@link StandInScript}) are supported; cluster and client tracking commands
+ * answer with the errors a standalone redis without them would send.
+ * <pre>
+ * RedisStandIn redis = new RedisStandIn().start();
+ * RedisOptions options = new RedisOptions().setEndpoint(SocketAddress.inetSocketAddress(redis.port(), "localhost"));
+ * ...
+ * redis.stop();
+ * </pre>
+ */
+public class RedisStandIn {
+
+    public RedisStandIn() {
+        this(0);
+    }
+
+    /**
+     * @param port 0 for a free port
+     */
+    public RedisStandIn(int port) {
+        this.port = port;
+        StandInReplicaScripts.register(scripts);
+    }
+
+    private int port;
+    private final StandInScripts scripts = new StandInScripts();
+    private final LongAdder commands = new LongAdder();
+    private final StandInStore store = new StandInStore(scripts, commands::sum);
+    private final Set<StandInConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final Map<String, LongAdder> commandsByName = new ConcurrentHashMap<>();
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private volatile double failureRate;
+    private EventLoopGroup group;
+    private Channel channel;
+
+    public synchronized RedisStandIn start() {
+        if (group != null) {
+            return this;
+        }
+        group = new NioEventLoopGroup(1, new DefaultThreadFactory("redis-stand-in", true));
+        try {
+            channel = new ServerBootstrap()
+                    .group(group)
+                    .channel(NioServerSocketChannel.class)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new RespDecoder(), new StandInConnection(RedisStandIn.this, connectionIds.incrementAndGet()));
+                        }
+                    })
+                    .bind("127.0.0.1", port)
+                    .syncUninterruptibly()
+                    .channel();
+        } catch (RuntimeException e) {
+            group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+            group = null;
+            throw e;
+        }
+        port = ((InetSocketAddress) channel.localAddress()).getPort();
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (group == null) {
+            return;
+        }
+        channel.close().syncUninterruptibly();
+        closeConnections();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        group = null;
+        channel = null;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String host() {
+        return "127.0.0.1";
+    }
+
+    /**
+     * delay added to every reply, replies still leave in order.
+     */
+    public RedisStandIn setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * a random extra delay between 0 and jitter added to every reply.
+     */
+    public RedisStandIn setJitter(long jitter, TimeUnit unit) {
+        this.jitterNanos = unit.toNanos(jitter);
+        return this;
+    }
+
+    /**
+     * share of commands, 0 to 1, answered with an error instead of being executed.
+     */
+    public RedisStandIn setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failure rate must be between 0 and 1");
+        }
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * runs the java script in place of the lua source, see {@link StandInScript}.
+     */
+    public RedisStandIn registerScript(String source, StandInScript script) {
+        scripts.register(source, script);
+        return this;
+    }
+
+    /**
+     * drops every client connection, as a redis restart or a network failure would.
+     */
+    public void closeConnections() {
+        for (StandInConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+    }
+
+    public int connectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * runs a command on the event loop as if a client had sent it, e.g. to seed or inspect data.
+     */
+    public Object execute(String... args) {
+        List<String> command = new ArrayList<>(args.length);
+        Collections.addAll(command, args);
+        if (group == null) {
+            return store.execute(command);
+        }
+        return group.next().submit(() -> store.execute(command)).syncUninterruptibly().getNow();
+    }
+
+    public void flushAll() {
+        execute("FLUSHALL");
+    }
+
+    /**
+     * commands received since the start or the last {@link #resetCommandCounts()}, including the ones in MULTI and failed ones.
+     */
+    public long commandCount() {
+        return commands.sum();
+    }
+
+    public long commandCount(String command) {
+        LongAdder count = commandsByName.get(command.toUpperCase());
+        return count == null ? 0L : count.sum();
+    }
+
+    /**
+     * command name to count, sorted by name.
+     */
+    public Map<String, Long> commandCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        commandsByName.forEach((command, count) -> counts.put(command, count.sum()));
+        return counts;
+    }
+
+    public void resetCommandCounts() {
+        commands.reset();
+        commandsByName.clear();
+    }
+
+    StandInStore store() {
+        return store;
+    }
+
+    void connected(StandInConnection connection) {
+        connections.add(connection);
+    }
+
+    void disconnected(StandInConnection connection) {
+        connections.remove(connection);
+    }
+
+    void counted(String command) {
+        commands.increment();
+        commandsByName.computeIfAbsent(command, k -> new LongAdder()).increment();
+    }
+
+    boolean injectFailure() {
+        double rate = failureRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    long latencyNanos() {
+        return latencyNanos;
+    }
+
+    long jitterNanos() {
+        return jitterNanos;
+    }
+
+    int publish(String channel, String message) {
+        int receivers = 0;
+        for (StandInConnection connection : connections) {
+            receivers += connection.deliver(channel, message);
+        }
+        return receivers;
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RedisStandInTest {
+
+    private RedisStandIn redis;
+
+    @BeforeEach
+    public void start() {
+        redis = new RedisStandIn().start();
+    }
+
+    @AfterEach
+    public void stop() {
+        redis.stop();
+    }
+
+    @Test
+    public void stringsListsAndHashes() {
+        assertEquals("OK", String.valueOf(redis.execute("SET", "s", "v")));
+        assertEquals("v", redis.execute("GET", "s"));
+        assertEquals(2L, redis.execute("RPUSH", "l", "a", "b"));
+        assertEquals(List.of("a", "b"), redis.execute("LRANGE", "l", "0", "-1"));
+        assertEquals(1L, redis.execute("HSET", "h", "f", "x"));
+        assertEquals("x", redis.execute("HGET", "h", "f"));
+    }
+
+    @Test
+    public void expiry() throws InterruptedException {
+        redis.execute("SET", "s", "v", "PX", "50");
+        assertEquals("v", redis.execute("GET", "s"));
+        Thread.sleep(100);
+        assertNull(redis.execute("GET", "s"));
+    }
+
+    @Test
+    public void ping() throws IOException {
+        try (Socket socket = new Socket(redis.host(), redis.port())) {
+            assertEquals("+PONG", send(socket, "PING"));
+            assertEquals("*3", send(socket, "SUBSCRIBE", "c"));
+        }
+    }
+
+    @Test
+    public void straightLineScript() {
+        redis.execute("HSET", "h", "f", "old");
+        Object previous = redis.execute("EVAL",
+                "local v = redis.call('hget', KEYS[1], ARGV[1]); redis.call('hset', KEYS[1], ARGV[1], ARGV[2]); return v",
+                "1", "h", "f", "new");
+        assertEquals("old", previous);
+        assertEquals("new", redis.execute("HGET", "h", "f"));
+    }
+
+    @Test
+    public void countsCommands() throws IOException {
+        redis.resetCommandCounts();
+        try (Socket socket = new Socket(redis.host(), redis.port())) {
+            send(socket, "SET", "a", "1");
+            send(socket, "SET", "b", "1");
+            send(socket, "GET", "a");
+        }
+        assertEquals(2L, redis.commandCount("SET"));
+        assertEquals(1L, redis.commandCount("GET"));
+    }
+
+    /**
+     * sends the command and returns the first line of its reply.
+     */
+    private static String send(Socket socket, String... args) throws IOException {
+        StringBuilder command = new StringBuilder("*").append(args.length).append("\r\n");
+        for (String arg : args) {
+            command.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(command.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n' && c != -1) {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        // the rest of a multi line reply stays unread, each test sends on its own socket
+        in.skip(in.available());
+        return line.toString();
+    }
+
+}
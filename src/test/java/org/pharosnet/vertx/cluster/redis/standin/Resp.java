@@ -0,0 +1,101 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * replies of the stand-in and their RESP2 encoding.
+ * <ul>
+ * <li>{@link Simple} a status reply, {@link Error} an error reply</li>
+ * <li>Long or Integer an integer reply</li>
+ * <li>String a bulk string (ISO-8859-1), null a nil bulk string</li>
+ * <li>List an array, {@link #NIL_ARRAY} a nil array</li>
+ * </ul>
+ */
+public final class Resp {
+
+    public static final Simple OK = new Simple("OK");
+
+    public static final Object NIL_ARRAY = new Object();
+
+    private Resp() {
+    }
+
+    public static final class Simple {
+
+        public Simple(String value) {
+            this.value = value;
+        }
+
+        public final String value;
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    public static final class Error {
+
+        public Error(String message) {
+            this.message = message;
+        }
+
+        public final String message;
+
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+
+    public static Error error(String message) {
+        return new Error(message);
+    }
+
+    public static Error wrongType() {
+        return new Error("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    public static Error syntax() {
+        return new Error("ERR syntax error");
+    }
+
+    public static Error notInteger() {
+        return new Error("ERR value is not an integer or out of range");
+    }
+
+    public static Error arity(String command) {
+        return new Error("ERR wrong number of arguments for '" + command.toLowerCase() + "' command");
+    }
+
+    static void write(ByteBuf out, Object reply) {
+        if (reply == null) {
+            out.writeCharSequence("$-1\r\n", StandardCharsets.US_ASCII);
+        } else if (reply == NIL_ARRAY) {
+            out.writeCharSequence("*-1\r\n", StandardCharsets.US_ASCII);
+        } else if (reply instanceof Simple) {
+            out.writeCharSequence("+" + ((Simple) reply).value + "\r\n", StandardCharsets.ISO_8859_1);
+        } else if (reply instanceof Error) {
+            out.writeCharSequence("-" + ((Error) reply).message + "\r\n", StandardCharsets.ISO_8859_1);
+        } else if (reply instanceof Long || reply instanceof Integer) {
+            out.writeCharSequence(":" + reply + "\r\n", StandardCharsets.US_ASCII);
+        } else if (reply instanceof String) {
+            String value = (String) reply;
+            out.writeCharSequence("$" + value.length() + "\r\n", StandardCharsets.US_ASCII);
+            out.writeCharSequence(value, StandardCharsets.ISO_8859_1);
+            out.writeCharSequence("\r\n", StandardCharsets.US_ASCII);
+        } else if (reply instanceof List) {
+            List<?> items = (List<?>) reply;
+            out.writeCharSequence("*" + items.size() + "\r\n", StandardCharsets.US_ASCII);
+            for (Object item : items) {
+                write(out, item);
+            }
+        } else {
+            throw new IllegalArgumentException("not a reply " + reply.getClass());
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.ByteProcessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RESP requests (arrays of bulk strings, or inline commands) to argument lists.
+ * arguments are decoded as ISO-8859-1, one char per byte, so binary keys and values survive the round trip.
+ */
+class RespDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            int start = in.readerIndex();
+            List<String> command = in.getByte(start) == '*' ? array(in) : inline(in);
+            if (command == null) {
+                in.readerIndex(start);
+                return;
+            }
+            if (!command.isEmpty()) {
+                out.add(command);
+            }
+        }
+    }
+
+    private List<String> array(ByteBuf in) {
+        in.skipBytes(1);
+        String header = line(in);
+        if (header == null) {
+            return null;
+        }
+        int count = number(header);
+        List<String> args = new ArrayList<>(Math.max(count, 0));
+        for (int i = 0; i < count; i++) {
+            String bulk = line(in);
+            if (bulk == null) {
+                return null;
+            }
+            if (bulk.isEmpty() || bulk.charAt(0) != '$') {
+                throw new DecoderException("Protocol error: expected '$', got '" + bulk + "'");
+            }
+            int length = number(bulk.substring(1));
+            if (in.readableBytes() < length + 2) {
+                return null;
+            }
+            args.add(in.toString(in.readerIndex(), length, StandardCharsets.ISO_8859_1));
+            in.skipBytes(length + 2);
+        }
+        return args;
+    }
+
+    private List<String> inline(ByteBuf in) {
+        String line = line(in);
+        if (line == null) {
+            return null;
+        }
+        List<String> args = new ArrayList<>();
+        for (String arg : line.trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                args.add(arg);
+            }
+        }
+        return args;
+    }
+
+    private static String line(ByteBuf in) {
+        int eol = in.forEachByte(in.readerIndex(), in.readableBytes(), ByteProcessor.FIND_LF);
+        if (eol < 0) {
+            return null;
+        }
+        int end = eol > in.readerIndex() && in.getByte(eol - 1) == '\r' ? eol - 1 : eol;
+        String line = in.toString(in.readerIndex(), end - in.readerIndex(), StandardCharsets.ISO_8859_1);
+        in.readerIndex(eol + 1);
+        return line;
+    }
+
+    private static int number(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new DecoderException("Protocol error: invalid length '" + value + "'");
+        }
+    }
+
+}
@@ -0,0 +1,336 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.DecoderException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * one client connection: the connection scoped commands (MULTI, pub/sub, CLIENT, AUTH...) are handled here,
+ * everything else goes to the {@link StandInStore}.
+ * <p>
+ * replies leave in request order, each delayed by the configured latency and jitter.
+ */
+class StandInConnection extends SimpleChannelInboundHandler<List<String>> {
+
+    StandInConnection(RedisStandIn server, long id) {
+        this.server = server;
+        this.id = id;
+    }
+
+    private final RedisStandIn server;
+    private final long id;
+    private final Set<String> channels = new LinkedHashSet<>();
+    private final Set<String> patterns = new LinkedHashSet<>();
+    private ChannelHandlerContext ctx;
+    private String name;
+    private List<List<String>> transaction;
+    private boolean transactionFailed;
+    private long lastSendAt;
+    private Deque<List<String>> blocked;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        server.connected(this);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        server.disconnected(this);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (cause instanceof DecoderException) {
+            reply(Resp.error("ERR " + cause.getMessage()));
+        }
+        ctx.close();
+    }
+
+    void close() {
+        if (ctx != null) {
+            ctx.close();
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, List<String> args) {
+        if (blocked != null) {
+            // commands wait behind a blocking read, as on redis
+            blocked.add(args);
+            return;
+        }
+        String command = args.get(0).toUpperCase();
+        server.counted(command);
+        if (server.injectFailure()) {
+            reply(Resp.error("ERR stand-in injected failure"));
+            return;
+        }
+        if (transaction != null && !command.equals("EXEC") && !command.equals("DISCARD") && !command.equals("MULTI")) {
+            if (command.equals("WATCH") || isSubscription(command)) {
+                transactionFailed = true;
+                reply(Resp.error("ERR " + command + " inside MULTI is not allowed"));
+                return;
+            }
+            transaction.add(args);
+            reply(new Resp.Simple("QUEUED"));
+            return;
+        }
+        if (subscribed() && !isSubscription(command) && !command.equals("PING") && !command.equals("QUIT")) {
+            reply(Resp.error("ERR only (P)SUBSCRIBE / (P)UNSUBSCRIBE / PING / QUIT allowed in this context"));
+            return;
+        }
+        switch (command) {
+            case "AUTH":
+            case "SELECT":
+            case "WATCH":
+            case "UNWATCH":
+            case "READWRITE":
+                reply(Resp.OK);
+                return;
+            case "QUIT":
+                reply(Resp.OK);
+                ctx.close();
+                return;
+            case "HELLO":
+                reply(Resp.error("ERR unknown command `HELLO`, with args beginning with: "));
+                return;
+            case "CLIENT":
+                reply(client(args));
+                return;
+            case "MULTI":
+                if (transaction != null) {
+                    reply(Resp.error("ERR MULTI calls can not be nested"));
+                    return;
+                }
+                transaction = new ArrayList<>();
+                transactionFailed = false;
+                reply(Resp.OK);
+                return;
+            case "EXEC":
+                exec();
+                return;
+            case "DISCARD":
+                if (transaction == null) {
+                    reply(Resp.error("ERR DISCARD without MULTI"));
+                    return;
+                }
+                transaction = null;
+                reply(Resp.OK);
+                return;
+            case "SUBSCRIBE":
+                subscribe(args, channels, "subscribe");
+                return;
+            case "PSUBSCRIBE":
+                subscribe(args, patterns, "psubscribe");
+                return;
+            case "UNSUBSCRIBE":
+                unsubscribe(args, channels, "unsubscribe");
+                return;
+            case "PUNSUBSCRIBE":
+                unsubscribe(args, patterns, "punsubscribe");
+                return;
+            case "PUBLISH":
+                reply(args.size() == 3 ? (Object) (long) server.publish(args.get(1), args.get(2)) : Resp.arity("PUBLISH"));
+                return;
+            case "XREAD":
+                xread(args);
+                return;
+            case "PING":
+                if (subscribed()) {
+                    reply(List.of("pong", args.size() > 1 ? args.get(1) : ""));
+                    return;
+                }
+                reply(server.store().execute(args));
+                return;
+            default:
+                reply(server.store().execute(args));
+        }
+    }
+
+    private static boolean isSubscription(String command) {
+        return command.equals("SUBSCRIBE") || command.equals("PSUBSCRIBE")
+                || command.equals("UNSUBSCRIBE") || command.equals("PUNSUBSCRIBE");
+    }
+
+    private boolean subscribed() {
+        return !channels.isEmpty() || !patterns.isEmpty();
+    }
+
+    private Object client(List<String> args) {
+        if (args.size() < 2) {
+            return Resp.arity("CLIENT");
+        }
+        switch (args.get(1).toUpperCase()) {
+            case "ID":
+                return id;
+            case "SETNAME":
+                name = args.size() > 2 ? args.get(2) : null;
+                return Resp.OK;
+            case "GETNAME":
+                return name;
+            case "TRACKING":
+                return Resp.error("ERR stand-in does not support client side caching");
+            default:
+                return Resp.error("ERR Unknown subcommand or wrong number of arguments for '" + args.get(1) + "'");
+        }
+    }
+
+    private void exec() {
+        if (transaction == null) {
+            reply(Resp.error("ERR EXEC without MULTI"));
+            return;
+        }
+        List<List<String>> queued = transaction;
+        transaction = null;
+        if (transactionFailed) {
+            reply(Resp.error("EXECABORT Transaction discarded because of previous errors."));
+            return;
+        }
+        List<Object> replies = new ArrayList<>(queued.size());
+        for (List<String> args : queued) {
+            String command = args.get(0).toUpperCase();
+            if (command.equals("PUBLISH") && args.size() == 3) {
+                replies.add((long) server.publish(args.get(1), args.get(2)));
+            } else if (command.equals("CLIENT")) {
+                replies.add(client(args));
+            } else {
+                replies.add(server.store().execute(args));
+            }
+        }
+        reply(replies);
+    }
+
+    /**
+     * XREAD BLOCK polls the store every millisecond until an entry arrives or the timeout passes.
+     */
+    private void xread(List<String> args) {
+        int block = -1;
+        int streams = -1;
+        for (int i = 1; i < args.size(); i++) {
+            if (args.get(i).equalsIgnoreCase("BLOCK")) {
+                block = i;
+            } else if (args.get(i).equalsIgnoreCase("STREAMS")) {
+                streams = i;
+                break;
+            }
+        }
+        if (block < 0 || streams < 0 || block + 1 >= streams) {
+            reply(server.store().execute(args));
+            return;
+        }
+        long timeout;
+        try {
+            timeout = Long.parseLong(args.get(block + 1));
+        } catch (NumberFormatException e) {
+            reply(Resp.notInteger());
+            return;
+        }
+        List<String> read = new ArrayList<>(args.subList(0, block));
+        read.addAll(args.subList(block + 2, args.size()));
+        // "$" is the last id when the read started
+        int keys = (args.size() - streams - 1) / 2;
+        int ids = read.size() - keys;
+        for (int k = 0; k < keys; k++) {
+            if (read.get(ids + k).equals("$")) {
+                read.set(ids + k, server.store().streamLastId(read.get(ids - keys + k)));
+            }
+        }
+        poll(read, timeout == 0L ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    private void poll(List<String> read, long deadline) {
+        Object result = server.store().execute(read);
+        if (result == Resp.NIL_ARRAY && (deadline == Long.MAX_VALUE || System.nanoTime() - deadline < 0) && ctx.channel().isActive()) {
+            if (blocked == null) {
+                blocked = new ArrayDeque<>();
+            }
+            ctx.executor().schedule(() -> poll(read, deadline), 1, TimeUnit.MILLISECONDS);
+            return;
+        }
+        reply(result);
+        Deque<List<String>> waiting = blocked;
+        blocked = null;
+        while (waiting != null && !waiting.isEmpty()) {
+            channelRead0(ctx, waiting.poll());
+            if (blocked != null) {
+                blocked.addAll(waiting);
+                return;
+            }
+        }
+    }
+
+    private void subscribe(List<String> args, Set<String> subscriptions, String kind) {
+        if (args.size() < 2) {
+            reply(Resp.arity(kind));
+            return;
+        }
+        for (int i = 1; i < args.size(); i++) {
+            subscriptions.add(args.get(i));
+            reply(List.of(kind, args.get(i), (long) (channels.size() + patterns.size())));
+        }
+    }
+
+    private void unsubscribe(List<String> args, Set<String> subscriptions, String kind) {
+        List<String> targets = args.size() > 1 ? args.subList(1, args.size()) : new ArrayList<>(subscriptions);
+        if (targets.isEmpty()) {
+            reply(Arrays.asList(kind, null, (long) (channels.size() + patterns.size())));
+            return;
+        }
+        for (String target : targets) {
+            subscriptions.remove(target);
+            reply(List.of(kind, target, (long) (channels.size() + patterns.size())));
+        }
+    }
+
+    /**
+     * @return 1 when the message was pushed to this connection.
+     */
+    int deliver(String channel, String message) {
+        int delivered = 0;
+        if (channels.contains(channel)) {
+            reply(List.of("message", channel, message));
+            delivered++;
+        }
+        for (String pattern : patterns) {
+            if (StandInStore.Glob.compile(pattern).matcher(channel).matches()) {
+                reply(List.of("pmessage", pattern, channel, message));
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    private void reply(Object reply) {
+        long latency = server.latencyNanos();
+        long jitter = server.jitterNanos();
+        if (latency == 0L && jitter == 0L && lastSendAt <= System.nanoTime()) {
+            write(reply);
+            return;
+        }
+        long delay = latency + (jitter > 0L ? ThreadLocalRandom.current().nextLong(jitter + 1L) : 0L);
+        long sendAt = Math.max(System.nanoTime() + delay, lastSendAt);
+        lastSendAt = sendAt;
+        ctx.executor().schedule(() -> write(reply), sendAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private void write(Object reply) {
+        ByteBuf out = ctx.alloc().buffer();
+        Resp.write(out, reply);
+        ctx.writeAndFlush(out);
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import org.pharosnet.vertx.cluster.redis.impl.ReplicaReconciler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * the digest script of the {@link ReplicaReconciler} in java, it loops beyond what the stand-in interprets.
+ */
+final class StandInReplicaScripts {
+
+    private StandInReplicaScripts() {
+    }
+
+    static void register(StandInScripts scripts) {
+        scripts.register(ReplicaReconciler.DIGEST_SCRIPT, StandInReplicaScripts::digest);
+    }
+
+    private static Object digest(List<String> keys, List<String> argv, Function<List<String>, Object> redis) {
+        int buckets = Integer.parseInt(argv.get(0));
+        long budget = Long.parseLong(argv.get(1));
+        int[] digests = new int[buckets];
+        List<Object> longKeys = new ArrayList<>();
+        long read = 0;
+        long done = 0;
+        for (String key : keys) {
+            long length = (Long) redis.apply(List.of("LLEN", key));
+            if (length > budget) {
+                longKeys.add(key);
+            } else {
+                if (read + length > budget) {
+                    break;
+                }
+                read += length;
+                int b = bucket(key) % buckets;
+                Set<Object> seen = new HashSet<>();
+                for (Object value : (List<?>) redis.apply(List.of("LRANGE", key, "0", "-1"))) {
+                    if (seen.add(value)) {
+                        digests[b] ^= sha1Prefix(key + "\0" + value);
+                    }
+                }
+            }
+            done++;
+        }
+        List<Object> result = new ArrayList<>(buckets);
+        for (int digest : digests) {
+            result.add((long) digest);
+        }
+        return List.of(done, result, longKeys);
+    }
+
+    private static int bucket(String key) {
+        int h = 0;
+        for (byte b : key.getBytes(StandardCharsets.ISO_8859_1)) {
+            h = (h * 31 + (b & 0xFF)) % 16777216;
+        }
+        return h;
+    }
+
+    /**
+     * the first 32 bits of the sha1 as lua's bit.bxor sees them, a signed int.
+     */
+    private static int sha1Prefix(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.ISO_8859_1));
+            return ((hash[0] & 0xFF) << 24) | ((hash[1] & 0xFF) << 16) | ((hash[2] & 0xFF) << 8) | (hash[3] & 0xFF);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * a script the stand-in runs in java in place of the lua source it is registered for,
+ * for scripts beyond the straight-line subset the stand-in interprets itself.
+ * <p>
+ * the reply and the results of {@code redis} use the {@link Resp} reply types.
+ */
+@FunctionalInterface
+public interface StandInScript {
+
+    Object eval(List<String> keys, List<String> argv, Function<List<String>, Object> redis);
+
+}
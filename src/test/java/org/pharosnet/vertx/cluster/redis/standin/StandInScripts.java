@@ -0,0 +1,791 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * the script cache of the stand-in and a small lua interpreter.
+ * <p>
+ * the interpreter covers the straight-line scripts found in cluster managers and redisson:
+ * {@code local} assignments, {@code redis.call}/{@code redis.pcall}, {@code if ... then ... else ... end},
+ * {@code return}, KEYS[i], ARGV[i], {@code #KEYS}, {@code unpack(...)}, {@code tonumber}, {@code tostring},
+ * {@code ..}, arithmetic, comparisons and {@code and}/{@code or}/{@code not}.
+ * anything else (loops, functions, tables literals) is answered with an error,
+ * register a {@link StandInScript} for those scripts instead.
+ * <p>
+ * lua values: null is nil, Boolean, Long or Double numbers, String, List as an array table,
+ * {@link Resp.Simple} and {@link Resp.Error} as the status and error tables.
+ */
+class StandInScripts {
+
+    private final Map<String, String> sources = new ConcurrentHashMap<>();
+    private final Map<String, StandInScript> registered = new ConcurrentHashMap<>();
+
+    static String sha1(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.ISO_8859_1));
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String load(String source) {
+        String sha = sha1(source);
+        sources.put(sha, source);
+        return sha;
+    }
+
+    String source(String sha) {
+        return sources.get(sha.toLowerCase());
+    }
+
+    void flush() {
+        sources.clear();
+    }
+
+    void register(String source, StandInScript script) {
+        registered.put(sha1(source), script);
+    }
+
+    Object eval(String source, List<String> keys, List<String> argv, Function<List<String>, Object> redis) {
+        StandInScript script = registered.get(sha1(source));
+        if (script != null) {
+            return script.eval(keys, argv, redis);
+        }
+        try {
+            Interpreter interpreter = new Interpreter(new Lexer(source).tokens(), keys, argv, redis);
+            return toReply(interpreter.run());
+        } catch (LuaError e) {
+            return Resp.error(e.getMessage().startsWith("ERR") ? e.getMessage() : "ERR Error running script: " + e.getMessage());
+        }
+    }
+
+    private static class LuaError extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private LuaError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // conversions, see https://redis.io/commands/eval#conversion-between-lua-and-redis-data-types
+
+    private static Object toLua(Object reply) {
+        if (reply == null || reply == Resp.NIL_ARRAY) {
+            return false;
+        }
+        if (reply instanceof Integer) {
+            return ((Integer) reply).longValue();
+        }
+        if (reply instanceof List) {
+            List<Object> table = new ArrayList<>();
+            for (Object item : (List<?>) reply) {
+                table.add(toLua(item));
+            }
+            return table;
+        }
+        return reply;
+    }
+
+    private static Object toReply(Object value) {
+        if (value instanceof Unpacked) {
+            value = Interpreter.first((Unpacked) value);
+        }
+        if (value == null || Boolean.FALSE.equals(value)) {
+            return null;
+        }
+        if (Boolean.TRUE.equals(value)) {
+            return 1L;
+        }
+        if (value instanceof Double) {
+            return (long) (double) (Double) value;
+        }
+        if (value instanceof List) {
+            List<Object> items = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                if (item == null) {
+                    break;
+                }
+                items.add(toReply(item));
+            }
+            return items;
+        }
+        return value;
+    }
+
+    // lexer
+
+    private enum Kind {
+        NAME, NUMBER, STRING, SYMBOL, EOF
+    }
+
+    private static class Token {
+
+        private Token(Kind kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+
+        private final Kind kind;
+        private final String text;
+
+        private boolean is(String text) {
+            return (kind == Kind.SYMBOL || kind == Kind.NAME) && this.text.equals(text);
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.EOF ? "<eof>" : text;
+        }
+    }
+
+    private static class Lexer {
+
+        private static final String[] SYMBOLS = {"...", "..", "==", "~=", "<=", ">=", "(", ")", "[", "]", "{", "}",
+                ",", ";", "=", "<", ">", "+", "-", "*", "/", "%", "#", ".", ":"};
+
+        private Lexer(String source) {
+            this.source = source;
+        }
+
+        private final String source;
+        private int position;
+
+        private List<Token> tokens() {
+            List<Token> tokens = new ArrayList<>();
+            while (true) {
+                skipSpaceAndComments();
+                if (position >= source.length()) {
+                    tokens.add(new Token(Kind.EOF, ""));
+                    return tokens;
+                }
+                char c = source.charAt(position);
+                if (Character.isLetter(c) || c == '_') {
+                    int start = position;
+                    while (position < source.length() && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_')) {
+                        position++;
+                    }
+                    tokens.add(new Token(Kind.NAME, source.substring(start, position)));
+                } else if (Character.isDigit(c)) {
+                    int start = position;
+                    while (position < source.length() && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                        position++;
+                    }
+                    tokens.add(new Token(Kind.NUMBER, source.substring(start, position)));
+                } else if (c == '\'' || c == '"') {
+                    tokens.add(new Token(Kind.STRING, string(c)));
+                } else if (source.startsWith("[[", position)) {
+                    int end = source.indexOf("]]", position + 2);
+                    if (end < 0) {
+                        throw new LuaError("unfinished long string");
+                    }
+                    tokens.add(new Token(Kind.STRING, source.substring(position + 2, end)));
+                    position = end + 2;
+                } else {
+                    tokens.add(new Token(Kind.SYMBOL, symbol()));
+                }
+            }
+        }
+
+        private void skipSpaceAndComments() {
+            while (position < source.length()) {
+                if (Character.isWhitespace(source.charAt(position))) {
+                    position++;
+                } else if (source.startsWith("--[[", position)) {
+                    int end = source.indexOf("]]", position);
+                    position = end < 0 ? source.length() : end + 2;
+                } else if (source.startsWith("--", position)) {
+                    int end = source.indexOf('\n', position);
+                    position = end < 0 ? source.length() : end + 1;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private String string(char quote) {
+            StringBuilder value = new StringBuilder();
+            position++;
+            while (position < source.length()) {
+                char c = source.charAt(position++);
+                if (c == quote) {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = source.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case '0':
+                        value.append('\0');
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+            throw new LuaError("unfinished string");
+        }
+
+        private String symbol() {
+            for (String symbol : SYMBOLS) {
+                if (source.startsWith(symbol, position)) {
+                    position += symbol.length();
+                    return symbol;
+                }
+            }
+            throw new LuaError("unexpected symbol near '" + source.charAt(position) + "'");
+        }
+    }
+
+    // interpreter, evaluates while parsing, skipped branches are parsed with execution off
+
+    private static class Return extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private Return(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+
+        private final Object value;
+    }
+
+    private static class Interpreter {
+
+        private Interpreter(List<Token> tokens, List<String> keys, List<String> argv, Function<List<String>, Object> redis) {
+            this.tokens = tokens;
+            this.redis = redis;
+            this.globals.put("KEYS", new ArrayList<Object>(keys));
+            this.globals.put("ARGV", new ArrayList<Object>(argv));
+        }
+
+        private final List<Token> tokens;
+        private final Function<List<String>, Object> redis;
+        private final Map<String, Object> globals = new HashMap<>();
+        private int position;
+        private boolean executing = true;
+
+        private Object run() {
+            try {
+                block();
+                expect(Kind.EOF);
+                return null;
+            } catch (Return r) {
+                return r.value;
+            }
+        }
+
+        private Token peek() {
+            return tokens.get(position);
+        }
+
+        private Token next() {
+            return tokens.get(position++);
+        }
+
+        private boolean accept(String text) {
+            if (peek().is(text)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String text) {
+            if (!accept(text)) {
+                throw new LuaError("'" + text + "' expected near '" + peek() + "'");
+            }
+        }
+
+        private void expect(Kind kind) {
+            if (peek().kind != kind) {
+                throw new LuaError(kind.name().toLowerCase() + " expected near '" + peek() + "'");
+            }
+        }
+
+        private boolean blockEnd() {
+            Token token = peek();
+            return token.kind == Kind.EOF || token.is("end") || token.is("else") || token.is("elseif");
+        }
+
+        private void block() {
+            while (!blockEnd()) {
+                statement();
+                accept(";");
+            }
+        }
+
+        private void statement() {
+            if (accept("local")) {
+                expect(Kind.NAME);
+                String name = next().text;
+                Object value = null;
+                if (accept("=")) {
+                    value = expression();
+                }
+                if (executing) {
+                    globals.put(name, value);
+                }
+            } else if (accept("return")) {
+                Object value = blockEnd() || peek().is(";") ? null : expression();
+                if (executing) {
+                    throw new Return(value);
+                }
+            } else if (accept("if")) {
+                conditional();
+            } else if (peek().kind == Kind.NAME && tokens.get(position + 1).is("=")) {
+                String name = next().text;
+                next();
+                Object value = expression();
+                if (executing) {
+                    globals.put(name, value);
+                }
+            } else if (peek().kind == Kind.NAME) {
+                expression();
+            } else {
+                throw new LuaError("unexpected symbol near '" + peek() + "'");
+            }
+        }
+
+        private void conditional() {
+            boolean outer = executing;
+            boolean taken = false;
+            while (true) {
+                Object condition = expression();
+                expect("then");
+                boolean branch = outer && !taken && truthy(condition);
+                executing = branch;
+                block();
+                taken |= branch;
+                if (accept("elseif")) {
+                    executing = outer;
+                    continue;
+                }
+                if (accept("else")) {
+                    executing = outer && !taken;
+                    block();
+                }
+                expect("end");
+                executing = outer;
+                return;
+            }
+        }
+
+        private static boolean truthy(Object value) {
+            return value != null && !Boolean.FALSE.equals(value);
+        }
+
+        private Object expression() {
+            Object left = and();
+            while (accept("or")) {
+                boolean skip = truthy(left);
+                Object right = skipping(skip, this::and);
+                left = skip ? left : right;
+            }
+            return left;
+        }
+
+        private Object and() {
+            Object left = comparison();
+            while (accept("and")) {
+                boolean skip = !truthy(left);
+                Object right = skipping(skip, this::comparison);
+                left = skip ? left : right;
+            }
+            return left;
+        }
+
+        private Object skipping(boolean skip, java.util.function.Supplier<Object> operand) {
+            boolean outer = executing;
+            executing = outer && !skip;
+            try {
+                return operand.get();
+            } finally {
+                executing = outer;
+            }
+        }
+
+        private Object comparison() {
+            Object left = concatenation();
+            while (true) {
+                String operator = peek().text;
+                if (peek().kind != Kind.SYMBOL || !(operator.equals("==") || operator.equals("~=") || operator.equals("<")
+                        || operator.equals(">") || operator.equals("<=") || operator.equals(">="))) {
+                    return left;
+                }
+                next();
+                Object right = concatenation();
+                if (!executing) {
+                    left = false;
+                    continue;
+                }
+                switch (operator) {
+                    case "==":
+                        left = luaEquals(left, right);
+                        break;
+                    case "~=":
+                        left = !luaEquals(left, right);
+                        break;
+                    default: {
+                        int compared = left instanceof String && right instanceof String
+                                ? ((String) left).compareTo((String) right)
+                                : Double.compare(number(left), number(right));
+                        left = operator.equals("<") ? compared < 0 : operator.equals(">") ? compared > 0
+                                : operator.equals("<=") ? compared <= 0 : compared >= 0;
+                    }
+                }
+            }
+        }
+
+        private static boolean luaEquals(Object left, Object right) {
+            if (left instanceof Number && right instanceof Number) {
+                return ((Number) left).doubleValue() == ((Number) right).doubleValue();
+            }
+            return left == null ? right == null : left.equals(right);
+        }
+
+        private Object concatenation() {
+            Object left = additive();
+            if (accept("..")) {
+                Object right = concatenation();
+                if (executing) {
+                    return text(left) + text(right);
+                }
+            }
+            return left;
+        }
+
+        private Object additive() {
+            Object left = multiplicative();
+            while (peek().is("+") || peek().is("-")) {
+                boolean plus = next().is("+");
+                Object right = multiplicative();
+                if (executing) {
+                    left = arithmetic(left, right, plus ? '+' : '-');
+                }
+            }
+            return left;
+        }
+
+        private Object multiplicative() {
+            Object left = unary();
+            while (peek().is("*") || peek().is("/") || peek().is("%")) {
+                char operator = next().text.charAt(0);
+                Object right = unary();
+                if (executing) {
+                    left = arithmetic(left, right, operator);
+                }
+            }
+            return left;
+        }
+
+        private Object unary() {
+            if (accept("not")) {
+                Object value = unary();
+                return !truthy(value);
+            }
+            if (accept("-")) {
+                Object value = unary();
+                return executing ? arithmetic(0L, value, '-') : null;
+            }
+            if (accept("#")) {
+                Object value = unary();
+                if (!executing) {
+                    return null;
+                }
+                if (value instanceof List) {
+                    return (long) ((List<?>) value).size();
+                }
+                if (value instanceof String) {
+                    return (long) ((String) value).length();
+                }
+                throw new LuaError("attempt to get length of a " + typeName(value) + " value");
+            }
+            return postfix(primary());
+        }
+
+        private Object primary() {
+            Token token = next();
+            switch (token.kind) {
+                case NUMBER:
+                    return parseNumber(token.text);
+                case STRING:
+                    return token.text;
+                case NAME:
+                    switch (token.text) {
+                        case "nil":
+                            return null;
+                        case "true":
+                            return true;
+                        case "false":
+                            return false;
+                        case "redis":
+                            expect(".");
+                            expect(Kind.NAME);
+                            return new Builtin("redis." + next().text);
+                        case "unpack":
+                        case "tonumber":
+                        case "tostring":
+                        case "type":
+                            return new Builtin(token.text);
+                        case "table":
+                        case "string":
+                            expect(".");
+                            expect(Kind.NAME);
+                            return new Builtin(token.text + "." + next().text);
+                        default:
+                            return globals.get(token.text);
+                    }
+                case SYMBOL:
+                    if (token.is("(")) {
+                        Object value = expression();
+                        expect(")");
+                        return value;
+                    }
+                    break;
+                default:
+            }
+            throw new LuaError("unexpected symbol near '" + token + "'");
+        }
+
+        private Object postfix(Object value) {
+            while (true) {
+                if (accept("[")) {
+                    Object index = expression();
+                    expect("]");
+                    if (executing) {
+                        if (!(value instanceof List)) {
+                            throw new LuaError("attempt to index a " + typeName(value) + " value");
+                        }
+                        int i = (int) number(index);
+                        List<?> table = (List<?>) value;
+                        value = i >= 1 && i <= table.size() ? table.get(i - 1) : null;
+                    }
+                } else if (peek().is("(")) {
+                    List<Object> arguments = arguments();
+                    if (executing) {
+                        if (!(value instanceof Builtin)) {
+                            throw new LuaError("attempt to call a " + typeName(value) + " value");
+                        }
+                        value = call(((Builtin) value).name, arguments);
+                    } else {
+                        value = null;
+                    }
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private List<Object> arguments() {
+            expect("(");
+            List<Object> arguments = new ArrayList<>();
+            if (accept(")")) {
+                return arguments;
+            }
+            do {
+                boolean spread = peek().is("unpack");
+                Object argument = expression();
+                if (spread && argument instanceof Unpacked) {
+                    arguments.addAll(((Unpacked) argument).values);
+                } else {
+                    arguments.add(argument instanceof Unpacked ? first((Unpacked) argument) : argument);
+                }
+            } while (accept(","));
+            expect(")");
+            return arguments;
+        }
+
+        private static Object first(Unpacked unpacked) {
+            return unpacked.values.isEmpty() ? null : unpacked.values.get(0);
+        }
+
+        private Object call(String name, List<Object> arguments) {
+            switch (name) {
+                case "redis.call":
+                case "redis.pcall": {
+                    List<String> command = new ArrayList<>(arguments.size());
+                    for (Object argument : arguments) {
+                        if (argument instanceof Double && (Double) argument == Math.floor((Double) argument)) {
+                            command.add(String.valueOf(((Double) argument).longValue()));
+                        } else if (argument instanceof String || argument instanceof Number) {
+                            command.add(String.valueOf(argument));
+                        } else {
+                            throw new LuaError("ERR Error running script: Lua redis() command arguments must be strings or integers");
+                        }
+                    }
+                    if (command.isEmpty()) {
+                        throw new LuaError("ERR Error running script: Please specify at least one argument for redis.call()");
+                    }
+                    Object reply = redis.apply(command);
+                    if (reply instanceof Resp.Error && name.equals("redis.call")) {
+                        throw new LuaError(((Resp.Error) reply).message);
+                    }
+                    return toLua(reply);
+                }
+                case "redis.status_reply":
+                    return new Resp.Simple(text(argument(arguments, 0)));
+                case "redis.error_reply":
+                    return new Resp.Error(text(argument(arguments, 0)));
+                case "redis.log":
+                    return null;
+                case "unpack":
+                case "table.unpack": {
+                    Object table = argument(arguments, 0);
+                    if (!(table instanceof List)) {
+                        throw new LuaError("bad argument #1 to 'unpack' (table expected)");
+                    }
+                    return new Unpacked(new ArrayList<>((List<?>) table));
+                }
+                case "tonumber": {
+                    Object value = argument(arguments, 0);
+                    if (value instanceof Number) {
+                        return value;
+                    }
+                    try {
+                        return value instanceof String ? parseNumber(((String) value).trim()) : null;
+                    } catch (LuaError e) {
+                        return null;
+                    }
+                }
+                case "tostring":
+                    return text(argument(arguments, 0));
+                case "type":
+                    return typeName(argument(arguments, 0));
+                case "string.len":
+                    return (long) text(argument(arguments, 0)).length();
+                case "table.getn":
+                    return (long) ((List<?>) argument(arguments, 0)).size();
+                default:
+                    throw new LuaError("attempt to call a nil value (field '" + name + "')");
+            }
+        }
+
+        private static Object argument(List<Object> arguments, int index) {
+            return index < arguments.size() ? arguments.get(index) : null;
+        }
+
+        private static Object parseNumber(String text) {
+            try {
+                if (text.startsWith("0x") || text.startsWith("0X")) {
+                    return Long.parseLong(text.substring(2), 16);
+                }
+                if (text.contains(".") || text.contains("e") || text.contains("E")) {
+                    return Double.parseDouble(text);
+                }
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                throw new LuaError("malformed number near '" + text + "'");
+            }
+        }
+
+        private static double number(Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            if (value instanceof String) {
+                Object parsed = parseNumber(((String) value).trim());
+                return ((Number) parsed).doubleValue();
+            }
+            throw new LuaError("attempt to perform arithmetic on a " + typeName(value) + " value");
+        }
+
+        private static Object arithmetic(Object left, Object right, char operator) {
+            double l = number(left);
+            double r = number(right);
+            double result;
+            switch (operator) {
+                case '+':
+                    result = l + r;
+                    break;
+                case '-':
+                    result = l - r;
+                    break;
+                case '*':
+                    result = l * r;
+                    break;
+                case '/':
+                    return l / r;
+                default:
+                    result = l - Math.floor(l / r) * r;
+            }
+            boolean integral = !(left instanceof Double) && !(right instanceof Double);
+            return integral ? (Object) (long) result : result;
+        }
+
+        private static String text(Object value) {
+            if (value instanceof Double && (Double) value == Math.floor((Double) value)) {
+                return String.valueOf(((Double) value).longValue());
+            }
+            if (value instanceof String || value instanceof Number) {
+                return String.valueOf(value);
+            }
+            throw new LuaError("attempt to concatenate a " + typeName(value) + " value");
+        }
+
+        private static String typeName(Object value) {
+            if (value == null) {
+                return "nil";
+            }
+            if (value instanceof Boolean) {
+                return "boolean";
+            }
+            if (value instanceof Number) {
+                return "number";
+            }
+            if (value instanceof String) {
+                return "string";
+            }
+            if (value instanceof Builtin) {
+                return "function";
+            }
+            return "table";
+        }
+    }
+
+    private static class Builtin {
+
+        private Builtin(String name) {
+            this.name = name;
+        }
+
+        private final String name;
+    }
+
+    /**
+     * the multiple results of unpack, spread when it is the last argument of a call.
+     */
+    private static class Unpacked {
+
+        private Unpacked(List<Object> values) {
+            this.values = values;
+        }
+
+        private final List<Object> values;
+    }
+
+}
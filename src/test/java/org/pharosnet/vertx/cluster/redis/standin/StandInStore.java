@@ -0,0 +1,1208 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * The keyspace of the stand-in and the data commands on it.
+ * <p>
+ * Only touched from the server's single event loop thread, so nothing here is synchronized.
+ * Keys expire lazily when they are read and are skipped by KEYS, SCAN and DBSIZE once expired.
+ */
+class StandInStore {
+
+    private static final int MAX_SCAN_CURSORS = 1024;
+
+    StandInStore(StandInScripts scripts, LongSupplier commands) {
+        this.scripts = scripts;
+        this.commands = commands;
+    }
+
+    private final StandInScripts scripts;
+    private final LongSupplier commands;
+    private final Map<String, Entry> data = new HashMap<>();
+    private final Map<Long, ScanCursor> cursors = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ScanCursor> eldest) {
+            return size() > MAX_SCAN_CURSORS;
+        }
+    };
+    private long cursorSequence;
+
+    private static class Entry {
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+
+        private Object value;
+        private long expireAt;
+    }
+
+    private static class ScanCursor {
+
+        private ScanCursor(Iterator<String> keys) {
+            this.keys = keys;
+        }
+
+        private final Iterator<String> keys;
+    }
+
+    Object execute(List<String> args) {
+        String command = args.get(0).toUpperCase();
+        try {
+            switch (command) {
+                case "PING":
+                    return args.size() > 1 ? args.get(1) : new Resp.Simple("PONG");
+                case "ECHO":
+                    return arity(args, 2) ? args.get(1) : Resp.arity(command);
+                case "DBSIZE":
+                    return (long) liveKeys().size();
+                case "FLUSHALL":
+                case "FLUSHDB":
+                    data.clear();
+                    cursors.clear();
+                    return Resp.OK;
+                case "INFO":
+                    return info();
+                case "MEMORY":
+                    return memory(args);
+                case "TIME": {
+                    long micros = System.currentTimeMillis() * 1000L;
+                    return List.of(String.valueOf(micros / 1000000L), String.valueOf(micros % 1000000L));
+                }
+                // strings
+                case "GET":
+                    return get(args);
+                case "SET":
+                    return set(args);
+                case "SETNX":
+                    return setnx(args);
+                case "GETSET":
+                    return getset(args);
+                case "MGET":
+                    return mget(args);
+                case "MSET":
+                    return mset(args);
+                case "INCR":
+                    return incrBy(args, 1L, 2);
+                case "DECR":
+                    return incrBy(args, -1L, 2);
+                case "INCRBY":
+                    return incrBy(args, 1L, 3);
+                case "DECRBY":
+                    return incrBy(args, -1L, 3);
+                case "STRLEN":
+                    return strlen(args);
+                // keys
+                case "DEL":
+                case "UNLINK":
+                    return del(args);
+                case "EXISTS":
+                    return exists(args);
+                case "TYPE":
+                    return type(args);
+                case "KEYS":
+                    return keys(args);
+                case "SCAN":
+                    return scan(args);
+                case "EXPIRE":
+                    return expire(args, 1000L);
+                case "PEXPIRE":
+                    return expire(args, 1L);
+                case "TTL":
+                    return ttl(args, 1000L);
+                case "PTTL":
+                    return ttl(args, 1L);
+                case "PERSIST":
+                    return persist(args);
+                // lists
+                case "LPUSH":
+                    return push(args, true);
+                case "RPUSH":
+                    return push(args, false);
+                case "LPOP":
+                    return pop(args, true);
+                case "RPOP":
+                    return pop(args, false);
+                case "LLEN":
+                    return llen(args);
+                case "LRANGE":
+                    return lrange(args);
+                case "LINDEX":
+                    return lindex(args);
+                case "LREM":
+                    return lrem(args);
+                // sets
+                case "SADD":
+                    return sadd(args);
+                case "SREM":
+                    return srem(args);
+                case "SMEMBERS":
+                    return smembers(args);
+                case "SCARD":
+                    return scard(args);
+                case "SISMEMBER":
+                    return sismember(args);
+                // hashes
+                case "HSET":
+                case "HMSET":
+                    return hset(args, "HMSET".equals(command));
+                case "HSETNX":
+                    return hsetnx(args);
+                case "HGET":
+                    return hget(args);
+                case "HMGET":
+                    return hmget(args);
+                case "HDEL":
+                    return hdel(args);
+                case "HEXISTS":
+                    return hexists(args);
+                case "HLEN":
+                    return hlen(args);
+                case "HKEYS":
+                    return hkeys(args);
+                case "HVALS":
+                    return hvals(args);
+                case "HGETALL":
+                    return hgetall(args);
+                case "HINCRBY":
+                    return hincrby(args);
+                case "HSCAN":
+                    return hscan(args);
+                // streams
+                case "XADD":
+                    return xadd(args);
+                case "XLEN":
+                    return xlen(args);
+                case "XRANGE":
+                    return xrange(args, false);
+                case "XREVRANGE":
+                    return xrange(args, true);
+                case "XTRIM":
+                    return xtrim(args);
+                case "XREAD":
+                    return xread(args);
+                // scripting
+                case "EVAL":
+                    return eval(args, false);
+                case "EVALSHA":
+                    return eval(args, true);
+                case "SCRIPT":
+                    return script(args);
+                case "CLUSTER":
+                case "READONLY":
+                case "READWRITE":
+                    return Resp.error("ERR This instance has cluster support disabled");
+                case "COMMAND":
+                    return new ArrayList<>();
+                default:
+                    return Resp.error("ERR unknown command `" + args.get(0) + "`, with args beginning with: ");
+            }
+        } catch (WrongTypeException e) {
+            return Resp.wrongType();
+        } catch (NumberFormatException e) {
+            return Resp.notInteger();
+        }
+    }
+
+    private static class WrongTypeException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private WrongTypeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static boolean arity(List<String> args, int count) {
+        return args.size() == count;
+    }
+
+    private Entry entry(String key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.expireAt != 0L && entry.expireAt <= System.currentTimeMillis()) {
+            data.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T value(String key, Class<T> type) {
+        Entry entry = entry(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!type.isInstance(entry.value)) {
+            throw new WrongTypeException();
+        }
+        return (T) entry.value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T valueOrCreate(String key, Class<T> type, T created) {
+        T value = value(key, type);
+        if (value == null) {
+            data.put(key, new Entry(created));
+            return created;
+        }
+        return value;
+    }
+
+    /**
+     * empty collections do not exist in redis.
+     */
+    private void dropIfEmpty(String key, Object collection) {
+        if (collection instanceof Collection && ((Collection<?>) collection).isEmpty()
+                || collection instanceof Map && ((Map<?, ?>) collection).isEmpty()) {
+            data.remove(key);
+        }
+    }
+
+    private List<String> liveKeys() {
+        List<String> keys = new ArrayList<>(data.size());
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> entries = data.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Entry> entry = entries.next();
+            if (entry.getValue().expireAt != 0L && entry.getValue().expireAt <= now) {
+                entries.remove();
+                continue;
+            }
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    // strings
+
+    private Object get(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("GET");
+        }
+        return value(args.get(1), String.class);
+    }
+
+    private Object set(List<String> args) {
+        if (args.size() < 3) {
+            return Resp.arity("SET");
+        }
+        String key = args.get(1);
+        long expireAt = 0L;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase();
+            switch (option) {
+                case "NX":
+                    nx = true;
+                    break;
+                case "XX":
+                    xx = true;
+                    break;
+                case "EX":
+                case "PX":
+                    if (i + 1 >= args.size()) {
+                        return Resp.syntax();
+                    }
+                    long ttl = Long.parseLong(args.get(++i));
+                    if (ttl <= 0) {
+                        return Resp.error("ERR invalid expire time in set");
+                    }
+                    expireAt = System.currentTimeMillis() + ("EX".equals(option) ? ttl * 1000L : ttl);
+                    break;
+                default:
+                    return Resp.syntax();
+            }
+        }
+        if (nx && xx) {
+            return Resp.syntax();
+        }
+        boolean exists = entry(key) != null;
+        if (nx && exists || xx && !exists) {
+            return null;
+        }
+        Entry entry = new Entry(args.get(2));
+        entry.expireAt = expireAt;
+        data.put(key, entry);
+        return Resp.OK;
+    }
+
+    private Object setnx(List<String> args) {
+        if (!arity(args, 3)) {
+            return Resp.arity("SETNX");
+        }
+        if (entry(args.get(1)) != null) {
+            return 0L;
+        }
+        data.put(args.get(1), new Entry(args.get(2)));
+        return 1L;
+    }
+
+    private Object getset(List<String> args) {
+        if (!arity(args, 3)) {
+            return Resp.arity("GETSET");
+        }
+        String previous = value(args.get(1), String.class);
+        data.put(args.get(1), new Entry(args.get(2)));
+        return previous;
+    }
+
+    private Object mget(List<String> args) {
+        if (args.size() < 2) {
+            return Resp.arity("MGET");
+        }
+        List<Object> values = new ArrayList<>(args.size() - 1);
+        for (int i = 1; i < args.size(); i++) {
+            Entry entry = entry(args.get(i));
+            values.add(entry != null && entry.value instanceof String ? entry.value : null);
+        }
+        return values;
+    }
+
+    private Object mset(List<String> args) {
+        if (args.size() < 3 || args.size() % 2 == 0) {
+            return Resp.arity("MSET");
+        }
+        for (int i = 1; i < args.size(); i += 2) {
+            data.put(args.get(i), new Entry(args.get(i + 1)));
+        }
+        return Resp.OK;
+    }
+
+    private Object incrBy(List<String> args, long sign, int arity) {
+        if (!arity(args, arity)) {
+            return Resp.arity(args.get(0));
+        }
+        String key = args.get(1);
+        long by = arity == 3 ? Long.parseLong(args.get(2)) : 1L;
+        Entry entry = entry(key);
+        if (entry != null && !(entry.value instanceof String)) {
+            throw new WrongTypeException();
+        }
+        long current = entry == null ? 0L : Long.parseLong((String) entry.value);
+        long next = current + sign * by;
+        if (entry == null) {
+            data.put(key, new Entry(String.valueOf(next)));
+        } else {
+            entry.value = String.valueOf(next);
+        }
+        return next;
+    }
+
+    private Object strlen(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("STRLEN");
+        }
+        String value = value(args.get(1), String.class);
+        return value == null ? 0L : (long) value.length();
+    }
+
+    // keys
+
+    private Object del(List<String> args) {
+        if (args.size() < 2) {
+            return Resp.arity(args.get(0));
+        }
+        long deleted = 0;
+        for (int i = 1; i < args.size(); i++) {
+            if (entry(args.get(i)) != null) {
+                data.remove(args.get(i));
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private Object exists(List<String> args) {
+        if (args.size() < 2) {
+            return Resp.arity("EXISTS");
+        }
+        long exists = 0;
+        for (int i = 1; i < args.size(); i++) {
+            if (entry(args.get(i)) != null) {
+                exists++;
+            }
+        }
+        return exists;
+    }
+
+    private Object type(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("TYPE");
+        }
+        Entry entry = entry(args.get(1));
+        if (entry == null) {
+            return new Resp.Simple("none");
+        }
+        return new Resp.Simple(typeName(entry.value));
+    }
+
+    private static String typeName(Object value) {
+        if (value instanceof String) {
+            return "string";
+        }
+        if (value instanceof LinkedList) {
+            return "list";
+        }
+        if (value instanceof Set) {
+            return "set";
+        }
+        if (value instanceof StandInStream) {
+            return "stream";
+        }
+        return "hash";
+    }
+
+    private Object keys(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("KEYS");
+        }
+        Pattern pattern = Glob.compile(args.get(1));
+        List<Object> keys = new ArrayList<>();
+        for (String key : liveKeys()) {
+            if (pattern.matcher(key).matches()) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * a cursor walks a snapshot of the keys taken when it started, so every key present for the whole
+     * iteration is returned exactly once, keys deleted meanwhile are skipped.
+     */
+    private Object scan(List<String> args) {
+        if (args.size() < 2) {
+            return Resp.arity("SCAN");
+        }
+        Pattern match = null;
+        int count = 10;
+        String type = null;
+        for (int i = 2; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase();
+            if (i + 1 >= args.size()) {
+                return Resp.syntax();
+            }
+            switch (option) {
+                case "MATCH":
+                    match = Glob.compile(args.get(++i));
+                    break;
+                case "COUNT":
+                    count = Integer.parseInt(args.get(++i));
+                    if (count < 1) {
+                        return Resp.syntax();
+                    }
+                    break;
+                case "TYPE":
+                    type = args.get(++i).toLowerCase();
+                    break;
+                default:
+                    return Resp.syntax();
+            }
+        }
+        long id = Long.parseLong(args.get(1));
+        ScanCursor cursor;
+        if (id == 0L) {
+            cursor = new ScanCursor(liveKeys().iterator());
+            id = ++cursorSequence;
+        } else {
+            cursor = cursors.remove(id);
+            if (cursor == null) {
+                return List.of("0", new ArrayList<>());
+            }
+        }
+        List<Object> page = new ArrayList<>();
+        int visited = 0;
+        while (visited < count && cursor.keys.hasNext()) {
+            String key = cursor.keys.next();
+            visited++;
+            Entry entry = entry(key);
+            if (entry == null) {
+                continue;
+            }
+            if (match != null && !match.matcher(key).matches()) {
+                continue;
+            }
+            if (type != null && !type.equals(typeName(entry.value))) {
+                continue;
+            }
+            page.add(key);
+        }
+        if (!cursor.keys.hasNext()) {
+            return List.of("0", page);
+        }
+        cursors.put(id, cursor);
+        return List.of(String.valueOf(id), page);
+    }
+
+    private Object expire(List<String> args, long unit) {
+        if (!arity(args, 3)) {
+            return Resp.arity(args.get(0));
+        }
+        Entry entry = entry(args.get(1));
+        if (entry == null) {
+            return 0L;
+        }
+        long ttl = Long.parseLong(args.get(2));
+        if (ttl <= 0) {
+            data.remove(args.get(1));
+            return 1L;
+        }
+        entry.expireAt = System.currentTimeMillis() + ttl * unit;
+        return 1L;
+    }
+
+    private Object ttl(List<String> args, long unit) {
+        if (!arity(args, 2)) {
+            return Resp.arity(args.get(0));
+        }
+        Entry entry = entry(args.get(1));
+        if (entry == null) {
+            return -2L;
+        }
+        if (entry.expireAt == 0L) {
+            return -1L;
+        }
+        long left = entry.expireAt - System.currentTimeMillis();
+        return unit == 1L ? left : (left + 999L) / 1000L;
+    }
+
+    private Object persist(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("PERSIST");
+        }
+        Entry entry = entry(args.get(1));
+        if (entry == null || entry.expireAt == 0L) {
+            return 0L;
+        }
+        entry.expireAt = 0L;
+        return 1L;
+    }
+
+    // lists
+
+    @SuppressWarnings("unchecked")
+    private Object push(List<String> args, boolean head) {
+        if (args.size() < 3) {
+            return Resp.arity(args.get(0));
+        }
+        LinkedList<String> list = valueOrCreate(args.get(1), LinkedList.class, new LinkedList<String>());
+        for (int i = 2; i < args.size(); i++) {
+            if (head) {
+                list.addFirst(args.get(i));
+            } else {
+                list.addLast(args.get(i));
+            }
+        }
+        return (long) list.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object pop(List<String> args, boolean head) {
+        if (!arity(args, 2)) {
+            return Resp.arity(args.get(0));
+        }
+        LinkedList<String> list = value(args.get(1), LinkedList.class);
+        if (list == null) {
+            return null;
+        }
+        String value = head ? list.removeFirst() : list.removeLast();
+        dropIfEmpty(args.get(1), list);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object llen(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("LLEN");
+        }
+        LinkedList<String> list = value(args.get(1), LinkedList.class);
+        return list == null ? 0L : (long) list.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object lrange(List<String> args) {
+        if (!arity(args, 4)) {
+            return Resp.arity("LRANGE");
+        }
+        LinkedList<String> list = value(args.get(1), LinkedList.class);
+        List<Object> range = new ArrayList<>();
+        if (list == null) {
+            return range;
+        }
+        int size = list.size();
+        int start = index(Integer.parseInt(args.get(2)), size);
+        int stop = Math.min(index(Integer.parseInt(args.get(3)), size), size - 1);
+        if (start > stop || start >= size) {
+            return range;
+        }
+        ListIterator<String> values = list.listIterator(start);
+        for (int i = start; i <= stop; i++) {
+            range.add(values.next());
+        }
+        return range;
+    }
+
+    private static int index(int index, int size) {
+        return index < 0 ? Math.max(size + index, 0) : index;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object lindex(List<String> args) {
+        if (!arity(args, 3)) {
+            return Resp.arity("LINDEX");
+        }
+        LinkedList<String> list = value(args.get(1), LinkedList.class);
+        if (list == null) {
+            return null;
+        }
+        int index = Integer.parseInt(args.get(2));
+        index = index < 0 ? list.size() + index : index;
+        return index < 0 || index >= list.size() ? null : list.get(index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object lrem(List<String> args) {
+        if (!arity(args, 4)) {
+            return Resp.arity("LREM");
+        }
+        LinkedList<String> list = value(args.get(1), LinkedList.class);
+        if (list == null) {
+            return 0L;
+        }
+        int count = Integer.parseInt(args.get(2));
+        String value = args.get(3);
+        int limit = count == 0 ? Integer.MAX_VALUE : Math.abs(count);
+        long removed = 0;
+        Iterator<String> values = count < 0 ? list.descendingIterator() : list.iterator();
+        while (values.hasNext() && removed < limit) {
+            if (values.next().equals(value)) {
+                values.remove();
+                removed++;
+            }
+        }
+        dropIfEmpty(args.get(1), list);
+        return removed;
+    }
+
+    // sets
+
+    @SuppressWarnings("unchecked")
+    private Object sadd(List<String> args) {
+        if (args.size() < 3) {
+            return Resp.arity("SADD");
+        }
+        Set<String> set = valueOrCreate(args.get(1), Set.class, new LinkedHashSet<String>());
+        long added = 0;
+        for (int i = 2; i < args.size(); i++) {
+            if (set.add(args.get(i))) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object srem(List<String> args) {
+        if (args.size() < 3) {
+            return Resp.arity("SREM");
+        }
+        Set<String> set = value(args.get(1), Set.class);
+        if (set == null) {
+            return 0L;
+        }
+        long removed = 0;
+        for (int i = 2; i < args.size(); i++) {
+            if (set.remove(args.get(i))) {
+                removed++;
+            }
+        }
+        dropIfEmpty(args.get(1), set);
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object smembers(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("SMEMBERS");
+        }
+        Set<String> set = value(args.get(1), Set.class);
+        return set == null ? new ArrayList<>() : new ArrayList<Object>(set);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object scard(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("SCARD");
+        }
+        Set<String> set = value(args.get(1), Set.class);
+        return set == null ? 0L : (long) set.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object sismember(List<String> args) {
+        if (!arity(args, 3)) {
+            return Resp.arity("SISMEMBER");
+        }
+        Set<String> set = value(args.get(1), Set.class);
+        return set != null && set.contains(args.get(2)) ? 1L : 0L;
+    }
+
+    // hashes
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key) {
+        return value(key, LinkedHashMap.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object hset(List<String> args, boolean hmset) {
+        if (args.size() < 4 || args.size() % 2 != 0) {
+            return Resp.arity(args.get(0));
+        }
+        Map<String, String> hash = valueOrCreate(args.get(1), LinkedHashMap.class, new LinkedHashMap<String, String>());
+        long added = 0;
+        for (int i = 2; i < args.size(); i += 2) {
+            if (hash.put(args.get(i), args.get(i + 1)) == null) {
+                added++;
+            }
+        }
+        return hmset ? Resp.OK : added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object hsetnx(List<String> args) {
+        if (!arity(args, 4)) {
+            return Resp.arity("HSETNX");
+        }
+        Map<String, String> hash = valueOrCreate(args.get(1), LinkedHashMap.class, new LinkedHashMap<String, String>());
+        return hash.putIfAbsent(args.get(2), args.get(3)) == null ? 1L : 0L;
+    }
+
+    private Object hget(List<String> args) {
+        if (!arity(args, 3)) {
+            return Resp.arity("HGET");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        return hash == null ? null : hash.get(args.get(2));
+    }
+
+    private Object hmget(List<String> args) {
+        if (args.size() < 3) {
+            return Resp.arity("HMGET");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        List<Object> values = new ArrayList<>();
+        for (int i = 2; i < args.size(); i++) {
+            values.add(hash == null ? null : hash.get(args.get(i)));
+        }
+        return values;
+    }
+
+    private Object hdel(List<String> args) {
+        if (args.size() < 3) {
+            return Resp.arity("HDEL");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        if (hash == null) {
+            return 0L;
+        }
+        long removed = 0;
+        for (int i = 2; i < args.size(); i++) {
+            if (hash.remove(args.get(i)) != null) {
+                removed++;
+            }
+        }
+        dropIfEmpty(args.get(1), hash);
+        return removed;
+    }
+
+    private Object hexists(List<String> args) {
+        if (!arity(args, 3)) {
+            return Resp.arity("HEXISTS");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        return hash != null && hash.containsKey(args.get(2)) ? 1L : 0L;
+    }
+
+    private Object hlen(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("HLEN");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        return hash == null ? 0L : (long) hash.size();
+    }
+
+    private Object hkeys(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("HKEYS");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        return hash == null ? new ArrayList<>() : new ArrayList<Object>(hash.keySet());
+    }
+
+    private Object hvals(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("HVALS");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        return hash == null ? new ArrayList<>() : new ArrayList<Object>(hash.values());
+    }
+
+    private Object hgetall(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("HGETALL");
+        }
+        Map<String, String> hash = hash(args.get(1));
+        List<Object> entries = new ArrayList<>();
+        if (hash != null) {
+            for (Map.Entry<String, String> entry : hash.entrySet()) {
+                entries.add(entry.getKey());
+                entries.add(entry.getValue());
+            }
+        }
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object hincrby(List<String> args) {
+        if (!arity(args, 4)) {
+            return Resp.arity("HINCRBY");
+        }
+        Map<String, String> hash = valueOrCreate(args.get(1), LinkedHashMap.class, new LinkedHashMap<String, String>());
+        long next = Long.parseLong(hash.getOrDefault(args.get(2), "0")) + Long.parseLong(args.get(3));
+        hash.put(args.get(2), String.valueOf(next));
+        return next;
+    }
+
+    /**
+     * the whole hash in one page, as redis does for small hashes.
+     */
+    private Object hscan(List<String> args) {
+        if (args.size() < 3) {
+            return Resp.arity("HSCAN");
+        }
+        Pattern match = null;
+        for (int i = 3; i + 1 < args.size(); i += 2) {
+            if ("MATCH".equalsIgnoreCase(args.get(i))) {
+                match = Glob.compile(args.get(i + 1));
+            }
+        }
+        Map<String, String> hash = hash(args.get(1));
+        List<Object> entries = new ArrayList<>();
+        if (hash != null) {
+            for (Map.Entry<String, String> entry : hash.entrySet()) {
+                if (match == null || match.matcher(entry.getKey()).matches()) {
+                    entries.add(entry.getKey());
+                    entries.add(entry.getValue());
+                }
+            }
+        }
+        return List.of("0", entries);
+    }
+
+    // scripting
+
+    private Object eval(List<String> args, boolean sha) {
+        if (args.size() < 3) {
+            return Resp.arity(args.get(0));
+        }
+        String source = sha ? scripts.source(args.get(1)) : args.get(1);
+        if (source == null) {
+            return Resp.error("NOSCRIPT No matching script. Please use EVAL.");
+        }
+        int numKeys = Integer.parseInt(args.get(2));
+        if (numKeys < 0 || numKeys > args.size() - 3) {
+            return Resp.error("ERR Number of keys can't be greater than number of args");
+        }
+        List<String> keys = args.subList(3, 3 + numKeys);
+        List<String> argv = args.subList(3 + numKeys, args.size());
+        if (!sha) {
+            scripts.load(source);
+        }
+        return scripts.eval(source, keys, argv, this::execute);
+    }
+
+    private Object script(List<String> args) {
+        if (args.size() < 2) {
+            return Resp.arity("SCRIPT");
+        }
+        switch (args.get(1).toUpperCase()) {
+            case "LOAD":
+                return arity(args, 3) ? scripts.load(args.get(2)) : Resp.arity("SCRIPT|LOAD");
+            case "EXISTS": {
+                List<Object> exists = new ArrayList<>();
+                for (int i = 2; i < args.size(); i++) {
+                    exists.add(scripts.source(args.get(i)) == null ? 0L : 1L);
+                }
+                return exists;
+            }
+            case "FLUSH":
+                scripts.flush();
+                return Resp.OK;
+            default:
+                return Resp.error("ERR Unknown subcommand '" + args.get(1) + "'");
+        }
+    }
+
+    // streams
+
+    private Object xadd(List<String> args) {
+        int i = 2;
+        long maxLen = -1L;
+        if (args.size() > i && "MAXLEN".equalsIgnoreCase(args.get(i))) {
+            i++;
+            if (args.size() > i && (args.get(i).equals("~") || args.get(i).equals("="))) {
+                i++;
+            }
+            if (args.size() <= i) {
+                return Resp.syntax();
+            }
+            maxLen = Long.parseLong(args.get(i++));
+        }
+        if (args.size() < i + 3 || (args.size() - i - 1) % 2 != 0) {
+            return Resp.arity("XADD");
+        }
+        StandInStream stream = value(args.get(1), StandInStream.class);
+        boolean created = stream == null;
+        if (created) {
+            stream = new StandInStream();
+        }
+        StandInStream.Id id;
+        try {
+            id = stream.add(args.get(i), args.subList(i + 1, args.size()));
+        } catch (NumberFormatException e) {
+            return Resp.error("ERR Invalid stream ID specified as stream command argument");
+        }
+        if (id == null) {
+            return Resp.error("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+        }
+        if (created) {
+            data.put(args.get(1), new Entry(stream));
+        }
+        if (maxLen >= 0) {
+            stream.trim(maxLen);
+        }
+        return id.toString();
+    }
+
+    private Object xlen(List<String> args) {
+        if (!arity(args, 2)) {
+            return Resp.arity("XLEN");
+        }
+        StandInStream stream = value(args.get(1), StandInStream.class);
+        return stream == null ? 0L : (long) stream.size();
+    }
+
+    private Object xrange(List<String> args, boolean reverse) {
+        if (args.size() != 4 && !(args.size() == 6 && "COUNT".equalsIgnoreCase(args.get(4)))) {
+            return Resp.arity(args.get(0));
+        }
+        long count = args.size() == 6 ? Long.parseLong(args.get(5)) : Long.MAX_VALUE;
+        StandInStream stream = value(args.get(1), StandInStream.class);
+        if (stream == null) {
+            return new ArrayList<>();
+        }
+        String start = reverse ? args.get(3) : args.get(2);
+        String end = reverse ? args.get(2) : args.get(3);
+        try {
+            return stream.range(StandInStream.Id.parse(start, false), StandInStream.Id.parse(end, true), count, reverse);
+        } catch (NumberFormatException e) {
+            return Resp.error("ERR Invalid stream ID specified as stream command argument");
+        }
+    }
+
+    private Object xtrim(List<String> args) {
+        if (args.size() < 4 || !"MAXLEN".equalsIgnoreCase(args.get(2))) {
+            return Resp.syntax();
+        }
+        String max = args.get(3).equals("~") || args.get(3).equals("=") ? (args.size() > 4 ? args.get(4) : null) : args.get(3);
+        if (max == null) {
+            return Resp.syntax();
+        }
+        StandInStream stream = value(args.get(1), StandInStream.class);
+        return stream == null ? 0L : stream.trim(Long.parseLong(max));
+    }
+
+    /**
+     * XREAD without blocking, {@link StandInConnection} waits for BLOCK. "$" reads nothing.
+     */
+    private Object xread(List<String> args) {
+        long count = Long.MAX_VALUE;
+        int i = 1;
+        while (i < args.size() && !"STREAMS".equalsIgnoreCase(args.get(i))) {
+            String option = args.get(i).toUpperCase();
+            if (option.equals("COUNT") && i + 1 < args.size()) {
+                count = Long.parseLong(args.get(i + 1));
+            } else if (!option.equals("BLOCK") || i + 1 >= args.size()) {
+                return Resp.syntax();
+            }
+            i += 2;
+        }
+        int streams = args.size() - i - 1;
+        if (streams <= 0 || streams % 2 != 0) {
+            return Resp.error("ERR Unbalanced XREAD list of streams: for each stream key an ID or '$' must be specified.");
+        }
+        List<Object> result = new ArrayList<>();
+        for (int k = 0; k < streams / 2; k++) {
+            String key = args.get(i + 1 + k);
+            String id = args.get(i + 1 + streams / 2 + k);
+            StandInStream stream = value(key, StandInStream.class);
+            if (stream == null || id.equals("$")) {
+                continue;
+            }
+            List<Object> entries;
+            try {
+                entries = stream.after(StandInStream.Id.parse(id, false), count);
+            } catch (NumberFormatException e) {
+                return Resp.error("ERR Invalid stream ID specified as stream command argument");
+            }
+            if (!entries.isEmpty()) {
+                result.add(List.of(key, entries));
+            }
+        }
+        return result.isEmpty() ? Resp.NIL_ARRAY : result;
+    }
+
+    /**
+     * the id "$" stands for in a blocking XREAD.
+     */
+    String streamLastId(String key) {
+        Entry entry = entry(key);
+        return entry != null && entry.value instanceof StandInStream ? ((StandInStream) entry.value).lastId().toString() : "0-0";
+    }
+
+    // introspection
+
+    private Object info() {
+        List<String> keys = liveKeys();
+        long expires = 0;
+        for (String key : keys) {
+            if (data.get(key).expireAt != 0L) {
+                expires++;
+            }
+        }
+        return "# Server\r\n"
+                + "redis_version:5.0.0\r\n"
+                + "redis_mode:standalone\r\n"
+                + "\r\n# Memory\r\n"
+                + "used_memory:" + usedMemory() + "\r\n"
+                + "\r\n# Stats\r\n"
+                + "total_commands_processed:" + commands.getAsLong() + "\r\n"
+                + "\r\n# Keyspace\r\n"
+                + (keys.isEmpty() ? "" : "db0:keys=" + keys.size() + ",expires=" + expires + ",avg_ttl=0\r\n");
+    }
+
+    private Object memory(List<String> args) {
+        if (args.size() >= 3 && "USAGE".equalsIgnoreCase(args.get(1))) {
+            Entry entry = entry(args.get(2));
+            return entry == null ? null : (Object) footprint(args.get(2), entry);
+        }
+        return Resp.error("ERR unknown subcommand or wrong number of arguments for '" + (args.size() > 1 ? args.get(1) : "") + "'");
+    }
+
+    private long usedMemory() {
+        long used = 0;
+        for (Map.Entry<String, Entry> entry : data.entrySet()) {
+            used += footprint(entry.getKey(), entry.getValue());
+        }
+        return used;
+    }
+
+    /**
+     * a rough estimate shaped after redis' own accounting: a dict entry and object header per key plus
+     * the payload bytes and a per element overhead for collections. good for comparing layouts, not for sizing a box.
+     */
+    @SuppressWarnings("unchecked")
+    private static long footprint(String key, Entry entry) {
+        long bytes = 56 + key.length();
+        Object value = entry.value;
+        if (value instanceof String) {
+            bytes += 16 + ((String) value).length();
+        } else if (value instanceof StandInStream) {
+            bytes += ((StandInStream) value).footprint();
+        } else if (value instanceof Collection) {
+            for (String element : (Collection<String>) value) {
+                bytes += 24 + element.length();
+            }
+        } else {
+            for (Map.Entry<String, String> field : ((Map<String, String>) value).entrySet()) {
+                bytes += 32 + field.getKey().length() + field.getValue().length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * redis glob style patterns: *, ?, [abc], [^a], [a-z] and \ escapes.
+     */
+    static final class Glob {
+
+        private Glob() {
+        }
+
+        static Pattern compile(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                switch (c) {
+                    case '*':
+                        regex.append(".*");
+                        break;
+                    case '?':
+                        regex.append('.');
+                        break;
+                    case '[': {
+                        int end = glob.indexOf(']', i + 1);
+                        if (end < 0) {
+                            regex.append("\\[");
+                            break;
+                        }
+                        String body = glob.substring(i + 1, end);
+                        regex.append('[');
+                        if (body.startsWith("^")) {
+                            regex.append('^');
+                            body = body.substring(1);
+                        }
+                        for (char b : body.toCharArray()) {
+                            if ("\\[]^&".indexOf(b) >= 0) {
+                                regex.append('\\');
+                            }
+                            regex.append(b);
+                        }
+                        regex.append(']');
+                        i = end;
+                        break;
+                    }
+                    case '\\':
+                        if (i + 1 < glob.length()) {
+                            regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                        }
+                        break;
+                    default:
+                        regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    static List<String> list(String... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+}
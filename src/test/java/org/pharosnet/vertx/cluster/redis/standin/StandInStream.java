@@ -0,0 +1,146 @@
+package org.pharosnet.vertx.cluster.redis.standin;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A stream value: entries ordered by their &lt;millis&gt;-&lt;sequence&gt; id, each a flat field/value list.
+ */
+class StandInStream {
+
+    static final class Id implements Comparable<Id> {
+
+        static final Id MIN = new Id(0L, 0L);
+        static final Id MAX = new Id(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        Id(long millis, long sequence) {
+            this.millis = millis;
+            this.sequence = sequence;
+        }
+
+        final long millis;
+        final long sequence;
+
+        /**
+         * "-", "+", "&lt;millis&gt;" or "&lt;millis&gt;-&lt;sequence&gt;", a missing sequence is 0 or, for an end, the max.
+         */
+        static Id parse(String id, boolean end) {
+            if (id.equals("-")) {
+                return MIN;
+            }
+            if (id.equals("+")) {
+                return MAX;
+            }
+            int dash = id.indexOf('-');
+            if (dash < 0) {
+                return new Id(Long.parseLong(id), end ? Long.MAX_VALUE : 0L);
+            }
+            return new Id(Long.parseLong(id.substring(0, dash)), Long.parseLong(id.substring(dash + 1)));
+        }
+
+        Id next() {
+            return sequence == Long.MAX_VALUE ? new Id(millis + 1, 0L) : new Id(millis, sequence + 1);
+        }
+
+        @Override
+        public int compareTo(Id other) {
+            int compared = Long.compareUnsigned(millis, other.millis);
+            return compared != 0 ? compared : Long.compareUnsigned(sequence, other.sequence);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Id && compareTo((Id) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(millis) * 31 + Long.hashCode(sequence);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toUnsignedString(millis) + "-" + Long.toUnsignedString(sequence);
+        }
+    }
+
+    private final TreeMap<Id, List<String>> entries = new TreeMap<>();
+    private Id lastId = Id.MIN;
+
+    Id lastId() {
+        return lastId;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param id "*" for the next id
+     * @return null when the id is not above the last one
+     */
+    Id add(String id, List<String> fields) {
+        Id added;
+        if (id.equals("*")) {
+            long now = System.currentTimeMillis();
+            added = Long.compareUnsigned(now, lastId.millis) > 0 ? new Id(now, 0L) : lastId.next();
+        } else {
+            added = Id.parse(id, false);
+            if (added.compareTo(lastId) <= 0) {
+                return null;
+            }
+        }
+        entries.put(added, new ArrayList<>(fields));
+        lastId = added;
+        return added;
+    }
+
+    /**
+     * drops the oldest entries down to max, returns how many.
+     */
+    long trim(long max) {
+        long trimmed = 0;
+        while (entries.size() > max) {
+            entries.pollFirstEntry();
+            trimmed++;
+        }
+        return trimmed;
+    }
+
+    List<Object> range(Id start, Id end, long count, boolean reverse) {
+        List<Object> range = new ArrayList<>();
+        if (start.compareTo(end) > 0) {
+            return range;
+        }
+        NavigableMap<Id, List<String>> selected = entries.subMap(start, true, end, true);
+        Iterator<Map.Entry<Id, List<String>>> iterator = (reverse ? selected.descendingMap() : selected).entrySet().iterator();
+        while (iterator.hasNext() && range.size() < count) {
+            Map.Entry<Id, List<String>> entry = iterator.next();
+            range.add(List.of(entry.getKey().toString(), entry.getValue()));
+        }
+        return range;
+    }
+
+    /**
+     * entries after the id, as XREAD returns them.
+     */
+    List<Object> after(Id id, long count) {
+        return id.compareTo(lastId) >= 0 ? new ArrayList<>() : range(id.next(), Id.MAX, count, false);
+    }
+
+    long footprint() {
+        long bytes = 0;
+        for (List<String> fields : entries.values()) {
+            bytes += 16;
+            for (String field : fields) {
+                bytes += 8 + field.length();
+            }
+        }
+        return bytes;
+    }
+
+}